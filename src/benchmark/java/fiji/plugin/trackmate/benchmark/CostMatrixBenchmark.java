@@ -0,0 +1,96 @@
+package fiji.plugin.trackmate.benchmark;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanSegmentCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds the cost matrices of the sparse LAP tracker: the frame-to-frame
+ * linking one, and the segment one used for gap-closing, splitting and
+ * merging. The particle tracks are cut in segments by removing one link in seven, so
+ * that the segment matrix has a realistic number of segment ends.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class CostMatrixBenchmark
+{
+
+	private static final double MAX_LINKING_DISTANCE = 10d;
+
+	@Param( { "200", "1000" } )
+	public int nParticles;
+
+	@Param( { "50" } )
+	public int nFrames;
+
+	private List< Spot > sources;
+
+	private List< Spot > targets;
+
+	private SimpleWeightedGraph< Spot, DefaultWeightedEdge > segments;
+
+	private Map< String, Object > segmentSettings;
+
+	@Setup
+	public void setup()
+	{
+		final List< List< Spot > > particles = SyntheticData.particles( nFrames, nParticles, 512, 64, 2.5, 1l );
+		sources = particles.get( 0 );
+		targets = particles.get( 1 );
+
+		segments = SyntheticData.tracks( particles );
+		final Object[] edges = segments.edgeSet().toArray();
+		for ( int i = 0; i < edges.length; i += 7 )
+		{
+			segments.removeEdge( ( DefaultWeightedEdge ) edges[ i ] );
+		}
+
+		segmentSettings = LAPUtils.getDefaultLAPSettingsMap();
+		segmentSettings.put( KEY_ALLOW_TRACK_SPLITTING, true );
+		segmentSettings.put( KEY_ALLOW_TRACK_MERGING, true );
+	}
+
+	@Benchmark
+	public SparseCostMatrix linking()
+	{
+		final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, new SquareDistCostFunction(), MAX_LINKING_DISTANCE * MAX_LINKING_DISTANCE, 1.05, 1d );
+		if ( !creator.checkInput() || !creator.process() ) { throw new IllegalStateException( creator.getErrorMessage() ); }
+		return creator.getResult();
+	}
+
+	@Benchmark
+	public SparseCostMatrix segments()
+	{
+		final JaqamanSegmentCostMatrixCreator creator = new JaqamanSegmentCostMatrixCreator( segments, segmentSettings );
+		creator.setNumThreads( 1 );
+		if ( !creator.checkInput() || !creator.process() ) { throw new IllegalStateException( creator.getErrorMessage() ); }
+		return creator.getResult();
+	}
+}
@@ -0,0 +1,95 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.DogDetector;
+import fiji.plugin.trackmate.detection.LogDetector;
+import fiji.plugin.trackmate.util.TMUtils;
+import ij.ImagePlus;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.meta.ImgPlus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Detects blobs in a single 16-bit 2D or 3D image with the LoG and DoG
+ * detectors, on one thread and on all the available cores.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class DetectorBenchmark
+{
+
+	private static final double RADIUS = 3.;
+
+	/**
+	 * The image size, as <code>WIDTHxHEIGHTxDEPTH</code>.
+	 */
+	@Param( { "1024x1024x1", "256x256x64" } )
+	public String dimensions;
+
+	@Param( { "1", "0" } )
+	public int numThreads;
+
+	private ImgPlus< ? > img;
+
+	private double[] calibration;
+
+	@Setup
+	public void setup()
+	{
+		final String[] tokens = dimensions.split( "x" );
+		final int width = Integer.parseInt( tokens[ 0 ] );
+		final int height = Integer.parseInt( tokens[ 1 ] );
+		final int depth = Integer.parseInt( tokens[ 2 ] );
+		final int nSpots = ( int ) ( ( long ) width * height * depth / 2000 );
+		final List< List< Spot > > particles = SyntheticData.particles( 1, nSpots, width, depth, RADIUS, 1l );
+		final ImagePlus imp = SyntheticData.image( particles, width, height, depth, 1l );
+		img = TMUtils.rawWraps( imp );
+		calibration = TMUtils.getSpatialCalibration( imp );
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	@Benchmark
+	public List< Spot > log()
+	{
+		return detect( new LogDetector( img, img, calibration, RADIUS, 50., true, false ) );
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	@Benchmark
+	public List< Spot > dog()
+	{
+		return detect( new DogDetector( img, img, calibration, RADIUS, 50., true, false ) );
+	}
+
+	private List< Spot > detect( final LogDetector< ? > detector )
+	{
+		if ( numThreads > 0 )
+		{
+			detector.setNumThreads( numThreads );
+		}
+		else
+		{
+			detector.setNumThreads();
+		}
+		if ( !detector.checkInput() || !detector.process() ) { throw new IllegalStateException( detector.getErrorMessage() ); }
+		return detector.getResult();
+	}
+}
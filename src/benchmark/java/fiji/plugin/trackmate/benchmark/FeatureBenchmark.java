@@ -0,0 +1,109 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.EdgeFeatureCalculator;
+import fiji.plugin.trackmate.features.SpotFeatureCalculator;
+import fiji.plugin.trackmate.features.TrackFeatureCalculator;
+import fiji.plugin.trackmate.features.edges.EdgeVelocityAnalyzer;
+import fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory;
+import fiji.plugin.trackmate.features.track.TrackSpeedStatisticsAnalyzer;
+import ij.ImagePlus;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computes spot, edge and track features on a model made of linear tracks,
+ * with the spot features measured in a synthetic 2D movie of these tracks.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class FeatureBenchmark
+{
+
+	private static final int SIZE = 512;
+
+	@Param( { "50" } )
+	public int nFrames;
+
+	@Param( { "200", "1000" } )
+	public int nParticles;
+
+	@Param( { "1", "0" } )
+	public int numThreads;
+
+	private Model model;
+
+	private Settings settings;
+
+	@Setup
+	public void setup()
+	{
+		final List< List< Spot > > particles = SyntheticData.particles( nFrames, nParticles, SIZE, 1, 2.5, 1l );
+		model = new Model();
+		model.setLogger( Logger.VOID_LOGGER );
+		model.setSpots( SyntheticData.spots( particles ), false );
+		model.setTracks( SyntheticData.tracks( particles ), false );
+
+		final ImagePlus imp = SyntheticData.image( particles, SIZE, SIZE, 1, 1l );
+		settings = new Settings();
+		settings.setFrom( imp );
+		settings.addSpotAnalyzerFactory( new SpotIntensityAnalyzerFactory< UnsignedShortType >() );
+		settings.addEdgeAnalyzer( new EdgeVelocityAnalyzer() );
+		settings.addTrackAnalyzer( new TrackSpeedStatisticsAnalyzer() );
+	}
+
+	@Benchmark
+	public long spotFeatures()
+	{
+		return run( new SpotFeatureCalculator( model, settings ) );
+	}
+
+	@Benchmark
+	public long edgeFeatures()
+	{
+		return run( new EdgeFeatureCalculator( model, settings ) );
+	}
+
+	@Benchmark
+	public long trackFeatures()
+	{
+		return run( new TrackFeatureCalculator( model, settings ) );
+	}
+
+	private long run( final MultiThreadedBenchmarkAlgorithm calculator )
+	{
+		if ( numThreads > 0 )
+		{
+			calculator.setNumThreads( numThreads );
+		}
+		else
+		{
+			calculator.setNumThreads();
+		}
+		if ( !calculator.checkInput() || !calculator.process() ) { throw new IllegalStateException( calculator.getErrorMessage() ); }
+		return calculator.getProcessingTime();
+	}
+}
@@ -0,0 +1,68 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.tracking.sparselap.linker.AuctionLAP;
+import fiji.plugin.trackmate.tracking.sparselap.linker.LAPJV;
+import fiji.plugin.trackmate.tracking.sparselap.linker.LAPSolver;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Solves a random sparse linear assignment problem with the available
+ * solvers.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class LAPBenchmark
+{
+
+	@Param( { "100", "1000", "5000" } )
+	public int size;
+
+	@Param( { "0.01", "0.1" } )
+	public double density;
+
+	private SparseCostMatrix cm;
+
+	@Setup
+	public void setup()
+	{
+		cm = SyntheticData.costMatrix( size, density, 1l );
+	}
+
+	@Benchmark
+	public int[] lapjv()
+	{
+		return solve( new LAPJV( cm ) );
+	}
+
+	@Benchmark
+	public int[] auction()
+	{
+		final AuctionLAP solver = new AuctionLAP( cm );
+		solver.setNumThreads( 1 );
+		return solve( solver );
+	}
+
+	private static int[] solve( final LAPSolver solver )
+	{
+		if ( !solver.checkInput() || !solver.process() ) { throw new IllegalStateException( solver.getErrorMessage() ); }
+		return solver.getResult();
+	}
+}
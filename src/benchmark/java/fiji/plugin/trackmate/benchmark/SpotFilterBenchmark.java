@@ -0,0 +1,63 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.FeatureFilter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filters a large spot collection on the spot quality, as done each time the
+ * threshold slider of a filter panel moves.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class SpotFilterBenchmark
+{
+
+	@Param( { "100000", "1000000" } )
+	public int nSpots;
+
+	@Param( { "100" } )
+	public int nFrames;
+
+	/**
+	 * The fraction of spots the filter keeps.
+	 */
+	@Param( { "0.1", "0.9" } )
+	public double fraction;
+
+	private SpotCollection spots;
+
+	private FeatureFilter filter;
+
+	@Setup
+	public void setup()
+	{
+		spots = SyntheticData.spots( SyntheticData.particles( nFrames, nSpots / nFrames, 512, 1, 2.5, 1l ) );
+		filter = new FeatureFilter( Spot.QUALITY, 100. * ( 1. - fraction ), true );
+	}
+
+	@Benchmark
+	public int filter()
+	{
+		spots.filter( filter );
+		return spots.getNSpots( true );
+	}
+}
@@ -0,0 +1,292 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.ResizableDoubleArray;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.SparseCostMatrixBuilder;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ShortProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+/**
+ * Generators for the data the benchmarks run on. Everything is derived from a
+ * seed, so that two runs of the same benchmark, possibly on two releases,
+ * process exactly the same input.
+ */
+public class SyntheticData
+{
+
+	private SyntheticData()
+	{}
+
+	/**
+	 * Generates a random square sparse cost matrix. The diagonal is always
+	 * present so that the problem has a solution, and each other element is
+	 * present with the specified probability.
+	 *
+	 * @param n
+	 *            the number of rows and columns.
+	 * @param density
+	 *            the probability that an off-diagonal element is present.
+	 * @param seed
+	 *            the random seed.
+	 * @return a new sparse cost matrix.
+	 */
+	public static SparseCostMatrix costMatrix( final int n, final double density, final long seed )
+	{
+		final Random ran = new Random( seed );
+		final int capacity = ( int ) Math.min( Integer.MAX_VALUE - 8, n + density * n * n * 1.1 );
+		int[] rows = new int[ capacity ];
+		int[] cols = new int[ capacity ];
+		final ResizableDoubleArray costs = new ResizableDoubleArray( capacity );
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int j = 0; j < n; j++ )
+			{
+				if ( i != j && ran.nextDouble() >= density )
+				{
+					continue;
+				}
+				if ( costs.size == rows.length )
+				{
+					rows = grow( rows );
+					cols = grow( cols );
+				}
+				rows[ costs.size ] = i;
+				cols[ costs.size ] = j;
+				costs.add( 1. + 99. * ran.nextDouble() );
+			}
+		}
+		return SparseCostMatrixBuilder.build( rows, cols, costs, n, n );
+	}
+
+	/**
+	 * Generates particles moving by a random walk in a 3D box. Each particle is
+	 * present in all frames. Spots get a {@link Spot#QUALITY} uniformly
+	 * distributed between 0 and 100, and are all visible.
+	 *
+	 * @param nFrames
+	 *            the number of frames.
+	 * @param nParticles
+	 *            the number of spots in each frame.
+	 * @param size
+	 *            the size of the box, in pixels, along X and Y. Use
+	 *            <code>1</code> for 2D.
+	 * @param depth
+	 *            the size of the box, in pixels, along Z.
+	 * @param radius
+	 *            the radius of all spots.
+	 * @param seed
+	 *            the random seed.
+	 * @return a new list, one list of spots per frame, with the spot of a
+	 *         particle at the same index in each frame.
+	 */
+	public static List< List< Spot > > particles( final int nFrames, final int nParticles, final double size, final double depth, final double radius, final long seed )
+	{
+		final Random ran = new Random( seed );
+		final double step = radius / 2;
+		final double[][] pos = new double[ nParticles ][ 3 ];
+		for ( int i = 0; i < nParticles; i++ )
+		{
+			pos[ i ][ 0 ] = size * ran.nextDouble();
+			pos[ i ][ 1 ] = size * ran.nextDouble();
+			pos[ i ][ 2 ] = depth * ran.nextDouble();
+		}
+
+		final List< List< Spot > > frames = new ArrayList< List< Spot > >( nFrames );
+		for ( int t = 0; t < nFrames; t++ )
+		{
+			final List< Spot > spots = new ArrayList< Spot >( nParticles );
+			for ( int i = 0; i < nParticles; i++ )
+			{
+				if ( t > 0 )
+				{
+					pos[ i ][ 0 ] = reflect( pos[ i ][ 0 ] + step * ran.nextGaussian(), size );
+					pos[ i ][ 1 ] = reflect( pos[ i ][ 1 ] + step * ran.nextGaussian(), size );
+					if ( depth > 1 )
+					{
+						pos[ i ][ 2 ] = reflect( pos[ i ][ 2 ] + step * ran.nextGaussian(), depth );
+					}
+				}
+				final Spot spot = new Spot( pos[ i ][ 0 ], pos[ i ][ 1 ], pos[ i ][ 2 ], radius, 100. * ran.nextDouble() );
+				spot.putFeature( Spot.POSITION_T, Double.valueOf( t ) );
+				spots.add( spot );
+			}
+			frames.add( spots );
+		}
+		return frames;
+	}
+
+	/**
+	 * Stores the specified particles in a new spot collection, all visible.
+	 *
+	 * @param particles
+	 *            the particles, as returned by
+	 *            {@link #particles(int, int, double, double, double, long)}.
+	 * @return a new spot collection.
+	 */
+	public static SpotCollection spots( final List< List< Spot > > particles )
+	{
+		final SpotCollection spots = new SpotCollection();
+		for ( int t = 0; t < particles.size(); t++ )
+		{
+			spots.put( t, particles.get( t ) );
+		}
+		spots.setVisible( true );
+		return spots;
+	}
+
+	/**
+	 * Links each particle to itself in the next frame.
+	 *
+	 * @param particles
+	 *            the particles, as returned by
+	 *            {@link #particles(int, int, double, double, double, long)}.
+	 * @return a new graph, made of one linear track per particle.
+	 */
+	public static SimpleWeightedGraph< Spot, DefaultWeightedEdge > tracks( final List< List< Spot > > particles )
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		List< Spot > previous = null;
+		for ( final List< Spot > spots : particles )
+		{
+			for ( int i = 0; i < spots.size(); i++ )
+			{
+				final Spot target = spots.get( i );
+				graph.addVertex( target );
+				if ( null != previous )
+				{
+					final Spot source = previous.get( i );
+					final DefaultWeightedEdge edge = graph.addEdge( source, target );
+					graph.setEdgeWeight( edge, source.squareDistanceTo( target ) );
+				}
+			}
+			previous = spots;
+		}
+		return graph;
+	}
+
+	/**
+	 * Generates a model with one linear track per particle.
+	 *
+	 * @param nFrames
+	 *            the number of frames.
+	 * @param nParticles
+	 *            the number of spots in each frame.
+	 * @param seed
+	 *            the random seed.
+	 * @return a new model.
+	 */
+	public static Model model( final int nFrames, final int nParticles, final long seed )
+	{
+		final List< List< Spot > > particles = particles( nFrames, nParticles, 512, 64, 2.5, seed );
+		final Model model = new Model();
+		model.setPhysicalUnits( "pixel", "frame" );
+		model.setSpots( spots( particles ), false );
+		model.setTracks( tracks( particles ), false );
+		return model;
+	}
+
+	/**
+	 * Paints the specified particles as Gaussian blobs over a noisy background
+	 * in a new 16-bit image. The spot radius sets the blob extent.
+	 *
+	 * @param particles
+	 *            the particles, as returned by
+	 *            {@link #particles(int, int, double, double, double, long)}.
+	 * @param width
+	 *            the image width.
+	 * @param height
+	 *            the image height.
+	 * @param depth
+	 *            the number of Z slices.
+	 * @param seed
+	 *            the random seed of the background noise.
+	 * @return a new hyperstack, with one time-point per frame of particles.
+	 */
+	public static ImagePlus image( final List< List< Spot > > particles, final int width, final int height, final int depth, final long seed )
+	{
+		final Random ran = new Random( seed );
+		final int nFrames = particles.size();
+		final ImageStack stack = new ImageStack( width, height );
+		for ( int t = 0; t < nFrames; t++ )
+		{
+			final short[][] planes = new short[ depth ][ width * height ];
+			for ( final short[] plane : planes )
+			{
+				for ( int i = 0; i < plane.length; i++ )
+				{
+					plane[ i ] = ( short ) ( 100 + 10 * ran.nextGaussian() );
+				}
+			}
+
+			for ( final Spot spot : particles.get( t ) )
+			{
+				paint( planes, width, height, spot );
+			}
+
+			for ( final short[] plane : planes )
+			{
+				stack.addSlice( new ShortProcessor( width, height, plane, null ) );
+			}
+		}
+
+		final ImagePlus imp = new ImagePlus( "Synthetic", stack );
+		imp.setDimensions( 1, depth, nFrames );
+		imp.setOpenAsHyperStack( true );
+		return imp;
+	}
+
+	private static void paint( final short[][] planes, final int width, final int height, final Spot spot )
+	{
+		final double x = spot.getFeature( Spot.POSITION_X );
+		final double y = spot.getFeature( Spot.POSITION_Y );
+		final double z = planes.length > 1 ? spot.getFeature( Spot.POSITION_Z ) : 0;
+		final double sigma = spot.getFeature( Spot.RADIUS ) / Math.sqrt( planes.length > 1 ? 3 : 2 );
+		final double amplitude = 500 + 10 * spot.getFeature( Spot.QUALITY );
+		final int extent = ( int ) Math.ceil( 3 * sigma );
+
+		final int zmin = Math.max( 0, ( int ) z - extent );
+		final int zmax = Math.min( planes.length - 1, ( int ) z + extent );
+		final int ymin = Math.max( 0, ( int ) y - extent );
+		final int ymax = Math.min( height - 1, ( int ) y + extent );
+		final int xmin = Math.max( 0, ( int ) x - extent );
+		final int xmax = Math.min( width - 1, ( int ) x + extent );
+		for ( int iz = zmin; iz <= zmax; iz++ )
+		{
+			final short[] plane = planes[ iz ];
+			for ( int iy = ymin; iy <= ymax; iy++ )
+			{
+				for ( int ix = xmin; ix <= xmax; ix++ )
+				{
+					final double d2 = ( ix - x ) * ( ix - x ) + ( iy - y ) * ( iy - y ) + ( iz - z ) * ( iz - z );
+					final int val = ( plane[ iy * width + ix ] & 0xffff ) + ( int ) ( amplitude * Math.exp( -d2 / ( 2 * sigma * sigma ) ) );
+					plane[ iy * width + ix ] = ( short ) Math.min( val, 0xffff );
+				}
+			}
+		}
+	}
+
+	private static double reflect( final double val, final double max )
+	{
+		if ( val < 0 ) { return -val; }
+		if ( val > max ) { return 2 * max - val; }
+		return val;
+	}
+
+	private static int[] grow( final int[] arr )
+	{
+		final int[] copy = new int[ arr.length + ( arr.length >> 1 ) + 1 ];
+		System.arraycopy( arr, 0, copy, 0, arr.length );
+		return copy;
+	}
+}
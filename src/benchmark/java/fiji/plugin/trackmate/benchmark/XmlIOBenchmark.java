@@ -0,0 +1,105 @@
+package fiji.plugin.trackmate.benchmark;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.io.TmXmlStreamReader;
+import fiji.plugin.trackmate.io.TmXmlStreamWriter;
+import fiji.plugin.trackmate.io.TmXmlWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saves and loads a model made of linear tracks to and from a TrackMate XML
+ * file, with the JDOM and the streaming implementations.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class XmlIOBenchmark
+{
+
+	@Param( { "100" } )
+	public int nFrames;
+
+	@Param( { "100", "1000" } )
+	public int nParticles;
+
+	private Model model;
+
+	private File source;
+
+	private File target;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		model = SyntheticData.model( nFrames, nParticles, 1l );
+		source = File.createTempFile( "TrackMateBenchmark", ".xml" );
+		target = File.createTempFile( "TrackMateBenchmark", ".xml" );
+		final TmXmlWriter writer = new TmXmlWriter( source );
+		writer.appendModel( model );
+		writer.writeToFile();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		source.delete();
+		target.delete();
+	}
+
+	@Benchmark
+	public long write() throws IOException
+	{
+		final TmXmlWriter writer = new TmXmlWriter( target );
+		writer.appendModel( model );
+		writer.writeToFile();
+		return target.length();
+	}
+
+	@Benchmark
+	public long streamWrite() throws IOException
+	{
+		final TmXmlWriter writer = new TmXmlStreamWriter( target );
+		writer.appendModel( model );
+		writer.writeToFile();
+		return target.length();
+	}
+
+	@Benchmark
+	public Model read()
+	{
+		return check( new TmXmlReader( source ) );
+	}
+
+	@Benchmark
+	public Model streamRead()
+	{
+		return check( new TmXmlStreamReader( source ) );
+	}
+
+	private static Model check( final TmXmlReader reader )
+	{
+		final Model model = reader.getModel();
+		if ( !reader.isReadingOk() ) { throw new IllegalStateException( reader.getErrorMessage() ); }
+		return model;
+	}
+}
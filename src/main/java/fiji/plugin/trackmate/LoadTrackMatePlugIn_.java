@@ -8,7 +8,9 @@ import fiji.plugin.trackmate.gui.TrackMateGUIController;
 import fiji.plugin.trackmate.gui.descriptors.ConfigureViewsDescriptor;
 import fiji.plugin.trackmate.gui.descriptors.SomeDialogDescriptor;
 import fiji.plugin.trackmate.io.IOUtils;
+import fiji.plugin.trackmate.io.TmBinaryReader;
 import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.io.TmXmlStreamReader;
 import fiji.plugin.trackmate.io.TmXmlReader_v12;
 import fiji.plugin.trackmate.io.TmXmlReader_v20;
 import fiji.plugin.trackmate.providers.DetectorProvider;
@@ -27,8 +29,11 @@ import ij.IJ;
 import ij.ImageJ;
 import ij.plugin.PlugIn;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.Map;
 
@@ -36,11 +41,10 @@ import javax.swing.JFrame;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.WindowConstants;
-
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 public class LoadTrackMatePlugIn_ extends SomeDialogDescriptor implements PlugIn
 {
@@ -274,14 +278,35 @@ public class LoadTrackMatePlugIn_ extends SomeDialogDescriptor implements PlugIn
 	 */
 	protected boolean checkIsICY( final File file )
 	{
-		final SAXBuilder sb = new SAXBuilder();
-		Element r = null;
+		/*
+		 * Only peek at the root element and its first children, so that large
+		 * TrackMate files are not parsed twice.
+		 */
+		InputStream is = null;
+		XMLStreamReader reader = null;
 		try
 		{
-			final Document document = sb.build( file );
-			r = document.getRootElement();
+			is = new BufferedInputStream( new FileInputStream( file ) );
+			reader = XMLInputFactory.newInstance().createXMLStreamReader( is );
+			reader.nextTag();
+			if ( !reader.getLocalName().equals( "root" ) ) { return false; }
+			int depth = 1;
+			while ( depth > 0 && reader.hasNext() )
+			{
+				final int event = reader.next();
+				if ( event == XMLStreamConstants.START_ELEMENT )
+				{
+					if ( depth == 1 && reader.getLocalName().equals( "trackfile" ) ) { return true; }
+					depth++;
+				}
+				else if ( event == XMLStreamConstants.END_ELEMENT )
+				{
+					depth--;
+				}
+			}
+			return false;
 		}
-		catch ( final JDOMException e )
+		catch ( final XMLStreamException e )
 		{
 			return false;
 		}
@@ -289,8 +314,22 @@ public class LoadTrackMatePlugIn_ extends SomeDialogDescriptor implements PlugIn
 		{
 			return false;
 		}
-		if ( !r.getName().equals( "root" ) || r.getChild( "trackfile" ) == null ) { return false; }
-		return true;
+		finally
+		{
+			try
+			{
+				if ( null != reader )
+				{
+					reader.close();
+				}
+				if ( null != is )
+				{
+					is.close();
+				}
+			}
+			catch ( final Exception e )
+			{}
+		}
 	}
 
 	@Override
@@ -344,7 +383,8 @@ public class LoadTrackMatePlugIn_ extends SomeDialogDescriptor implements PlugIn
 	 */
 	protected TmXmlReader createReader( final File file )
 	{
-		return new TmXmlReader( file );
+		if ( TmBinaryReader.isBinaryFile( file ) ) { return new TmBinaryReader( file ); }
+		return new TmXmlStreamReader( file );
 	}
 
 	/**
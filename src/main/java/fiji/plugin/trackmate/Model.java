@@ -593,6 +593,8 @@ public class Model
 	{
 		spotsUpdated.add( spotToUpdate ); // Enlist for feature update when
 											// transaction is marked as finished
+		spots.invalidateFeatureIndex();
+		invalidateGridOf( spotToUpdate );
 		final Set< DefaultWeightedEdge > touchingEdges = trackModel.edgesOf( spotToUpdate );
 		if ( null != touchingEdges )
 		{
@@ -857,6 +859,15 @@ public class Model
 		}
 		finally
 		{
+			if ( nSpotsToSignal > 0 )
+			{
+				// Listeners may have recomputed spot features.
+				spots.invalidateFeatureIndex();
+				for ( final Spot spot : spotsUpdated )
+				{
+					invalidateGridOf( spot );
+				}
+			}
 			spotsAdded.clear();
 			spotsRemoved.clear();
 			spotsMoved.clear();
@@ -870,4 +881,17 @@ public class Model
 
 	}
 
+	/**
+	 * Discards the spatial index of the frame of the specified spot, after it
+	 * has been edited. The spatial indices of the other frames are kept.
+	 */
+	private void invalidateGridOf( final Spot spot )
+	{
+		final Double frame = spot.getFeature( Spot.FRAME );
+		if ( null != frame )
+		{
+			spots.invalidateGrid( frame.intValue() );
+		}
+	}
+
 }
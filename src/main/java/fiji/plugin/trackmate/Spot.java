@@ -3,11 +3,17 @@ package fiji.plugin.trackmate;
 import static fiji.plugin.trackmate.SpotCollection.VISIBLITY;
 import fiji.plugin.trackmate.util.AlphanumComparator;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -30,6 +36,11 @@ import net.imglib2.util.Util;
  * Each spot received at creation a unique ID (as an <code>int</code>), used
  * later for saving, retrieving and loading. Interfering with this value will
  * predictively cause undesired behavior.
+ * <p>
+ * Feature values are not stored in a map, but in a primitive array. Each
+ * feature name is given a slot the first time it is used, and this slot is
+ * shared by all spots. The position features always occupy the first slots,
+ * so that distance computations do not need any lookup.
  *
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> 2010, 2013
  *
@@ -43,8 +54,40 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 
 	public static AtomicInteger IDcounter = new AtomicInteger( -1 );
 
-	/** Store the individual features, and their values. */
-	private final ConcurrentHashMap< String, Double > features = new ConcurrentHashMap< String, Double >();
+	/** The slot of each feature name, shared by all spots. */
+	private static final ConcurrentHashMap< String, Integer > FEATURE_SLOTS = new ConcurrentHashMap< String, Integer >();
+
+	/** The feature names, indexed by slot. */
+	private static volatile String[] slotNames = new String[ 0 ];
+
+	/**
+	 * Marks a feature that has not been set. It is a NaN with a non-standard
+	 * payload, and values stored with the same bits are replaced by the
+	 * canonical NaN.
+	 */
+	private static final long MISSING = 0x7ff8000000000001l;
+
+	private static final int X_SLOT = registerSlot( Spot.POSITION_X );
+
+	private static final int Y_SLOT = registerSlot( Spot.POSITION_Y );
+
+	private static final int Z_SLOT = registerSlot( Spot.POSITION_Z );
+
+	static
+	{
+		registerSlot( Spot.RADIUS );
+		registerSlot( Spot.QUALITY );
+		registerSlot( Spot.POSITION_T );
+		registerSlot( Spot.FRAME );
+		registerSlot( SpotCollection.VISIBLITY );
+	}
+
+	/**
+	 * Store the feature values, as raw <code>long</code> bits, indexed by
+	 * feature slot. The array is replaced when it must grow, and re-assigned
+	 * after each write so that values are published to other threads.
+	 */
+	private volatile long[] values = newValues( slotNames.length );
 
 	/** A user-supplied name for this spot. */
 	private String name;
@@ -263,7 +306,8 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 		s.append( "Position: " + Util.printCoordinates( coordinates ) + "\n" );
 
 		// Feature list
-		if ( null == features || features.size() < 1 )
+		final Map< String, Double > features = getFeatures();
+		if ( features.size() < 1 )
 			s.append( "No features calculated\n" );
 		else
 		{
@@ -288,14 +332,18 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 
 	/**
-	 * Exposes the storage map of features for this spot. Altering the returned
-	 * map will alter the spot.
+	 * Exposes the features of this spot as a map. The returned map is a view
+	 * over the feature storage: altering it will alter the spot.
+	 * <p>
+	 * Features are iterated in the order their names were first used by any
+	 * spot: the position, radius, quality, time, frame and visibility features
+	 * come first. This differs from the hash order of earlier versions.
 	 *
 	 * @return a map of {@link String}s to {@link Double}s.
 	 */
 	public Map< String, Double > getFeatures()
 	{
-		return features;
+		return new FeatureMap();
 	}
 
 	/**
@@ -308,7 +356,10 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public final Double getFeature( final String feature )
 	{
-		return features.get( feature );
+		final Integer slot = FEATURE_SLOTS.get( feature );
+		if ( null == slot )
+			return null;
+		return getSlot( slot.intValue() );
 	}
 
 	/**
@@ -322,7 +373,8 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public final void putFeature( final String feature, final Double value )
 	{
-		features.put( feature, value );
+		final Integer slot = FEATURE_SLOTS.get( feature );
+		setSlot( null == slot ? registerSlot( feature ) : slot.intValue(), Double.doubleToRawLongBits( value.doubleValue() ) );
 	}
 
 	/**
@@ -340,7 +392,7 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public double diffTo( final Spot s, final String feature )
 	{
-		final double f1 = features.get( feature ).doubleValue();
+		final double f1 = getFeature( feature ).doubleValue();
 		final double f2 = s.getFeature( feature ).doubleValue();
 		return f1 - f2;
 	}
@@ -367,7 +419,7 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public double normalizeDiffTo( final Spot s, final String feature )
 	{
-		final double a = features.get( feature ).doubleValue();
+		final double a = getFeature( feature ).doubleValue();
 		final double b = s.getFeature( feature ).doubleValue();
 		if ( a == -b )
 			return 0d;
@@ -384,16 +436,196 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public double squareDistanceTo( final Spot s )
 	{
-		double sumSquared = 0d;
-		double thisVal, otherVal;
+		final double dx = s.getDoublePosition( 0 ) - getDoublePosition( 0 );
+		final double dy = s.getDoublePosition( 1 ) - getDoublePosition( 1 );
+		final double dz = s.getDoublePosition( 2 ) - getDoublePosition( 2 );
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/*
+	 * FEATURE STORAGE
+	 */
+
+	/**
+	 * Returns the slot of the specified feature, creating it if needed.
+	 */
+	private static synchronized int registerSlot( final String feature )
+	{
+		final Integer slot = FEATURE_SLOTS.get( feature );
+		if ( null != slot )
+			return slot.intValue();
+
+		final int newSlot = slotNames.length;
+		final String[] names = Arrays.copyOf( slotNames, newSlot + 1 );
+		names[ newSlot ] = feature;
+		// Publish the name before the slot, so that any known slot has a name.
+		slotNames = names;
+		FEATURE_SLOTS.put( feature, Integer.valueOf( newSlot ) );
+		return newSlot;
+	}
+
+	private static long[] newValues( final int length )
+	{
+		final long[] array = new long[ length ];
+		Arrays.fill( array, MISSING );
+		return array;
+	}
+
+	private Double getSlot( final int slot )
+	{
+		final long[] v = values;
+		if ( slot >= v.length || v[ slot ] == MISSING )
+			return null;
+		return Double.valueOf( Double.longBitsToDouble( v[ slot ] ) );
+	}
+
+	private synchronized void setSlot( final int slot, final long bits )
+	{
+		long[] v = values;
+		if ( slot >= v.length )
+		{
+			final long[] grown = newValues( Math.max( slot + 1, slotNames.length ) );
+			System.arraycopy( v, 0, grown, 0, v.length );
+			v = grown;
+		}
+		v[ slot ] = ( bits == MISSING ) ? Double.doubleToLongBits( Double.NaN ) : bits;
+		values = v;
+	}
+
+	private synchronized void clearSlot( final int slot )
+	{
+		final long[] v = values;
+		if ( slot < v.length )
+		{
+			v[ slot ] = MISSING;
+			values = v;
+		}
+	}
+
+	/**
+	 * A live {@link Map} view over the features of this spot.
+	 */
+	private final class FeatureMap extends AbstractMap< String, Double >
+	{
+
+		@Override
+		public Double get( final Object key )
+		{
+			if ( !( key instanceof String ) )
+				return null;
+			return getFeature( ( String ) key );
+		}
+
+		@Override
+		public boolean containsKey( final Object key )
+		{
+			return null != get( key );
+		}
+
+		@Override
+		public Double put( final String key, final Double value )
+		{
+			final Double previous = getFeature( key );
+			putFeature( key, value );
+			return previous;
+		}
+
+		@Override
+		public Double remove( final Object key )
+		{
+			if ( !( key instanceof String ) )
+				return null;
+			final Integer slot = FEATURE_SLOTS.get( key );
+			if ( null == slot )
+				return null;
+			final Double previous = getSlot( slot.intValue() );
+			clearSlot( slot.intValue() );
+			return previous;
+		}
+
+		@Override
+		public Set< Map.Entry< String, Double > > entrySet()
+		{
+			return new AbstractSet< Map.Entry< String, Double > >()
+			{
+				@Override
+				public Iterator< Map.Entry< String, Double > > iterator()
+				{
+					return new FeatureIterator();
+				}
+
+				@Override
+				public int size()
+				{
+					int size = 0;
+					for ( final long bits : values )
+					{
+						if ( bits != MISSING )
+							size++;
+					}
+					return size;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Iterates over the features set for this spot, in slot order.
+	 */
+	private final class FeatureIterator implements Iterator< Map.Entry< String, Double > >
+	{
+
+		private final long[] snapshot = values;
+
+		private final String[] names = slotNames;
+
+		private int next = advance( 0 );
+
+		private int current = -1;
+
+		private int advance( final int from )
+		{
+			int slot = from;
+			while ( slot < snapshot.length && snapshot[ slot ] == MISSING )
+				slot++;
+			return slot;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return next < snapshot.length;
+		}
 
-		for ( final String f : POSITION_FEATURES )
+		@Override
+		public Map.Entry< String, Double > next()
+		{
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			current = next;
+			next = advance( current + 1 );
+			final String feature = names[ current ];
+			return new AbstractMap.SimpleEntry< String, Double >( feature, Double.valueOf( Double.longBitsToDouble( snapshot[ current ] ) ) )
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public Double setValue( final Double value )
+				{
+					putFeature( feature, value );
+					return super.setValue( value );
+				}
+			};
+		}
+
+		@Override
+		public void remove()
 		{
-			thisVal = features.get( f ).doubleValue();
-			otherVal = s.getFeature( f ).doubleValue();
-			sumSquared += ( otherVal - thisVal ) * ( otherVal - thisVal );
+			if ( current < 0 )
+				throw new IllegalStateException();
+			clearSlot( current );
+			current = -1;
 		}
-		return sumSquared;
 	}
 
 	/*
@@ -521,7 +753,8 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	@Override
 	public double getDoublePosition( final int d )
 	{
-		return getFeature( POSITION_FEATURES[ d ] );
+		final int slot = d == 0 ? X_SLOT : d == 1 ? Y_SLOT : Z_SLOT;
+		return Double.longBitsToDouble( values[ slot ] );
 	}
 
 	/*
@@ -1,9 +1,12 @@
 package fiji.plugin.trackmate;
 
 import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -11,7 +14,6 @@ import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
@@ -30,11 +32,19 @@ import net.imglib2.algorithm.MultiThreaded;
  * This class is {@link MultiThreaded}. There are a few processes that can
  * benefit from multithreaded computation ({@link #filter(Collection)},
  * {@link #filter(FeatureFilter)}
+ * <p>
+ * The spatial queries ({@link #getClosestSpot(Spot, int, boolean)},
+ * {@link #getSpotAt(Spot, int, boolean)},
+ * {@link #getNClosestSpots(Spot, int, int, boolean)} and
+ * {@link #getSpotsWithin(Spot, int, double, boolean)}) go through a grid
+ * index of each frame, built on the first query in the frame. Code that moves
+ * spots or changes their radius directly must call
+ * {@link #invalidateGrid(int)} for their frame.
  *
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> - Feb 2011 - 2013
  *
  */
-public class SpotCollection implements MultiThreaded
+public class SpotCollection implements MultiThreaded, ExecutorServiceAware
 {
 
 	public static final Double ZERO = Double.valueOf( 0d );
@@ -60,6 +70,31 @@ public class SpotCollection implements MultiThreaded
 
 	private int numThreads;
 
+	/**
+	 * The executor service to run parallel operations on. If
+	 * <code>null</code>, each operation creates its own.
+	 */
+	private ExecutorService executorService;
+
+	/** The error message of the last parallel operation, if it failed. */
+	private String errorMessage;
+
+	/** Whether filtering goes through a sorted feature index. */
+	private volatile boolean indexed = false;
+
+	/**
+	 * The sorted feature index used for filtering, if {@link #indexed}. Built
+	 * on the first filtering, discarded when the content changes.
+	 */
+	private volatile SpotFeatureIndex index;
+
+	/**
+	 * The spatial index of each frame, used by the spot queries. Built on the
+	 * first query in a frame, updated when spots are added or removed through
+	 * this collection, discarded frame by frame by {@link #invalidateGrid(int)}.
+	 */
+	private final ConcurrentHashMap< Integer, SpotGrid > grids = new ConcurrentHashMap< Integer, SpotGrid >();
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -128,7 +163,13 @@ public class SpotCollection implements MultiThreaded
 			spots = new HashSet< Spot >();
 			content.put( frame, spots );
 		}
-		spots.add( spot );
+		final boolean added = spots.add( spot );
+		index = null;
+		final SpotGrid grid = grids.get( frame );
+		if ( added && null != grid && !grid.add( spot ) )
+		{
+			grids.remove( frame );
+		}
 		spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
 		spot.putFeature( VISIBLITY, ONE );
 	}
@@ -144,7 +185,14 @@ public class SpotCollection implements MultiThreaded
 	{
 		final Set< Spot > spots = content.get( frame );
 		if ( null == spots ) { return false; }
-		return spots.remove( spot );
+		index = null;
+		final boolean removed = spots.remove( spot );
+		final SpotGrid grid = grids.get( frame );
+		if ( removed && null != grid && !grid.remove( spot ) )
+		{
+			grids.remove( frame );
+		}
+		return removed;
 	}
 
 	/**
@@ -155,10 +203,11 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public void setVisible( final boolean visible )
 	{
+		forgetIndexedVisibility();
 		final Double val = visible ? ONE : ZERO;
 		final Collection< Integer > frames = content.keySet();
 
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final List< Runnable > commands = new ArrayList< Runnable >( frames.size() );
 		for ( final Integer frame : frames )
 		{
 
@@ -176,22 +225,10 @@ public class SpotCollection implements MultiThreaded
 
 				}
 			};
-			executors.execute( command );
+			commands.add( command );
 		}
 
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-			{
-				System.err.println( "[SpotCollection.setVisible()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached." );
-			}
-		}
-		catch ( final InterruptedException e )
-		{
-			e.printStackTrace();
-		}
+		execute( commands, "setVisible" );
 	}
 
 	/**
@@ -204,9 +241,10 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public final void filter( final FeatureFilter featurefilter )
 	{
+		if ( indexed && filterIndexed( Collections.singletonList( featurefilter ) ) ) { return; }
 
 		final Collection< Integer > frames = content.keySet();
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final List< Runnable > commands = new ArrayList< Runnable >( frames.size() );
 
 		for ( final Integer frame : frames )
 		{
@@ -257,22 +295,10 @@ public class SpotCollection implements MultiThreaded
 					}
 				}
 			};
-			executors.execute( command );
+			commands.add( command );
 		}
 
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-			{
-				System.err.println( "[SpotCollection.filter()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while filtering." );
-			}
-		}
-		catch ( final InterruptedException e )
-		{
-			e.printStackTrace();
-		}
+		execute( commands, "filter" );
 	}
 
 	/**
@@ -286,9 +312,10 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public final void filter( final Collection< FeatureFilter > filters )
 	{
+		if ( indexed && filterIndexed( filters ) ) { return; }
 
 		final Collection< Integer > frames = content.keySet();
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final List< Runnable > commands = new ArrayList< Runnable >( frames.size() );
 
 		for ( final Integer frame : frames )
 		{
@@ -332,22 +359,10 @@ public class SpotCollection implements MultiThreaded
 				}
 
 			};
-			executors.execute( command );
+			commands.add( command );
 		}
 
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-			{
-				System.err.println( "[SpotCollection.filter()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while filtering." );
-			}
-		}
-		catch ( final InterruptedException e )
-		{
-			e.printStackTrace();
-		}
+		execute( commands, "filter" );
 	}
 
 	/**
@@ -367,29 +382,10 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public final Spot getClosestSpot( final Spot location, final int frame, final boolean visibleSpotsOnly )
 	{
-		final Set< Spot > spots = content.get( frame );
-		if ( null == spots )
+		final SpotGrid grid = getGrid( frame );
+		if ( null == grid )
 			return null;
-		double d2;
-		double minDist = Double.POSITIVE_INFINITY;
-		Spot target = null;
-		for ( final Spot s : spots )
-		{
-
-			if ( visibleSpotsOnly && ( s.getFeature( VISIBLITY ).compareTo( ZERO ) <= 0 ) )
-			{
-				continue;
-			}
-
-			d2 = s.squareDistanceTo( location );
-			if ( d2 < minDist )
-			{
-				minDist = d2;
-				target = s;
-			}
-
-		}
-		return target;
+		return grid.closest( location, visibleSpotsOnly );
 	}
 
 	/**
@@ -411,41 +407,19 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public final Spot getSpotAt( final Spot location, final int frame, final boolean visibleSpotsOnly )
 	{
-		final Set< Spot > spots = content.get( frame );
-		if ( null == spots || spots.isEmpty() ) { return null; }
-
-		final TreeMap< Double, Spot > distanceToSpot = new TreeMap< Double, Spot >();
-		double d2;
-		for ( final Spot s : spots )
-		{
-
-			if ( visibleSpotsOnly && ( s.getFeature( VISIBLITY ).compareTo( ZERO ) <= 0 ) )
-			{
-				continue;
-			}
-
-			d2 = s.squareDistanceTo( location );
-			if ( d2 < s.getFeature( Spot.RADIUS ) * s.getFeature( Spot.RADIUS ) )
-			{
-				distanceToSpot.put( d2, s );
-			}
-		}
-		if ( distanceToSpot.isEmpty() )
-		{
-			return null;
-		}
-		else
-		{
-			return distanceToSpot.firstEntry().getValue();
-		}
+		final SpotGrid grid = getGrid( frame );
+		if ( null == grid ) { return null; }
+		return grid.at( location, visibleSpotsOnly );
 	}
 
 	/**
 	 * Returns the <code>n</code> closest {@link Spot} to the given location
 	 * (encoded as a Spot), contained in the frame <code>frame</code>. If the
 	 * number of spots in the frame is exhausted, a shorter list is returned.
+	 * If the frame does not exist, an empty list is returned.
 	 * <p>
-	 * The list is ordered by increasing distance to the given location.
+	 * The list is ordered by increasing distance to the given location. Spots
+	 * at the same distance are all returned.
 	 *
 	 * @param location
 	 *            the location to search for.
@@ -459,32 +433,38 @@ public class SpotCollection implements MultiThreaded
 	 * @return a new list, with of at most <code>n</code> spots, ordered by
 	 *         increasing distance from the specified location.
 	 */
-	public final List< Spot > getNClosestSpots( final Spot location, final int frame, int n, final boolean visibleSpotsOnly )
+	public final List< Spot > getNClosestSpots( final Spot location, final int frame, final int n, final boolean visibleSpotsOnly )
 	{
-		final Set< Spot > spots = content.get( frame );
-		final TreeMap< Double, Spot > distanceToSpot = new TreeMap< Double, Spot >();
-
-		double d2;
-		for ( final Spot s : spots )
-		{
-
-			if ( visibleSpotsOnly && ( s.getFeature( VISIBLITY ).compareTo( ZERO ) <= 0 ) )
-			{
-				continue;
-			}
-
-			d2 = s.squareDistanceTo( location );
-			distanceToSpot.put( d2, s );
-		}
+		final SpotGrid grid = getGrid( frame );
+		if ( null == grid ) { return new ArrayList< Spot >( 0 ); }
+		return grid.closest( location, n, visibleSpotsOnly );
+	}
 
-		final List< Spot > selectedSpots = new ArrayList< Spot >( n );
-		final Iterator< Double > it = distanceToSpot.keySet().iterator();
-		while ( n > 0 && it.hasNext() )
+	/**
+	 * Returns the {@link Spot}s whose center is within the specified distance
+	 * of the given location (encoded as a Spot), contained in the frame
+	 * <code>frame</code>. The spot radii are not taken into account.
+	 *
+	 * @param location
+	 *            the location to search around.
+	 * @param frame
+	 *            the frame to inspect.
+	 * @param radius
+	 *            the maximal distance, included, of the spots to return.
+	 * @param visibleSpotsOnly
+	 *            if true, will only search though visible spots. If false, will
+	 *            search through all spots.
+	 * @return a new list of the spots in range, in no particular order.
+	 */
+	public final List< Spot > getSpotsWithin( final Spot location, final int frame, final double radius, final boolean visibleSpotsOnly )
+	{
+		final List< Spot > found = new ArrayList< Spot >();
+		final SpotGrid grid = getGrid( frame );
+		if ( null != grid )
 		{
-			selectedSpots.add( distanceToSpot.get( it.next() ) );
-			n--;
+			grid.within( location, radius, visibleSpotsOnly, found );
 		}
-		return selectedSpots;
+		return found;
 	}
 
 	/**
@@ -570,7 +550,7 @@ public class SpotCollection implements MultiThreaded
 	public Map< String, double[] > collectValues( final Collection< String > features, final boolean visibleOnly )
 	{
 		final Map< String, double[] > featureValues = new ConcurrentHashMap< String, double[] >( features.size() );
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final List< Runnable > commands = new ArrayList< Runnable >( features.size() );
 
 		for ( final String feature : features )
 		{
@@ -584,22 +564,10 @@ public class SpotCollection implements MultiThreaded
 				}
 
 			};
-			executors.execute( command );
+			commands.add( command );
 		}
 
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-			{
-				System.err.println( "[SpotCollection.collectValues()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while filtering." );
-			}
-		}
-		catch ( final InterruptedException e )
-		{
-			e.printStackTrace();
-		}
+		execute( commands, "collectValues" );
 
 		return featureValues;
 	}
@@ -755,6 +723,8 @@ public class SpotCollection implements MultiThreaded
 			spot.putFeature( VISIBLITY, ZERO );
 		}
 		content.put( frame, value );
+		index = null;
+		grids.remove( frame );
 	}
 
 	/**
@@ -807,6 +777,137 @@ public class SpotCollection implements MultiThreaded
 	public void clear()
 	{
 		content.clear();
+		index = null;
+		grids.clear();
+	}
+
+	/*
+	 * FEATURE INDEX
+	 */
+
+	/**
+	 * Sets whether filtering goes through a sorted feature index.
+	 * <p>
+	 * When enabled, the spots are sorted once by the value of each feature
+	 * filtered on. Filtering then costs a binary search per filter, plus the
+	 * visibility changes: moving a single threshold only flips the spots
+	 * between the old and the new threshold. This suits repeated filtering on
+	 * the same content, as when thresholds are tuned in the GUI. For a
+	 * one-time filtering, the plain parallel scan is cheaper.
+	 * <p>
+	 * The index is discarded when spots are added or removed through this
+	 * collection, and when {@link #invalidateFeatureIndex()} is called. Code
+	 * that changes feature values of the spots directly must call it.
+	 *
+	 * @param indexed
+	 *            whether to filter through a sorted feature index.
+	 */
+	public synchronized void setIndexed( final boolean indexed )
+	{
+		this.indexed = indexed;
+		index = null;
+	}
+
+	/**
+	 * Returns whether filtering goes through a sorted feature index.
+	 *
+	 * @see #setIndexed(boolean)
+	 */
+	public boolean isIndexed()
+	{
+		return indexed;
+	}
+
+	/**
+	 * Discards the sorted feature index and the spatial index of all the
+	 * frames of this collection, if any. Must be called when the feature
+	 * values of the spots in this collection are changed, including their
+	 * position and radius.
+	 *
+	 * @see #invalidateFeatureIndex()
+	 * @see #invalidateGrid(int)
+	 */
+	public void invalidateIndex()
+	{
+		index = null;
+		grids.clear();
+	}
+
+	/**
+	 * Discards the sorted feature index of this collection, if any. Must be
+	 * called when the feature values of some spots in this collection are
+	 * changed.
+	 *
+	 * @see #setIndexed(boolean)
+	 */
+	public void invalidateFeatureIndex()
+	{
+		index = null;
+	}
+
+	/**
+	 * Discards the spatial index of the specified frame, if any. Must be called
+	 * when spots of this frame are moved or their radius is changed. The
+	 * spatial indices of the other frames are kept.
+	 *
+	 * @param frame
+	 *            the frame whose spatial index to discard.
+	 */
+	public void invalidateGrid( final int frame )
+	{
+		grids.remove( frame );
+	}
+
+	/**
+	 * Returns whether the spatial index of the specified frame is built.
+	 */
+	boolean hasGrid( final int frame )
+	{
+		return grids.containsKey( frame );
+	}
+
+	/**
+	 * Returns the spatial index of the specified frame, building it if needed.
+	 *
+	 * @return the index, or <code>null</code> if the frame does not exist.
+	 */
+	private SpotGrid getGrid( final int frame )
+	{
+		final Set< Spot > spots = content.get( frame );
+		if ( null == spots ) { return null; }
+		SpotGrid grid = grids.get( frame );
+		if ( null == grid )
+		{
+			grid = new SpotGrid( spots );
+			grids.put( frame, grid );
+		}
+		return grid;
+	}
+
+	/**
+	 * Filters with the sorted feature index, building it if needed.
+	 *
+	 * @return <code>false</code> if the filters cannot be applied with the
+	 *         index, because some spots miss a filtered feature.
+	 */
+	private synchronized boolean filterIndexed( final Collection< FeatureFilter > filters )
+	{
+		SpotFeatureIndex idx = index;
+		if ( null == idx )
+		{
+			idx = new SpotFeatureIndex( content.values() );
+			index = idx;
+		}
+		return idx.filter( filters );
+	}
+
+	private synchronized void forgetIndexedVisibility()
+	{
+		final SpotFeatureIndex idx = index;
+		if ( null != idx )
+		{
+			idx.forgetVisibility();
+		}
 	}
 
 	/*
@@ -831,6 +932,79 @@ public class SpotCollection implements MultiThreaded
 		return numThreads;
 	}
 
+	/**
+	 * Sets the executor service the parallel operations of this collection run
+	 * on. If <code>null</code>, each operation creates its own with
+	 * {@link #getNumThreads()} threads.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
+	/**
+	 * Returns a meaningful error message if the last parallel operation of
+	 * this collection (visibility change, filtering, value collection or
+	 * cropping) did not complete, because it timed out or was interrupted.
+	 *
+	 * @return the error message, or <code>null</code> if the last operation
+	 *         completed.
+	 */
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	/**
+	 * Runs the specified commands in parallel and waits for their completion.
+	 * If they do not complete, the failure is reported by
+	 * {@link #getErrorMessage()}.
+	 *
+	 * @param commands
+	 *            the commands to run.
+	 * @param method
+	 *            the name of the calling method, for error messages.
+	 */
+	private void execute( final List< Runnable > commands, final String method )
+	{
+		errorMessage = null;
+		if ( null != executorService )
+		{
+			try
+			{
+				TMExecutors.runAll( executorService, numThreads, commands );
+			}
+			catch ( final RuntimeException e )
+			{
+				if ( !( e.getCause() instanceof InterruptedException ) ) { throw e; }
+				Thread.currentThread().interrupt();
+				errorMessage = "[SpotCollection." + method + "()] Interrupted.";
+			}
+			return;
+		}
+
+		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		for ( final Runnable command : commands )
+		{
+			executors.execute( command );
+		}
+		executors.shutdown();
+		try
+		{
+			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
+			if ( !ok )
+			{
+				errorMessage = "[SpotCollection." + method + "()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached.";
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			errorMessage = "[SpotCollection." + method + "()] Interrupted.";
+		}
+	}
+
 	/*
 	 * PRIVATE CLASSES
 	 */
@@ -1067,9 +1241,10 @@ public class SpotCollection implements MultiThreaded
 	{
 		final SpotCollection ns = new SpotCollection();
 		ns.setNumThreads( numThreads );
+		ns.setExecutorService( executorService );
 
 		final Collection< Integer > frames = content.keySet();
-		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		final List< Runnable > commands = new ArrayList< Runnable >( frames.size() );
 		for ( final Integer frame : frames )
 		{
 
@@ -1092,22 +1267,10 @@ public class SpotCollection implements MultiThreaded
 					ns.content.put( frame, nfc );
 				}
 			};
-			executors.execute( command );
+			commands.add( command );
 		}
 
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-			{
-				System.err.println( "[SpotCollection.crop()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while cropping." );
-			}
-		}
-		catch ( final InterruptedException e )
-		{
-			e.printStackTrace();
-		}
+		execute( commands, "crop" );
 		return ns;
 	}
 
@@ -0,0 +1,275 @@
+package fiji.plugin.trackmate;
+
+import static fiji.plugin.trackmate.SpotCollection.ONE;
+import static fiji.plugin.trackmate.SpotCollection.VISIBLITY;
+import static fiji.plugin.trackmate.SpotCollection.ZERO;
+import fiji.plugin.trackmate.features.FeatureFilter;
+import fiji.plugin.trackmate.util.SortedIndex;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A sorted index of the spots of a {@link SpotCollection} on their feature
+ * values, used to filter them by thresholds without checking every spot.
+ * <p>
+ * Spots are numbered in slots when the index is created. For each feature
+ * filtered on, the index stores the permutation of slots that sorts the spots
+ * by feature value, and the rank of each slot in this permutation. The spots
+ * retained by a threshold are then a contiguous range of the permutation,
+ * found by binary search. Values are ordered as by {@link Double#compareTo},
+ * so that the filtering results are the ones of the plain scan.
+ * <p>
+ * The index remembers the visibility it applied last. When a single threshold
+ * is moved, only the spots between the old and the new threshold are flipped;
+ * otherwise only the spots whose visibility changes are written.
+ * <p>
+ * The index is a snapshot: it must be discarded when spots are added or
+ * removed, or when their feature values change. This class is not
+ * thread-safe.
+ */
+final class SpotFeatureIndex
+{
+
+	private final Spot[] spots;
+
+	private final Map< String, FeatureOrder > orders = new HashMap< String, FeatureOrder >();
+
+	/**
+	 * The visibility of each slot, as applied last by this index, or
+	 * <code>null</code> if unknown.
+	 */
+	private boolean[] visible;
+
+	/** Scratch array for the visibility being computed. */
+	private boolean[] next;
+
+	/**
+	 * The single filter applied last and its range of retained positions, if
+	 * the last call was with one filter. <code>null</code> otherwise.
+	 */
+	private FeatureOrder lastOrder;
+
+	private boolean lastIsAbove;
+
+	private int lastFrom;
+
+	private int lastTo;
+
+	SpotFeatureIndex( final Collection< Set< Spot >> frames )
+	{
+		int n = 0;
+		for ( final Set< Spot > frame : frames )
+		{
+			n += frame.size();
+		}
+		spots = new Spot[ n ];
+		int slot = 0;
+		for ( final Set< Spot > frame : frames )
+		{
+			final Iterator< Spot > it = frame.iterator();
+			while ( it.hasNext() && slot < n )
+			{
+				spots[ slot++ ] = it.next();
+			}
+		}
+		if ( slot < n ) { throw new IllegalStateException( "Spot collection modified while indexing." ); }
+	}
+
+	/**
+	 * Marks the spots of the index as visible if they pass all the specified
+	 * filters, and invisible otherwise.
+	 *
+	 * @param filters
+	 *            the filters to apply.
+	 * @return <code>false</code> if some spots have no value for a filtered
+	 *         feature. Nothing is changed then.
+	 */
+	boolean filter( final Collection< FeatureFilter > filters )
+	{
+		final int nFilters = filters.size();
+		final FeatureOrder[] filterOrders = new FeatureOrder[ nFilters ];
+		final int[] from = new int[ nFilters ];
+		final int[] to = new int[ nFilters ];
+		final boolean[] isAbove = new boolean[ nFilters ];
+		int best = -1;
+		int i = 0;
+		for ( final FeatureFilter filter : filters )
+		{
+			final FeatureOrder order = getOrder( filter.feature );
+			if ( null == order ) { return false; }
+			final long key = SortedIndex.key( filter.value.doubleValue() );
+			filterOrders[ i ] = order;
+			isAbove[ i ] = filter.isAbove;
+			if ( filter.isAbove )
+			{
+				from[ i ] = order.firstNotBelow( key );
+				to[ i ] = spots.length;
+			}
+			else
+			{
+				from[ i ] = 0;
+				to[ i ] = order.firstAbove( key );
+			}
+			if ( best < 0 || to[ i ] - from[ i ] < to[ best ] - from[ best ] )
+			{
+				best = i;
+			}
+			i++;
+		}
+
+		if ( nFilters == 1 && null != visible && lastOrder == filterOrders[ 0 ] && lastIsAbove == isAbove[ 0 ] )
+		{
+			// Same filter, moved threshold: flip the spots in between.
+			flip( filterOrders[ 0 ].slots, Math.min( lastFrom, from[ 0 ] ), Math.max( lastFrom, from[ 0 ] ) );
+			flip( filterOrders[ 0 ].slots, Math.min( lastTo, to[ 0 ] ), Math.max( lastTo, to[ 0 ] ) );
+		}
+		else
+		{
+			if ( null == next )
+			{
+				next = new boolean[ spots.length ];
+			}
+			if ( nFilters == 0 )
+			{
+				Arrays.fill( next, true );
+			}
+			else
+			{
+				// Only check the spots retained by the most selective filter.
+				Arrays.fill( next, false );
+				final int[] candidates = filterOrders[ best ].slots;
+				for ( int p = from[ best ]; p < to[ best ]; p++ )
+				{
+					final int slot = candidates[ p ];
+					boolean ok = true;
+					for ( int j = 0; j < nFilters; j++ )
+					{
+						final int rank = filterOrders[ j ].ranks[ slot ];
+						if ( rank < from[ j ] || rank >= to[ j ] )
+						{
+							ok = false;
+							break;
+						}
+					}
+					next[ slot ] = ok;
+				}
+			}
+
+			for ( int slot = 0; slot < spots.length; slot++ )
+			{
+				if ( null == visible || visible[ slot ] != next[ slot ] )
+				{
+					spots[ slot ].putFeature( VISIBLITY, next[ slot ] ? ONE : ZERO );
+				}
+			}
+			final boolean[] tmp = visible;
+			visible = next;
+			next = tmp;
+		}
+
+		if ( nFilters == 1 )
+		{
+			lastOrder = filterOrders[ 0 ];
+			lastIsAbove = isAbove[ 0 ];
+			lastFrom = from[ 0 ];
+			lastTo = to[ 0 ];
+		}
+		else
+		{
+			lastOrder = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Forgets the visibility applied last, for when it was changed by other
+	 * means.
+	 */
+	void forgetVisibility()
+	{
+		visible = null;
+		lastOrder = null;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void flip( final int[] slots, final int from, final int to )
+	{
+		for ( int p = from; p < to; p++ )
+		{
+			final int slot = slots[ p ];
+			visible[ slot ] = !visible[ slot ];
+			spots[ slot ].putFeature( VISIBLITY, visible[ slot ] ? ONE : ZERO );
+		}
+	}
+
+	private FeatureOrder getOrder( final String feature )
+	{
+		FeatureOrder order = orders.get( feature );
+		if ( null == order )
+		{
+			final long[] keys = new long[ spots.length ];
+			for ( int slot = 0; slot < spots.length; slot++ )
+			{
+				final Double val = spots[ slot ].getFeature( feature );
+				if ( null == val ) { return null; }
+				keys[ slot ] = SortedIndex.key( val.doubleValue() );
+			}
+			order = new FeatureOrder( keys );
+			orders.put( feature, order );
+		}
+		return order;
+	}
+
+	/**
+	 * The slots sorted by the value of one feature.
+	 */
+	private static final class FeatureOrder
+	{
+
+		/** The sorted keys. */
+		private final long[] keys;
+
+		/** The slot at each position in the order. */
+		private final int[] slots;
+
+		/** The position of each slot in the order. */
+		private final int[] ranks;
+
+		private FeatureOrder( final long[] keys )
+		{
+			this.keys = keys;
+			final int n = keys.length;
+			slots = new int[ n ];
+			for ( int slot = 0; slot < n; slot++ )
+			{
+				slots[ slot ] = slot;
+			}
+			SortedIndex.sort( keys, slots, 0, n );
+			ranks = new int[ n ];
+			for ( int p = 0; p < n; p++ )
+			{
+				ranks[ slots[ p ] ] = p;
+			}
+		}
+
+		/** Returns the first position whose key is not below the key. */
+		private int firstNotBelow( final long key )
+		{
+			return SortedIndex.lowerBound( keys, 0, keys.length, key );
+		}
+
+		/** Returns the first position whose key is above the key. */
+		private int firstAbove( final long key )
+		{
+			return SortedIndex.upperBound( keys, 0, keys.length, key );
+		}
+	}
+}
@@ -0,0 +1,504 @@
+package fiji.plugin.trackmate;
+
+import static fiji.plugin.trackmate.SpotCollection.VISIBLITY;
+import static fiji.plugin.trackmate.SpotCollection.ZERO;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A uniform grid over the X and Y positions of the spots of one frame of a
+ * {@link SpotCollection}, used to answer nearest-neighbor and hit-testing
+ * queries without checking every spot of the frame.
+ * <p>
+ * Cells are square and hold a few spots each on average. Queries visit the
+ * cells around the query location, ring by ring, and stop as soon as the
+ * cells left cannot hold a closer spot. Distances are computed in 3D on the
+ * current spot positions; Z is not indexed, but the distance in X and Y is a
+ * lower bound of the distance in 3D. The visibility of spots is checked at
+ * query time, so that filtering does not require to rebuild the grid.
+ * <p>
+ * Spots can be added and removed after the grid is built, as long as they
+ * fall inside its bounds. The grid is otherwise a snapshot of the spot
+ * positions: it must be discarded when spots move or when their radius
+ * changes. This class is not thread-safe.
+ */
+final class SpotGrid
+{
+
+	/** The mean number of spots per cell the grid is built for. */
+	private static final int SPOTS_PER_CELL = 4;
+
+	/** The initial capacity of a cell. */
+	private static final int CELL_CAPACITY = 4;
+
+	private final double x0;
+
+	private final double y0;
+
+	private final double cellSize;
+
+	private final int nCols;
+
+	private final int nRows;
+
+	private final Spot[][] cells;
+
+	private final int[] counts;
+
+	/**
+	 * The number of spots the grid was built with. Past twice this number, the
+	 * cells get too crowded and the grid refuses additions.
+	 */
+	private final int builtSize;
+
+	private int size;
+
+	/**
+	 * The largest radius of the spots in the grid. Not lowered when spots are
+	 * removed.
+	 */
+	private double maxRadius;
+
+	SpotGrid( final Collection< Spot > spots )
+	{
+		double xmin = Double.POSITIVE_INFINITY;
+		double ymin = Double.POSITIVE_INFINITY;
+		double xmax = Double.NEGATIVE_INFINITY;
+		double ymax = Double.NEGATIVE_INFINITY;
+		for ( final Spot spot : spots )
+		{
+			final double x = spot.getDoublePosition( 0 );
+			final double y = spot.getDoublePosition( 1 );
+			xmin = Math.min( xmin, x );
+			ymin = Math.min( ymin, y );
+			xmax = Math.max( xmax, x );
+			ymax = Math.max( ymax, y );
+			maxRadius = Math.max( maxRadius, radius( spot ) );
+		}
+		if ( spots.isEmpty() )
+		{
+			xmin = 0;
+			ymin = 0;
+			xmax = 0;
+			ymax = 0;
+		}
+
+		final double width = xmax - xmin;
+		final double height = ymax - ymin;
+		final int targetCells = Math.max( 1, spots.size() / SPOTS_PER_CELL );
+		double s = Math.max( Math.sqrt( width * height / targetCells ), Math.max( width, height ) / targetCells );
+		if ( !( s > 0 ) || Double.isInfinite( s ) )
+		{
+			s = 1;
+		}
+		x0 = xmin;
+		y0 = ymin;
+		cellSize = s;
+		nCols = ( int ) Math.min( width / s, targetCells ) + 1;
+		nRows = ( int ) Math.min( height / s, targetCells ) + 1;
+
+		cells = new Spot[ nCols * nRows ][];
+		counts = new int[ nCols * nRows ];
+		for ( final Spot spot : spots )
+		{
+			counts[ cell( spot ) ]++;
+		}
+		for ( int i = 0; i < cells.length; i++ )
+		{
+			if ( counts[ i ] > 0 )
+			{
+				cells[ i ] = new Spot[ counts[ i ] ];
+				counts[ i ] = 0;
+			}
+		}
+		for ( final Spot spot : spots )
+		{
+			final int cell = cell( spot );
+			cells[ cell ][ counts[ cell ]++ ] = spot;
+		}
+		size = spots.size();
+		builtSize = Math.max( size, CELL_CAPACITY );
+	}
+
+	/*
+	 * UPDATES
+	 */
+
+	/**
+	 * Adds the specified spot to the grid.
+	 *
+	 * @return <code>false</code> if the spot falls outside the grid bounds or
+	 *         if the grid is too crowded: the grid is then unchanged and must
+	 *         be rebuilt.
+	 */
+	boolean add( final Spot spot )
+	{
+		if ( size >= 2 * builtSize ) { return false; }
+		final double cx = Math.floor( ( spot.getDoublePosition( 0 ) - x0 ) / cellSize );
+		final double cy = Math.floor( ( spot.getDoublePosition( 1 ) - y0 ) / cellSize );
+		if ( !( cx >= 0 && cx < nCols && cy >= 0 && cy < nRows ) ) { return false; }
+
+		final int cell = ( int ) cy * nCols + ( int ) cx;
+		Spot[] content = cells[ cell ];
+		if ( null == content )
+		{
+			content = new Spot[ CELL_CAPACITY ];
+			cells[ cell ] = content;
+		}
+		else if ( counts[ cell ] == content.length )
+		{
+			final Spot[] grown = new Spot[ 2 * content.length ];
+			System.arraycopy( content, 0, grown, 0, content.length );
+			content = grown;
+			cells[ cell ] = content;
+		}
+		content[ counts[ cell ]++ ] = spot;
+		size++;
+		maxRadius = Math.max( maxRadius, radius( spot ) );
+		return true;
+	}
+
+	/**
+	 * Removes the specified spot from the grid.
+	 *
+	 * @return <code>false</code> if the spot cannot be found in the cell of
+	 *         its current position, because it moved since it was indexed: the
+	 *         grid must then be rebuilt.
+	 */
+	boolean remove( final Spot spot )
+	{
+		final double cx = Math.floor( ( spot.getDoublePosition( 0 ) - x0 ) / cellSize );
+		final double cy = Math.floor( ( spot.getDoublePosition( 1 ) - y0 ) / cellSize );
+		if ( !( cx >= 0 && cx < nCols && cy >= 0 && cy < nRows ) ) { return false; }
+
+		final int cell = ( int ) cy * nCols + ( int ) cx;
+		final Spot[] content = cells[ cell ];
+		final int count = counts[ cell ];
+		for ( int i = 0; i < count; i++ )
+		{
+			if ( content[ i ] == spot )
+			{
+				content[ i ] = content[ count - 1 ];
+				content[ count - 1 ] = null;
+				counts[ cell ]--;
+				size--;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * QUERIES
+	 */
+
+	/**
+	 * Returns the spot whose center is the closest to the specified location,
+	 * or <code>null</code> if there is none.
+	 */
+	Spot closest( final Spot location, final boolean visibleSpotsOnly )
+	{
+		final Nearest nearest = new Nearest( 1 );
+		search( location, visibleSpotsOnly, nearest );
+		return nearest.size == 0 ? null : nearest.spots[ 0 ];
+	}
+
+	/**
+	 * Returns at most <code>n</code> spots, ordered by increasing distance to
+	 * the specified location.
+	 */
+	List< Spot > closest( final Spot location, final int n, final boolean visibleSpotsOnly )
+	{
+		if ( n <= 0 ) { return new ArrayList< Spot >( 0 ); }
+		final Nearest nearest = new Nearest( Math.min( n, size ) );
+		search( location, visibleSpotsOnly, nearest );
+		return nearest.sorted();
+	}
+
+	/**
+	 * Returns the closest spot such that the specified location is strictly
+	 * within its radius, or <code>null</code> if there is none.
+	 */
+	Spot at( final Spot location, final boolean visibleSpotsOnly )
+	{
+		final double x = location.getDoublePosition( 0 );
+		final double y = location.getDoublePosition( 1 );
+		final int[] bounds = cellRange( x - maxRadius, y - maxRadius, x + maxRadius, y + maxRadius );
+		if ( null == bounds ) { return null; }
+
+		Spot target = null;
+		double minDist = Double.POSITIVE_INFINITY;
+		for ( int row = bounds[ 1 ]; row <= bounds[ 3 ]; row++ )
+		{
+			for ( int col = bounds[ 0 ]; col <= bounds[ 2 ]; col++ )
+			{
+				final int cell = row * nCols + col;
+				final Spot[] content = cells[ cell ];
+				for ( int i = 0; i < counts[ cell ]; i++ )
+				{
+					final Spot s = content[ i ];
+					if ( visibleSpotsOnly && !isVisible( s ) )
+					{
+						continue;
+					}
+					final double d2 = s.squareDistanceTo( location );
+					final double radius = radius( s );
+					if ( d2 < radius * radius && d2 < minDist )
+					{
+						minDist = d2;
+						target = s;
+					}
+				}
+			}
+		}
+		return target;
+	}
+
+	/**
+	 * Adds to the specified list the spots whose center is within the
+	 * specified distance of the specified location, included.
+	 */
+	void within( final Spot location, final double radius, final boolean visibleSpotsOnly, final List< Spot > found )
+	{
+		final double x = location.getDoublePosition( 0 );
+		final double y = location.getDoublePosition( 1 );
+		final int[] bounds = cellRange( x - radius, y - radius, x + radius, y + radius );
+		if ( null == bounds ) { return; }
+
+		final double r2 = radius * radius;
+		for ( int row = bounds[ 1 ]; row <= bounds[ 3 ]; row++ )
+		{
+			for ( int col = bounds[ 0 ]; col <= bounds[ 2 ]; col++ )
+			{
+				final int cell = row * nCols + col;
+				final Spot[] content = cells[ cell ];
+				for ( int i = 0; i < counts[ cell ]; i++ )
+				{
+					final Spot s = content[ i ];
+					if ( visibleSpotsOnly && !isVisible( s ) )
+					{
+						continue;
+					}
+					if ( s.squareDistanceTo( location ) <= r2 )
+					{
+						found.add( s );
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of spots in the grid.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Visits the cells by rings of increasing distance around the cell of the
+	 * location, until the next ring cannot hold a spot closer than the ones
+	 * found.
+	 */
+	private void search( final Spot location, final boolean visibleSpotsOnly, final Nearest nearest )
+	{
+		if ( nearest.capacity == 0 ) { return; }
+		/*
+		 * The cell of the location, clamped just outside the grid. Clamping
+		 * only lowers the distance bounds below, so they stay valid.
+		 */
+		final int cx = ( int ) Math.max( -1, Math.min( nCols, Math.floor( ( location.getDoublePosition( 0 ) - x0 ) / cellSize ) ) );
+		final int cy = ( int ) Math.max( -1, Math.min( nRows, Math.floor( ( location.getDoublePosition( 1 ) - y0 ) / cellSize ) ) );
+		final int maxRing = Math.max( Math.max( cx, nCols - 1 - cx ), Math.max( cy, nRows - 1 - cy ) );
+
+		for ( int ring = 0; ring <= maxRing; ring++ )
+		{
+			if ( nearest.isFull() && ring > 0 )
+			{
+				// Cells in this ring are at least this far in X or in Y.
+				final double bound = ( ring - 1 ) * cellSize;
+				if ( nearest.farthest() <= bound * bound )
+				{
+					break;
+				}
+			}
+
+			final int rowMin = Math.max( 0, cy - ring );
+			final int rowMax = Math.min( nRows - 1, cy + ring );
+			for ( int row = rowMin; row <= rowMax; row++ )
+			{
+				final boolean fullRow = row == cy - ring || row == cy + ring;
+				final int step = fullRow ? 1 : Math.max( 1, 2 * ring );
+				for ( int col = cx - ring; col <= cx + ring; col += step )
+				{
+					if ( col < 0 || col >= nCols )
+					{
+						continue;
+					}
+					final int cell = row * nCols + col;
+					final Spot[] content = cells[ cell ];
+					for ( int i = 0; i < counts[ cell ]; i++ )
+					{
+						final Spot s = content[ i ];
+						if ( visibleSpotsOnly && !isVisible( s ) )
+						{
+							continue;
+						}
+						nearest.offer( s, s.squareDistanceTo( location ) );
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the range of cells <code>{ colMin, rowMin, colMax, rowMax }</code>
+	 * that intersect the specified box, or <code>null</code> if the box does
+	 * not intersect the grid.
+	 */
+	private int[] cellRange( final double xmin, final double ymin, final double xmax, final double ymax )
+	{
+		final double colMin = Math.max( 0, Math.floor( ( xmin - x0 ) / cellSize ) );
+		final double rowMin = Math.max( 0, Math.floor( ( ymin - y0 ) / cellSize ) );
+		final double colMax = Math.min( nCols - 1, Math.floor( ( xmax - x0 ) / cellSize ) );
+		final double rowMax = Math.min( nRows - 1, Math.floor( ( ymax - y0 ) / cellSize ) );
+		if ( !( colMin <= colMax && rowMin <= rowMax ) ) { return null; }
+		return new int[] { ( int ) colMin, ( int ) rowMin, ( int ) colMax, ( int ) rowMax };
+	}
+
+	/**
+	 * Returns the cell of a spot inside the grid bounds.
+	 */
+	private int cell( final Spot spot )
+	{
+		final int col = Math.min( nCols - 1, ( int ) ( ( spot.getDoublePosition( 0 ) - x0 ) / cellSize ) );
+		final int row = Math.min( nRows - 1, ( int ) ( ( spot.getDoublePosition( 1 ) - y0 ) / cellSize ) );
+		return row * nCols + col;
+	}
+
+	private static boolean isVisible( final Spot spot )
+	{
+		return spot.getFeature( VISIBLITY ).compareTo( ZERO ) > 0;
+	}
+
+	private static double radius( final Spot spot )
+	{
+		final Double radius = spot.getFeature( Spot.RADIUS );
+		return null == radius ? 0d : radius.doubleValue();
+	}
+
+	/**
+	 * The <code>capacity</code> closest spots offered so far, in a max-heap on
+	 * their square distance.
+	 */
+	private static final class Nearest
+	{
+
+		private final int capacity;
+
+		private final Spot[] spots;
+
+		private final double[] d2s;
+
+		private int size;
+
+		private Nearest( final int capacity )
+		{
+			this.capacity = capacity;
+			this.spots = new Spot[ capacity ];
+			this.d2s = new double[ capacity ];
+		}
+
+		private boolean isFull()
+		{
+			return size == capacity;
+		}
+
+		private double farthest()
+		{
+			return d2s[ 0 ];
+		}
+
+		private void offer( final Spot spot, final double d2 )
+		{
+			if ( size < capacity )
+			{
+				// Sift up.
+				int i = size++;
+				while ( i > 0 )
+				{
+					final int parent = ( i - 1 ) / 2;
+					if ( d2s[ parent ] >= d2 )
+					{
+						break;
+					}
+					d2s[ i ] = d2s[ parent ];
+					spots[ i ] = spots[ parent ];
+					i = parent;
+				}
+				d2s[ i ] = d2;
+				spots[ i ] = spot;
+			}
+			else if ( d2 < d2s[ 0 ] )
+			{
+				siftDown( spot, d2, size );
+			}
+		}
+
+		/**
+		 * Replaces the root of the heap of the specified size.
+		 */
+		private void siftDown( final Spot spot, final double d2, final int n )
+		{
+			int i = 0;
+			while ( true )
+			{
+				int child = 2 * i + 1;
+				if ( child >= n )
+				{
+					break;
+				}
+				if ( child + 1 < n && d2s[ child + 1 ] > d2s[ child ] )
+				{
+					child++;
+				}
+				if ( d2s[ child ] <= d2 )
+				{
+					break;
+				}
+				d2s[ i ] = d2s[ child ];
+				spots[ i ] = spots[ child ];
+				i = child;
+			}
+			d2s[ i ] = d2;
+			spots[ i ] = spot;
+		}
+
+		/**
+		 * Empties the heap into a list sorted by increasing distance.
+		 */
+		private List< Spot > sorted()
+		{
+			final Spot[] ordered = new Spot[ size ];
+			for ( int n = size; n > 0; n-- )
+			{
+				ordered[ n - 1 ] = spots[ 0 ];
+				siftDown( spots[ n - 1 ], d2s[ n - 1 ], n - 1 );
+			}
+			size = 0;
+			final List< Spot > list = new ArrayList< Spot >( ordered.length );
+			for ( final Spot spot : ordered )
+			{
+				list.add( spot );
+			}
+			return list;
+		}
+	}
+}
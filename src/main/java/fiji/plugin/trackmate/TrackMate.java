@@ -3,7 +3,11 @@ package fiji.plugin.trackmate;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -12,10 +16,12 @@ import net.imglib2.algorithm.Algorithm;
 import net.imglib2.algorithm.Benchmark;
 import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.meta.ImgPlus;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.SimpleWeightedGraph;
 
+import fiji.plugin.trackmate.detection.DetectionSink;
+import fiji.plugin.trackmate.detection.LogDetectorFactory;
+import fiji.plugin.trackmate.detection.SpotCollectionSink;
 import fiji.plugin.trackmate.detection.SpotDetector;
 import fiji.plugin.trackmate.detection.SpotDetectorFactory;
 import fiji.plugin.trackmate.features.EdgeFeatureCalculator;
@@ -23,6 +29,8 @@ import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.features.SpotFeatureCalculator;
 import fiji.plugin.trackmate.features.TrackFeatureCalculator;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
 import fiji.plugin.trackmate.util.TMUtils;
 
 /**
@@ -55,10 +63,35 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 
 	protected long processingTime;
 
-	protected String errorMessage;
+	protected volatile String errorMessage;
 
 	protected int numThreads = Runtime.getRuntime().availableProcessors();
 
+	/**
+	 * The sink detected spots are sent to. If <code>null</code>, they are
+	 * stored in the model.
+	 */
+	protected DetectionSink detectionSink;
+
+	/**
+	 * The maximal number of frames processed at once by detectors. Each of
+	 * them holds a copy of its frame, so this bounds the memory used by
+	 * detection.
+	 */
+	protected int maxFramesInFlight = Integer.MAX_VALUE;
+
+	/**
+	 * The executor service all the parallel steps run on. Created lazily with
+	 * {@link #numThreads} threads, unless one is specified by the caller.
+	 */
+	private ExecutorService executorService;
+
+	/**
+	 * If <code>true</code>, the executor service was specified by the caller
+	 * and this instance must not replace it.
+	 */
+	private boolean externalExecutorService = false;
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -142,6 +175,84 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		return settings;
 	}
 
+	/**
+	 * Sets the sink that will receive the spots found by
+	 * {@link #execDetection()}, frame by frame. If <code>null</code> (the
+	 * default), the spots are stored in the {@link SpotCollection} of the
+	 * model. Otherwise, the model spots are left untouched by detection.
+	 *
+	 * @param detectionSink
+	 *            the sink to use, or <code>null</code>.
+	 */
+	public void setDetectionSink( final DetectionSink detectionSink )
+	{
+		this.detectionSink = detectionSink;
+	}
+
+	/**
+	 * Sets the maximal number of frames that are processed at once during
+	 * detection. Each frame being processed holds a copy of its pixels, so
+	 * this bounds the memory used by detection, regardless of the number of
+	 * threads. Threads that are not used to process more frames are given to
+	 * the detectors of the frames being processed.
+	 *
+	 * @param maxFramesInFlight
+	 *            the maximal number of frames processed at once. Must be
+	 *            strictly positive.
+	 */
+	public void setMaxFramesInFlight( final int maxFramesInFlight )
+	{
+		this.maxFramesInFlight = Math.max( 1, maxFramesInFlight );
+	}
+
+	/**
+	 * Returns the executor service shared by all the parallel steps of this
+	 * instance: detection, filtering, feature calculation and tracking. Nested
+	 * parallel sections, for instance a multi-threaded detector running on
+	 * several frames at once, share its threads, so the total number of
+	 * threads stays bounded by {@link #getNumThreads()}.
+	 *
+	 * @return the executor service.
+	 */
+	public synchronized ExecutorService getExecutorService()
+	{
+		if ( null == executorService )
+		{
+			executorService = TMExecutors.newSharedExecutor( numThreads );
+		}
+		return executorService;
+	}
+
+	/**
+	 * Sets the executor service all the parallel steps of this instance run
+	 * on. This is useful to share the threads of several instances running at
+	 * once. The executor is not shut down by this instance. The best results
+	 * are obtained with executors returned by
+	 * {@link TMExecutors#newSharedExecutor(int)}: executors that queue tasks
+	 * can deadlock when parallel sections are nested.
+	 *
+	 * @param executorService
+	 *            the executor service to use, or <code>null</code> to let this
+	 *            instance create its own.
+	 */
+	public synchronized void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+		this.externalExecutorService = null != executorService;
+	}
+
+	/**
+	 * Passes the shared executor service to the specified algorithm, if it can
+	 * use it.
+	 */
+	private void shareExecutorService( final Object algorithm )
+	{
+		if ( algorithm instanceof ExecutorServiceAware )
+		{
+			( ( ExecutorServiceAware ) algorithm ).setExecutorService( getExecutorService() );
+		}
+	}
+
 	/*
 	 * PROCESSES
 	 */
@@ -164,7 +275,11 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		final Logger logger = model.getLogger();
 		logger.log( "Computing spot features.\n" );
 		final SpotFeatureCalculator calculator = new SpotFeatureCalculator( model, settings );
-		if ( calculator.checkInput() && calculator.process() )
+		calculator.setNumThreads( numThreads );
+		calculator.setExecutorService( getExecutorService() );
+		final boolean ok = calculator.checkInput() && calculator.process();
+		model.getSpots().invalidateFeatureIndex();
+		if ( ok )
 		{
 			if ( doLogIt )
 			{
@@ -196,6 +311,8 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 	{
 		final Logger logger = model.getLogger();
 		final EdgeFeatureCalculator calculator = new EdgeFeatureCalculator( model, settings );
+		calculator.setNumThreads( numThreads );
+		calculator.setExecutorService( getExecutorService() );
 		if ( !calculator.checkInput() || !calculator.process() )
 		{
 			errorMessage = "Edge features calculation failed:\n" + calculator.getErrorMessage();
@@ -217,6 +334,8 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 	{
 		final Logger logger = model.getLogger();
 		final TrackFeatureCalculator calculator = new TrackFeatureCalculator( model, settings );
+		calculator.setNumThreads( numThreads );
+		calculator.setExecutorService( getExecutorService() );
 		if ( calculator.checkInput() && calculator.process() )
 		{
 			if ( doLogIt )
@@ -251,6 +370,7 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		logger.log( "Starting tracking process.\n" );
 		final SpotTracker tracker = settings.trackerFactory.create( model.getSpots(), settings.trackerSettings );
 		tracker.setNumThreads( numThreads );
+		shareExecutorService( tracker );
 		tracker.setLogger( logger );
 		if ( tracker.checkInput() && tracker.process() )
 		{
@@ -271,6 +391,10 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 	 * the source image and the detectr settings and execute the detection
 	 * process for all the frames set in the {@link Settings} object of the
 	 * target model.
+	 * <p>
+	 * The spots of each frame are sent to the detection sink as soon as the
+	 * frame is processed (see {@link #setDetectionSink(DetectionSink)}). At
+	 * most {@link #setMaxFramesInFlight(int)} frames are processed at once.
 	 *
 	 * @return true if the whole detection step has executed correctly.
 	 */
@@ -369,8 +493,20 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 
 		final int numFrames = settings.tend - settings.tstart + 1;
 		// Final results holder, for all frames
-		final SpotCollection spots = new SpotCollection();
-		spots.setNumThreads( numThreads );
+		final SpotCollection spots;
+		final DetectionSink sink;
+		if ( null == detectionSink )
+		{
+			spots = new SpotCollection();
+			spots.setNumThreads( numThreads );
+			spots.setExecutorService( getExecutorService() );
+			sink = new SpotCollectionSink( spots );
+		}
+		else
+		{
+			spots = null;
+			sink = detectionSink;
+		}
 		// To report progress
 		final AtomicInteger spotFound = new AtomicInteger( 0 );
 		final AtomicInteger progress = new AtomicInteger( 0 );
@@ -383,34 +519,61 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		 * frame. But if we have 10 threads and 2 frames, we process the 2
 		 * frames at once, and allocate 5 threads per frame if we can.
 		 */
-		final int nSimultaneousFrames = Math.min( numThreads, numFrames );
+		final int nSimultaneousFrames = Math.min( maxFramesInFlight, Math.min( numThreads, numFrames ) );
 		final int threadsPerFrame = Math.max( 1, numThreads / nSimultaneousFrames );
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( nSimultaneousFrames );
+		final Runnable[] workers = new Runnable[ nSimultaneousFrames ];
 		final AtomicBoolean ok = new AtomicBoolean( true );
 
-		// Prepare the thread array
-		final AtomicInteger ai = new AtomicInteger( settings.tstart );
-		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		/*
+		 * Detection threads hand the spots of each frame to a single consumer
+		 * thread through a bounded queue. If the sink is slower than detection,
+		 * detection threads wait instead of accumulating results.
+		 */
+		final BlockingQueue< FrameSpots > queue = new ArrayBlockingQueue< FrameSpots >( nSimultaneousFrames );
+		final Thread consumer = new Thread( "TrackMate spot detection sink thread" )
 		{
-
-			threads[ ithread ] = new Thread( "TrackMate spot detection thread " + ( 1 + ithread ) + "/" + threads.length )
+			@Override
+			public void run()
 			{
-				private boolean wasInterrupted()
+				try
 				{
-					try
+					for ( FrameSpots fs = queue.take(); fs != FrameSpots.END; fs = queue.take() )
 					{
-						if ( isInterrupted() )
-							return true;
-						sleep( 0 );
-						return false;
-					}
-					catch ( final InterruptedException e )
-					{
-						return true;
+						// After a failure, keep draining to release producers.
+						if ( !ok.get() )
+						{
+							continue;
+						}
+						try
+						{
+							if ( !sink.put( fs.frame, fs.spots ) )
+							{
+								errorMessage = sink.getErrorMessage();
+								ok.set( false );
+							}
+						}
+						catch ( final Throwable t )
+						{
+							errorMessage = "Detection sink failed on frame " + fs.frame + ":\n" + t + "\n";
+							ok.set( false );
+						}
 					}
 				}
+				catch ( final InterruptedException e )
+				{
+					ok.set( false );
+				}
+			}
+		};
+
+		// Prepare the worker array
+		final AtomicInteger ai = new AtomicInteger( settings.tstart );
+		for ( int iworker = 0; iworker < workers.length; iworker++ )
+		{
 
+			workers[ iworker ] = new Runnable()
+			{
 				@Override
 				public void run()
 				{
@@ -425,8 +588,9 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 								final MultiThreaded md = ( MultiThreaded ) detector;
 								md.setNumThreads( threadsPerFrame );
 							}
+							shareExecutorService( detector );
 
-							if ( wasInterrupted() )
+							if ( Thread.currentThread().isInterrupted() )
 								return;
 
 							// Execute detection
@@ -471,8 +635,8 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 									// SpotCollection.
 									spot.putFeature( Spot.POSITION_T, frame * settings.dt );
 								}
-								// Store final results for this frame
-								spots.put( frame, prunedSpots );
+								// Send final results for this frame
+								queue.put( new FrameSpots( frame, prunedSpots ) );
 								// Report
 								spotFound.addAndGet( prunedSpots.size() );
 								logger.setProgress( progress.incrementAndGet() / ( double ) numFrames );
@@ -480,13 +644,18 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 							}
 							else
 							{
-								// Fail: exit and report error.
-								ok.set( false );
-								errorMessage = detector.getErrorMessage();
+								// Fail: exit and report error, unless another
+								// thread or the sink already did.
+								if ( ok.getAndSet( false ) )
+									errorMessage = detector.getErrorMessage();
 								return;
 							}
 
 						}
+						catch ( final InterruptedException e )
+						{
+							return;
+						}
 						catch ( final RuntimeException e )
 						{
 							final Throwable cause = e.getCause();
@@ -500,9 +669,11 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		logger.setStatus( "Detection..." );
 		logger.setProgress( 0 );
 
+		consumer.start();
 		try
 		{
-			SimpleMultiThreading.startAndJoin( threads );
+			// Workers are interrupted and joined on interruption.
+			TMExecutors.startAndJoin( getExecutorService(), workers );
 		}
 		catch ( final RuntimeException e )
 		{
@@ -510,27 +681,41 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 			if ( e.getCause() != null && e.getCause() instanceof InterruptedException )
 			{
 				errorMessage = "Detection workers interrupted.\n";
-				for ( final Thread thread : threads )
-					thread.interrupt();
-				for ( final Thread thread : threads )
-				{
-					if ( thread.isAlive() )
-						try
-						{
-							thread.join();
-						}
-						catch ( final InterruptedException e2 )
-						{
-							// ignore
-						}
-				}
 			}
 			else
 			{
 				throw e;
 			}
 		}
-		model.setSpots( spots, true );
+		finally
+		{
+			// Let the consumer flush the queue and stop.
+			try
+			{
+				queue.put( FrameSpots.END );
+				consumer.join();
+			}
+			catch ( final InterruptedException e )
+			{
+				consumer.interrupt();
+				ok.set( false );
+			}
+			// The buffers shared by the detectors are not needed anymore.
+			if ( factory instanceof LogDetectorFactory )
+			{
+				( ( LogDetectorFactory< ? > ) factory ).releaseWorkspace();
+			}
+		}
+
+		if ( !sink.close() && ok.get() )
+		{
+			errorMessage = sink.getErrorMessage();
+			ok.set( false );
+		}
+		if ( null != spots )
+		{
+			model.setSpots( spots, true );
+		}
 
 		if ( ok.get() )
 		{
@@ -579,12 +764,23 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		final Double initialSpotFilterValue = settings.initialSpotFilterValue;
 		final FeatureFilter featureFilter = new FeatureFilter( Spot.QUALITY, initialSpotFilterValue, true );
 
-		SpotCollection spots = model.getSpots();
+		final SpotCollection spots = model.getSpots();
+		spots.setExecutorService( getExecutorService() );
 		spots.filter( featureFilter );
+		if ( null != spots.getErrorMessage() )
+		{
+			errorMessage = "Initial spot filtering failed:\n" + spots.getErrorMessage();
+			return false;
+		}
 
-		spots = spots.crop();
+		final SpotCollection cropped = spots.crop();
+		if ( null != spots.getErrorMessage() )
+		{
+			errorMessage = "Initial spot filtering failed:\n" + spots.getErrorMessage();
+			return false;
+		}
 
-		model.setSpots( spots, true ); // Forget about the previous one
+		model.setSpots( cropped, true ); // Forget about the previous one
 		return true;
 	}
 
@@ -614,7 +810,13 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 			final Logger logger = model.getLogger();
 			logger.log( "Starting spot filtering process.\n" );
 		}
+		model.getSpots().setExecutorService( getExecutorService() );
 		model.filterSpots( settings.getSpotFilters(), true );
+		if ( null != model.getSpots().getErrorMessage() )
+		{
+			errorMessage = "Spot filtering failed:\n" + model.getSpots().getErrorMessage();
+			return false;
+		}
 		return true;
 	}
 
@@ -733,14 +935,29 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 	@Override
 	public void setNumThreads()
 	{
-		this.numThreads = Runtime.getRuntime().availableProcessors();
+		setNumThreads( Runtime.getRuntime().availableProcessors() );
 	}
 
+	/**
+	 * Sets the number of threads to use. Unless it was specified by the
+	 * caller, the executor service of this instance is replaced by one with
+	 * this number of threads, and passed to the spot collection of the model.
+	 * The former executor is not shut down, for it may still be used by
+	 * algorithms running or holding a reference to it; its threads stop when
+	 * idle.
+	 */
 	@Override
-	public void setNumThreads( final int numThreads )
+	public synchronized void setNumThreads( final int numThreads )
 	{
 		this.numThreads = numThreads;
-
+		if ( !externalExecutorService && null != executorService )
+		{
+			executorService = null;
+			if ( null != model && null != model.getSpots() )
+			{
+				model.getSpots().setExecutorService( getExecutorService() );
+			}
+		}
 	}
 
 	@Override
@@ -749,4 +966,26 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm
 		return processingTime;
 	};
 
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The spots of one frame, passed from detection threads to the detection
+	 * sink.
+	 */
+	private static final class FrameSpots
+	{
+		private static final FrameSpots END = new FrameSpots( -1, Collections.< Spot > emptyList() );
+
+		private final int frame;
+
+		private final List< Spot > spots;
+
+		private FrameSpots( final int frame, final List< Spot > spots )
+		{
+			this.frame = frame;
+			this.spots = spots;
+		}
+	}
 }
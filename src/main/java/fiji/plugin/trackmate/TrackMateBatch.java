@@ -1,122 +1,723 @@
 package fiji.plugin.trackmate;
 
-import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
-import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
-import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
 import fiji.plugin.trackmate.action.ISBIChallengeExporter;
 import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.io.TmXmlStreamWriter;
+import fiji.plugin.trackmate.io.TmXmlWriter;
 import fiji.plugin.trackmate.providers.DetectorProvider;
 import fiji.plugin.trackmate.providers.EdgeAnalyzerProvider;
 import fiji.plugin.trackmate.providers.SpotAnalyzerProvider;
 import fiji.plugin.trackmate.providers.TrackAnalyzerProvider;
 import fiji.plugin.trackmate.providers.TrackerProvider;
-import fiji.plugin.trackmate.tracking.SpotTrackerFactory;
-import fiji.plugin.trackmate.tracking.sparselap.SimpleSparseLAPTrackerFactory;
+import ij.IJ;
+import ij.ImagePlus;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 
+import net.imglib2.algorithm.Algorithm;
+import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
 
-public class TrackMateBatch
+import org.jdom2.Element;
+
+/**
+ * Headless batch runner. The settings stored in a TrackMate XML file are
+ * applied to a list of images: each image goes through the full TrackMate
+ * pipeline (detection, spot filtering, tracking, feature calculation and track
+ * filtering) and the results are saved in an output folder, as a TrackMate XML
+ * file named after the image.
+ * <p>
+ * Several images are processed at once. The thread budget is split evenly
+ * between them, and each TrackMate instance gets its own share.
+ * <p>
+ * Progress is recorded in a tab-separated report file in the output folder,
+ * one line per processed image with the time spent in each step. Images
+ * already reported as successfully processed are skipped, so that an
+ * interrupted batch can be resumed by running the same command again.
+ */
+public class TrackMateBatch implements Algorithm, MultiThreaded, Benchmark
 {
 
-	public static void main( final String[] args )
+	/**
+	 * The name of the report file, written in the output folder.
+	 */
+	public static final String REPORT_FILE_NAME = "TrackMateBatch-report.txt";
+
+	/**
+	 * Default number of threads given to each image when the number of images
+	 * processed at once is not specified.
+	 */
+	public static final int DEFAULT_THREADS_PER_IMAGE = 4;
+
+	private static final String BASE_ERROR_MESSAGE = "[TrackMateBatch] ";
+
+	private static final String OK = "OK";
+
+	private static final String FAILED = "FAILED";
+
+	private static final String REPORT_HEADER = "Image\tStatus\tSpots\tTracks\tDetection (ms)\tSpot features (ms)\tTracking (ms)\tTrack features (ms)\tExport (ms)\tTotal (ms)\tMessage";
+
+	private static final String USAGE = "Usage: TrackMateBatch -template settings.xml -output folder [options] images...\n"
+			+ "  -template file   a TrackMate XML file whose settings are applied to all images.\n"
+			+ "  -output folder   where results and the report are written. Created if needed.\n"
+			+ "  -threads N       total number of threads to use. Default: all the cores.\n"
+			+ "  -parallel P      number of images processed at once. Default: threads / " + DEFAULT_THREADS_PER_IMAGE + ".\n"
+			+ "  -isbi            also export the tracks in the ISBI challenge format.\n"
+			+ "Images can be given as paths, as patterns with * and ? in the file name\n"
+			+ "(e.g. /data/movies/*.tif), or as @list.txt for a file listing one path per line.\n";
+
+	private final File template;
+
+	private final List< File > images;
+
+	private final File outputFolder;
+
+	private int numThreads;
+
+	private int nParallel = -1;
+
+	private boolean exportToISBI = false;
+
+	private Logger logger = Logger.DEFAULT_LOGGER;
+
+	private String errorMessage;
+
+	private long processingTime;
+
+	private TmXmlReader templateReader;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a batch runner.
+	 *
+	 * @param template
+	 *            the TrackMate XML file to read the settings from.
+	 * @param images
+	 *            the images to process.
+	 * @param outputFolder
+	 *            the folder to write results and report in.
+	 */
+	public TrackMateBatch( final File template, final List< File > images, final File outputFolder )
 	{
-		final Logger logger = Logger.DEFAULT_LOGGER;
+		this.template = template;
+		this.images = images;
+		this.outputFolder = outputFolder;
+		setNumThreads();
+	}
+
+	/*
+	 * METHODS
+	 */
 
-		final File rootFolder = new File( "/Users/tinevez/Projects/JYTinevez/ISBI/GroundTruth/MICROTUBULE" );
+	/**
+	 * Sets the number of images processed at once. By default, each image
+	 * gets {@value #DEFAULT_THREADS_PER_IMAGE} threads.
+	 */
+	public void setNParallel( final int nParallel )
+	{
+		this.nParallel = nParallel;
+	}
 
-		final File exportFolder = new File( "/Users/tinevez/Projects/JYTinevez/ISBI/ISBI_scoring/TrackMate" );
+	/**
+	 * Sets whether the tracks of each image are also exported in the ISBI
+	 * challenge format.
+	 */
+	public void setExportToISBI( final boolean exportToISBI )
+	{
+		this.exportToISBI = exportToISBI;
+	}
 
-		final FilenameFilter filter = new FilenameFilter()
+	public void setLogger( final Logger logger )
+	{
+		this.logger = logger;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( null == template || !template.canRead() )
 		{
-			@Override
-			public boolean accept( final File dir, final String name )
+			errorMessage = BASE_ERROR_MESSAGE + "Cannot read the settings template " + template + ".\n";
+			return false;
+		}
+		if ( null == images || images.isEmpty() )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "No image to process.\n";
+			return false;
+		}
+		final Map< String, File > names = new HashMap< String, File >( images.size() );
+		for ( final File image : images )
+		{
+			final File other = names.put( baseName( image ), image );
+			if ( null != other && !other.equals( image ) )
 			{
-				return name.toLowerCase().startsWith( "microtubule" ) & name.toLowerCase().endsWith( "tm.xml" );
+				errorMessage = BASE_ERROR_MESSAGE + "Images " + other + " and " + image + " would be saved to the same file.\n";
+				return false;
 			}
-		};
+		}
+		if ( null == outputFolder || !( outputFolder.isDirectory() || outputFolder.mkdirs() ) )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Cannot create the output folder " + outputFolder + ".\n";
+			return false;
+		}
 
-		final String[] trackmateFiles = rootFolder.list( filter );
+		templateReader = new TemplateReader( template );
+		if ( !templateReader.isReadingOk() )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + templateReader.getErrorMessage();
+			return false;
+		}
+		final Settings settings = readSettings();
+		if ( null == settings.detectorFactory || null == settings.trackerFactory )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The template " + template + " does not specify a detector and a tracker.\n";
+			return false;
+		}
+		return true;
+	}
 
-		final DetectorProvider detectorProvider = new DetectorProvider();
-		final TrackerProvider trackerProvider = new TrackerProvider();
-		final SpotAnalyzerProvider spotAnalyzerProvider = new SpotAnalyzerProvider();
-		final EdgeAnalyzerProvider edgeAnalyzerProvider = new EdgeAnalyzerProvider();
-		final TrackAnalyzerProvider trackAnalyzerProvider = new TrackAnalyzerProvider();
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+		final File reportFile = new File( outputFolder, REPORT_FILE_NAME );
 
-		for ( final String trackmateFile : trackmateFiles )
+		final List< File > todo = new ArrayList< File >( images.size() );
+		try
 		{
-			// Open file
-			final File path = new File( rootFolder.getAbsolutePath(), trackmateFile );
-			logger.log( "\n" + path + '\n' );
-
-			// Check if already done.
-			final File exportPath = new File( exportFolder, trackmateFile );
-			if ( exportPath.exists() )
+			final Set< String > done = readDone( reportFile );
+			for ( final File image : images )
 			{
-				logger.flush();
-				logger.log( "Exported file exists. Skipping.\n" );
-				continue;
+				if ( !done.contains( image.getAbsolutePath() ) )
+				{
+					todo.add( image );
+				}
 			}
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Could not read the report " + reportFile + ":\n" + e.getMessage();
+			return false;
+		}
+		logger.log( "Processing " + todo.size() + " images. " + ( images.size() - todo.size() ) + " images were already processed.\n" );
+		if ( todo.isEmpty() )
+		{
+			processingTime = System.currentTimeMillis() - start;
+			return true;
+		}
 
+		final int nJobs = Math.min( todo.size(), nParallel > 0 ? nParallel : Math.max( 1, numThreads / DEFAULT_THREADS_PER_IMAGE ) );
+		final int threadsPerJob = Math.max( 1, numThreads / nJobs );
+		logger.log( "Running " + nJobs + " images at once, with " + threadsPerJob + " threads each.\n" );
 
-			final TmXmlReader reader = new TmXmlReader( path );
-			if ( !reader.isReadingOk() )
+		PrintWriter report = null;
+		final ExecutorService executor = Executors.newFixedThreadPool( nJobs );
+		int nFailed = 0;
+		try
+		{
+			final boolean writeHeader = !reportFile.exists();
+			report = new PrintWriter( new FileWriter( reportFile, true ) );
+			if ( writeHeader )
 			{
-				logger.flush();
-				logger.error( reader.getErrorMessage() );
-				continue;
+				report.println( REPORT_HEADER );
+				report.flush();
 			}
 
-			// Read model
-			final Model model = reader.getModel();
-			if ( !reader.isReadingOk() )
+			final CompletionService< Result > completion = new ExecutorCompletionService< Result >( executor );
+			for ( final File image : todo )
 			{
-				logger.flush();
-				logger.error( reader.getErrorMessage() );
-				continue;
+				completion.submit( new Callable< Result >()
+				{
+					@Override
+					public Result call() throws Exception
+					{
+						return run( image, threadsPerJob );
+					}
+				} );
 			}
-			model.setLogger( logger );
 
-			// Read settings
-			final Settings settings = new Settings();
-			reader.readSettings( settings, detectorProvider, trackerProvider, spotAnalyzerProvider, edgeAnalyzerProvider, trackAnalyzerProvider );
-			if ( !reader.isReadingOk() )
+			for ( int i = 0; i < todo.size(); i++ )
 			{
-				logger.flush();
-				logger.error( reader.getErrorMessage() );
-				continue;
+				final Result result = completion.take().get();
+				report.println( result.toString() );
+				report.flush();
+				if ( !result.ok )
+				{
+					nFailed++;
+					logger.error( "Failed on " + result.image + ":\n" + result.message + '\n' );
+				}
+				else
+				{
+					logger.log( result.image + " done in " + result.total + " ms.\n" );
+				}
+				logger.setProgress( ( double ) ( i + 1 ) / todo.size() );
 			}
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Could not write the report " + reportFile + ":\n" + e.getMessage();
+			return false;
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			errorMessage = BASE_ERROR_MESSAGE + "Interrupted. Run again to resume.\n";
+			return false;
+		}
+		catch ( final ExecutionException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Unexpected error:\n" + e.getCause();
+			return false;
+		}
+		finally
+		{
+			executor.shutdownNow();
+			if ( null != report )
+			{
+				report.close();
+			}
+		}
+
+		processingTime = System.currentTimeMillis() - start;
+		if ( nFailed > 0 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + nFailed + " images out of " + todo.size() + " failed. See " + reportFile + ".\n";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
 
-			// Edit settings
-			final SpotTrackerFactory tf = new SimpleSparseLAPTrackerFactory();
-			final Map< String, Object > ts = tf.getDefaultSettings();
-			ts.put( KEY_LINKING_MAX_DISTANCE, 10d );
-			ts.put( KEY_GAP_CLOSING_MAX_DISTANCE, 15d );
-			ts.put( KEY_GAP_CLOSING_MAX_FRAME_GAP, 2 );
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
 
-			settings.trackerFactory = tf;
-			settings.trackerSettings = ts;
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Runs the full pipeline on one image and saves the results. Never throws:
+	 * any failure is recorded in the result, so that the other images are
+	 * still processed.
+	 */
+	private Result run( final File image, final int threads )
+	{
+		final Result result = new Result( image );
+		final long start = System.currentTimeMillis();
+		ImagePlus imp = null;
+		try
+		{
+			imp = IJ.openImage( image.getAbsolutePath() );
+			if ( null == imp ) { return result.fail( "Cannot open image." ); }
 
-			// Re-run TrackMate for the tracking part
+			final Settings settings = readSettings();
+			settings.setFrom( imp );
+			final Model model = new Model();
+			model.setLogger( Logger.VOID_LOGGER );
 			final TrackMate trackmate = new TrackMate( model, settings );
-			final boolean trackingOk = trackmate.execTracking();
-			if ( !trackingOk )
+			trackmate.setNumThreads( threads );
+			if ( !trackmate.checkInput() ) { return result.fail( trackmate.getErrorMessage() ); }
+
+			long t0 = System.currentTimeMillis();
+			if ( !trackmate.execDetection() || !trackmate.execInitialSpotFiltering() ) { return result.fail( trackmate.getErrorMessage() ); }
+			long t1 = System.currentTimeMillis();
+			result.detection = t1 - t0;
+
+			t0 = t1;
+			if ( !trackmate.computeSpotFeatures( false ) || !trackmate.execSpotFiltering( false ) ) { return result.fail( trackmate.getErrorMessage() ); }
+			t1 = System.currentTimeMillis();
+			result.spotFeatures = t1 - t0;
+
+			t0 = t1;
+			if ( !trackmate.execTracking() ) { return result.fail( trackmate.getErrorMessage() ); }
+			t1 = System.currentTimeMillis();
+			result.tracking = t1 - t0;
+
+			t0 = t1;
+			if ( !trackmate.computeTrackFeatures( false ) || !trackmate.execTrackFiltering( false ) || !trackmate.computeEdgeFeatures( false ) ) { return result.fail( trackmate.getErrorMessage() ); }
+			t1 = System.currentTimeMillis();
+			result.trackFeatures = t1 - t0;
+
+			t0 = t1;
+			final String name = baseName( image );
+			final TmXmlWriter writer = new TmXmlStreamWriter( new File( outputFolder, name + ".xml" ) );
+			writer.appendModel( model );
+			writer.appendSettings( settings );
+			writer.writeToFile();
+			if ( exportToISBI )
 			{
-				logger.flush();
-				logger.error( trackmate.getErrorMessage() );
+				ISBIChallengeExporter.exportToFile( model, settings, new File( outputFolder, name + "_ISBI.xml" ) );
 			}
+			t1 = System.currentTimeMillis();
+			result.export = t1 - t0;
 
-			// Then export to ISBI
-			ISBIChallengeExporter.exportToFile( model, settings, exportPath );
-			logger.flush();
+			result.nSpots = model.getSpots().getNSpots( true );
+			result.nTracks = model.getTrackModel().nTracks( true );
+			result.ok = true;
+			return result;
+		}
+		catch ( final IOException e )
+		{
+			return result.fail( "Cannot save results: " + e.getMessage() );
+		}
+		catch ( final OutOfMemoryError e )
+		{
+			return result.fail( "Out of memory. Try processing fewer images at once." );
+		}
+		catch ( final Throwable e )
+		{
+			return result.fail( e.toString() );
+		}
+		finally
+		{
+			if ( null != imp )
+			{
+				imp.flush();
+			}
+			result.total = System.currentTimeMillis() - start;
+		}
+	}
 
+	/**
+	 * Reads a new settings object from the template. The providers are
+	 * re-created each time, so that each image gets its own detector factory:
+	 * detector factories store their target image.
+	 */
+	private Settings readSettings()
+	{
+		final Settings settings = new Settings();
+		synchronized ( templateReader )
+		{
+			templateReader.readSettings( settings, new DetectorProvider(), new TrackerProvider(), new SpotAnalyzerProvider(), new EdgeAnalyzerProvider(), new TrackAnalyzerProvider() );
+		}
+		return settings;
+	}
+
+	/**
+	 * Returns the absolute paths of the images reported as successfully
+	 * processed in the specified report file.
+	 */
+	static Set< String > readDone( final File reportFile ) throws IOException
+	{
+		final Set< String > done = new HashSet< String >();
+		if ( !reportFile.exists() ) { return done; }
+
+		final BufferedReader reader = new BufferedReader( new FileReader( reportFile ) );
+		try
+		{
+			String line;
+			while ( ( line = reader.readLine() ) != null )
+			{
+				final String[] tokens = line.split( "\t" );
+				if ( tokens.length > 1 && OK.equals( tokens[ 1 ] ) )
+				{
+					done.add( tokens[ 0 ] );
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return done;
+	}
+
+	private static String baseName( final File image )
+	{
+		final String name = image.getName();
+		final int dot = name.lastIndexOf( '.' );
+		return dot > 0 ? name.substring( 0, dot ) : name;
+	}
+
+	/**
+	 * Expands the specified command-line argument into a list of image files.
+	 * Arguments starting with <code>@</code> are files listing one argument
+	 * per line. Arguments with <code>*</code> or <code>?</code> in their file
+	 * name are matched against the content of their parent folder.
+	 */
+	static List< File > expand( final String arg ) throws IOException
+	{
+		final List< File > files = new ArrayList< File >();
+		if ( arg.startsWith( "@" ) )
+		{
+			final BufferedReader reader = new BufferedReader( new FileReader( arg.substring( 1 ) ) );
+			try
+			{
+				String line;
+				while ( ( line = reader.readLine() ) != null )
+				{
+					line = line.trim();
+					if ( !line.isEmpty() && !line.startsWith( "#" ) )
+					{
+						files.addAll( expand( line ) );
+					}
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+			return files;
+		}
+
+		final File file = new File( arg );
+		final String name = file.getName();
+		if ( name.indexOf( '*' ) < 0 && name.indexOf( '?' ) < 0 )
+		{
+			files.add( file );
+			return files;
+		}
+
+		final File folder = null == file.getParentFile() ? new File( "." ) : file.getParentFile();
+		final Pattern pattern = Pattern.compile( globToRegex( name ) );
+		final String[] names = folder.list( new FilenameFilter()
+		{
+			@Override
+			public boolean accept( final File dir, final String n )
+			{
+				return pattern.matcher( n ).matches() && new File( dir, n ).isFile();
+			}
+		} );
+		if ( null != names )
+		{
+			Arrays.sort( names );
+			for ( final String n : names )
+			{
+				files.add( new File( folder, n ) );
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Returns the regular expression matching the same file names as the
+	 * specified pattern, where <code>*</code> matches any sequence of
+	 * characters and <code>?</code> any single character.
+	 */
+	static String globToRegex( final String glob )
+	{
+		final StringBuilder regex = new StringBuilder();
+		for ( final char c : glob.toCharArray() )
+		{
+			if ( c == '*' )
+			{
+				regex.append( ".*" );
+			}
+			else if ( c == '?' )
+			{
+				regex.append( '.' );
+			}
+			else
+			{
+				regex.append( Pattern.quote( String.valueOf( c ) ) );
+			}
+		}
+		return regex.toString();
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Reads settings without opening the image the template was made on.
+	 */
+	private static class TemplateReader extends TmXmlReader
+	{
+
+		public TemplateReader( final File file )
+		{
+			super( file );
 		}
 
-		logger.log( "\nDone." );
+		@Override
+		protected ImagePlus getImage( final Element settingsElement )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * The outcome of one image, as a line of the report.
+	 */
+	private static class Result
+	{
+
+		private final File image;
+
+		private boolean ok = false;
+
+		private String message = "";
+
+		private int nSpots = -1;
+
+		private int nTracks = -1;
+
+		private long detection = -1;
+
+		private long spotFeatures = -1;
+
+		private long tracking = -1;
+
+		private long trackFeatures = -1;
+
+		private long export = -1;
+
+		private long total = -1;
+
+		private Result( final File image )
+		{
+			this.image = image;
+		}
+
+		private Result fail( final String msg )
+		{
+			this.ok = false;
+			this.message = null == msg ? "" : msg.replace( '\t', ' ' ).replace( '\n', ' ' ).trim();
+			return this;
+		}
 
+		@Override
+		public String toString()
+		{
+			return image.getAbsolutePath() + '\t' + ( ok ? OK : FAILED ) + '\t' + nSpots + '\t' + nTracks + '\t'
+					+ detection + '\t' + spotFeatures + '\t' + tracking + '\t' + trackFeatures + '\t' + export + '\t' + total + '\t'
+					+ message;
+		}
 	}
 
+	/*
+	 * MAIN METHOD
+	 */
+
+	public static void main( final String[] args )
+	{
+		if ( null == System.getProperty( "java.awt.headless" ) )
+		{
+			System.setProperty( "java.awt.headless", "true" );
+		}
+
+		File template = null;
+		File output = null;
+		int threads = -1;
+		int parallel = -1;
+		boolean isbi = false;
+		final List< File > images = new ArrayList< File >();
+		try
+		{
+			for ( int i = 0; i < args.length; i++ )
+			{
+				final String arg = args[ i ];
+				if ( arg.equals( "-template" ) && i + 1 < args.length )
+				{
+					template = new File( args[ ++i ] );
+				}
+				else if ( arg.equals( "-output" ) && i + 1 < args.length )
+				{
+					output = new File( args[ ++i ] );
+				}
+				else if ( arg.equals( "-threads" ) && i + 1 < args.length )
+				{
+					threads = Integer.parseInt( args[ ++i ] );
+				}
+				else if ( arg.equals( "-parallel" ) && i + 1 < args.length )
+				{
+					parallel = Integer.parseInt( args[ ++i ] );
+				}
+				else if ( arg.equals( "-isbi" ) )
+				{
+					isbi = true;
+				}
+				else if ( arg.startsWith( "-" ) )
+				{
+					System.err.println( "Unknown option: " + arg + '\n' + USAGE );
+					System.exit( 2 );
+				}
+				else
+				{
+					images.addAll( expand( arg ) );
+				}
+			}
+		}
+		catch ( final NumberFormatException e )
+		{
+			System.err.println( "Invalid number: " + e.getMessage() + '\n' + USAGE );
+			System.exit( 2 );
+		}
+		catch ( final IOException e )
+		{
+			System.err.println( "Cannot read image list: " + e.getMessage() );
+			System.exit( 2 );
+		}
+
+		if ( null == template || null == output )
+		{
+			System.err.println( USAGE );
+			System.exit( 2 );
+		}
+
+		final TrackMateBatch batch = new TrackMateBatch( template, images, output );
+		if ( threads > 0 )
+		{
+			batch.setNumThreads( threads );
+		}
+		batch.setNParallel( parallel );
+		batch.setExportToISBI( isbi );
+		if ( !batch.checkInput() || !batch.process() )
+		{
+			System.err.println( batch.getErrorMessage() );
+			System.exit( 1 );
+		}
+		Logger.DEFAULT_LOGGER.log( "Done in " + batch.getProcessingTime() / 1000 + " s.\n" );
+		System.exit( 0 );
+	}
 }
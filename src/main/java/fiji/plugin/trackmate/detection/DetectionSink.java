@@ -0,0 +1,55 @@
+package fiji.plugin.trackmate.detection;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackMate;
+
+import java.util.List;
+
+/**
+ * Interface for classes that receive the spots found by the detection step,
+ * frame by frame, as soon as each frame has been processed.
+ * <p>
+ * {@link TrackMate#execDetection()} pushes the spots of each frame to a sink
+ * instead of keeping them all in memory until the end of detection, so that
+ * the spots can be stored in a {@link fiji.plugin.trackmate.SpotCollection},
+ * written to disk or passed to a downstream process.
+ * <p>
+ * Frames are not guaranteed to be received in ascending order, but the
+ * methods of a sink are never called concurrently.
+ */
+public interface DetectionSink
+{
+
+	/**
+	 * Receives the spots found in the specified frame.
+	 *
+	 * @param frame
+	 *            the frame the spots were found in.
+	 * @param spots
+	 *            the spots found in this frame, already translated in the
+	 *            image coordinate system. The {@link Spot#POSITION_T} feature
+	 *            is set, but not the {@link Spot#FRAME} feature.
+	 * @return <code>true</code> if the spots were processed successfully. If
+	 *         <code>false</code>, the detection process is stopped and an
+	 *         error message can be obtained through {@link #getErrorMessage()}
+	 *         .
+	 */
+	public boolean put( int frame, List< Spot > spots );
+
+	/**
+	 * Notifies this sink that the detection process is over, and that no more
+	 * frames will be received.
+	 *
+	 * @return <code>true</code> if the sink could be closed successfully.
+	 */
+	public boolean close();
+
+	/**
+	 * Returns a meaningful error message after one of the methods of this sink
+	 * returned <code>false</code>.
+	 *
+	 * @return an error message.
+	 */
+	public String getErrorMessage();
+
+}
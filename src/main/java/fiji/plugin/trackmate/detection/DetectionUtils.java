@@ -119,6 +119,24 @@ public class DetectionUtils
 	public static final < T extends RealType< T >> Img< FloatType > copyToFloatImg( final RandomAccessible< T > img, final Interval interval, final ImgFactory< FloatType > factory )
 	{
 		final Img< FloatType > output = factory.create( interval, new FloatType() );
+		copyToFloatImg( img, interval, output );
+		return output;
+	}
+
+	/**
+	 * Copy an interval of the specified source image on an existing float
+	 * image.
+	 *
+	 * @param img
+	 *            the source image.
+	 * @param interval
+	 *            the interval in the source image to copy.
+	 * @param output
+	 *            the float image to copy to. Must have the dimensions of the
+	 *            interval, and its first pixel at coordinates (0, 0).
+	 */
+	public static final < T extends RealType< T >> void copyToFloatImg( final RandomAccessible< T > img, final Interval interval, final Img< FloatType > output )
+	{
 		final long[] min = new long[ interval.numDimensions() ];
 		interval.min( min );
 		final RandomAccess< T > in = Views.offset( img, min ).randomAccess();
@@ -131,7 +149,6 @@ public class DetectionUtils
 			in.setPosition( out );
 			c.convert( in.get(), out.get() );
 		}
-		return output;
 	}
 
 	/**
@@ -173,12 +190,55 @@ public class DetectionUtils
 	 */
 	public static final < R extends RealType< R > & NativeType< R >> Img< R > applyMedianFilter( final RandomAccessibleInterval< R > image )
 	{
-		final MedianFilter< R > medFilt = new MedianFilter< R >( image, 1 );
+		return applyMedianFilter( image, null, 1, null );
+	}
+
+	/**
+	 * Applies a 3x3 (2D) or 3x3x3 (3D) median filter to the target image.
+	 *
+	 * @param image
+	 *            the image to filter.
+	 * @param output
+	 *            the image to write the result in. Can be the source image
+	 *            itself, for in-place filtering. If <code>null</code>, a new
+	 *            image is created.
+	 * @param numThreads
+	 *            the number of threads to use.
+	 * @param service
+	 *            the executor service to run on. If <code>null</code>, new
+	 *            threads are created.
+	 * @return the filtered image, or <code>null</code> if the filter failed.
+	 */
+	public static final < R extends RealType< R > & NativeType< R >> Img< R > applyMedianFilter( final RandomAccessibleInterval< R > image, final Img< R > output, final int numThreads, final ExecutorService service )
+	{
+		final MedianFilter< R > medFilt = new MedianFilter< R >( image, 1, output );
+		medFilt.setNumThreads( numThreads );
+		medFilt.setExecutorService( service );
 		if ( !medFilt.checkInput() || !medFilt.process() ) { return null; }
 		return medFilt.getResult();
 	}
 
 	public static final List< Spot > findLocalMaxima( final RandomAccessibleInterval< FloatType > source, final double threshold, final double[] calibration, final double radius, final boolean doSubPixelLocalization, final int numThreads )
+	{
+		//		TODO: The "numThreads"-version of LocalExtrema.findLocalExtrema should really exist in imglib. After it does, replace the following lines by
+		//		final ArrayList< Point > peaks = LocalExtrema.findLocalExtrema( dogWithBorder, localNeighborhoodCheck, numThreads );
+		final ExecutorService service = Executors.newFixedThreadPool( numThreads );
+		try
+		{
+			return findLocalMaxima( source, threshold, calibration, radius, doSubPixelLocalization, numThreads, service );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * Finds the local maxima above the threshold in the specified image and
+	 * returns them as spots, running the search on the specified executor
+	 * service. The executor is not shut down.
+	 */
+	public static final List< Spot > findLocalMaxima( final RandomAccessibleInterval< FloatType > source, final double threshold, final double[] calibration, final double radius, final boolean doSubPixelLocalization, final int numThreads, final ExecutorService service )
 	{
 		/*
 		 * Find maxima.
@@ -188,11 +248,7 @@ public class DetectionUtils
 		val.setReal( threshold );
 		final LocalNeighborhoodCheck< Point, FloatType > localNeighborhoodCheck = new LocalExtrema.MaximumCheck< FloatType >( val );
 		final IntervalView< FloatType > dogWithBorder = Views.interval( Views.extendMirrorSingle( source ), Intervals.expand( source, 1 ) );
-		//		TODO: The "numThreads"-version of LocalExtrema.findLocalExtrema should really exist in imglib. After it does, replace the following lines by
-		//		final ArrayList< Point > peaks = LocalExtrema.findLocalExtrema( dogWithBorder, localNeighborhoodCheck, numThreads );
-		final ExecutorService service = Executors.newFixedThreadPool( numThreads );
 		final List< Point > peaks = LocalExtrema.findLocalExtrema( dogWithBorder, localNeighborhoodCheck, service );
-		service.shutdown();
 
 		if ( peaks.isEmpty() ) { return Collections.emptyList(); }
 
@@ -1,5 +1,9 @@
 package fiji.plugin.trackmate.detection;
 
+import fiji.plugin.trackmate.Spot;
+
+import java.util.List;
+
 import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
@@ -38,12 +42,9 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 	 */
 
 	@Override
-	public boolean process()
+	protected List< Spot > detect( final Interval tile, final int nThreads )
 	{
-
-		final long start = System.currentTimeMillis();
-
-		RandomAccessibleInterval< T > view = Views.interval( img, interval );
+		RandomAccessibleInterval< T > view = Views.interval( img, tile );
 
 		/*
 		 * Do median filtering (or not).
@@ -51,11 +52,11 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 
 		if ( doMedianFilter )
 		{
-			view = DetectionUtils.applyMedianFilter( view );
+			view = DetectionUtils.applyMedianFilter( view, null, nThreads, executorService );
 			if ( null == view )
 			{
 				errorMessage = BASE_ERROR_MESSAGE + "Failed to apply median filter.";
-				return false;
+				return null;
 			}
 		}
 
@@ -65,24 +66,22 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 
 		final RandomAccessible< T > extended = Views.extendMirrorSingle( view );
 		// We need to shift coordinates by -min[] to have the correct location.
-		final long[] min = new long[ interval.numDimensions() ];
-		interval.min( min );
+		final long[] min = new long[ tile.numDimensions() ];
+		tile.min( min );
 		for ( int d = 0; d < min.length; d++ )
 		{
 			min[ d ] = -min[ d ];
 		}
 
 		final FloatType type = new FloatType();
-		final RandomAccessibleInterval< FloatType > dog = Views.offset( Util.getArrayOrCellImgFactory( interval, type ).create( interval, type ), min );
-		final RandomAccessibleInterval< FloatType > dog2 = Views.offset( Util.getArrayOrCellImgFactory( interval, type ).create( interval, type ), min );
+		final RandomAccessibleInterval< FloatType > dog = Views.offset( Util.getArrayOrCellImgFactory( tile, type ).create( tile, type ), min );
+		final RandomAccessibleInterval< FloatType > dog2 = Views.offset( Util.getArrayOrCellImgFactory( tile, type ).create( tile, type ), min );
 
-		final double sigma1 = radius / Math.sqrt( interval.numDimensions() ) * 0.9;
-		final double sigma2 = radius / Math.sqrt( interval.numDimensions() ) * 1.1;
-		final double[][] sigmas = DifferenceOfGaussian.computeSigmas( 0.5, 2, calibration, sigma1, sigma2 );
+		final double[][] sigmas = computeSigmas();
 		try
 		{
-			Gauss3.gauss( sigmas[ 1 ], extended, dog2, numThreads );
-			Gauss3.gauss( sigmas[ 0 ], extended, dog, numThreads );
+			Gauss3.gauss( sigmas[ 1 ], extended, dog2, nThreads );
+			Gauss3.gauss( sigmas[ 0 ], extended, dog, nThreads );
 		}
 		catch ( final IncompatibleTypeException e )
 		{
@@ -96,11 +95,31 @@ public class DogDetector< T extends RealType< T > & NativeType< T >> extends Log
 		while ( dogCursor.hasNext() )
 			dogCursor.next().sub( tmpCursor.next() );
 
-		spots = DetectionUtils.findLocalMaxima( dog, threshold, calibration, radius, doSubPixelLocalization, numThreads );
+		if ( null != executorService ) { return DetectionUtils.findLocalMaxima( dog, threshold, calibration, radius, doSubPixelLocalization, nThreads, executorService ); }
+		return DetectionUtils.findLocalMaxima( dog, threshold, calibration, radius, doSubPixelLocalization, nThreads );
+	}
 
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
+	/**
+	 * Returns the half-size of the largest Gaussian kernel, plus
+	 * {@link #HALO_MARGIN}.
+	 */
+	@Override
+	protected long[] getHalo()
+	{
+		final double[] sigma = computeSigmas()[ 1 ];
+		final long[] halo = new long[ interval.numDimensions() ];
+		for ( int d = 0; d < halo.length; d++ )
+		{
+			// Same kernel size as in Gauss3.
+			halo[ d ] = Math.max( 2, ( int ) ( 3 * sigma[ d ] + 0.5 ) + 1 ) + HALO_MARGIN;
+		}
+		return halo;
+	}
 
-		return true;
+	private double[][] computeSigmas()
+	{
+		final double sigma1 = radius / Math.sqrt( interval.numDimensions() ) * 0.9;
+		final double sigma2 = radius / Math.sqrt( interval.numDimensions() ) * 1.1;
+		return DifferenceOfGaussian.computeSigmas( 0.5, 2, calibration, sigma1, sigma2 );
 	}
 }
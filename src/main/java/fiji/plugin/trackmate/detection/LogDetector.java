@@ -1,9 +1,15 @@
 package fiji.plugin.trackmate.detection;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessible;
 import net.imglib2.algorithm.MultiThreaded;
@@ -17,8 +23,9 @@ import net.imglib2.util.Util;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
-public class LogDetector< T extends RealType< T > & NativeType< T >> implements SpotDetector< T >, MultiThreaded
+public class LogDetector< T extends RealType< T > & NativeType< T >> implements SpotDetector< T >, MultiThreaded, ExecutorServiceAware
 {
 
 	/*
@@ -27,6 +34,22 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 
 	private final static String BASE_ERROR_MESSAGE = "LogDetector: ";
 
+	/**
+	 * Default maximal number of pixels of a tile, halo included. A float
+	 * tile of this size and its FFT buffers take a few hundred MB, and
+	 * several tiles can be processed at once.
+	 *
+	 * @see #setMaxTileSize(long)
+	 */
+	public static final long DEFAULT_MAX_TILE_SIZE = 1l << 25;
+
+	/**
+	 * Pixels added to the kernel half-size to make the halo of tiles: one for
+	 * the median filter, one for the local maxima search and one for the
+	 * sub-pixel localization.
+	 */
+	protected static final int HALO_MARGIN = 3;
+
 	/** The image to segment. Will not modified. */
 	protected RandomAccessible< T > img;
 
@@ -54,6 +77,20 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 
 	protected final double[] calibration;
 
+	protected long maxTileSize = DEFAULT_MAX_TILE_SIZE;
+
+	/**
+	 * The executor service to run parallel tasks on. If <code>null</code>,
+	 * private executors are created and shut down by each step.
+	 */
+	protected ExecutorService executorService;
+
+	/**
+	 * The buffers and kernel transforms shared with other detectors. If
+	 * <code>null</code>, they are created for each interval processed.
+	 */
+	protected LogDetectorWorkspace workspace;
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -96,12 +133,105 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 	{
 		final long start = System.currentTimeMillis();
 
+		final List< Tile > tiles = createTiles( interval, getHalo(), maxTileSize );
+		if ( tiles.size() == 1 )
+		{
+			final List< Spot > detected = detect( interval, numThreads );
+			if ( null == detected ) { return false; }
+			spots = detected;
+		}
+		else
+		{
+			if ( !processTiles( tiles ) ) { return false; }
+		}
+
+		final long end = System.currentTimeMillis();
+		this.processingTime = end - start;
+
+		return true;
+	}
+
+	/**
+	 * Sets the maximal number of pixels of a tile, halo included. Intervals
+	 * larger than this are split in overlapping tiles processed in parallel.
+	 * Spots found in the overlap of two tiles are kept only once. Use a
+	 * non-positive value to always process the whole interval at once.
+	 * <p>
+	 * The memory needed for detection is not bounded by one tile: each tile
+	 * processed at once needs its own float copy and FFT buffers. Without an
+	 * executor service, up to <code>min(numThreads, number of tiles)</code>
+	 * tiles are processed at once. With an executor service, up to as many
+	 * as it runs tasks concurrently. The peak memory is this number times
+	 * the memory needed for one tile.
+	 *
+	 * @param maxTileSize
+	 *            the maximal tile size, in pixels.
+	 */
+	public void setMaxTileSize( final long maxTileSize )
+	{
+		this.maxTileSize = maxTileSize;
+	}
+
+	/**
+	 * Sets the workspace this detector takes its LoG kernel, kernel transforms
+	 * and float buffers from. Detectors sharing a workspace, such as the
+	 * detectors of the frames of a movie, transform the kernel once per
+	 * interval size and thread instead of once per frame.
+	 *
+	 * @param workspace
+	 *            the workspace to use. Must match the radius and calibration
+	 *            of this detector. If <code>null</code>, buffers are created
+	 *            for each interval processed.
+	 */
+	public void setWorkspace( final LogDetectorWorkspace workspace )
+	{
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Detects spots in the specified interval of the source image.
+	 *
+	 * @param tile
+	 *            the interval to process.
+	 * @param nThreads
+	 *            the number of threads to use.
+	 * @return the spots found, or <code>null</code> if an error occurred. In
+	 *         that case, {@link #errorMessage} is set.
+	 */
+	protected List< Spot > detect( final Interval tile, final int nThreads )
+	{
+		if ( null != workspace )
+		{
+			final LogDetectorWorkspace.Buffers buffers = workspace.acquire( tile );
+			try
+			{
+				return detect( tile, nThreads, buffers );
+			}
+			finally
+			{
+				workspace.release( buffers );
+			}
+		}
+		return detect( tile, nThreads, null );
+	}
+
+	private List< Spot > detect( final Interval tile, final int nThreads, final LogDetectorWorkspace.Buffers buffers )
+	{
 		/*
 		 * Copy to float for convolution.
 		 */
 
-		final ImgFactory< FloatType > factory = Util.getArrayOrCellImgFactory( interval, new FloatType() );
-		Img< FloatType > floatImg = DetectionUtils.copyToFloatImg( img, interval, factory );
+		Img< FloatType > floatImg;
+		if ( null == buffers )
+		{
+			final ImgFactory< FloatType > factory = Util.getArrayOrCellImgFactory( tile, new FloatType() );
+			floatImg = DetectionUtils.copyToFloatImg( img, tile, factory );
+		}
+		else
+		{
+			floatImg = buffers.getFloatImg( tile );
+			DetectionUtils.copyToFloatImg( img, tile, floatImg );
+		}
 
 		/*
 		 * Do median filtering (or not).
@@ -109,15 +239,68 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 
 		if ( doMedianFilter )
 		{
-			floatImg = DetectionUtils.applyMedianFilter( floatImg );
+			// In place: the float image is a copy already.
+			floatImg = DetectionUtils.applyMedianFilter( floatImg, floatImg, nThreads, executorService );
 			if ( null == floatImg )
 			{
 				errorMessage = BASE_ERROR_MESSAGE + "Failed to apply median filter.";
-				return false;
+				return null;
 			}
 		}
 
+		final ExecutorService service = null == executorService ? Executors.newFixedThreadPool( nThreads ) : executorService;
+		try
+		{
+			if ( null == buffers )
+			{
+				final Img< FloatType > kernel = DetectionUtils.createLoGKernel( radius, nonSingletonDimensions(), calibration );
+				final FFTConvolution< FloatType > fftconv = new FFTConvolution< FloatType >( floatImg, kernel );
+				fftconv.setExecutorService( service );
+				fftconv.convolve();
+			}
+			else
+			{
+				buffers.convolve( floatImg, nonSingletonDimensions(), service );
+			}
+		}
+		finally
+		{
+			if ( service != executorService )
+			{
+				service.shutdown();
+			}
+		}
+
+		final long[] minopposite = new long[ tile.numDimensions() ];
+		tile.min( minopposite );
+		for ( int d = 0; d < minopposite.length; d++ )
+		{
+			minopposite[ d ] = -minopposite[ d ];
+		}
+		final IntervalView< FloatType > to = Views.offset( floatImg, minopposite );
+		if ( null != executorService ) { return DetectionUtils.findLocalMaxima( to, threshold, calibration, radius, doSubPixelLocalization, nThreads, executorService ); }
+		return DetectionUtils.findLocalMaxima( to, threshold, calibration, radius, doSubPixelLocalization, nThreads );
+	}
+
+	/**
+	 * Returns the number of pixels a tile must extend beyond the region it is
+	 * responsible for, in each dimension, so that spots found in that region
+	 * do not depend on the tile borders. It is the half-size of the LoG kernel,
+	 * plus {@link #HALO_MARGIN}.
+	 */
+	protected long[] getHalo()
+	{
+		final Img< FloatType > kernel = null == workspace ? DetectionUtils.createLoGKernel( radius, nonSingletonDimensions(), calibration ) : workspace.getKernel( nonSingletonDimensions() );
+		final long[] halo = new long[ interval.numDimensions() ];
+		for ( int d = 0; d < halo.length; d++ )
+		{
+			halo[ d ] = ( d < kernel.numDimensions() ? kernel.dimension( d ) / 2 : 0 ) + HALO_MARGIN;
+		}
+		return halo;
+	}
 
+	protected int nonSingletonDimensions()
+	{
 		int ndims = interval.numDimensions();
 		for ( int d = 0; d < interval.numDimensions(); d++ )
 		{
@@ -127,25 +310,161 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 				ndims--;
 			}
 		}
+		return ndims;
+	}
 
-		final Img< FloatType > kernel = DetectionUtils.createLoGKernel( radius, ndims, calibration );
-		final FFTConvolution< FloatType > fftconv = new FFTConvolution< FloatType >( floatImg, kernel );
-		fftconv.setExecutorService(Executors.newFixedThreadPool( numThreads ));
-		fftconv.convolve();
+	/**
+	 * Detects spots in each tile in parallel, and keeps the spots that fall
+	 * in the core of the tile they were found in.
+	 */
+	private boolean processTiles( final List< Tile > tiles )
+	{
+		final int nTileThreads = Math.max( 1, Math.min( numThreads, tiles.size() ) );
+		final int threadsPerTile = Math.max( 1, numThreads / nTileThreads );
+		final ExecutorService service = null == executorService ? Executors.newFixedThreadPool( nTileThreads ) : executorService;
+		final List< Future< List< Spot > > > futures = new ArrayList< Future< List< Spot > > >( tiles.size() );
+		try
+		{
+			for ( final Tile tile : tiles )
+			{
+				futures.add( service.submit( new Callable< List< Spot > >()
+				{
+					@Override
+					public List< Spot > call() throws Exception
+					{
+						final List< Spot > detected = detect( tile.extended, threadsPerTile );
+						if ( null == detected ) { return null; }
+						final List< Spot > owned = new ArrayList< Spot >( detected.size() );
+						for ( final Spot spot : detected )
+						{
+							if ( tile.owns( spot, calibration ) )
+							{
+								owned.add( spot );
+							}
+						}
+						return owned;
+					}
+				} ) );
+			}
 
-		final long[] minopposite = new long[ interval.numDimensions() ];
-		interval.min( minopposite );
-		for ( int d = 0; d < minopposite.length; d++ )
+			final List< Spot > all = new ArrayList< Spot >();
+			for ( final Future< List< Spot > > future : futures )
+			{
+				final List< Spot > owned = future.get();
+				if ( null == owned ) { return false; }
+				all.addAll( owned );
+			}
+			spots = all;
+			return true;
+		}
+		catch ( final InterruptedException e )
 		{
-			minopposite[ d ] = -minopposite[ d ];
+			errorMessage = baseErrorMessage + "Interrupted during tiled detection.";
+			return false;
 		}
-		final IntervalView< FloatType > to = Views.offset( floatImg, minopposite );
-		spots = DetectionUtils.findLocalMaxima( to, threshold, calibration, radius, doSubPixelLocalization, numThreads );
+		catch ( final ExecutionException e )
+		{
+			errorMessage = baseErrorMessage + "Tiled detection failed: " + e.getCause();
+			return false;
+		}
+		finally
+		{
+			if ( service != executorService )
+			{
+				service.shutdownNow();
+			}
+			else
+			{
+				for ( final Future< List< Spot > > future : futures )
+				{
+					future.cancel( true );
+				}
+			}
+		}
+	}
 
-		final long end = System.currentTimeMillis();
-		this.processingTime = end - start;
+	/**
+	 * Splits the specified interval in tiles. The cores of the tiles partition
+	 * the interval. Each tile extends its core by the halo in each dimension,
+	 * without going beyond the interval. Dimensions are halved, largest core
+	 * first, until tiles are not larger than the specified size, or until the
+	 * cores get smaller than the halo.
+	 *
+	 * @param interval
+	 *            the interval to split.
+	 * @param halo
+	 *            the halo size in each dimension.
+	 * @param maxTileSize
+	 *            the maximal number of pixels of a tile, halo included. If
+	 *            not positive, a single tile is returned.
+	 * @return a new list of tiles.
+	 */
+	protected static List< Tile > createTiles( final Interval interval, final long[] halo, final long maxTileSize )
+	{
+		final int n = interval.numDimensions();
+		final long[] nTiles = new long[ n ];
+		Arrays.fill( nTiles, 1l );
+		if ( maxTileSize > 0 )
+		{
+			while ( tileSize( interval, nTiles, halo ) > maxTileSize )
+			{
+				int largest = -1;
+				long largestCore = 0;
+				for ( int d = 0; d < n; d++ )
+				{
+					final long core = interval.dimension( d ) / ( 2 * nTiles[ d ] );
+					if ( core >= Math.max( 1, halo[ d ] ) && core > largestCore )
+					{
+						largest = d;
+						largestCore = core;
+					}
+				}
+				if ( largest < 0 )
+				{
+					break;
+				}
+				nTiles[ largest ] *= 2;
+			}
+		}
 
-		return true;
+		long total = 1;
+		for ( int d = 0; d < n; d++ )
+		{
+			total *= nTiles[ d ];
+		}
+		final List< Tile > tiles = new ArrayList< Tile >( ( int ) total );
+		final long[] index = new long[ n ];
+		final long[] coreMin = new long[ n ];
+		final long[] coreMax = new long[ n ];
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+		for ( long t = 0; t < total; t++ )
+		{
+			long rem = t;
+			for ( int d = 0; d < n; d++ )
+			{
+				index[ d ] = rem % nTiles[ d ];
+				rem /= nTiles[ d ];
+				final long size = interval.dimension( d );
+				coreMin[ d ] = interval.min( d ) + index[ d ] * size / nTiles[ d ];
+				coreMax[ d ] = interval.min( d ) + ( index[ d ] + 1 ) * size / nTiles[ d ] - 1;
+				min[ d ] = Math.max( interval.min( d ), coreMin[ d ] - halo[ d ] );
+				max[ d ] = Math.min( interval.max( d ), coreMax[ d ] + halo[ d ] );
+			}
+			tiles.add( new Tile( interval, new FinalInterval( coreMin, coreMax ), new FinalInterval( min, max ) ) );
+		}
+		return tiles;
+	}
+
+	private static long tileSize( final Interval interval, final long[] nTiles, final long[] halo )
+	{
+		long size = 1;
+		for ( int d = 0; d < nTiles.length; d++ )
+		{
+			final long core = ( interval.dimension( d ) + nTiles[ d ] - 1 ) / nTiles[ d ];
+			size *= Math.min( interval.dimension( d ), core + ( nTiles[ d ] > 1 ? 2 * halo[ d ] : 0 ) );
+		}
+		return size;
 	}
 
 	@Override
@@ -183,4 +502,58 @@ public class LogDetector< T extends RealType< T > & NativeType< T >> implements
 	{
 		return numThreads;
 	}
+
+	/**
+	 * Sets the executor service tiles, convolution and local maxima search run
+	 * on. Tiles are then processed as parallel tasks of this executor, sharing
+	 * its threads with the other parallel steps of the caller.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * A part of the interval to process. The core of a tile is the region it
+	 * is responsible for. The extended interval is the core plus the halo,
+	 * and is what the detector actually processes.
+	 */
+	protected static final class Tile
+	{
+
+		protected final Interval core;
+
+		protected final Interval extended;
+
+		private final Interval interval;
+
+		private Tile( final Interval interval, final Interval core, final Interval extended )
+		{
+			this.interval = interval;
+			this.core = core;
+			this.extended = extended;
+		}
+
+		/**
+		 * Returns <code>true</code> if the pixel closest to the specified spot
+		 * lies in the core of this tile. Along the borders of the whole
+		 * interval, the core is unbounded, so that spots localized slightly
+		 * out of the interval are kept, as without tiling.
+		 */
+		protected boolean owns( final Spot spot, final double[] calibration )
+		{
+			for ( int d = 0; d < core.numDimensions(); d++ )
+			{
+				final long pos = Math.round( spot.getDoublePosition( d ) / calibration[ d ] );
+				if ( pos < core.min( d ) && core.min( d ) > interval.min( d ) ) { return false; }
+				if ( pos > core.max( d ) && core.max( d ) < interval.max( d ) ) { return false; }
+			}
+			return true;
+		}
+	}
 }
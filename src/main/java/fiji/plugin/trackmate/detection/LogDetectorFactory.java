@@ -72,6 +72,12 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 
 	protected String errorMessage;
 
+	/**
+	 * The workspace shared by the detectors of all frames, so that the LoG
+	 * kernel is transformed once per run, and not once per frame.
+	 */
+	private LogDetectorWorkspace workspace;
+
 	/*
 	 * METHODS
 	 */
@@ -81,6 +87,10 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 	{
 		this.img = img;
 		this.settings = settings;
+		synchronized ( this )
+		{
+			workspace = null;
+		}
 		return checkSettings( settings );
 	}
 
@@ -129,9 +139,38 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 
 		final LogDetector< T > detector = new LogDetector< T >( imFrame, interval, calibration, radius, threshold, doSubpixel, doMedian );
 		detector.setNumThreads( 1 );
+		detector.setWorkspace( getWorkspace( radius, calibration ) );
 		return detector;
 	}
 
+	/**
+	 * Returns the workspace for the specified radius and calibration,
+	 * replacing the current one if it does not match.
+	 */
+	protected synchronized LogDetectorWorkspace getWorkspace( final double radius, final double[] calibration )
+	{
+		if ( null == workspace || !workspace.matches( radius, calibration ) )
+		{
+			workspace = new LogDetectorWorkspace( radius, calibration );
+		}
+		return workspace;
+	}
+
+	/**
+	 * Drops the workspace shared by the detectors, and the buffers it holds.
+	 * Called when a detection run is over, so that the buffers do not stay in
+	 * memory with this factory. Detectors created afterwards get a new
+	 * workspace.
+	 */
+	public synchronized void releaseWorkspace()
+	{
+		if ( null != workspace )
+		{
+			workspace.clear();
+			workspace = null;
+		}
+	}
+
 	@Override
 	public String getKey()
 	{
@@ -0,0 +1,216 @@
+package fiji.plugin.trackmate.detection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.Interval;
+import net.imglib2.algorithm.fft2.FFTConvolution;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+
+/**
+ * Buffers shared by the {@link LogDetector}s of a detection run, so that the
+ * LoG kernel and its Fourier transform are computed once, and not for every
+ * frame.
+ * <p>
+ * A detector leases a {@link Buffers} instance for each interval it
+ * processes, and returns it when done. Each {@link Buffers} is used by one
+ * thread at a time, and keeps the float copy of the last interval and the
+ * {@link FFTConvolution} holding the kernel transform for this interval size.
+ * Buffers are pooled: there are never more of them than intervals processed
+ * concurrently, and a lease prefers buffers that were last used for an
+ * interval of the same size.
+ * <p>
+ * A workspace is specific to a radius and a spatial calibration.
+ */
+public class LogDetectorWorkspace
+{
+
+	private final double radius;
+
+	private final double[] calibration;
+
+	/** The LoG kernels, per number of dimensions. */
+	private final Map< Integer, Img< FloatType > > kernels = new HashMap< Integer, Img< FloatType > >();
+
+	/** The buffers not leased. */
+	private final List< Buffers > pool = new ArrayList< Buffers >();
+
+	private final AtomicInteger kernelTransforms = new AtomicInteger( 0 );
+
+	public LogDetectorWorkspace( final double radius, final double[] calibration )
+	{
+		this.radius = radius;
+		this.calibration = calibration.clone();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns <code>true</code> if this workspace can be used for detection
+	 * with the specified radius and calibration.
+	 */
+	public boolean matches( final double otherRadius, final double[] otherCalibration )
+	{
+		return radius == otherRadius && Arrays.equals( calibration, otherCalibration );
+	}
+
+	/**
+	 * Returns the LoG kernel for the specified number of dimensions. The
+	 * kernel is created on the first call, and must not be modified.
+	 *
+	 * @see DetectionUtils#createLoGKernel(double, int, double[])
+	 */
+	public synchronized Img< FloatType > getKernel( final int nDims )
+	{
+		Img< FloatType > kernel = kernels.get( Integer.valueOf( nDims ) );
+		if ( null == kernel )
+		{
+			kernel = DetectionUtils.createLoGKernel( radius, nDims, calibration );
+			kernels.put( Integer.valueOf( nDims ), kernel );
+		}
+		return kernel;
+	}
+
+	/**
+	 * Leases buffers to process an interval of the specified size. They must
+	 * be returned with {@link #release(Buffers)} once the float image and the
+	 * convolution result are not used anymore.
+	 *
+	 * @param interval
+	 *            the interval to process.
+	 * @return buffers for the calling thread only.
+	 */
+	public synchronized Buffers acquire( final Interval interval )
+	{
+		if ( pool.isEmpty() ) { return new Buffers(); }
+		for ( int i = pool.size() - 1; i >= 0; i-- )
+		{
+			if ( pool.get( i ).fits( interval ) ) { return pool.remove( i ); }
+		}
+		return pool.remove( pool.size() - 1 );
+	}
+
+	/**
+	 * Returns leased buffers to this workspace.
+	 */
+	public synchronized void release( final Buffers buffers )
+	{
+		pool.add( buffers );
+	}
+
+	/**
+	 * Drops the buffers not leased, to free memory. The kernels are kept.
+	 */
+	public synchronized void clear()
+	{
+		pool.clear();
+	}
+
+	/**
+	 * Returns the number of times the Fourier transform of a LoG kernel was
+	 * computed through this workspace.
+	 */
+	public int getKernelTransformCount()
+	{
+		return kernelTransforms.get();
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The float copy of an interval and the convolution that filters it, for
+	 * one thread at a time.
+	 */
+	public final class Buffers
+	{
+
+		private long[] dimensions;
+
+		private Img< FloatType > floatImg;
+
+		private FFTConvolution< FloatType > fftconv;
+
+		private long[] fftDimensions;
+
+		private int fftNDims;
+
+		private Buffers()
+		{}
+
+		/**
+		 * Returns a float image with the dimensions of the specified interval,
+		 * and a min of 0. The image of the previous call is returned if it has
+		 * the same dimensions. Its content is undefined.
+		 */
+		public Img< FloatType > getFloatImg( final Interval interval )
+		{
+			if ( !fits( interval ) )
+			{
+				final ImgFactory< FloatType > factory = Util.getArrayOrCellImgFactory( interval, new FloatType() );
+				floatImg = factory.create( interval, new FloatType() );
+				dimensions = new long[ interval.numDimensions() ];
+				interval.dimensions( dimensions );
+			}
+			return floatImg;
+		}
+
+		/**
+		 * Convolves the specified image in place with the LoG kernel. The
+		 * kernel transform is reused if the previous image convolved had the
+		 * same dimensions.
+		 *
+		 * @param img
+		 *            the image to filter.
+		 * @param nDims
+		 *            the number of dimensions of the kernel, that is the
+		 *            number of non-singleton dimensions of the image.
+		 * @param service
+		 *            the executor service to compute the Fourier transforms
+		 *            on.
+		 */
+		public void convolve( final Img< FloatType > img, final int nDims, final ExecutorService service )
+		{
+			final long[] dims = new long[ img.numDimensions() ];
+			img.dimensions( dims );
+			if ( null == fftconv || !Arrays.equals( dims, fftDimensions ) || nDims != fftNDims )
+			{
+				fftconv = new FFTConvolution< FloatType >( img, getKernel( nDims ) );
+				fftDimensions = dims;
+				fftNDims = nDims;
+				kernelTransforms.incrementAndGet();
+			}
+			else
+			{
+				// Keeps the kernel transform.
+				fftconv.setImg( img );
+				fftconv.setOutput( img );
+			}
+			// The image transform is not needed after the convolution.
+			fftconv.setKeepImgFFT( false );
+			fftconv.setExecutorService( service );
+			fftconv.convolve();
+		}
+
+		private boolean fits( final Interval interval )
+		{
+			if ( null == dimensions || dimensions.length != interval.numDimensions() ) { return false; }
+			for ( int d = 0; d < dimensions.length; d++ )
+			{
+				if ( dimensions[ d ] != interval.dimension( d ) ) { return false; }
+			}
+			return true;
+		}
+	}
+}
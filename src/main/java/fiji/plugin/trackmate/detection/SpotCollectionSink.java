@@ -0,0 +1,50 @@
+package fiji.plugin.trackmate.detection;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+import java.util.List;
+
+/**
+ * A {@link DetectionSink} that stores the detected spots in a
+ * {@link SpotCollection}. This is the default behavior of TrackMate.
+ */
+public class SpotCollectionSink implements DetectionSink
+{
+
+	private final SpotCollection spots;
+
+	public SpotCollectionSink( final SpotCollection spots )
+	{
+		this.spots = spots;
+	}
+
+	@Override
+	public boolean put( final int frame, final List< Spot > spotsThisFrame )
+	{
+		spots.put( frame, spotsThisFrame );
+		return true;
+	}
+
+	@Override
+	public boolean close()
+	{
+		return true;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return null;
+	}
+
+	/**
+	 * Returns the spot collection this sink stores spots in.
+	 *
+	 * @return the spot collection.
+	 */
+	public SpotCollection getSpots()
+	{
+		return spots;
+	}
+}
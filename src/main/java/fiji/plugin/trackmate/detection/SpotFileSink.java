@@ -0,0 +1,166 @@
+package fiji.plugin.trackmate.detection;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link DetectionSink} that spills the detected spots to a binary file, so
+ * that they do not have to be held in memory during detection. The file can
+ * be read back in a {@link SpotCollection} with {@link #read(File)}.
+ * <p>
+ * Only the detection features of the spots are written: their ID, name,
+ * position, radius, quality and {@link Spot#POSITION_T}. Spots read back keep
+ * their ID.
+ */
+public class SpotFileSink implements DetectionSink
+{
+
+	private static final String BASE_ERROR_MESSAGE = "[SpotFileSink] ";
+
+	private static final int MAGIC_NUMBER = 0x544d5350; // "TMSP"
+
+	private static final int VERSION = 1;
+
+	private final File file;
+
+	private DataOutputStream out;
+
+	private String errorMessage;
+
+	/**
+	 * Creates a new sink that will write the spots it receives to the
+	 * specified file. The file is overwritten if it exists.
+	 *
+	 * @param file
+	 *            the file to write to.
+	 */
+	public SpotFileSink( final File file )
+	{
+		this.file = file;
+	}
+
+	@Override
+	public boolean put( final int frame, final List< Spot > spots )
+	{
+		try
+		{
+			if ( null == out )
+			{
+				out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+				out.writeInt( MAGIC_NUMBER );
+				out.writeInt( VERSION );
+			}
+
+			out.writeInt( frame );
+			out.writeInt( spots.size() );
+			for ( final Spot spot : spots )
+			{
+				out.writeInt( spot.ID() );
+				out.writeUTF( spot.getName() );
+				out.writeDouble( spot.getFeature( Spot.POSITION_X ).doubleValue() );
+				out.writeDouble( spot.getFeature( Spot.POSITION_Y ).doubleValue() );
+				out.writeDouble( spot.getFeature( Spot.POSITION_Z ).doubleValue() );
+				out.writeDouble( spot.getFeature( Spot.RADIUS ).doubleValue() );
+				out.writeDouble( spot.getFeature( Spot.QUALITY ).doubleValue() );
+				out.writeDouble( spot.getFeature( Spot.POSITION_T ).doubleValue() );
+			}
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Problem writing to " + file + ": " + e.getMessage();
+			return false;
+		}
+	}
+
+	@Override
+	public boolean close()
+	{
+		if ( null == out ) { return true; }
+		try
+		{
+			out.close();
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Problem closing " + file + ": " + e.getMessage();
+			return false;
+		}
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	/**
+	 * Reads a file written by a {@link SpotFileSink} and returns its content
+	 * as a new {@link SpotCollection}.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @return a new {@link SpotCollection}.
+	 * @throws IOException
+	 *             if the file cannot be read or is not a spot file.
+	 */
+	public static SpotCollection read( final File file ) throws IOException
+	{
+		final SpotCollection spots = new SpotCollection();
+		final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+		try
+		{
+			if ( in.readInt() != MAGIC_NUMBER ) { throw new IOException( BASE_ERROR_MESSAGE + file + " is not a spot file." ); }
+			final int version = in.readInt();
+			if ( version != VERSION ) { throw new IOException( BASE_ERROR_MESSAGE + "Unknown spot file version: " + version + "." ); }
+
+			while ( true )
+			{
+				final int frame;
+				try
+				{
+					frame = in.readInt();
+				}
+				catch ( final EOFException e )
+				{
+					break;
+				}
+				final int nSpots = in.readInt();
+				final List< Spot > spotsThisFrame = new ArrayList< Spot >( nSpots );
+				for ( int i = 0; i < nSpots; i++ )
+				{
+					final int ID = in.readInt();
+					final String name = in.readUTF();
+					final Spot spot = new Spot( ID );
+					spot.setName( name );
+					spot.putFeature( Spot.POSITION_X, Double.valueOf( in.readDouble() ) );
+					spot.putFeature( Spot.POSITION_Y, Double.valueOf( in.readDouble() ) );
+					spot.putFeature( Spot.POSITION_Z, Double.valueOf( in.readDouble() ) );
+					spot.putFeature( Spot.RADIUS, Double.valueOf( in.readDouble() ) );
+					spot.putFeature( Spot.QUALITY, Double.valueOf( in.readDouble() ) );
+					spot.putFeature( Spot.POSITION_T, Double.valueOf( in.readDouble() ) );
+					spotsThisFrame.add( spot );
+				}
+				spots.put( frame, spotsThisFrame );
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return spots;
+	}
+}
@@ -1,39 +1,154 @@
 package fiji.plugin.trackmate.detection.util;
 
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
+
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import net.imglib2.Cursor;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.algorithm.BenchmarkAlgorithm;
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 import net.imglib2.algorithm.OutputAlgorithm;
-import net.imglib2.algorithm.region.localneighborhood.Neighborhood;
-import net.imglib2.algorithm.region.localneighborhood.RectangleShape;
-import net.imglib2.algorithm.region.localneighborhood.RectangleShape.NeighborhoodsAccessible;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 
-public class MedianFilter< T extends RealType< T > & NativeType< T >> extends BenchmarkAlgorithm implements OutputAlgorithm< Img< T >>
+/**
+ * Median filter over a square (2D) or cubic (3D) window of 1D, 2D or 3D
+ * images. Only the window pixels that are inside the source image are
+ * considered, and the lower median is taken when their number is even.
+ * <p>
+ * The image is filtered in bands of rows along its last dimension. The rows of
+ * a band and of the windows around it are copied to an array of int keys that
+ * compare as the float values, then filtered row by row in parallel. The 3x3
+ * window uses sorting networks on its columns; other windows are slid along
+ * rows, keeping their values sorted so that each step only removes and inserts
+ * one column of values. The rows shared by the windows of two bands are kept
+ * from one band to the next, so the output can be the source itself, for
+ * in-place filtering, and only the key array of a band is allocated.
+ * <p>
+ * 3D images are filtered with a cubic window by default, or plane by plane
+ * with a square window if {@link #setPlaneWise(boolean)} is set.
+ */
+public class MedianFilter< T extends RealType< T > & NativeType< T >> extends MultiThreadedBenchmarkAlgorithm implements OutputAlgorithm< Img< T >>, ExecutorServiceAware
 {
+	private static final String BASE_ERROR_MESSAGE = "MedianFilter: ";
+
+	/** The minimal number of rows filtered per band. */
+	static final int BAND_ROWS = 256;
+
 	private final RandomAccessibleInterval< T > source;
 
 	private Img< T > output;
 
 	private final int radius;
 
+	private boolean planeWise = false;
+
+	private ExecutorService executorService;
+
+	/** The minimal number of rows filtered per band. Changed by tests. */
+	int bandRows = BAND_ROWS;
+
+	/**
+	 * Creates a median filter that writes its result in a new image.
+	 *
+	 * @param source
+	 *            the image to filter.
+	 * @param radius
+	 *            the half-size of the window, in pixels.
+	 */
 	public MedianFilter( final RandomAccessibleInterval< T > source, final int radius )
+	{
+		this( source, radius, null );
+	}
+
+	/**
+	 * Creates a median filter that writes its result in the specified image.
+	 *
+	 * @param source
+	 *            the image to filter.
+	 * @param radius
+	 *            the half-size of the window, in pixels.
+	 * @param output
+	 *            the image to write the result in. Must have the dimensions of
+	 *            the source, and can be the source itself. If
+	 *            <code>null</code>, a new image is created.
+	 */
+	public MedianFilter( final RandomAccessibleInterval< T > source, final int radius, final Img< T > output )
 	{
 		this.source = source;
 		this.radius = radius;
+		this.output = output;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Sets whether 3D images are filtered plane by plane, with a square
+	 * window, rather than with a cubic window.
+	 */
+	public void setPlaneWise( final boolean planeWise )
+	{
+		this.planeWise = planeWise;
+	}
+
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
 	}
 
 	@Override
 	public boolean checkInput()
 	{
+		if ( null == source )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Source image is null.";
+			return false;
+		}
+		if ( source.numDimensions() < 1 || source.numDimensions() > 3 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Image must be 1D, 2D or 3D, got " + source.numDimensions() + "D.";
+			return false;
+		}
+		if ( radius < 0 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Radius must be positive or zero, got " + radius + ".";
+			return false;
+		}
+		long size = 1;
+		for ( int d = 0; d < source.numDimensions(); d++ )
+		{
+			size *= source.dimension( d );
+		}
+		if ( size > Integer.MAX_VALUE )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Image is too large, got " + size + " pixels.";
+			return false;
+		}
+		if ( null != output )
+		{
+			if ( output.numDimensions() != source.numDimensions() )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "Output and source must have the same dimensionality.";
+				return false;
+			}
+			for ( int d = 0; d < source.numDimensions(); d++ )
+			{
+				if ( output.dimension( d ) != source.dimension( d ) )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + "Output and source must have the same dimensions.";
+					return false;
+				}
+			}
+		}
 		return true;
 	}
 
@@ -42,35 +157,51 @@ public class MedianFilter< T extends RealType< T > & NativeType< T >> extends Be
 	{
 		final long start = System.currentTimeMillis();
 
-		final T type = source.randomAccess().get();
-		final ImgFactory< T > factory = Util.getArrayOrCellImgFactory( source, type );
-		this.output = factory.create( source, type );
-		final float[] values = new float[ 9 ];
+		if ( null == output )
+		{
+			final T type = source.randomAccess().get();
+			final ImgFactory< T > factory = Util.getArrayOrCellImgFactory( source, type );
+			output = factory.create( source, type );
+		}
+
+		final int nDims = source.numDimensions();
+		final int nx = ( int ) source.dimension( 0 );
+		final int ny = nDims > 1 ? ( int ) source.dimension( 1 ) : 1;
+		final int nz = nDims > 2 ? ( int ) source.dimension( 2 ) : 1;
+		final int rx = radius;
+		final int ry = nDims > 1 ? radius : 0;
+		final int rz = nDims > 2 && !planeWise ? radius : 0;
 
-		final Cursor< T > outCursor = output.cursor();
-		final RectangleShape shape = new RectangleShape( radius, false );
-		final NeighborhoodsAccessible< T > neighborhoods = shape.neighborhoodsRandomAccessible( source );
-		final RandomAccess< Neighborhood< T >> ran = neighborhoods.randomAccess( output );
+		// Bands are made of layers: planes in 3D, rows otherwise.
+		final int nLayers = nz > 1 ? nz : ny;
+		final int layerRows = nz > 1 ? ny : 1;
+		final int rl = nz > 1 ? rz : ry;
+		final int bandLayers = Math.max( 1, Math.min( nLayers, bandRows / layerRows ) );
+		final int[] pixels = new int[ Math.min( nLayers, bandLayers + 2 * rl ) * layerRows * nx ];
+		final int nWorkers = Math.max( 1, Math.min( numThreads, bandLayers * layerRows ) );
 
-		while ( outCursor.hasNext() )
+		// The layers in the key array.
+		int bufferFirst = 0;
+		int bufferEnd = 0;
+		for ( int first = 0; first < nLayers; first += bandLayers )
 		{
-			outCursor.fwd();
-			ran.setPosition( outCursor );
-			final Neighborhood< T > neighborhood = ran.get();
+			final int end = Math.min( nLayers, first + bandLayers );
+			final int needFirst = Math.max( 0, first - rl );
+			final int needEnd = Math.min( nLayers, end + rl );
 
-			int index = 0;
-			final Cursor< T > nc = neighborhood.cursor();
-			while ( nc.hasNext() )
+			// Keep the layers read for the previous band: they may have been
+			// overwritten in the source since.
+			if ( needFirst < bufferEnd )
 			{
-				nc.fwd();
-				if ( !Intervals.contains( source, nc ) )
-					continue;
-
-				values[ index++ ] = nc.get().getRealFloat();
+				System.arraycopy( pixels, ( needFirst - bufferFirst ) * layerRows * nx, pixels, 0, ( bufferEnd - needFirst ) * layerRows * nx );
 			}
+			final int rowOffset = needFirst * layerRows;
+			copyRows( pixels, rowOffset, Math.max( needFirst, bufferEnd ) * layerRows, needEnd * layerRows, nx, ny, nWorkers );
+			bufferFirst = needFirst;
+			bufferEnd = needEnd;
 
-			Arrays.sort( values, 0, index );
-			outCursor.get().setReal( values[ ( index - 1 ) / 2 ] );
+			final RowMedian median = new RowMedian( pixels, rowOffset, nx, ny, nz, rx, ry, rz );
+			filterRows( median, first * layerRows, end * layerRows, nx, ny, nWorkers );
 		}
 
 		this.processingTime = System.currentTimeMillis() - start;
@@ -82,4 +213,385 @@ public class MedianFilter< T extends RealType< T > & NativeType< T >> extends Be
 	{
 		return output;
 	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Copies the source rows in the specified range to the key array, in
+	 * parallel. Row indices run along Y, then Z.
+	 */
+	private void copyRows( final int[] pixels, final int rowOffset, final int fromRow, final int toRow, final int nx, final int ny, final int nWorkers )
+	{
+		if ( fromRow >= toRow ) { return; }
+		final AtomicInteger readRow = new AtomicInteger( fromRow );
+		final Runnable[] readers = new Runnable[ nWorkers ];
+		for ( int i = 0; i < readers.length; i++ )
+		{
+			readers[ i ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final RandomAccess< T > ra = source.randomAccess();
+					for ( int row = readRow.getAndIncrement(); row < toRow; row = readRow.getAndIncrement() )
+					{
+						setRowPosition( ra, source, row, ny );
+						final int offset = ( row - rowOffset ) * nx;
+						for ( int x = 0; x < nx; x++ )
+						{
+							pixels[ offset + x ] = toKey( ra.get().getRealFloat() );
+							ra.fwd( 0 );
+						}
+					}
+				}
+			};
+		}
+		TMExecutors.startAndJoin( executorService, readers );
+	}
+
+	/**
+	 * Filters the rows in the specified range and writes them to the output,
+	 * in parallel.
+	 */
+	private void filterRows( final RowMedian median, final int fromRow, final int toRow, final int nx, final int ny, final int nWorkers )
+	{
+		final AtomicInteger writeRow = new AtomicInteger( fromRow );
+		final Runnable[] writers = new Runnable[ nWorkers ];
+		for ( int i = 0; i < writers.length; i++ )
+		{
+			writers[ i ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final RandomAccess< T > ra = output.randomAccess();
+					final int[] rowBuffer = new int[ nx ];
+					final Window window = median.createWindow();
+					for ( int row = writeRow.getAndIncrement(); row < toRow; row = writeRow.getAndIncrement() )
+					{
+						median.filter( row % ny, row / ny, rowBuffer, window );
+						setRowPosition( ra, output, row, ny );
+						for ( int x = 0; x < nx; x++ )
+						{
+							ra.get().setReal( toFloat( rowBuffer[ x ] ) );
+							ra.fwd( 0 );
+						}
+					}
+				}
+			};
+		}
+		TMExecutors.startAndJoin( executorService, writers );
+	}
+
+	private static void setRowPosition( final RandomAccess< ? > ra, final RandomAccessibleInterval< ? > interval, final int row, final int ny )
+	{
+		ra.setPosition( interval.min( 0 ), 0 );
+		if ( interval.numDimensions() > 1 )
+		{
+			ra.setPosition( interval.min( 1 ) + row % ny, 1 );
+		}
+		if ( interval.numDimensions() > 2 )
+		{
+			ra.setPosition( interval.min( 2 ) + row / ny, 2 );
+		}
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Computes the median of the rows of an image stored as keys returned by
+	 * {@link MedianFilter#toKey(float)}, x first. The key array may start at a
+	 * row other than the first one of the image, but must contain all the rows
+	 * of the windows of the filtered rows. Thread-safe, as long as each thread
+	 * uses its own window.
+	 */
+	static final class RowMedian
+	{
+
+		private final int[] pixels;
+
+		/** The index of the first pixel of the key array in the image. */
+		private final int offset;
+
+		private final int nx;
+
+		private final int ny;
+
+		private final int nz;
+
+		private final int rx;
+
+		private final int ry;
+
+		private final int rz;
+
+		RowMedian( final int[] pixels, final int rowOffset, final int nx, final int ny, final int nz, final int rx, final int ry, final int rz )
+		{
+			this.pixels = pixels;
+			this.offset = rowOffset * nx;
+			this.nx = nx;
+			this.ny = ny;
+			this.nz = nz;
+			this.rx = rx;
+			this.ry = ry;
+			this.rz = rz;
+		}
+
+		/**
+		 * Creates the buffers to slide a window along rows.
+		 */
+		Window createWindow()
+		{
+			return new Window( ( 2 * rx + 1 ) * ( 2 * ry + 1 ) * ( 2 * rz + 1 ), ( 2 * ry + 1 ) * ( 2 * rz + 1 ) );
+		}
+
+		/**
+		 * Writes the median of each pixel of the specified row in the target
+		 * array.
+		 *
+		 * @param y
+		 *            the row position along Y.
+		 * @param z
+		 *            the row position along Z.
+		 * @param target
+		 *            the array to write the row medians in.
+		 * @param window
+		 *            buffers created by {@link #createWindow()}, used by the
+		 *            calling thread only.
+		 */
+		void filter( final int y, final int z, final int[] target, final Window window )
+		{
+			final int y0 = Math.max( 0, y - ry );
+			final int y1 = Math.min( ny - 1, y + ry );
+			final int z0 = Math.max( 0, z - rz );
+			final int z1 = Math.min( nz - 1, z + rz );
+
+			if ( rx == 1 && ry == 1 && rz == 0 && y0 == y - 1 && y1 == y + 1 && nx >= 3 )
+			{
+				filter3x3( y, z, target, window.added );
+				return;
+			}
+
+			// Slide a sorted window along the row, one column at a time.
+			window.n = 0;
+			for ( int x = 0; x <= Math.min( rx, nx - 1 ); x++ )
+			{
+				final int nAdded = sortColumn( window.added, x, y0, y1, z0, z1 );
+				window.update( window.removed, 0, window.added, nAdded );
+			}
+			for ( int x = 0; x < nx; x++ )
+			{
+				target[ x ] = window.values[ ( window.n - 1 ) / 2 ];
+				final int nRemoved = x - rx >= 0 ? sortColumn( window.removed, x - rx, y0, y1, z0, z1 ) : 0;
+				final int nAdded = x + 1 + rx < nx ? sortColumn( window.added, x + 1 + rx, y0, y1, z0, z1 ) : 0;
+				window.update( window.removed, nRemoved, window.added, nAdded );
+			}
+		}
+
+		/**
+		 * Copies the values of the column at x in the array, sorted, and
+		 * returns their number.
+		 */
+		private int sortColumn( final int[] column, final int x, final int y0, final int y1, final int z0, final int z1 )
+		{
+			int n = 0;
+			for ( int z = z0; z <= z1; z++ )
+			{
+				for ( int y = y0; y <= y1; y++ )
+				{
+					final int val = pixels[ ( z * ny + y ) * nx + x - offset ];
+					int pos = n++;
+					while ( pos > 0 && column[ pos - 1 ] > val )
+					{
+						column[ pos ] = column[ pos - 1 ];
+						pos--;
+					}
+					column[ pos ] = val;
+				}
+			}
+			return n;
+		}
+
+		/**
+		 * Filters a row with all its 3x3 windows inside the image. The first
+		 * and last pixels of the row have 6 values in their window.
+		 * <p>
+		 * Each column of 3 values is sorted once and shared by the 3 windows
+		 * containing it. The median of a window is then the median of the
+		 * largest of the column minima, the median of the column medians and
+		 * the smallest of the column maxima.
+		 */
+		private void filter3x3( final int y, final int z, final int[] target, final int[] p )
+		{
+			final int above = ( z * ny + y - 1 ) * nx - offset;
+			final int center = above + nx;
+			final int below = center + nx;
+
+			target[ 0 ] = borderMedian( p, above, center, below, 0 );
+
+			// Sorted columns x - 1 and x.
+			sortColumn3( p, above, center, below, 0 );
+			int lo0 = p[ 0 ];
+			int mi0 = p[ 1 ];
+			int hi0 = p[ 2 ];
+			sortColumn3( p, above, center, below, 1 );
+			int lo1 = p[ 0 ];
+			int mi1 = p[ 1 ];
+			int hi1 = p[ 2 ];
+			for ( int x = 1; x < nx - 1; x++ )
+			{
+				sortColumn3( p, above, center, below, x + 1 );
+				final int lo2 = p[ 0 ];
+				final int mi2 = p[ 1 ];
+				final int hi2 = p[ 2 ];
+				final int maxLo = Math.max( lo0, Math.max( lo1, lo2 ) );
+				final int minHi = Math.min( hi0, Math.min( hi1, hi2 ) );
+				target[ x ] = median3( maxLo, median3( mi0, mi1, mi2 ), minHi );
+				lo0 = lo1;
+				mi0 = mi1;
+				hi0 = hi1;
+				lo1 = lo2;
+				mi1 = mi2;
+				hi1 = hi2;
+			}
+
+			target[ nx - 1 ] = borderMedian( p, above, center, below, nx - 2 );
+		}
+
+		/**
+		 * Sorts the 3 values of the column at x in the first elements of the
+		 * array, with a 3 comparisons sorting network.
+		 */
+		private void sortColumn3( final int[] p, final int above, final int center, final int below, final int x )
+		{
+			int a = pixels[ above + x ];
+			int b = pixels[ center + x ];
+			int c = pixels[ below + x ];
+			if ( a > b )
+			{
+				final int tmp = a;
+				a = b;
+				b = tmp;
+			}
+			if ( b > c )
+			{
+				final int tmp = b;
+				b = c;
+				c = tmp;
+			}
+			if ( a > b )
+			{
+				final int tmp = a;
+				a = b;
+				b = tmp;
+			}
+			p[ 0 ] = a;
+			p[ 1 ] = b;
+			p[ 2 ] = c;
+		}
+
+		private int borderMedian( final int[] p, final int above, final int center, final int below, final int x )
+		{
+			p[ 0 ] = pixels[ above + x ];
+			p[ 1 ] = pixels[ above + x + 1 ];
+			p[ 2 ] = pixels[ center + x ];
+			p[ 3 ] = pixels[ center + x + 1 ];
+			p[ 4 ] = pixels[ below + x ];
+			p[ 5 ] = pixels[ below + x + 1 ];
+			Arrays.sort( p, 0, 6 );
+			return p[ 2 ];
+		}
+	}
+
+	/**
+	 * The sorted values of a window sliding along a row, and the buffers to
+	 * update it.
+	 */
+	static final class Window
+	{
+
+		/** The sorted values of the window. */
+		private int[] values;
+
+		/** The number of values in the window. */
+		private int n;
+
+		private int[] merged;
+
+		/** The sorted values of the column leaving the window. */
+		private final int[] removed;
+
+		/** The sorted values of the column entering the window. */
+		private final int[] added;
+
+		private Window( final int windowSize, final int columnSize )
+		{
+			values = new int[ windowSize ];
+			merged = new int[ windowSize ];
+			// The 3x3 case uses them for border windows of 6 values.
+			removed = new int[ Math.max( 6, columnSize ) ];
+			added = new int[ Math.max( 6, columnSize ) ];
+		}
+
+		/**
+		 * Removes and inserts sorted values in one merging pass over the
+		 * window. The values to remove must be in the window.
+		 */
+		private void update( final int[] toRemove, final int nToRemove, final int[] toAdd, final int nToAdd )
+		{
+			int out = 0;
+			int j = 0;
+			int k = 0;
+			for ( int i = 0; i < n; i++ )
+			{
+				final int val = values[ i ];
+				if ( j < nToRemove && val == toRemove[ j ] )
+				{
+					j++;
+					continue;
+				}
+				while ( k < nToAdd && toAdd[ k ] < val )
+				{
+					merged[ out++ ] = toAdd[ k++ ];
+				}
+				merged[ out++ ] = val;
+			}
+			while ( k < nToAdd )
+			{
+				merged[ out++ ] = toAdd[ k++ ];
+			}
+			final int[] tmp = values;
+			values = merged;
+			merged = tmp;
+			n = out;
+		}
+	}
+
+	private static int median3( final int a, final int b, final int c )
+	{
+		return Math.max( Math.min( a, b ), Math.min( Math.max( a, b ), c ) );
+	}
+
+	/**
+	 * Maps a float to an int so that ints compare as the floats do with
+	 * {@link Float#compare(float, float)}. The mapping is its own inverse on
+	 * the int bits, see {@link #toFloat(int)}.
+	 */
+	static int toKey( final float val )
+	{
+		final int bits = Float.floatToIntBits( val );
+		return bits ^ ( ( bits >> 31 ) & 0x7fffffff );
+	}
+
+	/**
+	 * Returns the float mapped to the specified key by {@link #toKey(float)}.
+	 */
+	static float toFloat( final int key )
+	{
+		return Float.intBitsToFloat( key ^ ( ( key >> 31 ) & 0x7fffffff ) );
+	}
 }
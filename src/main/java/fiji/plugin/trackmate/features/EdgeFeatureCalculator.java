@@ -5,10 +5,12 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
@@ -21,7 +23,7 @@ import org.jgrapht.graph.DefaultWeightedEdge;
  * @author Jean-Yves Tinevez - 2013
  *
  */
-public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
+public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm implements ExecutorServiceAware
 {
 
 	private static final String BASE_ERROR_MSG = "[EdgeFeatureCalculator] ";
@@ -30,6 +32,8 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 
 	private final Model model;
 
+	private ExecutorService executorService;
+
 	public EdgeFeatureCalculator( final Model model, final Settings settings )
 	{
 		this.settings = settings;
@@ -40,6 +44,16 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 	 * METHODS
 	 */
 
+	/**
+	 * Sets the executor service passed to the edge analyzers that can use one.
+	 * If <code>null</code>, they start their own threads.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
 	@Override
 	public boolean checkInput()
 	{
@@ -119,6 +133,10 @@ public class EdgeFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 				continue;
 			}
 			analyzer.setNumThreads( numThreads );
+			if ( analyzer instanceof ExecutorServiceAware )
+			{
+				( ( ExecutorServiceAware ) analyzer ).setExecutorService( executorService );
+			}
 			analyzer.process( edges, model );
 			if ( doLogIt )
 				logger.log( "  - " + analyzer.getName() + " in " + analyzer.getProcessingTime() + " ms.\n" );
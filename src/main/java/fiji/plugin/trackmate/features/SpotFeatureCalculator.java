@@ -5,20 +5,26 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.spot.IndependentSpotFeatureAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactory;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.SpotNeighborhoodBuffer;
+import fiji.plugin.trackmate.util.TMExecutors;
 import fiji.plugin.trackmate.util.TMUtils;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 import net.imglib2.meta.ImgPlus;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 /**
  * A class dedicated to centralizing the calculation of the numerical features
@@ -27,15 +33,22 @@ import net.imglib2.multithreading.SimpleMultiThreading;
  * @author Jean-Yves Tinevez - 2013
  * 
  */
-public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
+public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm implements ExecutorServiceAware
 {
 
 	private static final String BASE_ERROR_MSG = "[SpotFeatureCalculator] ";
 
+	/**
+	 * Maximal number of spots in a work unit.
+	 */
+	private static final int CHUNK_SIZE = 64;
+
 	private final Settings settings;
 
 	private final Model model;
 
+	private ExecutorService executorService;
+
 	public SpotFeatureCalculator( final Model model, final Settings settings )
 	{
 		this.settings = settings;
@@ -46,6 +59,16 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 	 * METHODS
 	 */
 
+	/**
+	 * Sets the executor service frames are processed on. If <code>null</code>,
+	 * one thread per {@link #getNumThreads()} is created for each calculation.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
 	@Override
 	public boolean checkInput()
 	{
@@ -131,11 +154,8 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 
 		// Do it.
 		final List< Integer > frameSet = new ArrayList< Integer >( toCompute.keySet() );
-		final int numFrames = frameSet.size();
-
-		final AtomicInteger ai = new AtomicInteger( 0 );
-		final AtomicInteger progress = new AtomicInteger( 0 );
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		if ( frameSet.isEmpty() )
+			return;
 
 		int tc = 0;
 		if ( settings != null && settings.detectorSettings != null )
@@ -153,40 +173,149 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 		@SuppressWarnings( "rawtypes" )
 		final ImgPlus img = TMUtils.rawWraps( settings.imp );
 
-		// Prepare the thread array
-		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		/*
+		 * Work units. If all analyzers process spots independently, frames are
+		 * split in chunks of spots, so that a few dense frames do not keep a
+		 * single thread busy while the others are idle. Otherwise, each
+		 * analyzer processes whole frames.
+		 */
+		final boolean independent = areIndependent( analyzerFactories, img, frameSet.get( 0 ), targetChannel );
+		final List< SpotChunk > chunks = new ArrayList< SpotChunk >();
+		for ( final Integer frame : frameSet )
 		{
+			if ( !independent )
+			{
+				chunks.add( new SpotChunk( frame, null ) );
+				continue;
+			}
+			final List< Spot > spots = new ArrayList< Spot >( toCompute.getNSpots( frame, false ) );
+			for ( final Iterator< Spot > it = toCompute.iterator( frame, false ); it.hasNext(); )
+			{
+				spots.add( it.next() );
+			}
+			for ( int from = 0; from < spots.size(); from += CHUNK_SIZE )
+			{
+				chunks.add( new SpotChunk( frame, spots.subList( from, Math.min( spots.size(), from + CHUNK_SIZE ) ) ) );
+			}
+		}
+		final int numChunks = chunks.size();
 
-			threads[ ithread ] = new Thread( "TrackMate spot feature calculating thread " + ( 1 + ithread ) + "/" + threads.length )
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final AtomicInteger progress = new AtomicInteger( 0 );
+		final Runnable[] workers = new Runnable[ Math.max( 1, Math.min( numThreads, numChunks ) ) ];
+
+		// Prepare the worker array
+		for ( int iworker = 0; iworker < workers.length; iworker++ )
+		{
+
+			workers[ iworker ] = new Runnable()
 			{
 
+				/**
+				 * The analyzers of the frame last processed by this worker.
+				 * They share a neighborhood buffer, so that the pixels around
+				 * a spot are read once for all of them.
+				 */
+				private final List< IndependentSpotFeatureAnalyzer< ? > > analyzers = new ArrayList< IndependentSpotFeatureAnalyzer< ? > >( analyzerFactories.size() );
+
+				@SuppressWarnings( "rawtypes" )
+				private final SpotNeighborhoodBuffer buffer = new SpotNeighborhoodBuffer();
+
+				private int currentFrame = -1;
+
 				@Override
 				public void run()
 				{
 
-					for ( int index = ai.getAndIncrement(); index < numFrames; index = ai.getAndIncrement() )
+					for ( int index = ai.getAndIncrement(); index < numChunks; index = ai.getAndIncrement() )
 					{
-
-						final int frame = frameSet.get( index );
-						for ( final SpotAnalyzerFactory< ? > factory : analyzerFactories )
+						final SpotChunk chunk = chunks.get( index );
+						if ( null == chunk.spots )
+						{
+							for ( final SpotAnalyzerFactory< ? > factory : analyzerFactories )
+							{
+								@SuppressWarnings( "unchecked" )
+								final SpotAnalyzer< ? > analyzer = factory.getAnalyzer( model, img, chunk.frame, targetChannel );
+								analyzer.process();
+							}
+						}
+						else
 						{
-							@SuppressWarnings( "unchecked" )
-							final SpotAnalyzer< ? > analyzer = factory.getAnalyzer( model, img, frame, targetChannel );
-							analyzer.process();
+							if ( chunk.frame != currentFrame )
+							{
+								prepareAnalyzers( chunk.frame );
+							}
+							for ( final Spot spot : chunk.spots )
+							{
+								for ( final IndependentSpotFeatureAnalyzer< ? > analyzer : analyzers )
+								{
+									analyzer.process( spot );
+								}
+							}
 						}
 
-						logger.setProgress( progress.incrementAndGet() / ( float ) numFrames );
-					} // Finished looping over frames
+						logger.setProgress( progress.incrementAndGet() / ( float ) numChunks );
+					} // Finished looping over chunks
+				}
+
+				@SuppressWarnings( "unchecked" )
+				private void prepareAnalyzers( final int frame )
+				{
+					analyzers.clear();
+					buffer.clear();
+					for ( final SpotAnalyzerFactory< ? > factory : analyzerFactories )
+					{
+						@SuppressWarnings( "rawtypes" )
+						final IndependentSpotFeatureAnalyzer analyzer = ( IndependentSpotFeatureAnalyzer ) factory.getAnalyzer( model, img, frame, targetChannel );
+						analyzer.setNeighborhoodBuffer( buffer );
+						analyzers.add( analyzer );
+					}
+					currentFrame = frame;
 				}
 			};
 		}
 		logger.setStatus( "Calculating " + toCompute.getNSpots( false ) + " spots features..." );
 		logger.setProgress( 0 );
 
-		SimpleMultiThreading.startAndJoin( threads );
+		TMExecutors.startAndJoin( executorService, workers );
 
 		logger.setProgress( 1 );
 		logger.setStatus( "" );
 	}
 
+	/**
+	 * Returns <code>true</code> if all the specified factories return analyzers
+	 * that can process spots one by one.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private boolean areIndependent( final List< SpotAnalyzerFactory< ? >> analyzerFactories, final ImgPlus img, final int frame, final int channel )
+	{
+		for ( final SpotAnalyzerFactory< ? > factory : analyzerFactories )
+		{
+			if ( !( factory.getAnalyzer( model, img, frame, channel ) instanceof IndependentSpotFeatureAnalyzer ) ) { return false; }
+		}
+		return true;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * A work unit: spots of a frame to compute features for. If
+	 * <code>spots</code> is <code>null</code>, the whole frame is processed.
+	 */
+	private static final class SpotChunk
+	{
+		private final int frame;
+
+		private final List< Spot > spots;
+
+		private SpotChunk( final int frame, final List< Spot > spots )
+		{
+			this.frame = frame;
+			this.spots = spots;
+		}
+	}
+
 }
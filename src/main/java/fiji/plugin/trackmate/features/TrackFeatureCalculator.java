@@ -5,10 +5,12 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
@@ -19,7 +21,7 @@ import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
  * @author Jean-Yves Tinevez - 2013
  *
  */
-public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
+public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm implements ExecutorServiceAware
 {
 
 	private static final String BASE_ERROR_MSG = "[TrackFeatureCalculator] ";
@@ -28,6 +30,8 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 
 	private final Model model;
 
+	private ExecutorService executorService;
+
 	public TrackFeatureCalculator( final Model model, final Settings settings )
 	{
 		this.settings = settings;
@@ -38,6 +42,16 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 	 * METHODS
 	 */
 
+	/**
+	 * Sets the executor service passed to the track analyzers that can use one.
+	 * If <code>null</code>, they start their own threads.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
 	@Override
 	public boolean checkInput()
 	{
@@ -116,6 +130,10 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm
 			}
 
 			analyzer.setNumThreads( numThreads );
+			if ( analyzer instanceof ExecutorServiceAware )
+			{
+				( ( ExecutorServiceAware ) analyzer ).setExecutorService( executorService );
+			}
 			if ( analyzer.isLocal() )
 			{
 				analyzer.process( trackIDs, model );
@@ -4,6 +4,8 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -11,17 +13,17 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = EdgeAnalyzer.class )
-public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded
+public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded, ExecutorServiceAware
 {
 
 	public static final String KEY = "Edge mean location";
@@ -77,6 +79,8 @@ public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded
 
 	private int numThreads;
 
+	private ExecutorService executorService;
+
 	private long processingTime;
 
 	/*
@@ -104,10 +108,10 @@ public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded
 
 		final ArrayBlockingQueue< DefaultWeightedEdge > queue = new ArrayBlockingQueue< DefaultWeightedEdge >( edges.size(), false, edges );
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		final Runnable[] workers = new Runnable[ numThreads ];
+		for ( int i = 0; i < workers.length; i++ )
 		{
-			threads[ i ] = new Thread( "EdgeTimeLocationAnalyzer thread " + i )
+			workers[ i ] = new Runnable()
 			{
 				@Override
 				public void run()
@@ -135,7 +139,7 @@ public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded
 		}
 
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		TMExecutors.startAndJoin( executorService, workers );
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
 	}
@@ -165,6 +169,12 @@ public class EdgeTimeLocationAnalyzer implements EdgeAnalyzer, MultiThreaded
 
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
@@ -1,6 +1,8 @@
 package fiji.plugin.trackmate.features.spot;
 
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.SpotNeighborhoodBuffer;
+import fiji.plugin.trackmate.util.SpotNeighborhoodBuffer.Sample;
 
 import java.util.Iterator;
 
@@ -18,6 +20,8 @@ public abstract class IndependentSpotFeatureAnalyzer< T extends RealType< T >> i
 
 	private long processingTime;
 
+	private SpotNeighborhoodBuffer< T > buffer;
+
 	public IndependentSpotFeatureAnalyzer( final ImgPlus< T > img, final Iterator< Spot > spots )
 	{
 		this.img = img;
@@ -26,6 +30,38 @@ public abstract class IndependentSpotFeatureAnalyzer< T extends RealType< T >> i
 
 	public abstract void process( final Spot spot );
 
+	/**
+	 * Sets the buffer this analyzer reads spot neighborhoods from. Analyzers
+	 * that operate on the same image and share a buffer read the pixels of a
+	 * spot neighborhood only once, if they process the spot one after the
+	 * other. If not set, this analyzer uses a private buffer.
+	 *
+	 * @param buffer
+	 *            the buffer to use.
+	 */
+	public void setNeighborhoodBuffer( final SpotNeighborhoodBuffer< T > buffer )
+	{
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Returns the pixels of the neighborhood of the specified spot.
+	 *
+	 * @param spot
+	 *            the spot at the center of the neighborhood.
+	 * @param radius
+	 *            the radius of the neighborhood, in physical units.
+	 * @return the neighborhood pixels.
+	 */
+	protected Sample getNeighborhood( final Spot spot, final double radius )
+	{
+		if ( null == buffer )
+		{
+			buffer = new SpotNeighborhoodBuffer< T >();
+		}
+		return buffer.get( spot, radius, img );
+	}
+
 	@Override
 	public boolean checkInput()
 	{
@@ -2,8 +2,7 @@ package fiji.plugin.trackmate.features.spot;
 
 import static fiji.plugin.trackmate.features.spot.SpotContrastAnalyzerFactory.KEY;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.util.SpotNeighborhood;
-import fiji.plugin.trackmate.util.SpotNeighborhoodCursor;
+import fiji.plugin.trackmate.util.SpotNeighborhoodBuffer.Sample;
 
 import java.util.Iterator;
 
@@ -37,9 +36,8 @@ public class SpotContrastAnalyzer< T extends RealType< T >> extends IndependentS
 	private final double getContrast( final Spot spot )
 	{
 
-		final SpotNeighborhood< T > neighborhood = new SpotNeighborhood< T >( spot, img );
-
 		final double radius = spot.getFeature( Spot.RADIUS );
+		final Sample neighborhood = getNeighborhood( spot, radius );
 		long innerRingVolume = 0;
 		long outerRingVolume = 0;
 		double radius2 = radius * radius;
@@ -48,20 +46,18 @@ public class SpotContrastAnalyzer< T extends RealType< T >> extends IndependentS
 		double outerTotalIntensity = 0;
 		double dist2;
 
-		SpotNeighborhoodCursor< T > cursor = neighborhood.cursor();
-		while ( cursor.hasNext() )
+		for ( int i = 0; i < neighborhood.size; i++ )
 		{
-			cursor.fwd();
-			dist2 = cursor.getDistanceSquared();
+			dist2 = neighborhood.distancesSquared[ i ];
 			if ( dist2 > radius2 )
 			{
 				outerRingVolume++;
-				outerTotalIntensity += cursor.get().getRealDouble();
+				outerTotalIntensity += neighborhood.values[ i ];
 			}
 			else if ( dist2 > innerRadius2 )
 			{
 				innerRingVolume++;
-				innerTotalIntensity += cursor.get().getRealDouble();
+				innerTotalIntensity += neighborhood.values[ i ];
 			}
 		}
 
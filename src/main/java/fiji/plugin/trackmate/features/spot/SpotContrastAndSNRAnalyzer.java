@@ -4,8 +4,7 @@ import static fiji.plugin.trackmate.features.spot.SpotContrastAndSNRAnalyzerFact
 import static fiji.plugin.trackmate.features.spot.SpotContrastAndSNRAnalyzerFactory.SNR;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.features.FeatureAnalyzer;
-import fiji.plugin.trackmate.util.SpotNeighborhood;
-import fiji.plugin.trackmate.util.SpotNeighborhoodCursor;
+import fiji.plugin.trackmate.util.SpotNeighborhoodBuffer.Sample;
 
 import java.util.Iterator;
 
@@ -64,24 +63,21 @@ public class SpotContrastAndSNRAnalyzer< T extends RealType< T >> extends Indepe
 	private final double[] getContrastAndSNR( final Spot spot )
 	{
 
-		SpotNeighborhood< T > neighborhood = new SpotNeighborhood< T >( spot, img );
-
 		final double radius = spot.getFeature( Spot.RADIUS );
+		final Sample neighborhood = getNeighborhood( spot, radius );
 		double radius2 = radius * radius;
 		int n_out = 0; // inner number of pixels
 		double dist2;
 		double sum_out = 0;
 
 		// Compute mean in the outer ring
-		SpotNeighborhoodCursor< T > cursor = neighborhood.cursor();
-		while ( cursor.hasNext() )
+		for ( int i = 0; i < neighborhood.size; i++ )
 		{
-			cursor.fwd();
-			dist2 = cursor.getDistanceSquared();
+			dist2 = neighborhood.distancesSquared[ i ];
 			if ( dist2 > radius2 )
 			{
 				n_out++;
-				sum_out += cursor.get().getRealFloat();
+				sum_out += ( float ) neighborhood.values[ i ];
 			}
 		}
 		double mean_out = sum_out / n_out;
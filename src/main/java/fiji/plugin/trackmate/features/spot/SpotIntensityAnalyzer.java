@@ -12,9 +12,9 @@ import java.util.Iterator;
 
 import net.imglib2.meta.ImgPlus;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.util.Util;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.util.SpotNeighborhood;
+import fiji.plugin.trackmate.util.SpotNeighborhoodBuffer.Sample;
+import fiji.plugin.trackmate.util.TMUtils;
 //import static fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory.SKEWNESS;
 //import static fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory.VARIANCE;
 
@@ -26,68 +26,84 @@ public class SpotIntensityAnalyzer< T extends RealType< T >> extends Independent
 		super( img, spots );
 	}
 
+	/**
+	 * Per-thread copies of the neighborhood pixel values, reordered to find
+	 * the median. Reused from one spot to the next.
+	 */
+	private static final ThreadLocal< double[] > SCRATCH = new ThreadLocal< double[] >()
+	{
+		@Override
+		protected double[] initialValue()
+		{
+			return new double[ 0 ];
+		}
+	};
+
 	/*
 	 * PUBLIC METHODS
 	 */
 
 	/**
-	 * Compute descriptive statistics items for this spot. Implementation
-	 * follows {@link http
-	 * ://en.wikipedia.org/wiki/Algorithms_for_calculating_variance}.
+	 * Compute descriptive statistics items for this spot. Mean, standard
+	 * deviation, min, max and total are computed in a single pass.
+	 * Implementation follows {@link http
+	 * ://en.wikipedia.org/wiki/Algorithms_for_calculating_variance}. The median
+	 * is found by selection in a per-thread buffer, without sorting.
 	 */
 	@Override
 	public final void process( final Spot spot )
 	{
 
 		// Prepare neighborhood
-		final SpotNeighborhood< T > neighborhood = new SpotNeighborhood< T >( spot, img );
-		final int npixels = ( int ) neighborhood.size();
+		final Sample neighborhood = getNeighborhood( spot, spot.getFeature( Spot.RADIUS ) );
+		final int npixels = neighborhood.size;
+		final double[] values = neighborhood.values;
 
-		// For variance, kurtosis and skewness
+		// For variance
 		double sum = 0;
-
 		double mean = 0;
 		double M2 = 0;
-		double M3 = 0;
-		double M4 = 0;
-		double delta, delta_n, delta_n2;
-		double term1;
-		int n1;
+		double delta, delta_n;
 
 		// Others
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
 		double val;
-		final double[] pixel_values = new double[ npixels ];
-		int n = 0;
-		for ( final T pixel : neighborhood )
+		for ( int n = 0; n < npixels; n++ )
 		{
-			val = pixel.getRealDouble();
+			val = values[ n ];
 
-			// For median, min and max
-			pixel_values[ n ] = val;
-			// For variance and mean
+			if ( val < min )
+			{
+				min = val;
+			}
+			if ( val > max )
+			{
+				max = val;
+			}
+			// For mean and total
 			sum += val;
 
-			// For kurtosis
-			n1 = n;
-			n++;
+			// For variance
 			delta = val - mean;
-			delta_n = delta / n;
-			delta_n2 = delta_n * delta_n;
-			term1 = delta * delta_n * n1;
+			delta_n = delta / ( n + 1 );
 			mean = mean + delta_n;
-			M4 = M4 + term1 * delta_n2 * ( n * n - 3 * n + 3 ) + 6 * delta_n2 * M2 - 4 * delta_n * M3;
-			M3 = M3 + term1 * delta_n * ( n - 2 ) - 3 * delta_n * M2;
-			M2 = M2 + term1;
+			M2 = M2 + delta * delta_n * n;
+		}
+
+		// The neighborhood values may be shared with other analyzers: copy.
+		double[] scratch = SCRATCH.get();
+		if ( scratch.length < npixels )
+		{
+			scratch = new double[ npixels ];
+			SCRATCH.set( scratch );
 		}
+		System.arraycopy( values, 0, scratch, 0, npixels );
+		final double median = TMUtils.select( scratch, 0, npixels, npixels / 2 );
 
-		Util.quicksort( pixel_values, 0, npixels - 1 );
-		final double median = pixel_values[ npixels / 2 ];
-		final double min = pixel_values[ 0 ];
-		final double max = pixel_values[ npixels - 1 ];
 		mean = sum / npixels;
 		final double variance = M2 / ( npixels - 1 );
-		// double kurtosis = (n*M4) / (M2*M2) - 3;
-		// double skewness = Math.sqrt(n) * M3 / Math.pow(M2, 3/2.0);
+		// Kurtosis and skewness would need the 3rd and 4th moments, see link.
 
 		spot.putFeature( MEDIAN_INTENSITY, median );
 		spot.putFeature( MIN_INTENSITY, min );
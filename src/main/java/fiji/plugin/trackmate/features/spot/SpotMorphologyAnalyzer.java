@@ -11,8 +11,7 @@ import static fiji.plugin.trackmate.features.spot.SpotMorphologyAnalyzerFactory.
 import Jama.EigenvalueDecomposition;
 import Jama.Matrix;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.util.SpotNeighborhood;
-import fiji.plugin.trackmate.util.SpotNeighborhoodCursor;
+import fiji.plugin.trackmate.util.SpotNeighborhoodBuffer.Sample;
 
 import java.util.Arrays;
 import java.util.Iterator;
@@ -99,23 +98,20 @@ public class SpotMorphologyAnalyzer< T extends RealType< T >> extends Independen
 		{
 
 			// 3D case
-			final SpotNeighborhood< T > neighborhood = new SpotNeighborhood< T >( spot, img );
-			final SpotNeighborhoodCursor< T > cursor = neighborhood.cursor();
+			final Sample neighborhood = getNeighborhood( spot, spot.getFeature( Spot.RADIUS ) );
+			final double[] positions = neighborhood.positions;
 
 			double x, y, z;
 			double x2, y2, z2;
 			double mass, totalmass = 0;
 			double Ixx = 0, Iyy = 0, Izz = 0, Ixy = 0, Ixz = 0, Iyz = 0;
-			final double[] position = new double[ img.numDimensions() ];
 
-			while ( cursor.hasNext() )
+			for ( int k = 0; k < neighborhood.size; k++ )
 			{
-				cursor.fwd();
-				mass = cursor.get().getRealDouble();
-				cursor.getRelativePosition( position );
-				x = position[ 0 ];
-				y = position[ 1 ];
-				z = position[ 2 ];
+				mass = neighborhood.values[ k ];
+				x = positions[ 3 * k ];
+				y = positions[ 3 * k + 1 ];
+				z = positions[ 3 * k + 2 ];
 				totalmass += mass;
 				x2 = x * x;
 				y2 = y * y;
@@ -186,21 +182,18 @@ public class SpotMorphologyAnalyzer< T extends RealType< T >> extends Independen
 		{
 
 			// 2D case
-			final SpotNeighborhood< T > neighborhood = new SpotNeighborhood< T >( spot, img );
-			final SpotNeighborhoodCursor< T > cursor = neighborhood.cursor();
+			final Sample neighborhood = getNeighborhood( spot, spot.getFeature( Spot.RADIUS ) );
+			final double[] positions = neighborhood.positions;
 			double x, y;
 			double x2, y2;
 			double mass, totalmass = 0;
 			double Ixx = 0, Iyy = 0, Ixy = 0;
-			final double[] position = new double[ img.numDimensions() ];
 
-			while ( cursor.hasNext() )
+			for ( int k = 0; k < neighborhood.size; k++ )
 			{
-				cursor.fwd();
-				mass = cursor.get().getRealDouble();
-				cursor.getRelativePosition( position );
-				x = position[ 0 ];
-				y = position[ 1 ];
+				mass = neighborhood.values[ k ];
+				x = positions[ 2 * k ];
+				y = positions[ 2 * k + 1 ];
 				totalmass += mass;
 				x2 = x * x;
 				y2 = y * y;
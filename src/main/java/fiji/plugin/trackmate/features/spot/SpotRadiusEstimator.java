@@ -2,8 +2,7 @@ package fiji.plugin.trackmate.features.spot;
 
 import static fiji.plugin.trackmate.features.spot.SpotRadiusEstimatorFactory.ESTIMATED_DIAMETER;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.util.SpotNeighborhood;
-import fiji.plugin.trackmate.util.SpotNeighborhoodCursor;
+import fiji.plugin.trackmate.util.SpotNeighborhoodBuffer.Sample;
 
 import java.util.Iterator;
 
@@ -55,19 +54,14 @@ public class SpotRadiusEstimator< T extends RealType< T >> extends IndependentSp
 		final double[] ring_intensities = new double[ nDiameters ];
 		final int[] ring_volumes = new int[ nDiameters ];
 
-		// A tmp spot we will use to iterate around the real spot
-		final Spot tmpSpot = new Spot( spot );
-		tmpSpot.putFeature( Spot.RADIUS, diameters[ nDiameters - 1 ] / 2 );
-
-		final SpotNeighborhood< T > neighborhood = new SpotNeighborhood< T >( tmpSpot, img );
-		final SpotNeighborhoodCursor< T > cursor = neighborhood.cursor();
+		// Iterate around the real spot, up to the largest diameter
+		final Sample neighborhood = getNeighborhood( spot, diameters[ nDiameters - 1 ] / 2 );
 		double d2, val;
 		int i;
-		while ( cursor.hasNext() )
+		for ( int k = 0; k < neighborhood.size; k++ )
 		{
-			cursor.fwd();
-			d2 = cursor.getDistanceSquared();
-			val = cursor.get().getRealDouble();
+			d2 = neighborhood.distancesSquared[ k ];
+			val = neighborhood.values[ k ];
 			for ( i = 0; i < nDiameters && d2 > r2[ i ]; i++ )
 			{
 				ring_intensities[ i ] += val;
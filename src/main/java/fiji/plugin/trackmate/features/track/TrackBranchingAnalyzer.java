@@ -3,6 +3,8 @@ package fiji.plugin.trackmate.features.track;
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -12,17 +14,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackBranchingAnalyzer implements TrackAnalyzer, MultiThreaded
+public class TrackBranchingAnalyzer implements TrackAnalyzer, MultiThreaded, ExecutorServiceAware
 {
 
 	/*
@@ -92,6 +94,8 @@ public class TrackBranchingAnalyzer implements TrackAnalyzer, MultiThreaded
 
 	private int numThreads;
 
+	private ExecutorService executorService;
+
 	private long processingTime;
 
 	public TrackBranchingAnalyzer()
@@ -113,10 +117,10 @@ public class TrackBranchingAnalyzer implements TrackAnalyzer, MultiThreaded
 
 		final ArrayBlockingQueue< Integer > queue = new ArrayBlockingQueue< Integer >( trackIDs.size(), false, trackIDs );
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		final Runnable[] workers = new Runnable[ numThreads ];
+		for ( int i = 0; i < workers.length; i++ )
 		{
-			threads[ i ] = new Thread( "TrackBranchingAnalyzer thread " + i )
+			workers[ i ] = new Runnable()
 			{
 				@Override
 				public void run()
@@ -210,7 +214,7 @@ public class TrackBranchingAnalyzer implements TrackAnalyzer, MultiThreaded
 		}
 
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		TMExecutors.startAndJoin( executorService, workers );
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
 	}
@@ -234,6 +238,12 @@ public class TrackBranchingAnalyzer implements TrackAnalyzer, MultiThreaded
 
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
@@ -4,6 +4,8 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -12,16 +14,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.ImageIcon;
 
 import net.imglib2.algorithm.MultiThreaded;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.scijava.plugin.Plugin;
 
 @Plugin( type = TrackAnalyzer.class )
-public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded
+public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded, ExecutorServiceAware
 {
 
 	public static final String KEY = "Track duration";
@@ -74,6 +76,8 @@ public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded
 
 	private int numThreads;
 
+	private ExecutorService executorService;
+
 	private long processingTime;
 
 	public TrackDurationAnalyzer()
@@ -96,10 +100,10 @@ public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded
 		final ArrayBlockingQueue< Integer > queue = new ArrayBlockingQueue< Integer >( trackIDs.size(), false, trackIDs );
 		final FeatureModel fm = model.getFeatureModel();
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		final Runnable[] workers = new Runnable[ numThreads ];
+		for ( int i = 0; i < workers.length; i++ )
 		{
-			threads[ i ] = new Thread( "TrackDurationAnalyzer thread " + i )
+			workers[ i ] = new Runnable()
 			{
 				@Override
 				public void run()
@@ -141,7 +145,7 @@ public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded
 		}
 
 		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
+		TMExecutors.startAndJoin( executorService, workers );
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
 	}
@@ -165,6 +169,12 @@ public class TrackDurationAnalyzer implements TrackAnalyzer, MultiThreaded
 
 	}
 
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
 	@Override
 	public long getProcessingTime()
 	{
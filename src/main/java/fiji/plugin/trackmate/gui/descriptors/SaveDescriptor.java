@@ -4,6 +4,8 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.gui.TrackMateGUIController;
 import fiji.plugin.trackmate.io.IOUtils;
+import fiji.plugin.trackmate.io.TmBinaryWriter;
+import fiji.plugin.trackmate.io.TmXmlStreamWriter;
 import fiji.plugin.trackmate.io.TmXmlWriter;
 
 import java.io.File;
@@ -78,7 +80,15 @@ public class SaveDescriptor extends SomeDialogDescriptor
 		 * Write model, settings and GUI state
 		 */
 
-		final TmXmlWriter writer = new TmXmlWriter( file, logger );
+		final TmXmlWriter writer;
+		if ( file.getName().endsWith( TmBinaryWriter.FILE_EXTENSION ) )
+		{
+			writer = new TmBinaryWriter( file, logger );
+		}
+		else
+		{
+			writer = new TmXmlStreamWriter( file, logger );
+		}
 
 		writer.appendLog( logPanel.getTextContent() );
 		writer.appendModel( trackmate.getModel() );
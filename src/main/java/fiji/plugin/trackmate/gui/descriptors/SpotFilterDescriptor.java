@@ -54,8 +54,14 @@ public class SpotFilterDescriptor implements WizardPanelDescriptor
 	@Override
 	public void aboutToDisplayPanel()
 	{
+		if ( null != component )
+		{
+			trackmate.getModel().removeModelChangeListener( component );
+		}
 		component = new FilterGuiPanel( trackmate.getModel(), Arrays.asList( new Category[] { Category.SPOTS, Category.DEFAULT } ) );
-		component.refreshDisplayedFeatureValues();
+		trackmate.getModel().addModelChangeListener( component );
+		// Thresholds are tuned repeatedly on the same spots.
+		trackmate.getModel().getSpots().setIndexed( true );
 		final Settings settings = trackmate.getSettings();
 		component.setFilters( settings.getSpotFilters() );
 		component.setColorFeature( spotColorGenerator.getFeature() );
@@ -94,12 +100,14 @@ public class SpotFilterDescriptor implements WizardPanelDescriptor
 	@Override
 	public void aboutToHidePanel()
 	{
+		trackmate.getModel().removeModelChangeListener( component );
 		final Logger logger = trackmate.getModel().getLogger();
 		logger.log( "Performing spot filtering on the following features:\n", Logger.BLUE_COLOR );
 		final Model model = trackmate.getModel();
 		final List< FeatureFilter > featureFilters = component.getFeatureFilters();
 		trackmate.getSettings().setSpotFilters( featureFilters );
 		trackmate.execSpotFiltering( false );
+		model.getSpots().setIndexed( false );
 
 		final int ntotal = model.getSpots().getNSpots( false );
 		if ( featureFilters == null || featureFilters.isEmpty() )
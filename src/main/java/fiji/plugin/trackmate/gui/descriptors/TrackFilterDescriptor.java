@@ -53,7 +53,12 @@ public class TrackFilterDescriptor implements WizardPanelDescriptor
 	@Override
 	public void aboutToDisplayPanel()
 	{
+		if ( null != component )
+		{
+			trackmate.getModel().removeModelChangeListener( component );
+		}
 		component = new FilterGuiPanel( trackmate.getModel(), Arrays.asList( new Category[] { Category.TRACKS, Category.DEFAULT } ) );
+		trackmate.getModel().addModelChangeListener( component );
 		component.setFilters( trackmate.getSettings().getTrackFilters() );
 		component.setColorFeature( TrackIndexAnalyzer.TRACK_INDEX );
 		component.addActionListener( new ActionListener()
@@ -93,6 +98,7 @@ public class TrackFilterDescriptor implements WizardPanelDescriptor
 	@Override
 	public void aboutToHidePanel()
 	{
+		trackmate.getModel().removeModelChangeListener( component );
 		final Logger logger = trackmate.getModel().getLogger();
 		logger.log( "Performing track filtering on the following features:\n", Logger.BLUE_COLOR );
 		final List< FeatureFilter > featureFilters = component.getFeatureFilters();
@@ -3,6 +3,7 @@ package fiji.plugin.trackmate.gui.panels;
 import fiji.plugin.trackmate.features.spot.SpotContrastAndSNRAnalyzerFactory;
 import fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory;
 import fiji.plugin.trackmate.features.spot.SpotMorphologyAnalyzerFactory;
+import fiji.plugin.trackmate.util.FeatureSummary;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.util.NumberParser;
 
@@ -93,7 +94,12 @@ public class FilterPanel extends javax.swing.JPanel
 
 	private double threshold;
 
-	private final Map< String, double[] > valuesMap;
+	/**
+	 * The summaries of the feature values, shared with the owner of this
+	 * panel. Histograms and auto-thresholds are taken from there, so that the
+	 * values are not sorted again each time they are displayed.
+	 */
+	private final Map< String, FeatureSummary > valuesMap;
 
 	private XYTextSimpleAnnotation annotation;
 
@@ -109,7 +115,7 @@ public class FilterPanel extends javax.swing.JPanel
 	 * CONSTRUCTOR
 	 */
 
-	public FilterPanel( final List< String > allKeys, final Map< String, String > keyNames, final Map< String, double[] > valuesMap, final int selectedKey )
+	public FilterPanel( final List< String > allKeys, final Map< String, String > keyNames, final Map< String, FeatureSummary > valuesMap, final int selectedKey )
 	{
 		super();
 		this.valuesMap = valuesMap;
@@ -119,7 +125,7 @@ public class FilterPanel extends javax.swing.JPanel
 		jComboBoxFeature.setSelectedIndex( selectedKey );
 	}
 
-	public FilterPanel( final Map< String, double[] > valuesMap, final List< String > allKeys, final Map< String, String > keyNames )
+	public FilterPanel( final Map< String, FeatureSummary > valuesMap, final List< String > allKeys, final Map< String, String > keyNames )
 	{
 		this( allKeys, keyNames, valuesMap, 0 );
 	}
@@ -217,9 +223,9 @@ public class FilterPanel extends javax.swing.JPanel
 	{
 		final double old = getThreshold();
 		key = allKeys.get( jComboBoxFeature.getSelectedIndex() );
-		final double[] values = valuesMap.get( key );
+		final FeatureSummary summary = valuesMap.get( key );
 
-		if ( null == values || 0 == values.length )
+		if ( null == summary || 0 == summary.size() )
 		{
 			dataset = new LogHistogramDataset();
 			annotation.setLocation( 0.5f, 0.5f );
@@ -227,12 +233,7 @@ public class FilterPanel extends javax.swing.JPanel
 		}
 		else
 		{
-			final int nBins = TMUtils.getNBins( values, 8, 100 );
-			dataset = new LogHistogramDataset();
-			if ( nBins > 1 )
-			{
-				dataset.addSeries( DATA_SERIES_NAME, values, nBins );
-			}
+			dataset = createDataset( summary );
 		}
 		plot.setDataset( dataset );
 		threshold = old;
@@ -253,8 +254,8 @@ public class FilterPanel extends javax.swing.JPanel
 	{
 		final int index = jComboBoxFeature.getSelectedIndex();
 		key = allKeys.get( index );
-		final double[] values = valuesMap.get( key );
-		if ( null == values || 0 == values.length )
+		final FeatureSummary summary = valuesMap.get( key );
+		if ( null == summary || 0 == summary.size() )
 		{
 			dataset = new LogHistogramDataset();
 			threshold = Double.NaN;
@@ -264,12 +265,7 @@ public class FilterPanel extends javax.swing.JPanel
 		}
 		else
 		{
-			final int nBins = TMUtils.getNBins( values, 8, 100 );
-			dataset = new LogHistogramDataset();
-			if ( nBins > 1 )
-			{
-				dataset.addSeries( DATA_SERIES_NAME, values, nBins );
-			}
+			dataset = createDataset( summary );
 		}
 		plot.setDataset( dataset );
 		resetAxes();
@@ -279,14 +275,26 @@ public class FilterPanel extends javax.swing.JPanel
 	private void autoThreshold()
 	{
 		final String selectedFeature = allKeys.get( jComboBoxFeature.getSelectedIndex() );
-		final double[] values = valuesMap.get( selectedFeature );
-		if ( null != values )
+		final FeatureSummary summary = valuesMap.get( selectedFeature );
+		if ( null != summary )
 		{
-			threshold = TMUtils.otsuThreshold( valuesMap.get( selectedFeature ) );
+			threshold = summary.otsuThreshold();
 			redrawThresholdMarker();
 		}
 	}
 
+	private static LogHistogramDataset createDataset( final FeatureSummary summary )
+	{
+		final LogHistogramDataset histogram = new LogHistogramDataset();
+		final int nBins = summary.getNBins( 8, 100 );
+		if ( nBins > 1 )
+		{
+			// Bounds are known already: spares a pass over the values.
+			histogram.addSeries( DATA_SERIES_NAME, summary.getValues(), nBins, summary.getMin(), summary.getMax() );
+		}
+		return histogram;
+	}
+
 	private void initGUI()
 	{
 		final Dimension panelSize = new java.awt.Dimension( 250, 140 );
@@ -488,8 +496,7 @@ public class FilterPanel extends javax.swing.JPanel
 	private void redrawThresholdMarker()
 	{
 		final String selectedFeature = allKeys.get( jComboBoxFeature.getSelectedIndex() );
-		final double[] values = valuesMap.get( selectedFeature );
-		if ( null == values )
+		if ( null == valuesMap.get( selectedFeature ) )
 			return;
 
 		if ( jRadioButtonAbove.isSelected() )
@@ -547,14 +554,14 @@ public class FilterPanel extends javax.swing.JPanel
 		featureNames.put( features[ 1 ], "Morphology" );
 		featureNames.put( features[ 2 ], "Mean intensity" );
 
-		final Map< String, double[] > fv = new HashMap< String, double[] >();
+		final Map< String, FeatureSummary > fv = new HashMap< String, FeatureSummary >();
 		for ( final String feature : features )
 		{
 			final double[] val = new double[ N_ITEMS ];
 			mean = ran.nextDouble() * 10;
 			for ( int j = 0; j < val.length; j++ )
 				val[ j ] = ran.nextGaussian() + 5 + mean;
-			fv.put( feature, val );
+			fv.put( feature, new FeatureSummary( val ) );
 		}
 
 		// Create GUI
@@ -3,11 +3,14 @@ package fiji.plugin.trackmate.gui.panels.components;
 import static fiji.plugin.trackmate.gui.TrackMateWizard.BIG_FONT;
 import static fiji.plugin.trackmate.gui.TrackMateWizard.SMALL_FONT;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
 import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.gui.TrackMateWizard;
 import fiji.plugin.trackmate.gui.panels.ActionListenablePanel;
 import fiji.plugin.trackmate.gui.panels.FilterPanel;
 import fiji.plugin.trackmate.gui.panels.components.ColorByFeatureGUIPanel.Category;
+import fiji.plugin.trackmate.util.FeatureSummary;
 import fiji.plugin.trackmate.util.OnRequestUpdater;
 
 import java.awt.BorderLayout;
@@ -16,6 +19,7 @@ import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.EmptyStackException;
 import java.util.HashMap;
@@ -30,10 +34,11 @@ import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
-public class FilterGuiPanel extends ActionListenablePanel implements ChangeListener
+public class FilterGuiPanel extends ActionListenablePanel implements ChangeListener, ModelChangeListener
 {
 
 	private static final boolean DEBUG = false;
@@ -88,10 +93,10 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 	private final List< String > features;
 
 	/**
-	 * Holds the map of feature values. Is made final so that the instance can
-	 * be shared with the components of this panel.
+	 * Holds the map of feature value summaries. Is made final so that the
+	 * instance can be shared with the components of this panel.
 	 */
-	private final Map< String, double[] > featureValues;
+	private final Map< String, FeatureSummary > featureValues;
 
 	/*
 	 * CONSTRUCTOR
@@ -140,7 +145,7 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 			}
 		} );
 
-		this.featureValues = new HashMap< String, double[] >();
+		this.featureValues = new HashMap< String, FeatureSummary >();
 		refreshDisplayedFeatureValues();
 		initGUI();
 	}
@@ -151,20 +156,21 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 
 	/**
 	 * Calls the re-calculation of the feature values displayed in the filter
-	 * panels.
+	 * panels. The summaries of the features whose values did not change are
+	 * kept, with what they already computed.
 	 */
 	public void refreshDisplayedFeatureValues()
 	{
-		featureValues.clear();
+		final Map< String, double[] > values = new HashMap< String, double[] >();
 		for ( final Category category : categories )
 		{
 			switch ( category )
 			{
 			case SPOTS:
-				featureValues.putAll( model.getSpots().collectValues( model.getFeatureModel().getSpotFeatures(), false ) );
+				values.putAll( model.getSpots().collectValues( model.getFeatureModel().getSpotFeatures(), false ) );
 				break;
 			case TRACKS:
-				featureValues.putAll( model.getFeatureModel().getTrackFeatureValues() );
+				values.putAll( model.getFeatureModel().getTrackFeatureValues() );
 				break;
 			case DEFAULT:
 				break;
@@ -174,6 +180,17 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 				throw new IllegalArgumentException( "Don't know what to do with category: " + category );
 			}
 		}
+
+		featureValues.keySet().retainAll( values.keySet() );
+		for ( final String feature : values.keySet() )
+		{
+			final double[] newValues = values.get( feature );
+			final FeatureSummary summary = featureValues.get( feature );
+			if ( null == summary || !Arrays.equals( summary.getValues(), newValues ) )
+			{
+				featureValues.put( feature, new FeatureSummary( newValues ) );
+			}
+		}
 	}
 
 	/**
@@ -208,6 +225,39 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 		}
 	}
 
+	/**
+	 * Refreshes the displayed feature values when the features of the model
+	 * are computed or edited, for instance by manual editing while this panel
+	 * is displayed. Register this panel as a listener of the model while it is
+	 * displayed to use it.
+	 */
+	@Override
+	public void modelChanged( final ModelChangeEvent event )
+	{
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.SPOTS_COMPUTED:
+		case ModelChangeEvent.TRACKS_COMPUTED:
+		case ModelChangeEvent.MODEL_MODIFIED:
+			break;
+		default:
+			return;
+		}
+		SwingUtilities.invokeLater( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				refreshDisplayedFeatureValues();
+				for ( final FilterPanel tp : thresholdPanels )
+				{
+					tp.refresh();
+				}
+				updater.doUpdate();
+			}
+		} );
+	}
+
 	/**
 	 * Called when one of the {@link FilterPanel} is changed by the user.
 	 */
@@ -362,12 +412,12 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 		String info = "";
 		int nobjects = 0;
 
-		for ( final double[] values : featureValues.values() )
+		for ( final FeatureSummary summary : featureValues.values() )
 		{ // bulletproof against unspecified features, which are signaled by
 			// empty arrays
-			if ( values.length > 0 )
+			if ( summary.size() > 0 )
 			{
-				nobjects = values.length;
+				nobjects = summary.size();
 				break;
 			}
 		}
@@ -382,38 +432,80 @@ public class FilterGuiPanel extends ActionListenablePanel implements ChangeListe
 		}
 		else
 		{
-			int nselected = 0;
-			double val;
-			for ( int i = 0; i < nobjects; i++ )
+			/*
+			 * Find the most selective filter with the summaries, and only
+			 * check the objects it retains against the other filters.
+			 */
+			FeatureFilter mostSelective = null;
+			int nselected = nobjects;
+			for ( final FeatureFilter filter : featureFilters )
 			{
-				boolean ok = true;
-				for ( final FeatureFilter filter : featureFilters )
+				final FeatureSummary summary = featureValues.get( filter.feature );
+				if ( summary.size() != nobjects )
+				{ // bulletproof
+					continue;
+				}
+				final int count = summary.count( filter.value, filter.isAbove );
+				if ( count <= nselected )
+				{
+					mostSelective = filter;
+					nselected = count;
+				}
+			}
+
+			if ( ( null == mostSelective || featureFilters.size() > 1 ) && nselected > 0 )
+			{
+				final int[] candidates;
+				if ( null == mostSelective )
 				{
-					final double[] values = featureValues.get( filter.feature );
-					if ( i >= values.length || values.length == 0 )
-					{ // bulletproof
-						continue;
+					candidates = new int[ nobjects ];
+					for ( int i = 0; i < nobjects; i++ )
+					{
+						candidates[ i ] = i;
 					}
-					val = values[ i ];
-					if ( filter.isAbove )
+				}
+				else
+				{
+					candidates = featureValues.get( mostSelective.feature ).getIndices( mostSelective.value, mostSelective.isAbove );
+				}
+
+				nselected = 0;
+				double val;
+				for ( final int i : candidates )
+				{
+					boolean ok = true;
+					for ( final FeatureFilter filter : featureFilters )
 					{
-						if ( val < filter.value )
+						if ( filter == mostSelective )
 						{
-							ok = false;
-							break;
+							continue;
 						}
-					}
-					else
-					{
-						if ( val > filter.value )
+						final double[] values = featureValues.get( filter.feature ).getValues();
+						if ( i >= values.length || values.length == 0 )
+						{ // bulletproof
+							continue;
+						}
+						val = values[ i ];
+						if ( filter.isAbove )
+						{
+							if ( val < filter.value )
+							{
+								ok = false;
+								break;
+							}
+						}
+						else
 						{
-							ok = false;
-							break;
+							if ( val > filter.value )
+							{
+								ok = false;
+								break;
+							}
 						}
 					}
+					if ( ok )
+						nselected++;
 				}
-				if ( ok )
-					nselected++;
 			}
 			info = "Keep " + nselected + " " + categories.get( 0 ) + " out of  " + nobjects + ".";
 		}
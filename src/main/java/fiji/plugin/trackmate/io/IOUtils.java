@@ -64,7 +64,7 @@ public class IOUtils {
 			final FilenameFilter filter = new FilenameFilter() {
 				@Override
 				public boolean accept(final File dir, final String name) {
-					return name.endsWith(".xml");
+					return name.endsWith(".xml") || name.endsWith(TmBinaryWriter.FILE_EXTENSION);
 				}
 			};
 			dialog.setFilenameFilter(filter);
@@ -74,7 +74,7 @@ public class IOUtils {
 				logger.log("Save data aborted.\n");
 				return null;
 			}
-			if (!selectedFile.endsWith(".xml"))
+			if (!selectedFile.endsWith(".xml") && !selectedFile.endsWith(TmBinaryWriter.FILE_EXTENSION))
 				selectedFile += ".xml";
 			file = new File(dialog.getDirectory(), selectedFile);
 		} else {
@@ -88,7 +88,7 @@ public class IOUtils {
 			    }
 			};
 			fileChooser.setSelectedFile(file);
-			final FileNameExtensionFilter filter = new FileNameExtensionFilter("XML files", "xml");
+			final FileNameExtensionFilter filter = new FileNameExtensionFilter("TrackMate files", "xml", TmBinaryWriter.FILE_EXTENSION.substring(1));
 			fileChooser.setFileFilter(filter);
 
 			final int returnVal = fileChooser.showSaveDialog(parent);
@@ -122,7 +122,7 @@ public class IOUtils {
 			final FilenameFilter filter = new FilenameFilter() {
 				@Override
 				public boolean accept(final File dir, final String name) {
-					return name.endsWith(".xml");
+					return name.endsWith(".xml") || name.endsWith(TmBinaryWriter.FILE_EXTENSION);
 				}
 			};
 			dialog.setFilenameFilter(filter);
@@ -132,7 +132,7 @@ public class IOUtils {
 				logger.log("Load data aborted.\n");
 				return null;
 			}
-			if (!selectedFile.endsWith(".xml"))
+			if (!selectedFile.endsWith(".xml") && !selectedFile.endsWith(TmBinaryWriter.FILE_EXTENSION))
 				selectedFile += ".xml";
 			file = new File(dialog.getDirectory(), selectedFile);
 		} else {
@@ -147,7 +147,7 @@ public class IOUtils {
 			};
 			fileChooser.setName(title);
 			fileChooser.setSelectedFile(file);
-			final FileNameExtensionFilter filter = new FileNameExtensionFilter("XML files", "xml");
+			final FileNameExtensionFilter filter = new FileNameExtensionFilter("TrackMate files", "xml", TmBinaryWriter.FILE_EXTENSION.substring(1));
 			fileChooser.setFileFilter(filter);
 
 			final int returnVal = fileChooser.showOpenDialog(parent);
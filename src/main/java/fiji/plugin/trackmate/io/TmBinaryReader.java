@@ -0,0 +1,552 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+/**
+ * A reader for the binary TrackMate file format written by the
+ * {@link TmBinaryWriter}.
+ * <p>
+ * The whole file is read upon construction. The settings, the log and the GUI
+ * state are read from the embedded XML document, exactly as for the
+ * {@link TmXmlReader}. The model is rebuilt from the columns by
+ * {@link #getModel()}.
+ * <p>
+ * Columns are read from a {@link FileChannel} through a buffer, and copied in
+ * bulk to arrays.
+ */
+public class TmBinaryReader extends TmXmlReader
+{
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Content content;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Initialize this reader to read the file given in argument.
+	 */
+	public TmBinaryReader( final File file )
+	{
+		this( file, Content.read( file ) );
+	}
+
+	private TmBinaryReader( final File file, final Content content )
+	{
+		super( file, content.document );
+		this.content = content;
+		if ( null != content.error )
+		{
+			ok = false;
+			logger.error( content.error );
+		}
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Returns <code>true</code> if the specified file starts with the magic
+	 * number of the binary TrackMate format.
+	 *
+	 * @param file
+	 *            the file to test.
+	 * @return <code>true</code> if the file can be read by this reader.
+	 */
+	public static boolean isBinaryFile( final File file )
+	{
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream( new FileInputStream( file ) );
+			return in.readInt() == TmBinaryWriter.MAGIC_NUMBER;
+		}
+		catch ( final IOException e )
+		{
+			return false;
+		}
+		finally
+		{
+			if ( null != in )
+			{
+				try
+				{
+					in.close();
+				}
+				catch ( final IOException e )
+				{
+					// The magic number is read already.
+				}
+			}
+		}
+	}
+
+	@Override
+	public Model getModel()
+	{
+		if ( null == root || !content.hasModel ) { return null; }
+		final Element modelElement = root.getChild( MODEL_ELEMENT_KEY );
+		if ( null == modelElement ) { return null; }
+		final Model model = createModel();
+
+		// Physical units
+		final String spaceUnits = modelElement.getAttributeValue( SPATIAL_UNITS_ATTRIBUTE_NAME );
+		final String timeUnits = modelElement.getAttributeValue( TIME_UNITS_ATTRIBUTE_NAME );
+		model.setPhysicalUnits( spaceUnits, timeUnits );
+
+		// Feature declarations
+		readFeatureDeclarations( modelElement, model );
+
+		// Spots
+		model.setSpots( createSpots(), false );
+
+		// Tracks
+		if ( !createTracks( model ) )
+		{
+			ok = false;
+		}
+
+		// Track features
+		final FeatureModel fm = model.getFeatureModel();
+		for ( int f = 0; f < content.trackFeatures.length; f++ )
+		{
+			final long[] values = content.trackValues[ f ];
+			for ( int t = 0; t < content.trackIDs.length; t++ )
+			{
+				if ( values[ t ] != TmBinaryWriter.MISSING )
+				{
+					fm.putTrackFeature( content.trackIDs[ t ], content.trackFeatures[ f ], Double.valueOf( Double.longBitsToDouble( values[ t ] ) ) );
+				}
+			}
+		}
+
+		return model;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private SpotCollection createSpots()
+	{
+		final int nSpots = content.spotIDs.length;
+		cache = new ConcurrentHashMap< Integer, Spot >( nSpots );
+		final Map< Integer, Set< Spot >> spots = new HashMap< Integer, Set< Spot >>();
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			final Spot spot = new Spot( content.spotIDs[ i ] );
+			final String name = content.spotNames[ i ];
+			spot.setName( name.length() == 0 ? "ID" + spot.ID() : name );
+			for ( int f = 0; f < content.spotFeatures.length; f++ )
+			{
+				final long bits = content.spotValues[ f ][ i ];
+				if ( bits != TmBinaryWriter.MISSING )
+				{
+					spot.putFeature( content.spotFeatures[ f ], Double.valueOf( Double.longBitsToDouble( bits ) ) );
+				}
+			}
+
+			final Integer frame = Integer.valueOf( content.spotFrames[ i ] );
+			Set< Spot > frameSpots = spots.get( frame );
+			if ( null == frameSpots )
+			{
+				frameSpots = new HashSet< Spot >();
+				spots.put( frame, frameSpots );
+			}
+			frameSpots.add( spot );
+			cache.put( spot.ID(), spot );
+		}
+		return SpotCollection.fromMap( spots );
+	}
+
+	private boolean createTracks( final Model model )
+	{
+		final int nTracks = content.trackIDs.length;
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		final Map< Integer, Set< Spot >> connectedVertexSet = new HashMap< Integer, Set< Spot >>( nTracks );
+		final Map< Integer, Set< DefaultWeightedEdge >> connectedEdgeSet = new HashMap< Integer, Set< DefaultWeightedEdge >>( nTracks );
+		final Map< Integer, String > savedTrackNames = new HashMap< Integer, String >( nTracks );
+		final Map< Integer, Boolean > visibility = new HashMap< Integer, Boolean >( nTracks );
+		for ( int t = 0; t < nTracks; t++ )
+		{
+			final Integer trackID = Integer.valueOf( content.trackIDs[ t ] );
+			connectedVertexSet.put( trackID, new HashSet< Spot >() );
+			connectedEdgeSet.put( trackID, new HashSet< DefaultWeightedEdge >() );
+			savedTrackNames.put( trackID, content.trackNames[ t ].length() == 0 ? "Unnamed" : content.trackNames[ t ] );
+			visibility.put( trackID, Boolean.valueOf( content.trackVisibility[ t ] ) );
+		}
+
+		final FeatureModel fm = model.getFeatureModel();
+		for ( int e = 0; e < content.edgeTrackIDs.length; e++ )
+		{
+			final Integer trackID = Integer.valueOf( content.edgeTrackIDs[ e ] );
+			final Spot source = cache.get( content.edgeSources[ e ] );
+			final Spot target = cache.get( content.edgeTargets[ e ] );
+			final Set< Spot > trackSpots = connectedVertexSet.get( trackID );
+			if ( null == trackSpots )
+			{
+				logger.error( "Unknown track ID: " + trackID + "\n" );
+				return false;
+			}
+			if ( null == source )
+			{
+				logger.error( "Unknown spot ID: " + content.edgeSources[ e ] + "\n" );
+				return false;
+			}
+			if ( null == target )
+			{
+				logger.error( "Unknown spot ID: " + content.edgeTargets[ e ] + "\n" );
+				return false;
+			}
+			if ( source.equals( target ) )
+			{
+				logger.error( "Bad link for track " + trackID + ". Source = Target with ID: " + source.ID() + "\n" );
+				return false;
+			}
+
+			graph.addVertex( source );
+			graph.addVertex( target );
+			final DefaultWeightedEdge edge = graph.addEdge( source, target );
+			if ( null == edge )
+			{
+				logger.error( "Bad edge found for track " + trackID + "\n" );
+				return false;
+			}
+			graph.setEdgeWeight( edge, content.edgeWeights[ e ] );
+
+			for ( int f = 0; f < content.edgeFeatures.length; f++ )
+			{
+				final long bits = content.edgeValues[ f ][ e ];
+				if ( bits != TmBinaryWriter.MISSING )
+				{
+					fm.putEdgeFeature( edge, content.edgeFeatures[ f ], Double.valueOf( Double.longBitsToDouble( bits ) ) );
+				}
+			}
+
+			trackSpots.add( source );
+			trackSpots.add( target );
+			connectedEdgeSet.get( trackID ).add( edge );
+		}
+
+		model.getTrackModel().from( graph, connectedVertexSet, connectedEdgeSet, visibility, savedTrackNames );
+		return true;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The raw content of a binary file, read in one pass.
+	 */
+	private static final class Content
+	{
+
+		private Document document;
+
+		private String error;
+
+		private boolean hasModel;
+
+		private int[] spotIDs;
+
+		private int[] spotFrames;
+
+		private String[] spotNames;
+
+		private String[] spotFeatures;
+
+		private long[][] spotValues;
+
+		private int[] edgeTrackIDs;
+
+		private int[] edgeSources;
+
+		private int[] edgeTargets;
+
+		private double[] edgeWeights;
+
+		private String[] edgeFeatures;
+
+		private long[][] edgeValues;
+
+		private int[] trackIDs;
+
+		private String[] trackNames;
+
+		private boolean[] trackVisibility;
+
+		private String[] trackFeatures;
+
+		private long[][] trackValues;
+
+		private static Content read( final File file )
+		{
+			final Content content = new Content();
+			FileInputStream fis = null;
+			try
+			{
+				fis = new FileInputStream( file );
+				final ColumnInput in = new ColumnInput( fis.getChannel() );
+				if ( in.readInt() != TmBinaryWriter.MAGIC_NUMBER )
+				{
+					content.error = "Problem parsing " + file.getName() + ", it is not a binary TrackMate file.\n";
+					return content;
+				}
+				final int version = in.readInt();
+				if ( version != TmBinaryWriter.VERSION )
+				{
+					content.error = "Problem parsing " + file.getName() + ", unsupported binary format version: " + version + ".\n";
+					return content;
+				}
+
+				final byte[] xml = new byte[ in.readInt() ];
+				in.readFully( xml );
+				content.document = new SAXBuilder().build( new ByteArrayInputStream( xml ) );
+
+				content.hasModel = in.readBoolean();
+				if ( content.hasModel )
+				{
+					content.readSpots( in );
+					content.readEdges( in );
+					content.readTracks( in );
+				}
+			}
+			catch ( final JDOMException e )
+			{
+				content.error = "Problem parsing " + file.getName() + ", its settings are not valid.\nError message is:\n" + e.getLocalizedMessage() + '\n';
+			}
+			catch ( final IOException e )
+			{
+				content.error = "Problem reading " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n';
+				content.hasModel = false;
+			}
+			finally
+			{
+				if ( null != fis )
+				{
+					try
+					{
+						fis.close();
+					}
+					catch ( final IOException e )
+					{
+						if ( null == content.error )
+						{
+							content.error = "Problem closing " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n';
+						}
+					}
+				}
+			}
+			return content;
+		}
+
+		private void readSpots( final ColumnInput in ) throws IOException
+		{
+			final int n = in.readInt();
+			spotFeatures = in.readStrings();
+			spotIDs = in.readInts( n );
+			spotFrames = in.readInts( n );
+			spotNames = new String[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				spotNames[ i ] = in.readString();
+			}
+			spotValues = in.readValues( spotFeatures.length, n );
+		}
+
+		private void readEdges( final ColumnInput in ) throws IOException
+		{
+			final int n = in.readInt();
+			edgeFeatures = in.readStrings();
+			edgeTrackIDs = in.readInts( n );
+			edgeSources = in.readInts( n );
+			edgeTargets = in.readInts( n );
+			edgeWeights = in.readDoubles( n );
+			edgeValues = in.readValues( edgeFeatures.length, n );
+		}
+
+		private void readTracks( final ColumnInput in ) throws IOException
+		{
+			final int n = in.readInt();
+			trackFeatures = in.readStrings();
+			trackIDs = in.readInts( n );
+			trackNames = new String[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				trackNames[ i ] = in.readString();
+			}
+			trackVisibility = new boolean[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				trackVisibility[ i ] = in.readBoolean();
+			}
+			trackValues = in.readValues( trackFeatures.length, n );
+		}
+	}
+
+	/**
+	 * Reads from a file channel through a buffer. Arrays are copied from the
+	 * buffer in bulk, through views of the buffer.
+	 */
+	private static final class ColumnInput
+	{
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+
+		private ColumnInput( final FileChannel channel )
+		{
+			this.channel = channel;
+			buffer.flip();
+		}
+
+		private int readInt() throws IOException
+		{
+			ensure( 4 );
+			return buffer.getInt();
+		}
+
+		private boolean readBoolean() throws IOException
+		{
+			ensure( 1 );
+			return buffer.get() != 0;
+		}
+
+		private void readFully( final byte[] bytes ) throws IOException
+		{
+			int offset = 0;
+			while ( offset < bytes.length )
+			{
+				ensure( 1 );
+				final int n = Math.min( buffer.remaining(), bytes.length - offset );
+				buffer.get( bytes, offset, n );
+				offset += n;
+			}
+		}
+
+		private String readString() throws IOException
+		{
+			final int length = readInt();
+			if ( length < 0 ) { throw new IOException( "Negative string length: " + length ); }
+			final byte[] bytes = new byte[ length ];
+			readFully( bytes );
+			return new String( bytes, TmBinaryWriter.UTF8 );
+		}
+
+		private String[] readStrings() throws IOException
+		{
+			final String[] strings = new String[ readInt() ];
+			for ( int i = 0; i < strings.length; i++ )
+			{
+				strings[ i ] = readString();
+			}
+			return strings;
+		}
+
+		private int[] readInts( final int n ) throws IOException
+		{
+			final int[] array = new int[ n ];
+			int offset = 0;
+			while ( offset < n )
+			{
+				ensure( 4 );
+				final int k = Math.min( buffer.remaining() / 4, n - offset );
+				buffer.asIntBuffer().get( array, offset, k );
+				buffer.position( buffer.position() + 4 * k );
+				offset += k;
+			}
+			return array;
+		}
+
+		private long[] readLongs( final int n ) throws IOException
+		{
+			final long[] array = new long[ n ];
+			int offset = 0;
+			while ( offset < n )
+			{
+				ensure( 8 );
+				final int k = Math.min( buffer.remaining() / 8, n - offset );
+				buffer.asLongBuffer().get( array, offset, k );
+				buffer.position( buffer.position() + 8 * k );
+				offset += k;
+			}
+			return array;
+		}
+
+		private double[] readDoubles( final int n ) throws IOException
+		{
+			final double[] array = new double[ n ];
+			int offset = 0;
+			while ( offset < n )
+			{
+				ensure( 8 );
+				final int k = Math.min( buffer.remaining() / 8, n - offset );
+				buffer.asDoubleBuffer().get( array, offset, k );
+				buffer.position( buffer.position() + 8 * k );
+				offset += k;
+			}
+			return array;
+		}
+
+		private long[][] readValues( final int nFeatures, final int n ) throws IOException
+		{
+			final long[][] values = new long[ nFeatures ][];
+			for ( int f = 0; f < nFeatures; f++ )
+			{
+				values[ f ] = readLongs( n );
+			}
+			return values;
+		}
+
+		/**
+		 * Makes sure the buffer holds at least the specified number of bytes,
+		 * reading from the channel if needed.
+		 */
+		private void ensure( final int nBytes ) throws IOException
+		{
+			if ( buffer.remaining() >= nBytes ) { return; }
+			buffer.compact();
+			while ( buffer.position() < nBytes )
+			{
+				if ( channel.read( buffer ) < 0 )
+				{
+					buffer.flip();
+					throw new EOFException();
+				}
+			}
+			buffer.flip();
+		}
+	}
+}
@@ -0,0 +1,441 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * A writer for the binary TrackMate file format.
+ * <p>
+ * The settings, the log, the GUI state and the model feature declarations are
+ * small, and are stored as in the XML format, in an XML document embedded at
+ * the beginning of the file. The spots, edges and tracks are stored as typed
+ * columns: one column per spot, edge or track feature, plus the IDs, names and
+ * links. Missing feature values are stored with a reserved NaN. Files written
+ * by this writer can be read with the {@link TmBinaryReader}.
+ * <p>
+ * The layout of the file is:
+ *
+ * <pre>
+ * int     magic number
+ * int     format version
+ * int     length of the XML document, in bytes
+ * byte[]  the XML document, UTF-8 encoded
+ * boolean whether a model follows
+ * spots:  int n, int nFeatures, str[] features,
+ *         int[n] IDs, int[n] frames, str[n] names, long[nFeatures][n] values
+ * edges:  int n, int nFeatures, str[] features,
+ *         int[n] track IDs, int[n] source IDs, int[n] target IDs,
+ *         double[n] weights, long[nFeatures][n] values
+ * tracks: int n, int nFeatures, str[] features,
+ *         int[n] IDs, str[n] names, boolean[n] visibility,
+ *         long[nFeatures][n] values
+ * </pre>
+ *
+ * Numbers are big-endian. Feature values are stored as the raw bits of their
+ * <code>double</code> value. A <code>str</code> is an <code>int</code> length
+ * followed by that many UTF-8 bytes.
+ * <p>
+ * Columns are copied in bulk to a buffer and written to a {@link FileChannel}.
+ */
+public class TmBinaryWriter extends TmXmlWriter
+{
+
+	/** The magic number at the beginning of binary TrackMate files. */
+	public static final int MAGIC_NUMBER = 0x544d4246;
+
+	/** The version of the binary format. */
+	public static final int VERSION = 1;
+
+	/** The file extension of binary TrackMate files. */
+	public static final String FILE_EXTENSION = ".tmb";
+
+	/** The bits used to store a missing feature value. */
+	static final long MISSING = 0x7ff8000000000001l;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private Model model;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new binary file writer for TrackMate.
+	 *
+	 * @param file
+	 *            the file to write to, will be overwritten.
+	 */
+	public TmBinaryWriter( final File file )
+	{
+		super( file );
+	}
+
+	/**
+	 * Creates a new binary file writer for TrackMate.
+	 *
+	 * @param file
+	 *            the file to write to, will be overwritten.
+	 */
+	public TmBinaryWriter( final File file, final Logger logger )
+	{
+		super( file, logger );
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Appends the content of a {@link Model} to the file generated by this
+	 * writer. Only the feature declarations and the physical units are added
+	 * to the XML document. The spots, edges and tracks are written in columns
+	 * by {@link #writeToFile()}.
+	 *
+	 * @param model
+	 *            the {@link Model} to write.
+	 */
+	@Override
+	public void appendModel( final Model model )
+	{
+		final Element modelElement = new Element( MODEL_ELEMENT_KEY );
+		modelElement.setAttribute( SPATIAL_UNITS_ATTRIBUTE_NAME, model.getSpaceUnits() );
+		modelElement.setAttribute( TIME_UNITS_ATTRIBUTE_NAME, model.getTimeUnits() );
+		modelElement.addContent( echoFeaturesDeclaration( model ) );
+		root.addContent( modelElement );
+		this.model = model;
+	}
+
+	@Override
+	public void writeToFile() throws FileNotFoundException, IOException
+	{
+		logger.log( "  Writing to file.\n" );
+
+		final ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		new XMLOutputter( Format.getCompactFormat() ).output( new Document( root ), xml );
+
+		final FileOutputStream fos = new FileOutputStream( file );
+		try
+		{
+			final ColumnOutput out = new ColumnOutput( fos.getChannel() );
+			out.writeInt( MAGIC_NUMBER );
+			out.writeInt( VERSION );
+			out.writeInt( xml.size() );
+			out.writeBytes( xml.toByteArray() );
+
+			out.writeBoolean( null != model );
+			if ( null != model )
+			{
+				writeSpots( out );
+				writeTracks( out );
+			}
+			out.flush();
+		}
+		finally
+		{
+			fos.close();
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void writeSpots( final ColumnOutput out ) throws IOException
+	{
+		final SpotCollection spots = model.getSpots();
+		final int nSpots = spots.getNSpots( false );
+
+		// Gather the spots, their frames and the features they carry.
+		final Spot[] spotArray = new Spot[ nSpots ];
+		final int[] frames = new int[ nSpots ];
+		final Set< String > featureSet = new LinkedHashSet< String >( Spot.FEATURES );
+		int index = 0;
+		for ( final Integer frame : spots.keySet() )
+		{
+			for ( final Spot spot : spots.iterable( frame, false ) )
+			{
+				spotArray[ index ] = spot;
+				frames[ index ] = frame;
+				featureSet.addAll( spot.getFeatures().keySet() );
+				index++;
+			}
+		}
+		final List< String > features = new ArrayList< String >( featureSet );
+
+		out.writeInt( nSpots );
+		out.writeStrings( features );
+		final int[] ids = new int[ nSpots ];
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			ids[ i ] = spotArray[ i ].ID();
+		}
+		out.writeInts( ids );
+		out.writeInts( frames );
+		for ( final Spot spot : spotArray )
+		{
+			out.writeString( null == spot.getName() ? "" : spot.getName() );
+		}
+		final long[] values = new long[ nSpots ];
+		for ( final String feature : features )
+		{
+			for ( int i = 0; i < nSpots; i++ )
+			{
+				values[ i ] = toBits( spotArray[ i ].getFeature( feature ) );
+			}
+			out.writeLongs( values );
+		}
+		logger.log( "  Added " + nSpots + " spots.\n" );
+	}
+
+	private void writeTracks( final ColumnOutput out ) throws IOException
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final Set< Integer > trackIDs = trackModel.trackIDs( false );
+
+		/*
+		 * Edges.
+		 */
+
+		final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >( trackModel.edgeSet().size() );
+		final List< Integer > edgeTrackIDs = new ArrayList< Integer >( trackModel.edgeSet().size() );
+		for ( final Integer trackID : trackIDs )
+		{
+			for ( final DefaultWeightedEdge edge : trackModel.trackEdges( trackID ) )
+			{
+				edges.add( edge );
+				edgeTrackIDs.add( trackID );
+			}
+		}
+		final List< String > edgeFeatures = new ArrayList< String >( fm.getEdgeFeatures() );
+
+		final int nEdges = edges.size();
+		out.writeInt( nEdges );
+		out.writeStrings( edgeFeatures );
+		final int[] ints = new int[ nEdges ];
+		for ( int e = 0; e < nEdges; e++ )
+		{
+			ints[ e ] = edgeTrackIDs.get( e ).intValue();
+		}
+		out.writeInts( ints );
+		for ( int e = 0; e < nEdges; e++ )
+		{
+			ints[ e ] = trackModel.getEdgeSource( edges.get( e ) ).ID();
+		}
+		out.writeInts( ints );
+		for ( int e = 0; e < nEdges; e++ )
+		{
+			ints[ e ] = trackModel.getEdgeTarget( edges.get( e ) ).ID();
+		}
+		out.writeInts( ints );
+		final double[] weights = new double[ nEdges ];
+		for ( int e = 0; e < nEdges; e++ )
+		{
+			weights[ e ] = trackModel.getEdgeWeight( edges.get( e ) );
+		}
+		out.writeDoubles( weights );
+		final long[] edgeValues = new long[ nEdges ];
+		for ( final String feature : edgeFeatures )
+		{
+			for ( int e = 0; e < nEdges; e++ )
+			{
+				edgeValues[ e ] = toBits( fm.getEdgeFeature( edges.get( e ), feature ) );
+			}
+			out.writeLongs( edgeValues );
+		}
+
+		/*
+		 * Tracks.
+		 */
+
+		final List< String > trackFeatures = new ArrayList< String >( fm.getTrackFeatures() );
+
+		final int nTracks = trackIDs.size();
+		final int[] ids = new int[ nTracks ];
+		int t = 0;
+		for ( final Integer trackID : trackIDs )
+		{
+			ids[ t++ ] = trackID.intValue();
+		}
+		out.writeInt( nTracks );
+		out.writeStrings( trackFeatures );
+		out.writeInts( ids );
+		for ( final int trackID : ids )
+		{
+			final String name = trackModel.name( trackID );
+			out.writeString( null == name ? "" : name );
+		}
+		for ( final int trackID : ids )
+		{
+			out.writeBoolean( trackModel.isVisible( trackID ) );
+		}
+		final long[] trackValues = new long[ nTracks ];
+		for ( final String feature : trackFeatures )
+		{
+			for ( t = 0; t < nTracks; t++ )
+			{
+				trackValues[ t ] = toBits( fm.getTrackFeature( ids[ t ], feature ) );
+			}
+			out.writeLongs( trackValues );
+		}
+		logger.log( "  Added " + trackIDs.size() + " tracks and " + edges.size() + " edges.\n" );
+	}
+
+	private static long toBits( final Double value )
+	{
+		if ( null == value ) { return MISSING; }
+		final long bits = Double.doubleToRawLongBits( value.doubleValue() );
+		return bits == MISSING ? Double.doubleToLongBits( Double.NaN ) : bits;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Writes to a file channel through a buffer. Arrays are copied to the
+	 * buffer in bulk, through views of the buffer.
+	 */
+	private static final class ColumnOutput
+	{
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+
+		private ColumnOutput( final FileChannel channel )
+		{
+			this.channel = channel;
+		}
+
+		private void writeInt( final int val ) throws IOException
+		{
+			ensure( 4 );
+			buffer.putInt( val );
+		}
+
+		private void writeBoolean( final boolean val ) throws IOException
+		{
+			ensure( 1 );
+			buffer.put( ( byte ) ( val ? 1 : 0 ) );
+		}
+
+		private void writeBytes( final byte[] bytes ) throws IOException
+		{
+			int offset = 0;
+			while ( offset < bytes.length )
+			{
+				ensure( 1 );
+				final int n = Math.min( buffer.remaining(), bytes.length - offset );
+				buffer.put( bytes, offset, n );
+				offset += n;
+			}
+		}
+
+		private void writeString( final String str ) throws IOException
+		{
+			final byte[] bytes = str.getBytes( UTF8 );
+			writeInt( bytes.length );
+			writeBytes( bytes );
+		}
+
+		private void writeStrings( final Collection< String > strings ) throws IOException
+		{
+			writeInt( strings.size() );
+			for ( final String str : strings )
+			{
+				writeString( str );
+			}
+		}
+
+		private void writeInts( final int[] array ) throws IOException
+		{
+			int offset = 0;
+			while ( offset < array.length )
+			{
+				ensure( 4 );
+				final int n = Math.min( buffer.remaining() / 4, array.length - offset );
+				buffer.asIntBuffer().put( array, offset, n );
+				buffer.position( buffer.position() + 4 * n );
+				offset += n;
+			}
+		}
+
+		private void writeLongs( final long[] array ) throws IOException
+		{
+			int offset = 0;
+			while ( offset < array.length )
+			{
+				ensure( 8 );
+				final int n = Math.min( buffer.remaining() / 8, array.length - offset );
+				buffer.asLongBuffer().put( array, offset, n );
+				buffer.position( buffer.position() + 8 * n );
+				offset += n;
+			}
+		}
+
+		private void writeDoubles( final double[] array ) throws IOException
+		{
+			int offset = 0;
+			while ( offset < array.length )
+			{
+				ensure( 8 );
+				final int n = Math.min( buffer.remaining() / 8, array.length - offset );
+				buffer.asDoubleBuffer().put( array, offset, n );
+				buffer.position( buffer.position() + 8 * n );
+				offset += n;
+			}
+		}
+
+		/**
+		 * Makes room for the specified number of bytes in the buffer.
+		 */
+		private void ensure( final int nBytes ) throws IOException
+		{
+			if ( buffer.remaining() < nBytes )
+			{
+				flush();
+			}
+		}
+
+		private void flush() throws IOException
+		{
+			buffer.flip();
+			while ( buffer.hasRemaining() )
+			{
+				channel.write( buffer );
+			}
+			buffer.clear();
+		}
+	}
+}
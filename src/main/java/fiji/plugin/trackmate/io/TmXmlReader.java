@@ -187,6 +187,25 @@ public class TmXmlReader
 		this.root = r;
 	}
 
+	/**
+	 * Initialize this reader with a document already parsed from the specified
+	 * file. This is meant for subclassers that store the XML content in
+	 * another container.
+	 *
+	 * @param file
+	 *            the file the document was read from.
+	 * @param document
+	 *            the parsed document, or <code>null</code> if it could not be
+	 *            read. In that case, the subclass is responsible for reporting
+	 *            the error.
+	 */
+	protected TmXmlReader( final File file, final Document document )
+	{
+		this.file = file;
+		this.document = document;
+		this.root = ( null == document ) ? null : document.getRootElement();
+	}
+
 	/*
 	 * PUBLIC METHODS
 	 */
@@ -470,7 +489,11 @@ public class TmXmlReader
 	 * PRIVATE METHODS
 	 */
 
-	private ImagePlus getImage( final Element settingsElement )
+	/**
+	 * Opens the image the specified settings element points to. Returns
+	 * <code>null</code> and flags an error if the image file cannot be found.
+	 */
+	protected ImagePlus getImage( final Element settingsElement )
 	{
 		final Element imageInfoElement = settingsElement.getChild( IMAGE_ELEMENT_KEY );
 		final String filename = imageInfoElement.getAttributeValue( IMAGE_FILENAME_ATTRIBUTE_NAME );
@@ -814,7 +837,7 @@ public class TmXmlReader
 	 *            the {@link Element} in which the model content was written.
 	 * @return a new {@link SpotCollection}.
 	 */
-	private SpotCollection getSpots( final Element modelElement )
+	protected SpotCollection getSpots( final Element modelElement )
 	{
 		// Root element for collection
 		final Element spotCollection = modelElement.getChild( SPOT_COLLECTION_ELEMENT_KEY );
@@ -1017,7 +1040,7 @@ public class TmXmlReader
 	 * 
 	 * @throws DataConversionException
 	 */
-	private Set< Integer > readFilteredTrackIDs( final Element modelElement )
+	protected Set< Integer > readFilteredTrackIDs( final Element modelElement )
 	{
 		final Element filteredTracksElement = modelElement.getChild( FILTERED_TRACK_ELEMENT_KEY );
 		if ( null == filteredTracksElement )
@@ -1100,7 +1123,7 @@ public class TmXmlReader
 		return spot;
 	}
 
-	private void readFeatureDeclarations( final Element modelElement, final Model model )
+	protected void readFeatureDeclarations( final Element modelElement, final Model model )
 	{
 
 		final FeatureModel fm = model.getFeatureModel();
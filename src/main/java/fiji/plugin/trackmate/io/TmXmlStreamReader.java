@@ -0,0 +1,506 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.IOUtils.readIntAttribute;
+import static fiji.plugin.trackmate.io.TmXmlKeys.EDGE_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ISINT_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Text;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+/**
+ * A {@link TmXmlReader} that parses the file with a streaming parser, and
+ * does not build the spot and edge elements in memory.
+ * <p>
+ * The spots are created as their element is parsed, and the edges are stored
+ * as a few numbers. All the other elements, including the track elements and
+ * their features, are kept in a JDOM document so that the settings, the log,
+ * the GUI state and the track features are read exactly as by the
+ * {@link TmXmlReader}.
+ * <p>
+ * The spots created upon parsing are the ones returned in the model built by
+ * {@link #getModel()}. This method is therefore meant to be called only once.
+ */
+public class TmXmlStreamReader extends TmXmlReader
+{
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Content content;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Initialize this reader to read the file given in argument.
+	 */
+	public TmXmlStreamReader( final File file )
+	{
+		this( file, Content.read( file ) );
+	}
+
+	private TmXmlStreamReader( final File file, final Content content )
+	{
+		super( file, content.document );
+		this.content = content;
+		if ( null != content.error )
+		{
+			ok = false;
+			logger.error( content.error );
+		}
+		if ( content.warnings.length() > 0 )
+		{
+			logger.error( content.warnings.toString() );
+		}
+	}
+
+	/*
+	 * PROTECTED METHODS
+	 */
+
+	/**
+	 * Returns the spots created while parsing the file.
+	 */
+	@Override
+	protected SpotCollection getSpots( final Element modelElement )
+	{
+		cache = new ConcurrentHashMap< Integer, Spot >( content.nSpots );
+		for ( final Set< Spot > spots : content.spots.values() )
+		{
+			for ( final Spot spot : spots )
+			{
+				cache.put( spot.ID(), spot );
+			}
+		}
+		return SpotCollection.fromMap( content.spots );
+	}
+
+	/**
+	 * Builds the tracks from the edges stored while parsing the file.
+	 */
+	@Override
+	protected boolean readTracks( final Element modelElement, final Model model )
+	{
+		final List< Element > trackElements = modelElement.getChild( TRACK_COLLECTION_ELEMENT_KEY ).getChildren( TRACK_ELEMENT_KEY );
+
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		final Map< Integer, Set< Spot >> connectedVertexSet = new HashMap< Integer, Set< Spot >>( trackElements.size() );
+		final Map< Integer, Set< DefaultWeightedEdge >> connectedEdgeSet = new HashMap< Integer, Set< DefaultWeightedEdge >>( trackElements.size() );
+		final Map< Integer, String > savedTrackNames = new HashMap< Integer, String >( trackElements.size() );
+
+		final FeatureModel fm = model.getFeatureModel();
+		final Collection< String > edgeFeatures = fm.getEdgeFeatures();
+
+		for ( int t = 0; t < trackElements.size(); t++ )
+		{
+			final Element trackElement = trackElements.get( t );
+			final int trackID = readIntAttribute( trackElement, TrackIndexAnalyzer.TRACK_ID, logger );
+			String trackName = trackElement.getAttributeValue( TRACK_NAME_ATTRIBUTE_NAME );
+			if ( null == trackName )
+			{
+				trackName = "Unnamed";
+			}
+
+			final List< StreamedEdge > trackEdges = content.edges.get( t );
+			final Set< DefaultWeightedEdge > edges = new HashSet< DefaultWeightedEdge >( trackEdges.size() );
+			final Set< Spot > spots = new HashSet< Spot >( trackEdges.size() );
+
+			for ( final StreamedEdge streamedEdge : trackEdges )
+			{
+				final Spot sourceSpot = cache.get( streamedEdge.sourceID );
+				final Spot targetSpot = cache.get( streamedEdge.targetID );
+
+				// Error check
+				if ( null == sourceSpot )
+				{
+					logger.error( "Unknown spot ID: " + streamedEdge.sourceID + "\n" );
+					return false;
+				}
+				if ( null == targetSpot )
+				{
+					logger.error( "Unknown spot ID: " + streamedEdge.targetID + "\n" );
+					return false;
+				}
+				if ( sourceSpot.equals( targetSpot ) )
+				{
+					logger.error( "Bad link for track " + trackID + ". Source = Target with ID: " + streamedEdge.sourceID + "\n" );
+					return false;
+				}
+
+				spots.add( sourceSpot );
+				spots.add( targetSpot );
+
+				graph.addVertex( sourceSpot );
+				graph.addVertex( targetSpot );
+				final DefaultWeightedEdge edge = graph.addEdge( sourceSpot, targetSpot );
+				if ( edge == null )
+				{
+					logger.error( "Bad edge found for track " + trackID + "\n" );
+					return false;
+				}
+				graph.setEdgeWeight( edge, streamedEdge.weight );
+
+				// Put edge features, skipping the undeclared ones.
+				for ( int i = 0; i < streamedEdge.features.length; i++ )
+				{
+					if ( edgeFeatures.contains( streamedEdge.features[ i ] ) )
+					{
+						fm.putEdgeFeature( edge, streamedEdge.features[ i ], streamedEdge.values[ i ] );
+					}
+				}
+				edges.add( edge );
+			}
+
+			connectedVertexSet.put( trackID, spots );
+			connectedEdgeSet.put( trackID, edges );
+			savedTrackNames.put( trackID, trackName );
+		}
+
+		/*
+		 * Now on to the visibility.
+		 */
+		final Set< Integer > savedFilteredTrackIDs = readFilteredTrackIDs( modelElement );
+		final Map< Integer, Boolean > visibility = new HashMap< Integer, Boolean >( connectedEdgeSet.size() );
+		for ( final Integer id : connectedEdgeSet.keySet() )
+		{
+			visibility.put( id, Boolean.valueOf( null != savedFilteredTrackIDs && savedFilteredTrackIDs.contains( id ) ) );
+		}
+
+		model.getTrackModel().from( graph, connectedVertexSet, connectedEdgeSet, visibility, savedTrackNames );
+		return true;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * An edge as read from the file: the IDs of its spots, its weight and its
+	 * feature values.
+	 */
+	private static final class StreamedEdge
+	{
+
+		private final int sourceID;
+
+		private final int targetID;
+
+		private final double weight;
+
+		private final String[] features;
+
+		private final double[] values;
+
+		private StreamedEdge( final int sourceID, final int targetID, final double weight, final String[] features, final double[] values )
+		{
+			this.sourceID = sourceID;
+			this.targetID = targetID;
+			this.weight = weight;
+			this.features = features;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * The content of a file, read in one streaming pass.
+	 */
+	private static final class Content
+	{
+
+		private Document document;
+
+		private String error;
+
+		/** Problems that do not prevent reading the file. */
+		private final StringBuilder warnings = new StringBuilder();
+
+		private int nSpots;
+
+		private final Map< Integer, Set< Spot >> spots = new HashMap< Integer, Set< Spot >>();
+
+		/** The edges of each track element, in document order. */
+		private final List< List< StreamedEdge >> edges = new ArrayList< List< StreamedEdge >>();
+
+		/**
+		 * Whether each edge feature is declared as integer, as read from the
+		 * feature declarations that precede the tracks.
+		 */
+		private final Map< String, Boolean > edgeFeatureIsInt = new HashMap< String, Boolean >();
+
+		private static Content read( final File file )
+		{
+			final Content content = new Content();
+			InputStream is = null;
+			XMLStreamReader reader = null;
+			try
+			{
+				is = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE );
+				final XMLInputFactory factory = XMLInputFactory.newInstance();
+				// Deliver each text node in one event.
+				factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+				reader = factory.createXMLStreamReader( is );
+				content.parse( reader );
+			}
+			catch ( final XMLStreamException e )
+			{
+				content.error = "Problem parsing " + file.getName() + ", it is not a valid TrackMate XML file.\nError message is:\n"
+						+ e.getLocalizedMessage() + '\n';
+				content.document = null;
+			}
+			catch ( final NumberFormatException e )
+			{
+				content.error = "Problem parsing " + file.getName() + ", it contains an invalid number.\nError message is:\n"
+						+ e.getLocalizedMessage() + '\n';
+				content.document = null;
+			}
+			catch ( final IOException e )
+			{
+				content.error = "Problem reading " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n';
+				content.document = null;
+			}
+			finally
+			{
+				try
+				{
+					if ( null != reader )
+					{
+						reader.close();
+					}
+					if ( null != is )
+					{
+						is.close();
+					}
+				}
+				catch ( final Exception e )
+				{
+					e.printStackTrace();
+				}
+			}
+			return content;
+		}
+
+		private void parse( final XMLStreamReader reader ) throws XMLStreamException
+		{
+			final List< Element > stack = new ArrayList< Element >();
+			Set< Spot > frameSpots = null;
+			List< StreamedEdge > trackEdges = null;
+
+			while ( reader.hasNext() )
+			{
+				switch ( reader.next() )
+				{
+				case XMLStreamConstants.START_ELEMENT:
+				{
+					final String name = reader.getLocalName();
+					final Element parent = stack.isEmpty() ? null : stack.get( stack.size() - 1 );
+					final String parentName = null == parent ? null : parent.getName();
+
+					if ( SPOT_ELEMENT_KEY.equals( name ) && SPOT_FRAME_COLLECTION_ELEMENT_KEY.equals( parentName ) )
+					{
+						frameSpots.add( createSpot( reader ) );
+						nSpots++;
+						skipElement( reader );
+						break;
+					}
+					if ( TRACK_EDGE_ELEMENT_KEY.equals( name ) && TRACK_ELEMENT_KEY.equals( parentName ) )
+					{
+						trackEdges.add( createEdge( reader ) );
+						skipElement( reader );
+						break;
+					}
+
+					final Element element = new Element( name );
+					for ( int i = 0; i < reader.getAttributeCount(); i++ )
+					{
+						element.setAttribute( reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) );
+					}
+					if ( null == parent )
+					{
+						document = new Document( element );
+					}
+					else
+					{
+						parent.addContent( element );
+					}
+					stack.add( element );
+
+					if ( SPOT_FRAME_COLLECTION_ELEMENT_KEY.equals( name ) && SPOT_COLLECTION_ELEMENT_KEY.equals( parentName ) )
+					{
+						final Integer frame = Integer.valueOf( reader.getAttributeValue( null, FRAME_ATTRIBUTE_NAME ) );
+						frameSpots = spots.get( frame );
+						if ( null == frameSpots )
+						{
+							frameSpots = new HashSet< Spot >();
+							spots.put( frame, frameSpots );
+						}
+					}
+					else if ( TRACK_ELEMENT_KEY.equals( name ) && TRACK_COLLECTION_ELEMENT_KEY.equals( parentName ) )
+					{
+						trackEdges = new ArrayList< StreamedEdge >();
+						edges.add( trackEdges );
+					}
+					else if ( FEATURE_ELEMENT_KEY.equals( name ) && EDGE_FEATURES_ELEMENT_KEY.equals( parentName ) )
+					{
+						final String feature = reader.getAttributeValue( null, FEATURE_ATTRIBUTE );
+						if ( null != feature )
+						{
+							edgeFeatureIsInt.put( feature, Boolean.valueOf( reader.getAttributeValue( null, FEATURE_ISINT_ATTRIBUTE ) ) );
+						}
+					}
+					break;
+				}
+
+				case XMLStreamConstants.END_ELEMENT:
+					stack.remove( stack.size() - 1 );
+					break;
+
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					if ( !stack.isEmpty() && !reader.isWhiteSpace() )
+					{
+						stack.get( stack.size() - 1 ).addContent( new Text( reader.getText() ) );
+					}
+					break;
+
+				default:
+					break;
+				}
+			}
+		}
+
+		private static Spot createSpot( final XMLStreamReader reader )
+		{
+			final int ID = Integer.parseInt( reader.getAttributeValue( null, SPOT_ID_ATTRIBUTE_NAME ) );
+			final Spot spot = new Spot( ID );
+
+			String name = reader.getAttributeValue( null, SPOT_NAME_ATTRIBUTE_NAME );
+			if ( null == name || name.equals( "" ) )
+			{
+				name = "ID" + ID;
+			}
+			spot.setName( name );
+
+			for ( int i = 0; i < reader.getAttributeCount(); i++ )
+			{
+				final String att = reader.getAttributeLocalName( i );
+				if ( att.equals( SPOT_NAME_ATTRIBUTE_NAME ) || att.equals( SPOT_ID_ATTRIBUTE_NAME ) )
+				{
+					continue;
+				}
+				spot.putFeature( att, Double.valueOf( reader.getAttributeValue( i ) ) );
+			}
+			return spot;
+		}
+
+		/**
+		 * Reads the attributes of an edge element. As in {@link TmXmlReader},
+		 * the spot IDs and the features declared as integer are parsed as
+		 * integers, and the other features as doubles. Invalid integers are
+		 * replaced by 0 and reported, as well.
+		 */
+		private StreamedEdge createEdge( final XMLStreamReader reader )
+		{
+			final int nAttributes = reader.getAttributeCount();
+			final String[] features = new String[ nAttributes ];
+			final double[] values = new double[ nAttributes ];
+			int sourceID = -1;
+			int targetID = -1;
+			double weight = 0;
+			for ( int i = 0; i < nAttributes; i++ )
+			{
+				features[ i ] = reader.getAttributeLocalName( i );
+				final String value = reader.getAttributeValue( i ).trim();
+				if ( features[ i ].equals( EdgeTargetAnalyzer.SPOT_SOURCE_ID ) || features[ i ].equals( EdgeTargetAnalyzer.SPOT_TARGET_ID )
+						|| Boolean.TRUE.equals( edgeFeatureIsInt.get( features[ i ] ) ) )
+				{
+					try
+					{
+						values[ i ] = Integer.parseInt( value );
+					}
+					catch ( final NumberFormatException e )
+					{
+						warnings.append( "Cannot read the attribute " + features[ i ] + " of the element " + TRACK_EDGE_ELEMENT_KEY + ", substituting default value: 0.\n" );
+						values[ i ] = 0;
+					}
+				}
+				else
+				{
+					values[ i ] = Double.parseDouble( value );
+				}
+				if ( features[ i ].equals( EdgeTargetAnalyzer.SPOT_SOURCE_ID ) )
+				{
+					sourceID = ( int ) values[ i ];
+				}
+				else if ( features[ i ].equals( EdgeTargetAnalyzer.SPOT_TARGET_ID ) )
+				{
+					targetID = ( int ) values[ i ];
+				}
+				else if ( features[ i ].equals( EdgeTargetAnalyzer.EDGE_COST ) )
+				{
+					weight = values[ i ];
+				}
+			}
+			return new StreamedEdge( sourceID, targetID, weight, features, values );
+		}
+
+		/**
+		 * Skips the content of the current element, up to its end tag.
+		 */
+		private static void skipElement( final XMLStreamReader reader ) throws XMLStreamException
+		{
+			int depth = 1;
+			while ( depth > 0 )
+			{
+				final int event = reader.next();
+				if ( event == XMLStreamConstants.START_ELEMENT )
+				{
+					depth++;
+				}
+				else if ( event == XMLStreamConstants.END_ELEMENT )
+				{
+					depth--;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,329 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jdom2.Comment;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * A {@link TmXmlWriter} that does not build the spot and track elements of
+ * the model in memory.
+ * <p>
+ * The settings, the log, the GUI state, the feature declarations and the
+ * filtered tracks are small, and are built as a JDOM document like in the
+ * {@link TmXmlWriter}. The spots, tracks and edges are written straight from
+ * the model to the file when {@link #writeToFile()} is called, with the same
+ * layout and formatting than the JDOM pretty printer. The files generated by
+ * this writer are therefore identical to those of the {@link TmXmlWriter}, and
+ * can be read by any TrackMate XML reader.
+ */
+public class TmXmlStreamWriter extends TmXmlWriter
+{
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Marks where the spots are inserted in the document. */
+	private static final String SPOTS_PLACEHOLDER = "TrackMate-stream-spots";
+
+	/** Marks where the tracks are inserted in the document. */
+	private static final String TRACKS_PLACEHOLDER = "TrackMate-stream-tracks";
+
+	private final Format format = Format.getPrettyFormat();
+
+	private Model model;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new streaming XML file writer for TrackMate.
+	 *
+	 * @param file
+	 *            the xml file to write to, will be overwritten.
+	 */
+	public TmXmlStreamWriter( final File file )
+	{
+		super( file );
+	}
+
+	/**
+	 * Creates a new streaming XML file writer for TrackMate.
+	 *
+	 * @param file
+	 *            the xml file to write to, will be overwritten.
+	 */
+	public TmXmlStreamWriter( final File file, final Logger logger )
+	{
+		super( file, logger );
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Appends the content of a {@link Model} to the file generated by this
+	 * writer. The spots and tracks of the model are not copied in the
+	 * document, they are read from the model by {@link #writeToFile()}. The
+	 * model must therefore not be modified until then.
+	 *
+	 * @param model
+	 *            the {@link Model} to write.
+	 */
+	@Override
+	public void appendModel( final Model model )
+	{
+		final Element modelElement = new Element( MODEL_ELEMENT_KEY );
+		modelElement.setAttribute( SPATIAL_UNITS_ATTRIBUTE_NAME, model.getSpaceUnits() );
+		modelElement.setAttribute( TIME_UNITS_ATTRIBUTE_NAME, model.getTimeUnits() );
+		modelElement.addContent( echoFeaturesDeclaration( model ) );
+		modelElement.addContent( new Comment( SPOTS_PLACEHOLDER ) );
+		computeRequiredTrackFeatures( model );
+		modelElement.addContent( new Comment( TRACKS_PLACEHOLDER ) );
+		modelElement.addContent( echoFilteredTracks( model ) );
+		root.addContent( modelElement );
+		this.model = model;
+	}
+
+	@Override
+	public void writeToFile() throws FileNotFoundException, IOException
+	{
+		logger.log( "  Writing to file.\n" );
+
+		final StringWriter sw = new StringWriter();
+		new XMLOutputter( format ).output( new Document( root ), sw );
+		final String document = sw.toString();
+
+		final Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), format.getEncoding() ), BUFFER_SIZE );
+		try
+		{
+			if ( null == model )
+			{
+				writer.write( document );
+				return;
+			}
+
+			int start = 0;
+			start = writeUntil( writer, document, start, SPOTS_PLACEHOLDER );
+			start = writeUntil( writer, document, start, TRACKS_PLACEHOLDER );
+			writer.write( document, start, document.length() - start );
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Copies the rendered document from the specified position to the line
+	 * holding the specified placeholder, then writes the model content the
+	 * placeholder stands for, with the same indentation.
+	 *
+	 * @return the position in the document after the placeholder line.
+	 */
+	private int writeUntil( final Writer writer, final String document, final int start, final String placeholder ) throws IOException
+	{
+		final String lineSeparator = format.getLineSeparator();
+		final int commentStart = document.indexOf( "<!--" + placeholder + "-->", start );
+		final int lineStart = document.lastIndexOf( lineSeparator, commentStart ) + lineSeparator.length();
+		final int lineEnd = document.indexOf( lineSeparator, commentStart ) + lineSeparator.length();
+		final String margin = document.substring( lineStart, commentStart );
+
+		writer.write( document, start, lineStart - start );
+		if ( placeholder == SPOTS_PLACEHOLDER )
+		{
+			writeSpots( writer, margin );
+		}
+		else
+		{
+			writeTracks( writer, margin );
+		}
+		return lineEnd;
+	}
+
+	private void writeSpots( final Writer writer, final String margin ) throws IOException
+	{
+		final String lineSeparator = format.getLineSeparator();
+		final String margin1 = margin + format.getIndent();
+		final String margin2 = margin1 + format.getIndent();
+		final SpotCollection spots = model.getSpots();
+		final Map< String, Boolean > isInt = model.getFeatureModel().getSpotFeatureIsInt();
+
+		writer.write( margin );
+		writer.write( '<' + SPOT_COLLECTION_ELEMENT_KEY );
+		writeAttribute( writer, SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, "" + spots.getNSpots( false ) );
+		if ( spots.keySet().isEmpty() )
+		{
+			writer.write( " />" + lineSeparator );
+			logger.log( "  Added 0 spots.\n" );
+			return;
+		}
+		writer.write( '>' + lineSeparator );
+
+		for ( final int frame : spots.keySet() )
+		{
+			writer.write( margin1 );
+			writer.write( '<' + SPOT_FRAME_COLLECTION_ELEMENT_KEY );
+			writeAttribute( writer, FRAME_ATTRIBUTE_NAME, "" + frame );
+
+			final Iterator< Spot > it = spots.iterator( frame, false );
+			if ( !it.hasNext() )
+			{
+				writer.write( " />" + lineSeparator );
+				continue;
+			}
+			writer.write( '>' + lineSeparator );
+
+			while ( it.hasNext() )
+			{
+				final Spot spot = it.next();
+				writer.write( margin2 );
+				writer.write( '<' + SPOT_ELEMENT_KEY );
+				writeAttribute( writer, SPOT_ID_ATTRIBUTE_NAME, "" + spot.ID() );
+				writeAttribute( writer, SPOT_NAME_ATTRIBUTE_NAME, spot.getName() );
+				for ( final String feature : spot.getFeatures().keySet() )
+				{
+					writeFeature( writer, feature, spot.getFeature( feature ), isInt );
+				}
+				writer.write( " />" + lineSeparator );
+			}
+
+			writer.write( margin1 + "</" + SPOT_FRAME_COLLECTION_ELEMENT_KEY + '>' + lineSeparator );
+		}
+
+		writer.write( margin + "</" + SPOT_COLLECTION_ELEMENT_KEY + '>' + lineSeparator );
+		logger.log( "  Added " + spots.getNSpots( false ) + " spots.\n" );
+	}
+
+	private void writeTracks( final Writer writer, final String margin ) throws IOException
+	{
+		final String lineSeparator = format.getLineSeparator();
+		final String margin1 = margin + format.getIndent();
+		final String margin2 = margin1 + format.getIndent();
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final List< String > trackFeatures = new ArrayList< String >( fm.getTrackFeatures() );
+		final List< String > edgeFeatures = new ArrayList< String >( fm.getEdgeFeatures() );
+		final Map< String, Boolean > trackIsInt = fm.getTrackFeatureIsInt();
+		final Map< String, Boolean > edgeIsInt = fm.getEdgeFeatureIsInt();
+
+		// Tracks without edges are not saved.
+		final Set< Integer > trackIDs = trackModel.trackIDs( false );
+		final List< Integer > savedTrackIDs = new ArrayList< Integer >( trackIDs.size() );
+		for ( final Integer trackID : trackIDs )
+		{
+			if ( !trackModel.trackEdges( trackID ).isEmpty() )
+			{
+				savedTrackIDs.add( trackID );
+			}
+		}
+
+		writer.write( margin );
+		writer.write( '<' + TRACK_COLLECTION_ELEMENT_KEY );
+		if ( savedTrackIDs.isEmpty() )
+		{
+			writer.write( " />" + lineSeparator );
+			logger.log( "  Added tracks.\n" );
+			return;
+		}
+		writer.write( '>' + lineSeparator );
+
+		for ( final Integer trackID : savedTrackIDs )
+		{
+			writer.write( margin1 );
+			writer.write( '<' + TRACK_ELEMENT_KEY );
+			writeAttribute( writer, TRACK_NAME_ATTRIBUTE_NAME, trackModel.name( trackID ) );
+			for ( final String feature : trackFeatures )
+			{
+				writeFeature( writer, feature, fm.getTrackFeature( trackID, feature ), trackIsInt );
+			}
+			writer.write( '>' + lineSeparator );
+
+			for ( final DefaultWeightedEdge edge : trackModel.trackEdges( trackID ) )
+			{
+				writer.write( margin2 );
+				writer.write( '<' + TRACK_EDGE_ELEMENT_KEY );
+				for ( final String feature : edgeFeatures )
+				{
+					writeFeature( writer, feature, fm.getEdgeFeature( edge, feature ), edgeIsInt );
+				}
+				writer.write( " />" + lineSeparator );
+			}
+
+			writer.write( margin1 + "</" + TRACK_ELEMENT_KEY + '>' + lineSeparator );
+		}
+
+		writer.write( margin + "</" + TRACK_COLLECTION_ELEMENT_KEY + '>' + lineSeparator );
+		logger.log( "  Added tracks.\n" );
+	}
+
+	private void writeFeature( final Writer writer, final String feature, final Double val, final Map< String, Boolean > isInt ) throws IOException
+	{
+		if ( null == val )
+		{
+			// Skip missing features.
+			return;
+		}
+		final String str;
+		if ( isInt.get( feature ).booleanValue() )
+		{
+			str = "" + val.intValue();
+		}
+		else
+		{
+			str = val.toString();
+		}
+		writeAttribute( writer, feature, str );
+	}
+
+	private void writeAttribute( final Writer writer, final String name, final String value ) throws IOException
+	{
+		writer.write( ' ' );
+		writer.write( name );
+		writer.write( "=\"" );
+		writer.write( Format.escapeAttribute( format.getEscapeStrategy(), value ) );
+		writer.write( '"' );
+	}
+}
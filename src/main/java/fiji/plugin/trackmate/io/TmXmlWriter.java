@@ -119,7 +119,7 @@ public class TmXmlWriter
 
 	protected final Logger logger;
 
-	private final File file;
+	protected final File file;
 
 	/*
 	 * CONSTRUCTORS
@@ -378,46 +378,7 @@ public class TmXmlWriter
 	private Element echoTracks( final Model model )
 	{
 
-		/*
-		 * Some numerical features are REQUIRED to be able to save to XML.
-		 * Namely: the track ID feature for track and the edge spot source and
-		 * spot target for edges. If the model does not provide these features
-		 * already, we must recompute them. The test to check whether they are
-		 * here or not is a bit lame: we simply ask if the first track or edge
-		 * has them, adn extrapolate to the whole model.
-		 */
-
-		// Track & edges required features
-		if ( model.getTrackModel().nTracks( false ) > 0 )
-		{
-
-			final Set< Integer > trackIDs = model.getTrackModel().unsortedTrackIDs( false );
-			// Find a valid track
-			for ( final Integer trackID : trackIDs )
-			{
-				final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
-				if ( track.size() == 0 )
-				{
-					continue;
-				}
-
-				final Double val1 = model.getFeatureModel().getTrackFeature( trackID, TrackIndexAnalyzer.TRACK_ID );
-				if ( null == val1 )
-				{
-					final TrackIndexAnalyzer trackIndexAnalyzer = new TrackIndexAnalyzer();
-					trackIndexAnalyzer.process( trackIDs, model );
-				}
-
-				final DefaultWeightedEdge edge = track.iterator().next();
-				final Double val3 = model.getFeatureModel().getEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_SOURCE_ID );
-				final Double val4 = model.getFeatureModel().getEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_TARGET_ID );
-				if ( null == val3 || null == val4 )
-				{
-					final EdgeTargetAnalyzer edgeTargetAnalyzer = new EdgeTargetAnalyzer();
-					edgeTargetAnalyzer.process( model.getTrackModel().edgeSet(), model );
-				}
-			}
-		}
+		computeRequiredTrackFeatures( model );
 
 		final Element allTracksElement = new Element( TRACK_COLLECTION_ELEMENT_KEY );
 
@@ -499,7 +460,58 @@ public class TmXmlWriter
 		return allTracksElement;
 	}
 
-	private Element echoFilteredTracks( final Model model )
+	/**
+	 * Ensures that the track and edge features required to save the tracks are
+	 * present in the model, computing them if needed.
+	 *
+	 * @param model
+	 *            the model to save.
+	 */
+	protected void computeRequiredTrackFeatures( final Model model )
+	{
+		/*
+		 * Some numerical features are REQUIRED to be able to save to XML.
+		 * Namely: the track ID feature for track and the edge spot source and
+		 * spot target for edges. If the model does not provide these features
+		 * already, we must recompute them. The test to check whether they are
+		 * here or not is a bit lame: we simply ask if the first track or edge
+		 * has them, adn extrapolate to the whole model.
+		 */
+
+		// Track & edges required features
+		if ( model.getTrackModel().nTracks( false ) > 0 )
+		{
+
+			final Set< Integer > trackIDs = model.getTrackModel().unsortedTrackIDs( false );
+			// Find a valid track
+			for ( final Integer trackID : trackIDs )
+			{
+				final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
+				if ( track.size() == 0 )
+				{
+					continue;
+				}
+
+				final Double val1 = model.getFeatureModel().getTrackFeature( trackID, TrackIndexAnalyzer.TRACK_ID );
+				if ( null == val1 )
+				{
+					final TrackIndexAnalyzer trackIndexAnalyzer = new TrackIndexAnalyzer();
+					trackIndexAnalyzer.process( trackIDs, model );
+				}
+
+				final DefaultWeightedEdge edge = track.iterator().next();
+				final Double val3 = model.getFeatureModel().getEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_SOURCE_ID );
+				final Double val4 = model.getFeatureModel().getEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_TARGET_ID );
+				if ( null == val3 || null == val4 )
+				{
+					final EdgeTargetAnalyzer edgeTargetAnalyzer = new EdgeTargetAnalyzer();
+					edgeTargetAnalyzer.process( model.getTrackModel().edgeSet(), model );
+				}
+			}
+		}
+	}
+
+	protected Element echoFilteredTracks( final Model model )
 	{
 		final Element filteredTracksElement = new Element( FILTERED_TRACK_ELEMENT_KEY );
 		final Set< Integer > filteredTrackKeys = model.getTrackModel().trackIDs( true );
@@ -555,7 +567,7 @@ public class TmXmlWriter
 		return spotCollectionElement;
 	}
 
-	private Element echoFeaturesDeclaration( final Model model )
+	protected Element echoFeaturesDeclaration( final Model model )
 	{
 
 		final FeatureModel fm = model.getFeatureModel();
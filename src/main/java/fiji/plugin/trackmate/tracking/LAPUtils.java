@@ -30,6 +30,7 @@ import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PEN
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_USE_AUCTION_SOLVER;
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 import fiji.plugin.trackmate.Spot;
@@ -236,6 +237,9 @@ public class LAPUtils {
 		ok = ok & checkParameter(settings, KEY_CUTOFF_PERCENTILE, Double.class, str);
 		ok = ok & checkParameter(settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, str);
 		ok = ok & checkParameter(settings, KEY_BLOCKING_VALUE, Double.class, str);
+		if (settings.containsKey(KEY_USE_AUCTION_SOLVER)) {
+			ok = ok & checkParameter(settings, KEY_USE_AUCTION_SOLVER, Boolean.class, str);
+		}
 
 		// Check keys
 		final List<String> mandatoryKeys = new ArrayList<String>();
@@ -255,6 +259,7 @@ public class LAPUtils {
 		optionalKeys.add(KEY_GAP_CLOSING_FEATURE_PENALTIES);
 		optionalKeys.add(KEY_SPLITTING_FEATURE_PENALTIES);
 		optionalKeys.add(KEY_MERGING_FEATURE_PENALTIES);
+		optionalKeys.add(KEY_USE_AUCTION_SOLVER);
 		ok = ok & checkMapKeys(settings, mandatoryKeys, optionalKeys, str);
 
 		return ok;
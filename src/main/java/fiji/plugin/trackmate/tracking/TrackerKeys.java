@@ -159,6 +159,14 @@ public class TrackerKeys {
 	/** A default value for the {@value #KEY_BLOCKING_VALUE} parameter.  */ 
 	public static final double 	DEFAULT_BLOCKING_VALUE = Double.POSITIVE_INFINITY;
 	
+	/** Key for the parameter that specifies whether large linear assignment problems are
+	 * solved with the approximate auction solver instead of the exact Jonker-Volgenant solver.
+	 * Expected values are {@link Boolean}s. This parameter is optional.  */
+	public static final String KEY_USE_AUCTION_SOLVER = "USE_AUCTION_SOLVER";
+	
+	/** A default value for the {@value #KEY_USE_AUCTION_SOLVER} parameter.  */ 
+	public static final boolean DEFAULT_USE_AUCTION_SOLVER = false;
+	
 	/*
 	 * METHODS
 	 */
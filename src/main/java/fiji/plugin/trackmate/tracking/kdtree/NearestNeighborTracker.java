@@ -7,6 +7,8 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
 import fiji.plugin.trackmate.util.TMUtils;
 
 import java.util.ArrayList;
@@ -14,17 +16,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.KDTree;
 import net.imglib2.RealPoint;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
-public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	implements SpotTracker {
+public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	implements SpotTracker, ExecutorServiceAware {
 
 	/*
 	 * FIELDS
@@ -38,6 +40,8 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 
 	protected SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
 
+	protected ExecutorService executorService;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -62,6 +66,15 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 		return ok;
 	}
 
+	/**
+	 * Sets the executor service frames are tracked on. If <code>null</code>,
+	 * {@link #getNumThreads()} threads are created for each tracking.
+	 */
+	@Override
+	public void setExecutorService(final ExecutorService executorService) {
+		this.executorService = executorService;
+	}
+
 	@Override
 	public boolean process() {
 		final long start = System.currentTimeMillis();
@@ -72,14 +85,14 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 		final double maxDistSquare = maxLinkingDistance  * maxLinkingDistance;
 
 		final TreeSet<Integer> frames = new TreeSet<Integer>(spots.keySet());
-		final Thread[] threads = new Thread[numThreads];
+		final Runnable[] workers = new Runnable[numThreads];
 
-		// Prepare the thread array
+		// Prepare the worker array
 		final AtomicInteger ai = new AtomicInteger(frames.first());
 		final AtomicInteger progress = new AtomicInteger(0);
-		for (int ithread = 0; ithread < threads.length; ithread++) {
+		for (int iworker = 0; iworker < workers.length; iworker++) {
 
-			threads[ithread] = new Thread("Nearest neighbor tracker thread "+(1+ithread)+"/"+threads.length) {
+			workers[iworker] = new Runnable() {
 
 				@Override
 				public void run() {
@@ -149,7 +162,7 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 		logger.setStatus("Tracking...");
 		logger.setProgress(0);
 
-		SimpleMultiThreading.startAndJoin(threads);
+		TMExecutors.startAndJoin(executorService, workers);
 
 		logger.setProgress(1);
 		logger.setStatus("");
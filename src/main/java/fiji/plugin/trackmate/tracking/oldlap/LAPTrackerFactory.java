@@ -26,6 +26,7 @@ import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PEN
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_USE_AUCTION_SOLVER;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.gui.ConfigurationPanel;
@@ -152,6 +153,10 @@ public class LAPTrackerFactory implements SpotTrackerFactory
 		ok = ok & writeAttribute( settings, element, KEY_CUTOFF_PERCENTILE, Double.class, str );
 		ok = ok & writeAttribute( settings, element, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, str );
 		ok = ok & writeAttribute( settings, element, KEY_BLOCKING_VALUE, Double.class, str );
+		if ( settings.containsKey( KEY_USE_AUCTION_SOLVER ) )
+		{
+			ok = ok & writeAttribute( settings, element, KEY_USE_AUCTION_SOLVER, Boolean.class, str );
+		}
 
 		return ok;
 	}
@@ -259,6 +264,10 @@ public class LAPTrackerFactory implements SpotTrackerFactory
 		ok = ok & readDoubleAttribute( element, settings, KEY_CUTOFF_PERCENTILE, errorHolder );
 		ok = ok & readDoubleAttribute( element, settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, errorHolder );
 		ok = ok & readDoubleAttribute( element, settings, KEY_BLOCKING_VALUE, errorHolder );
+		if ( null != element.getAttributeValue( KEY_USE_AUCTION_SOLVER ) )
+		{
+			ok = ok & readBooleanAttribute( element, settings, KEY_USE_AUCTION_SOLVER, errorHolder );
+		}
 
 		if ( !checkSettingsValidity( settings ) )
 		{
@@ -320,6 +329,11 @@ public class LAPTrackerFactory implements SpotTrackerFactory
 			str.append( "  Track merging not allowed.\n" );
 		}
 
+		if ( Boolean.TRUE.equals( sm.get( KEY_USE_AUCTION_SOLVER ) ) )
+		{
+			str.append( "  Large problems solved with the auction solver.\n" );
+		}
+
 		return str.toString();
 	}
 
@@ -0,0 +1,270 @@
+package fiji.plugin.trackmate.tracking.sparselap;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.DetectionSink;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.algorithm.Benchmark;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+/**
+ * A frame-to-frame tracker that links spots as soon as they are detected,
+ * instead of waiting for the detection of all frames.
+ * <p>
+ * It is a {@link DetectionSink}, so that it can be given to
+ * {@link fiji.plugin.trackmate.TrackMate#setDetectionSink(DetectionSink)}.
+ * Each frame received is linked to the previous one with the same Jaqaman cost
+ * model that the {@link SparseLAPFrameToFrameTracker}, and the links are added
+ * to the graph returned by {@link #getResult()}. Since detection may process
+ * several frames at once, frames received out of order are kept aside until
+ * all the frames before them have been received.
+ * <p>
+ * Only the spots of the last frames linked are kept by this tracker, in a
+ * sliding window that can be inspected with {@link #getWindow()}. The window
+ * size also bounds the number of frames kept aside: when it is exceeded, the
+ * frames missing before them are considered empty, and a frame received after
+ * that is added to the graph without links. Gap-closing, splitting and
+ * merging can be performed afterwards on the resulting graph with a
+ * {@link SparseLAPSegmentTracker}.
+ * <p>
+ * All the spots received are added to the graph, linked or not: unlike for
+ * the {@link SparseLAPFrameToFrameTracker}, spot visibility is not considered,
+ * since spot filtering has not happened yet. The spots received are also
+ * passed, unmodified except for their {@link Spot#FRAME} feature, to an
+ * optional downstream sink.
+ */
+public class IncrementalSparseLAPFrameToFrameTracker implements DetectionSink, Benchmark, ExecutorServiceAware
+{
+
+	private final static String BASE_ERROR_MESSAGE = "[IncrementalSparseLAPFrameToFrameTracker] ";
+
+	private final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph;
+
+	private final DetectionSink downstream;
+
+	private final int windowSize;
+
+	private final Map< String, Double > featurePenalties;
+
+	private final CostFunction< Spot, Spot > costFunction;
+
+	private final double costThreshold;
+
+	private final double alternativeCostFactor;
+
+	/** Frames received that cannot be linked yet. */
+	private final TreeMap< Integer, List< Spot > > pending = new TreeMap< Integer, List< Spot > >();
+
+	/** The last frames linked. */
+	private final TreeMap< Integer, List< Spot > > window = new TreeMap< Integer, List< Spot > >();
+
+	private int nextFrame;
+
+	private String errorMessage;
+
+	private long processingTime;
+
+	private ExecutorService executorService;
+
+	/**
+	 * Creates a new incremental tracker.
+	 *
+	 * @param settings
+	 *            the settings map, which must be valid for the
+	 *            {@link SparseLAPFrameToFrameTracker}.
+	 * @param firstFrame
+	 *            the first frame that will be received. Frames are linked in
+	 *            ascending order starting from this one, and all the
+	 *            subsequent frames must be received, even if they are empty.
+	 * @param windowSize
+	 *            the number of frames to keep in the sliding window, and the
+	 *            maximal number of frames kept aside while waiting for a
+	 *            missing frame.
+	 * @param downstream
+	 *            the sink to pass the received spots to, once their frame has
+	 *            been linked. Can be <code>null</code>.
+	 * @throws IllegalArgumentException
+	 *             if the settings map is not valid.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public IncrementalSparseLAPFrameToFrameTracker( final Map< String, Object > settings, final int firstFrame, final int windowSize, final DetectionSink downstream )
+	{
+		final StringBuilder errorHolder = new StringBuilder();
+		if ( !SparseLAPFrameToFrameTracker.checkSettingsValidity( settings, errorHolder ) ) { throw new IllegalArgumentException( BASE_ERROR_MESSAGE + errorHolder.toString() ); }
+
+		this.nextFrame = firstFrame;
+		this.windowSize = Math.max( 1, windowSize );
+		this.downstream = downstream;
+		this.featurePenalties = ( Map< String, Double > ) settings.get( KEY_LINKING_FEATURE_PENALTIES );
+		this.costFunction = SparseLAPFrameToFrameTracker.getCostFunctionFor( featurePenalties );
+		final double maxDist = ( Double ) settings.get( KEY_LINKING_MAX_DISTANCE );
+		this.costThreshold = maxDist * maxDist;
+		this.alternativeCostFactor = ( Double ) settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
+		this.graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		this.executorService = TMExecutors.newSharedExecutor( Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * Sets the executor service the frames are linked on. By default, this
+	 * tracker uses an executor of its own, shared by all the frames.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
+	@Override
+	public boolean put( final int frame, final List< Spot > spots )
+	{
+		final long start = System.currentTimeMillis();
+		if ( frame < nextFrame )
+		{
+			// Too late, the frames after it are linked already.
+			if ( !link( frame, spots ) ) { return false; }
+		}
+		else
+		{
+			pending.put( Integer.valueOf( frame ), spots );
+		}
+		while ( !pending.isEmpty() && ( pending.firstKey().intValue() <= nextFrame || pending.size() > windowSize ) )
+		{
+			final int current = pending.firstKey().intValue();
+			if ( !link( current, pending.remove( pending.firstKey() ) ) )
+			{
+				return false;
+			}
+			nextFrame = current + 1;
+		}
+		processingTime += System.currentTimeMillis() - start;
+		return true;
+	}
+
+	@Override
+	public boolean close()
+	{
+		final long start = System.currentTimeMillis();
+		// Link what remains, even if some frames are missing.
+		while ( !pending.isEmpty() )
+		{
+			final Integer frame = pending.firstKey();
+			if ( !link( frame.intValue(), pending.remove( frame ) ) )
+			{
+				return false;
+			}
+		}
+		processingTime += System.currentTimeMillis() - start;
+
+		if ( null != downstream && !downstream.close() )
+		{
+			errorMessage = downstream.getErrorMessage();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Links the specified frame to the last frame of the window, then moves it
+	 * in the window. A frame that is not after the last frame of the window is
+	 * added without links.
+	 */
+	private boolean link( final int frame, final List< Spot > spots )
+	{
+		for ( final Spot spot : spots )
+		{
+			spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
+			graph.addVertex( spot );
+		}
+
+		final boolean late = !window.isEmpty() && frame <= window.lastKey().intValue();
+		if ( !window.isEmpty() && !late )
+		{
+			final int previousFrame = window.lastKey().intValue();
+			final List< Spot > sources = window.lastEntry().getValue();
+			if ( !sources.isEmpty() && !spots.isEmpty() )
+			{
+				final JaqamanLinker< Spot, Spot > linker = SparseLAPFrameToFrameTracker.createLinker( sources, spots, featurePenalties, costFunction, costThreshold, alternativeCostFactor );
+				linker.setExecutorService( executorService );
+				if ( !linker.checkInput() || !linker.process() )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + "At frame " + previousFrame + " to " + frame + ": " + linker.getErrorMessage();
+					return false;
+				}
+
+				final Map< Spot, Double > costs = linker.getAssignmentCosts();
+				final Map< Spot, Spot > assignment = linker.getResult();
+				for ( final Spot source : assignment.keySet() )
+				{
+					final double cost = costs.get( source );
+					final Spot target = assignment.get( source );
+					final DefaultWeightedEdge edge = graph.addEdge( source, target );
+					graph.setEdgeWeight( edge, cost );
+				}
+			}
+		}
+
+		if ( !late )
+		{
+			window.put( Integer.valueOf( frame ), new ArrayList< Spot >( spots ) );
+			while ( window.size() > windowSize )
+			{
+				window.pollFirstEntry();
+			}
+		}
+
+		if ( null != downstream && !downstream.put( frame, spots ) )
+		{
+			errorMessage = downstream.getErrorMessage();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the graph of the links created so far.
+	 *
+	 * @return the graph.
+	 */
+	public SimpleWeightedGraph< Spot, DefaultWeightedEdge > getResult()
+	{
+		return graph;
+	}
+
+	/**
+	 * Returns the spots of the last frames linked, by frame.
+	 *
+	 * @return an unmodifiable view of the sliding window.
+	 */
+	public SortedMap< Integer, List< Spot > > getWindow()
+	{
+		return Collections.unmodifiableSortedMap( window );
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+}
@@ -14,22 +14,26 @@ import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanSpatialLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.tracking.sparselap.linker.LAPSolverFactory;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
-import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
-public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker
+public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker, ExecutorServiceAware
 {
 	private final static String BASE_ERROR_MESSAGE = "[SparseLAPFrameToFrameTracker] ";
 
@@ -41,6 +45,10 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 
 	private final Map< String, Object > settings;
 
+	private ExecutorService executorService;
+
+	private LAPSolverFactory solverFactory = JaqamanLinker.DEFAULT_SOLVER_FACTORY;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -67,6 +75,27 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		return true;
 	}
 
+	/**
+	 * Sets the executor service frame pairs are linked on. If
+	 * <code>null</code>, {@link #getNumThreads()} threads are created for
+	 * each linking.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
+	/**
+	 * Sets the factory of the solvers used to solve the linear assignment
+	 * problems. By default, the {@link JaqamanLinker#DEFAULT_SOLVER_FACTORY}
+	 * is used.
+	 */
+	public void setSolverFactory( final LAPSolverFactory solverFactory )
+	{
+		this.solverFactory = solverFactory;
+	}
+
 	@Override
 	public boolean process()
 	{
@@ -132,15 +161,7 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		// Prepare cost function
 		@SuppressWarnings( "unchecked" )
 		final Map< String, Double > featurePenalties = ( Map< String, Double > ) settings.get( KEY_LINKING_FEATURE_PENALTIES );
-		final CostFunction< Spot, Spot > costFunction;
-		if ( null == featurePenalties || featurePenalties.isEmpty() )
-		{
-			costFunction = new SquareDistCostFunction();
-		}
-		else
-		{
-			costFunction = new FeaturePenaltyCostFunction( featurePenalties );
-		}
+		final CostFunction< Spot, Spot > costFunction = getCostFunctionFor( featurePenalties );
 		final Double maxDist = ( Double ) settings.get( KEY_LINKING_MAX_DISTANCE );
 		final double costThreshold = maxDist * maxDist;
 		final double alternativeCostFactor = ( Double ) settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR );
@@ -148,16 +169,16 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		// Instantiate graph
 		graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
 
-		// Prepare threads
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		// Prepare workers
+		final Runnable[] workers = new Runnable[ numThreads ];
 
-		// Prepare the thread array
+		// Prepare the worker array
 		final AtomicInteger ai = new AtomicInteger( 0 );
 		final AtomicInteger progress = new AtomicInteger( 0 );
 		final AtomicBoolean ok = new AtomicBoolean( true );
-		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		for ( int iworker = 0; iworker < workers.length; iworker++ )
 		{
-			threads[ ithread ] = new Thread( BASE_ERROR_MESSAGE + " thread " + ( 1 + ithread ) + "/" + threads.length )
+			workers[ iworker ] = new Runnable()
 			{
 				@Override
 				public void run()
@@ -196,8 +217,10 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 						 * Run the linker.
 						 */
 
-						final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
-						final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker< Spot, Spot >( creator );
+						final JaqamanLinker< Spot, Spot > linker = createLinker( sources, targets, featurePenalties, costFunction, costThreshold, alternativeCostFactor );
+						// Frame pairs are already processed in parallel.
+						linker.setNumThreads( 1 );
+						linker.setSolverFactory( solverFactory );
 						if ( !linker.checkInput() || !linker.process() )
 						{
 							errorMessage = "At frame " + frame0 + " to " + frame1 + ": " + linker.getErrorMessage();
@@ -232,7 +255,7 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		}
 
 		logger.setStatus( "Frame to frame linking..." );
-		SimpleMultiThreading.startAndJoin( threads );
+		TMExecutors.startAndJoin( executorService, workers );
 		logger.setProgress( 1d );
 		logger.setStatus( "" );
 
@@ -248,7 +271,40 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		this.logger = logger;
 	}
 
-	private static final boolean checkSettingsValidity( final Map< String, Object > settings, final StringBuilder str )
+	/**
+	 * Returns the cost function to use for the specified feature penalties.
+	 */
+	static final CostFunction< Spot, Spot > getCostFunctionFor( final Map< String, Double > featurePenalties )
+	{
+		if ( null == featurePenalties || featurePenalties.isEmpty() )
+		{
+			return new SquareDistCostFunction();
+		}
+		else
+		{
+			return new FeaturePenaltyCostFunction( featurePenalties );
+		}
+	}
+
+	/**
+	 * Returns a new linker for the specified frame pair. Candidate targets
+	 * are searched with a KD-tree when it does not change the results.
+	 */
+	static final JaqamanLinker< Spot, Spot > createLinker( final List< Spot > sources, final List< Spot > targets, final Map< String, Double > featurePenalties, final CostFunction< Spot, Spot > costFunction, final double costThreshold, final double alternativeCostFactor )
+	{
+		final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator;
+		if ( FeaturePenaltyCostFunction.isBoundedBySquareDistance( featurePenalties, sources ) && FeaturePenaltyCostFunction.isBoundedBySquareDistance( featurePenalties, targets ) )
+		{
+			creator = new JaqamanSpatialLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
+		}
+		else
+		{
+			creator = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
+		}
+		return new JaqamanLinker< Spot, Spot >( creator );
+	}
+
+	static final boolean checkSettingsValidity( final Map< String, Object > settings, final StringBuilder str )
 	{
 		if ( null == settings )
 		{
@@ -14,8 +14,11 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.tracking.SpotTracker;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanSegmentCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.tracking.sparselap.linker.LAPSolverFactory;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.algorithm.Benchmark;
 
@@ -54,7 +57,7 @@ import org.jgrapht.graph.SimpleWeightedGraph;
  * The class itself uses a sparse version of the cost matrix and a solver that
  * can exploit it. Therefore it is optimized for memory usage rather than speed.
  */
-public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
+public class SparseLAPSegmentTracker implements SpotTracker, Benchmark, ExecutorServiceAware
 {
 
 	private static final String BASE_ERROR_MESSAGE = "[SparseLAPSegmentTracker] ";
@@ -71,6 +74,10 @@ public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
 
 	private int numThreads;
 
+	private ExecutorService executorService;
+
+	private LAPSolverFactory solverFactory = JaqamanLinker.DEFAULT_SOLVER_FACTORY;
+
 	public SparseLAPSegmentTracker( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph, final Map< String, Object > settings )
 	{
 		this.graph = graph;
@@ -90,6 +97,26 @@ public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
 		return true;
 	}
 
+	/**
+	 * Sets the executor service the cost matrix creation and the linking run
+	 * on.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
+	/**
+	 * Sets the factory of the solvers used to solve the linear assignment
+	 * problems. By default, the {@link JaqamanLinker#DEFAULT_SOLVER_FACTORY}
+	 * is used.
+	 */
+	public void setSolverFactory( final LAPSolverFactory solverFactory )
+	{
+		this.solverFactory = solverFactory;
+	}
+
 	@Override
 	public boolean process()
 	{
@@ -125,8 +152,13 @@ public class SparseLAPSegmentTracker implements SpotTracker, Benchmark
 		logger.setProgress( 0d );
 		logger.setStatus( "Creating the segment linking cost matrix..." );
 		final JaqamanSegmentCostMatrixCreator costMatrixCreator = new JaqamanSegmentCostMatrixCreator( graph, settings );
+		costMatrixCreator.setNumThreads( numThreads );
+		costMatrixCreator.setExecutorService( executorService );
 		final SlaveLogger jlLogger = new SlaveLogger( logger, 0, 0.9 );
 		final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker< Spot, Spot >( costMatrixCreator, jlLogger );
+		linker.setNumThreads( numThreads );
+		linker.setExecutorService( executorService );
+		linker.setSolverFactory( solverFactory );
 		if ( !linker.checkInput() || !linker.process() )
 		{
 			errorMessage = linker.getErrorMessage();
@@ -16,6 +16,7 @@ import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PEN
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_USE_AUCTION_SOLVER;
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 import fiji.plugin.trackmate.Logger;
@@ -23,18 +24,22 @@ import fiji.plugin.trackmate.Logger.SlaveLogger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.tracking.sparselap.linker.LAPSolverFactory;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
-public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker
+public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements SpotTracker, ExecutorServiceAware
 {
 	private final static String BASE_ERROR_MESSAGE = "[SparseLAPTracker] ";
 
@@ -46,6 +51,8 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 
 	private final Map< String, Object > settings;
 
+	private ExecutorService executorService;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -72,6 +79,16 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 		return true;
 	}
 
+	/**
+	 * Sets the executor service the frame to frame linking and the segment
+	 * linking run on.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
 	@Override
 	public boolean process()
 	{
@@ -123,6 +140,8 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 
 		final long start = System.currentTimeMillis();
 
+		final LAPSolverFactory solverFactory = Boolean.TRUE.equals( settings.get( KEY_USE_AUCTION_SOLVER ) ) ? JaqamanLinker.AUCTION_SOLVER_FACTORY : JaqamanLinker.DEFAULT_SOLVER_FACTORY;
+
 		/*
 		 * 1. Frame to frame linking.
 		 */
@@ -136,6 +155,8 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 
 		final SparseLAPFrameToFrameTracker frameToFrameLinker = new SparseLAPFrameToFrameTracker( spots, ftfSettings );
 		frameToFrameLinker.setNumThreads( numThreads );
+		frameToFrameLinker.setExecutorService( executorService );
+		frameToFrameLinker.setSolverFactory( solverFactory );
 		final SlaveLogger ftfLogger = new SlaveLogger( logger, 0, 0.5 );
 		frameToFrameLinker.setLogger( ftfLogger );
 
@@ -172,6 +193,9 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 
 		// Solve.
 		final SparseLAPSegmentTracker segmentLinker = new SparseLAPSegmentTracker( graph, slSettings );
+		segmentLinker.setNumThreads( numThreads );
+		segmentLinker.setExecutorService( executorService );
+		segmentLinker.setSolverFactory( solverFactory );
 		final SlaveLogger slLogger = new SlaveLogger( logger, 0.5, 0.5 );
 		segmentLinker.setLogger( slLogger );
 
@@ -224,6 +248,10 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 		// Others
 		ok = ok & checkParameter( settings, KEY_CUTOFF_PERCENTILE, Double.class, str );
 		ok = ok & checkParameter( settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, str );
+		if ( settings.containsKey( KEY_USE_AUCTION_SOLVER ) )
+		{
+			ok = ok & checkParameter( settings, KEY_USE_AUCTION_SOLVER, Boolean.class, str );
+		}
 
 		// Check keys
 		final List< String > mandatoryKeys = new ArrayList< String >();
@@ -243,6 +271,7 @@ public class SparseLAPTracker extends MultiThreadedBenchmarkAlgorithm implements
 		optionalKeys.add( KEY_SPLITTING_FEATURE_PENALTIES );
 		optionalKeys.add( KEY_MERGING_FEATURE_PENALTIES );
 		optionalKeys.add( KEY_BLOCKING_VALUE );
+		optionalKeys.add( KEY_USE_AUCTION_SOLVER );
 		ok = ok & checkMapKeys( settings, mandatoryKeys, optionalKeys, str );
 
 		return ok;
@@ -60,4 +60,48 @@ public class FeaturePenaltyCostFunction implements CostFunction< Spot, Spot >
 
 		return d2 * penalty * penalty;
 	}
+
+	/**
+	 * Returns <code>true</code> if the cost calculated with the specified
+	 * feature penalties between any two of the specified spots is guaranteed
+	 * to be larger than or equal to their square distance. In that case,
+	 * candidate targets can be searched within the max linking distance only,
+	 * without changing the resulting costs.
+	 * <p>
+	 * This is always the case without feature penalties. With feature
+	 * penalties, it is the case if all the penalty weights and all the
+	 * penalized feature values are non-negative, because the penalty factor is
+	 * then never smaller than 1.
+	 * 
+	 * @param featurePenalties
+	 *            the feature penalties map, may be <code>null</code>.
+	 * @param spots
+	 *            the spots to check.
+	 * @return <code>true</code> if the cost is not smaller than the square
+	 *         distance.
+	 */
+	public static final boolean isBoundedBySquareDistance( final Map< String, Double > featurePenalties, final Iterable< Spot > spots )
+	{
+		if ( null == featurePenalties || featurePenalties.isEmpty() )
+		{
+			return true;
+		}
+
+		for ( final String feature : featurePenalties.keySet() )
+		{
+			if ( featurePenalties.get( feature ).doubleValue() < 0 )
+			{
+				return false;
+			}
+			for ( final Spot spot : spots )
+			{
+				final Double val = spot.getFeature( feature );
+				if ( null != val && val.doubleValue() < 0 )
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
 }
@@ -4,7 +4,6 @@ import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 
 import net.imglib2.util.Util;
@@ -98,70 +97,53 @@ public class DefaultCostMatrixCreator< K extends Comparable< K >, J extends Comp
 	@Override
 	public boolean process()
 	{
-		uniqueRows = new ArrayList< K >( new HashSet< K >( rows ) );
-		Collections.sort( uniqueRows );
-		uniqueCols = new ArrayList< J >( new HashSet< J >( cols ) );
-		Collections.sort( uniqueCols );
+		uniqueRows = uniqueSorted( rows );
+		uniqueCols = uniqueSorted( cols );
 
-		final List< Assignment > assignments = new ArrayList< Assignment >( costs.length );
+		final int[] r = new int[ costs.length ];
+		final int[] c = new int[ costs.length ];
 		for ( int i = 0; i < costs.length; i++ )
 		{
-			final K rowObj = rows.get( i );
-			final J colObj = cols.get( i );
-			final int r = Collections.binarySearch( uniqueRows, rowObj );
-			final int c = Collections.binarySearch( uniqueCols, colObj );
-			assignments.add( new Assignment( r, c, costs[ i ] ) );
+			r[ i ] = Collections.binarySearch( uniqueRows, rows.get( i ) );
+			c[ i ] = Collections.binarySearch( uniqueCols, cols.get( i ) );
 		}
-		Collections.sort( assignments );
 
-		// Test we do not have duplicates.
-		Assignment previousAssgn = assignments.get( 0 );
-		for ( int i = 1; i < assignments.size(); i++ )
+		try
 		{
-			final Assignment assgn = assignments.get( i );
-			if ( assgn.equals( previousAssgn ) )
-			{
-				errorMessage = BASE_ERROR_MESSAGE + "Found duplicate assignment at index: " + assgn + ".";
-				return false;
-			}
-			previousAssgn = assgn;
+			scm = SparseCostMatrixBuilder.build( r, c, new ResizableDoubleArray( costs ), uniqueRows.size(), uniqueCols.size() );
 		}
-
-		final int nRows = uniqueRows.size();
-		final int nCols = uniqueCols.size();
-		final int[] kk = new int[ costs.length ];
-		final int[] number = new int[ nRows ];
-		final double[] cc = new double[ costs.length ];
-
-		Assignment a = assignments.get( 0 );
-		kk[ 0 ] = a.c;
-		cc[ 0 ] = a.cost;
-		int currentRow = a.r;
-		int nOfEl = 0;
-		for ( int i = 1; i < assignments.size(); i++ )
+		catch ( final IllegalArgumentException e )
 		{
-			a = assignments.get( i );
-
-			kk[ i ] = a.c;
-			cc[ i ] = a.cost;
-			nOfEl++;
-
-			if ( a.r != currentRow )
-			{
-				number[ currentRow ] = nOfEl;
-				nOfEl = 0;
-				currentRow = a.r;
-			}
+			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+			return false;
 		}
-		number[ currentRow ] = nOfEl + 1;
-
-		scm = new SparseCostMatrix( cc, kk, number, nCols );
 
 		alternativeCost = computeAlternativeCosts();
 
 		return true;
 	}
 
+	/**
+	 * Returns a sorted copy of the specified list, without duplicates.
+	 */
+	private static < T extends Comparable< T > > ArrayList< T > uniqueSorted( final List< T > list )
+	{
+		final ArrayList< T > sorted = new ArrayList< T >( list );
+		Collections.sort( sorted );
+		int nUnique = 0;
+		for ( int i = 0; i < sorted.size(); i++ )
+		{
+			final T obj = sorted.get( i );
+			if ( nUnique == 0 || obj.compareTo( sorted.get( nUnique - 1 ) ) != 0 )
+			{
+				sorted.set( nUnique++, obj );
+			}
+		}
+		sorted.subList( nUnique, sorted.size() ).clear();
+		sorted.trimToSize();
+		return sorted;
+	}
+
 	protected double computeAlternativeCosts()
 	{
 		if ( percentile == 1 ) { return alternativeCostFactor * Util.max( costs ); }
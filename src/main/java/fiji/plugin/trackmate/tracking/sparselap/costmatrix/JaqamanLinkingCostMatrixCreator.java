@@ -22,11 +22,11 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 
 	private static final String BASE_ERROR_MSG = "[JaqamanLinkingCostMatrixCreator] ";
 
-	private final Iterable< K > sources;
+	protected final Iterable< K > sources;
 
-	private final Iterable< J > targets;
+	protected final Iterable< J > targets;
 
-	private final CostFunction< K, J > costFunction;
+	protected final CostFunction< K, J > costFunction;
 
 	private SparseCostMatrix scm;
 
@@ -34,7 +34,7 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 
 	private String errorMessage;
 
-	private final double costThreshold;
+	protected final double costThreshold;
 
 	private List< K > sourceList;
 
@@ -81,20 +81,7 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		final List< J > accTargets = new ArrayList< J >();
 		final ResizableDoubleArray costs = new ResizableDoubleArray();
 
-		for ( final K source : sources )
-		{
-			for ( final J target : targets )
-			{
-
-				final double cost = costFunction.linkingCost( source, target );
-				if ( cost < costThreshold )
-				{
-					accSources.add( source );
-					accTargets.add( target );
-					costs.add( cost );
-				}
-			}
-		}
+		collectCandidates( accSources, accTargets, costs );
 		costs.trimToSize();
 
 		/*
@@ -133,6 +120,38 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		return true;
 	}
 
+	/**
+	 * Iterates over the source and target pairs and stores the ones whose cost
+	 * is below the cost threshold in the specified lists. This implementation
+	 * computes the cost of all the possible pairs. Subclasses can override it
+	 * to visit only a subset of pairs, as long as all the pairs that have an
+	 * acceptable cost are stored.
+	 * 
+	 * @param accSources
+	 *            the list in which to store the sources of accepted pairs.
+	 * @param accTargets
+	 *            the list in which to store the targets of accepted pairs.
+	 * @param costs
+	 *            the array in which to store the cost of accepted pairs.
+	 */
+	protected void collectCandidates( final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
+		for ( final K source : sources )
+		{
+			for ( final J target : targets )
+			{
+
+				final double cost = costFunction.linkingCost( source, target );
+				if ( cost < costThreshold )
+				{
+					accSources.add( source );
+					accTargets.add( target );
+					costs.add( cost );
+				}
+			}
+		}
+	}
+
 	@Override
 	public String getErrorMessage()
 	{
@@ -20,14 +20,15 @@ import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.algorithm.MultiThreaded;
 
@@ -52,7 +53,7 @@ import org.jgrapht.graph.DefaultWeightedEdge;
  * @author Jean-Yves Tinevez - 2014
  * 
  */
-public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot, Spot >, MultiThreaded
+public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot, Spot >, MultiThreaded, ExecutorServiceAware
 {
 
 	private static final String BASE_ERROR_MESSAGE = "[JaqamanSegmentCostMatrixCreator] ";
@@ -75,6 +76,8 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 
 	private int numThreads;
 
+	private ExecutorService executorService;
+
 	/**
 	 * Instantiates a cost matrix creator for the top-left quadrant of the
 	 * segment linking cost matrix.
@@ -99,6 +102,17 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		return true;
 	}
 
+	/**
+	 * Sets the executor service candidate links are searched on, by
+	 * {@link #getNumThreads()} workers. If <code>null</code>, the workers run
+	 * on new threads.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
 	@Override
 	public String getErrorMessage()
 	{
@@ -182,6 +196,28 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 			allMiddles = Collections.emptyList();
 		}
 
+		/*
+		 * Index segment starts and middle points by frame. Candidates are
+		 * then only searched in the frames allowed by the frame interval
+		 * constraints. If the costs are guaranteed to be no smaller than the
+		 * square distance, we also restrict the search to spots within the
+		 * max distance, without changing the results.
+		 */
+
+		final boolean gcSpatial = FeaturePenaltyCostFunction.isBoundedBySquareDistance( gcFeaturePenalties, segmentEnds ) && FeaturePenaltyCostFunction.isBoundedBySquareDistance( gcFeaturePenalties, segmentStarts );
+		final boolean mSpatial = FeaturePenaltyCostFunction.isBoundedBySquareDistance( mFeaturePenalties, segmentEnds ) && FeaturePenaltyCostFunction.isBoundedBySquareDistance( mFeaturePenalties, allMiddles );
+		final boolean sSpatial = FeaturePenaltyCostFunction.isBoundedBySquareDistance( sFeaturePenalties, allMiddles ) && FeaturePenaltyCostFunction.isBoundedBySquareDistance( sFeaturePenalties, segmentStarts );
+
+		// Segment starts are only targeted by gap-closing and splitting.
+		final SpotFrameIndex startIndex = ( allowGapClosing || allowSplitting ) ? new SpotFrameIndex( segmentStarts, gcSpatial || sSpatial ) : null;
+		// Middle points are only targeted by merging.
+		final SpotFrameIndex middleIndex = allowMerging ? new SpotFrameIndex( allMiddles, mSpatial ) : null;
+
+		// Pad radii by one ulp against rounding errors.
+		final double gcSearchRadius = gcSpatial ? Math.nextUp( gcMaxDistance ) : Double.POSITIVE_INFINITY;
+		final double mSearchRadius = mSpatial ? Math.nextUp( mMaxDistance ) : Double.POSITIVE_INFINITY;
+		final double sSearchRadius = sSpatial ? Math.nextUp( sMaxDistance ) : Double.POSITIVE_INFINITY;
+
 		final Object lock = new Object();
 
 		/*
@@ -197,91 +233,83 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		 * (gap-closing) then the segment middles (merging).
 		 */
 
-		final ExecutorService executorGCM = Executors.newFixedThreadPool( numThreads );
-		for ( final Spot source : segmentEnds )
+		final AtomicInteger aiGCM = new AtomicInteger( 0 );
+		final Runnable[] workersGCM = new Runnable[ Math.max( 1, numThreads ) ];
+		for ( int iworker = 0; iworker < workersGCM.length; iworker++ )
 		{
-			executorGCM.submit( new Runnable()
+			workersGCM[ iworker ] = new Runnable()
 			{
 				@Override
 				public void run()
 				{
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-
-					/*
-					 * Iterate over segment starts - GAP-CLOSING.
-					 */
-
-					if ( allowGapClosing )
+					for ( int k = aiGCM.getAndIncrement(); k < segmentEnds.size(); k = aiGCM.getAndIncrement() )
 					{
-						for ( final Spot target : segmentStarts )
-						{
-							// Check frame interval, must be within user
-							// specification.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff < 1 || tdiff > maxFrameInterval )
-							{
-								continue;
-							}
+						final Spot source = segmentEnds.get( k );
+						final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
 
-							// Check max distance
-							final double cost = gcCostFunction.linkingCost( source, target );
-							if ( cost > gcCostThreshold )
-							{
-								continue;
-							}
+						/*
+						 * Iterate over segment starts - GAP-CLOSING.
+						 */
 
-							synchronized ( lock )
+						if ( allowGapClosing )
+						{
+							/*
+							 * Only search frames within user specification, and
+							 * that contain segment starts. This also protects
+							 * against overflows with very large frame gaps.
+							 */
+							final int maxTDiff = Math.min( maxFrameInterval, startIndex.getMaxFrame() - sourceFrame );
+							for ( int tdiff = 1; tdiff <= maxTDiff; tdiff++ )
 							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
+								for ( final Spot target : startIndex.search( source, sourceFrame + tdiff, gcSearchRadius ) )
+								{
+									// Check max distance
+									final double cost = gcCostFunction.linkingCost( source, target );
+									if ( cost > gcCostThreshold )
+									{
+										continue;
+									}
+
+									synchronized ( lock )
+									{
+										sources.add( source );
+										targets.add( target );
+										linkCosts.add( cost );
+									}
+								}
 							}
 						}
-					}
 
-					/*
-					 * Iterate over middle points - MERGING.
-					 */
+						/*
+						 * Iterate over middle points - MERGING.
+						 */
 
-					if ( allowMerging )
-					{
-						for ( final Spot target : allMiddles )
+						if ( allowMerging )
 						{
-							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff != 1 )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = mCostFunction.linkingCost( source, target );
-							if ( cost > mCostThreshold )
-							{
-								continue;
-							}
-
-							synchronized ( lock )
+							// Frame interval must be 1.
+							for ( final Spot target : middleIndex.search( source, sourceFrame + 1, mSearchRadius ) )
 							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
+								// Check max distance
+								final double cost = mCostFunction.linkingCost( source, target );
+								if ( cost > mCostThreshold )
+								{
+									continue;
+								}
+
+								synchronized ( lock )
+								{
+									sources.add( source );
+									targets.add( target );
+									linkCosts.add( cost );
+								}
 							}
 						}
 					}
 				}
-			} );
-		}
-		executorGCM.shutdown();
-		try
-		{
-			executorGCM.awaitTermination( 1, TimeUnit.DAYS );
+			};
 		}
-		catch ( final InterruptedException e )
+		if ( !startAndJoin( workersGCM ) )
 		{
-			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
 			return false;
 		}
 
@@ -290,51 +318,42 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		 */
 		if ( allowSplitting )
 		{
-			final ExecutorService executorS = Executors.newFixedThreadPool( numThreads );
-			for ( final Spot source : allMiddles )
+			final AtomicInteger aiS = new AtomicInteger( 0 );
+			final Runnable[] workersS = new Runnable[ Math.max( 1, numThreads ) ];
+			for ( int iworker = 0; iworker < workersS.length; iworker++ )
 			{
-				executorS.submit( new Runnable()
+				workersS[ iworker ] = new Runnable()
 				{
 					@Override
 					public void run()
 					{
-						final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-						for ( final Spot target : segmentStarts )
+						for ( int k = aiS.getAndIncrement(); k < allMiddles.size(); k = aiS.getAndIncrement() )
 						{
-							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-
-							if ( tdiff != 1 )
+							final Spot source = allMiddles.get( k );
+							final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+							// Frame interval must be 1.
+							for ( final Spot target : startIndex.search( source, sourceFrame + 1, sSearchRadius ) )
 							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = sCostFunction.linkingCost( source, target );
-							if ( cost > sCostThreshold )
-							{
-								continue;
-							}
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
+								// Check max distance
+								final double cost = sCostFunction.linkingCost( source, target );
+								if ( cost > sCostThreshold )
+								{
+									continue;
+								}
+								synchronized ( lock )
+								{
+									sources.add( source );
+									targets.add( target );
+									linkCosts.add( cost );
+								}
 							}
 						}
 					}
-				}
-						);
-			}
-			executorS.shutdown();
-			try
-			{
-				executorS.awaitTermination( 1, TimeUnit.DAYS );
+				};
 			}
-			catch ( final InterruptedException e )
+			if ( !startAndJoin( workersS ) )
 			{
-				errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+				return false;
 			}
 		}
 		linkCosts.trimToSize();
@@ -378,6 +397,24 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		return true;
 	}
 
+	/**
+	 * Runs the specified workers on the executor service, and reports an
+	 * interruption as an error.
+	 */
+	private boolean startAndJoin( final Runnable[] workers )
+	{
+		try
+		{
+			TMExecutors.startAndJoin( executorService, workers );
+			return true;
+		}
+		catch ( final RuntimeException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+			return false;
+		}
+	}
+
 	protected CostFunction< Spot, Spot > getCostFunctionFor( final Map< String, Double > featurePenalties )
 	{
 		// Link Nick Perry original non sparse LAP framework.
@@ -0,0 +1,73 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.KDTree;
+import net.imglib2.RealLocalizable;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+
+/**
+ * A {@link JaqamanLinkingCostMatrixCreator} that does not compute the cost of
+ * all the possible source and target pairs, but only of the pairs that are
+ * closer than the max distance derived from the cost threshold.
+ * <p>
+ * The targets are stored in a {@link KDTree} and for each source, the
+ * candidate targets are retrieved with a radius search. This makes the
+ * creation of the cost matrix scale roughly linearly with the number of
+ * objects, instead of quadratically.
+ * <p>
+ * This is only correct if the cost function returns costs that are never
+ * smaller than the square distance between the source and the target, which
+ * is the case for the {@link SquareDistCostFunction}. In that case, the
+ * generated cost matrix is identical to the one generated by the mother class.
+ *
+ * @param <K>
+ * @param <J>
+ */
+public class JaqamanSpatialLinkingCostMatrixCreator< K extends RealLocalizable & Comparable< K >, J extends RealLocalizable & Comparable< J > > extends JaqamanLinkingCostMatrixCreator< K, J >
+{
+
+	public JaqamanSpatialLinkingCostMatrixCreator( final Iterable< K > sources, final Iterable< J > targets, final CostFunction< K, J > costFunction, final double costThreshold, final double alternativeCostFactor, final double percentile )
+	{
+		super( sources, targets, costFunction, costThreshold, alternativeCostFactor, percentile );
+	}
+
+	@Override
+	protected void collectCandidates( final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
+		final List< J > targetList = new ArrayList< J >();
+		for ( final J target : targets )
+		{
+			targetList.add( target );
+		}
+		final KDTree< J > tree = new KDTree< J >( targetList, targetList );
+		final RadiusNeighborSearchOnKDTree< J > search = new RadiusNeighborSearchOnKDTree< J >( tree );
+
+		/*
+		 * Pad the radius by one ulp so that rounding errors in the square root
+		 * cannot exclude a pair whose cost is just below the threshold.
+		 */
+		final double radius = Math.nextUp( Math.sqrt( costThreshold ) );
+
+		for ( final K source : sources )
+		{
+			search.search( source, radius, false );
+			final int nNeighbors = search.numNeighbors();
+			for ( int i = 0; i < nNeighbors; i++ )
+			{
+				final J target = search.getSampler( i ).get();
+				final double cost = costFunction.linkingCost( source, target );
+				if ( cost < costThreshold )
+				{
+					accSources.add( source );
+					accTargets.add( target );
+					costs.add( cost );
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+/**
+ * Assembles a {@link SparseCostMatrix} from a list of non-infinite costs given
+ * in any order, as triplets of row index, column index and cost.
+ * <p>
+ * The triplets are arranged row by row, and by increasing column index within
+ * each row, with two counting sorts: first on the column indices, then a
+ * stable one on the row indices. The memory used is a few <code>int</code>
+ * arrays of the number of rows, columns and costs. No object is created per
+ * cost, which matters for the very large gap-closing matrices.
+ */
+public class SparseCostMatrixBuilder
+{
+
+	private SparseCostMatrixBuilder()
+	{}
+
+	/**
+	 * Builds a sparse cost matrix from the specified triplets. The first
+	 * <code>costs.size</code> elements of the row and column index arrays are
+	 * used.
+	 *
+	 * @param rows
+	 *            the row index of each cost, from <code>0</code> to
+	 *            <code>nRows - 1</code>.
+	 * @param cols
+	 *            the column index of each cost, from <code>0</code> to
+	 *            <code>nCols - 1</code>.
+	 * @param costs
+	 *            the costs.
+	 * @param nRows
+	 *            the number of rows of the matrix. Each row must have at least
+	 *            one cost.
+	 * @param nCols
+	 *            the number of columns of the matrix. Each column must have at
+	 *            least one cost.
+	 * @return a new sparse cost matrix.
+	 * @throws IllegalArgumentException
+	 *             if a row and column pair appears twice, or if the resulting
+	 *             matrix is invalid.
+	 */
+	public static SparseCostMatrix build( final int[] rows, final int[] cols, final ResizableDoubleArray costs, final int nRows, final int nCols )
+	{
+		final int n = costs.size;
+		if ( rows.length < n || cols.length < n ) { throw new IllegalArgumentException( "Row and column index arrays must have at least " + n + " elements. Found " + rows.length + " and " + cols.length + "." ); }
+
+		final int[] byColumn = new int[ n ];
+		countingSort( cols, null, n, nCols, byColumn );
+		final int[] order = new int[ n ];
+		final int[] number = countingSort( rows, byColumn, n, nRows, order );
+
+		final int[] kk = new int[ n ];
+		final double[] cc = new double[ n ];
+		for ( int k = 0; k < n; k++ )
+		{
+			final int index = order[ k ];
+			kk[ k ] = cols[ index ];
+			cc[ k ] = costs.data[ index ];
+			if ( k > 0 && kk[ k ] == kk[ k - 1 ] && rows[ index ] == rows[ order[ k - 1 ] ] ) { throw new IllegalArgumentException( "Found duplicate assignment for row " + rows[ index ] + " and column " + kk[ k ] + "." ); }
+		}
+
+		return new SparseCostMatrix( cc, kk, number, nCols );
+	}
+
+	/**
+	 * Stable counting sort of indices by key.
+	 *
+	 * @param keys
+	 *            the key of each index.
+	 * @param input
+	 *            the indices to sort, or <code>null</code> to sort
+	 *            <code>0</code> to <code>n - 1</code>.
+	 * @param n
+	 *            the number of indices to sort.
+	 * @param nKeys
+	 *            the number of distinct keys.
+	 * @param output
+	 *            the array that receives the sorted indices.
+	 * @return the number of indices with each key.
+	 */
+	private static int[] countingSort( final int[] keys, final int[] input, final int n, final int nKeys, final int[] output )
+	{
+		final int[] count = new int[ nKeys ];
+		for ( int i = 0; i < n; i++ )
+		{
+			count[ keys[ i ] ]++;
+		}
+
+		final int[] next = new int[ nKeys ];
+		for ( int key = 1; key < nKeys; key++ )
+		{
+			next[ key ] = next[ key - 1 ] + count[ key - 1 ];
+		}
+
+		for ( int k = 0; k < n; k++ )
+		{
+			final int index = null == input ? k : input[ k ];
+			output[ next[ keys[ index ] ]++ ] = index;
+		}
+		return count;
+	}
+}
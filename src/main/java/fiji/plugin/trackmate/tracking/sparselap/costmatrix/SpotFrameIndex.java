@@ -0,0 +1,143 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import fiji.plugin.trackmate.Spot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.KDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+
+/**
+ * A spatio-temporal index over a collection of spots, used to retrieve linking
+ * candidates without iterating over all the spots.
+ * <p>
+ * Spots are bucketed by their {@link Spot#FRAME} feature. If spatial search is
+ * enabled, the spots of each frame are also stored in a {@link KDTree}, so that
+ * the spots of a frame closer than a given radius to a reference can be
+ * retrieved without visiting the others.
+ * <p>
+ * Once built, instances can be queried concurrently by several threads.
+ */
+public class SpotFrameIndex
+{
+
+	private final Map< Integer, List< Spot > > spotsPerFrame;
+
+	private final Map< Integer, KDTree< Spot > > treesPerFrame;
+
+	private final int maxFrame;
+
+	/**
+	 * Creates a new index for the specified spots.
+	 *
+	 * @param spots
+	 *            the spots to index.
+	 * @param spatial
+	 *            if <code>true</code>, a {@link KDTree} is built for each
+	 *            frame, and {@link #search(Spot, int, double)} will only return
+	 *            spots within the search radius. If <code>false</code>, it
+	 *            will return all the spots of the frame.
+	 */
+	public SpotFrameIndex( final Iterable< Spot > spots, final boolean spatial )
+	{
+		this.spotsPerFrame = new HashMap< Integer, List< Spot > >();
+		int max = -1;
+		for ( final Spot spot : spots )
+		{
+			final Integer frame = Integer.valueOf( spot.getFeature( Spot.FRAME ).intValue() );
+			max = Math.max( max, frame.intValue() );
+			List< Spot > list = spotsPerFrame.get( frame );
+			if ( null == list )
+			{
+				list = new ArrayList< Spot >();
+				spotsPerFrame.put( frame, list );
+			}
+			list.add( spot );
+		}
+		this.maxFrame = max;
+
+		if ( spatial )
+		{
+			this.treesPerFrame = new HashMap< Integer, KDTree< Spot > >( spotsPerFrame.size() );
+			for ( final Integer frame : spotsPerFrame.keySet() )
+			{
+				final List< Spot > list = spotsPerFrame.get( frame );
+				treesPerFrame.put( frame, new KDTree< Spot >( list, list ) );
+			}
+		}
+		else
+		{
+			this.treesPerFrame = null;
+		}
+	}
+
+	/**
+	 * Returns the largest frame of the indexed spots.
+	 *
+	 * @return the largest frame, or <code>-1</code> if this index is empty.
+	 */
+	public int getMaxFrame()
+	{
+		return maxFrame;
+	}
+
+	/**
+	 * Returns all the spots of the specified frame.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @return a list of spots, possibly empty.
+	 */
+	public List< Spot > getSpots( final int frame )
+	{
+		final List< Spot > list = spotsPerFrame.get( Integer.valueOf( frame ) );
+		if ( null == list )
+		{
+			return Collections.emptyList();
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the candidate spots of the specified frame for the specified
+	 * reference spot. If this index was built with spatial search, only the
+	 * spots within the specified radius are returned. Otherwise all the spots
+	 * of the frame are returned.
+	 *
+	 * @param reference
+	 *            the spot to search around.
+	 * @param frame
+	 *            the frame to search in.
+	 * @param radius
+	 *            the search radius.
+	 * @return a list of spots, possibly empty.
+	 */
+	public List< Spot > search( final Spot reference, final int frame, final double radius )
+	{
+		if ( null == treesPerFrame )
+		{
+			return getSpots( frame );
+		}
+
+		final KDTree< Spot > tree = treesPerFrame.get( Integer.valueOf( frame ) );
+		if ( null == tree )
+		{
+			return Collections.emptyList();
+		}
+
+		// Search instances are not thread-safe, so we create one per query.
+		final RadiusNeighborSearchOnKDTree< Spot > search = new RadiusNeighborSearchOnKDTree< Spot >( tree );
+		search.search( reference, radius, false );
+		final int nNeighbors = search.numNeighbors();
+		final List< Spot > neighbors = new ArrayList< Spot >( nNeighbors );
+		for ( int i = 0; i < nNeighbors; i++ )
+		{
+			neighbors.add( search.getSampler( i ).get() );
+		}
+		return neighbors;
+	}
+}
@@ -0,0 +1,469 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
+
+/**
+ * Solves linear assignment problems with the auction algorithm of Bertsekas,
+ * with epsilon scaling, tailored for sparse cost matrices.
+ * <p>
+ * Each unassigned row bids for its cheapest column, raising the price of the
+ * column by the difference with its second cheapest option plus
+ * <code>epsilon</code>. Rows outbid lose their column and bid again. The
+ * auction is run several times with a decreasing <code>epsilon</code>, each
+ * run starting from the prices of the previous one. With the final
+ * <code>epsilon</code> smaller than <code>1 / n</code>, the assignment found
+ * is optimal when all the costs are integers. Otherwise its total cost is
+ * within <code>n × epsilon</code> of the optimum.
+ * <p>
+ * The bids of a round are computed independently of each other (Jacobi
+ * auction), which allows computing them in parallel on the executor service
+ * set with {@link #setExecutorService(ExecutorService)}, when many rows are
+ * unassigned.
+ * <p>
+ * The final column prices are the dual variables of the problem. When
+ * consecutive problems have a similar structure, as when linking consecutive
+ * frame pairs, the prices of one problem can be given to the solver of the
+ * next as a warm start. The auction then starts with a smaller
+ * <code>epsilon</code>, and most rows get their final column at the first
+ * bid.
+ * <p>
+ * The cost matrix must be square and admit a complete assignment, which is
+ * the case for the cost matrices built by the {@link JaqamanLinker}.
+ *
+ * @see <a href="http://web.mit.edu/dimitrib/www/Auction_Survey.pdf">Bertsekas.
+ *      Auction algorithms for network flow problems: A tutorial introduction.
+ *      Computational Optimization and Applications (1992) vol. 1 pp. 7-66</a>
+ */
+public class AuctionLAP extends MultiThreadedBenchmarkAlgorithm implements LAPSolver, ExecutorServiceAware
+{
+
+	private static final String BASE_ERROR_MESSAGE = "[AuctionLAP] ";
+
+	/**
+	 * A factory that creates single-threaded {@link AuctionLAP} solvers
+	 * without warm start, to use when problems are already solved in
+	 * parallel. The solvers are exact for integer costs only.
+	 *
+	 * @see #factory(double)
+	 */
+	public static final LAPSolverFactory FACTORY = new LAPSolverFactory()
+	{
+		@Override
+		public LAPSolver create( final SparseCostMatrix cm )
+		{
+			final AuctionLAP solver = new AuctionLAP( cm );
+			solver.setNumThreads( 1 );
+			return solver;
+		}
+	};
+
+	/**
+	 * Returns a factory that creates single-threaded {@link AuctionLAP}
+	 * solvers for costs that are not integers. The final
+	 * <code>epsilon</code> of each solver is set from the cost range of its
+	 * matrix, so that the total cost of the assignment found is within
+	 * <code>relativeTolerance × (max cost - min cost)</code> of the optimum.
+	 *
+	 * @param relativeTolerance
+	 *            the tolerance on the total cost, relative to the cost range.
+	 * @return a new factory.
+	 */
+	public static LAPSolverFactory factory( final double relativeTolerance )
+	{
+		return new LAPSolverFactory()
+		{
+			@Override
+			public LAPSolver create( final SparseCostMatrix cm )
+			{
+				double minCost = Double.POSITIVE_INFINITY;
+				double maxCost = Double.NEGATIVE_INFINITY;
+				for ( int k = 0; k < cm.cardinality; k++ )
+				{
+					minCost = Math.min( minCost, cm.cc[ k ] );
+					maxCost = Math.max( maxCost, cm.cc[ k ] );
+				}
+				final double range = maxCost > minCost ? maxCost - minCost : 1d;
+				// The error is at most n x epsilon.
+				final AuctionLAP solver = new AuctionLAP( cm, null, relativeTolerance * range / ( cm.nRows + 1 ) );
+				solver.setNumThreads( 1 );
+				return solver;
+			}
+		};
+	}
+
+	/** The factor by which epsilon is divided between two auctions. */
+	private static final double EPSILON_SCALING = 5;
+
+	/** Below this number of bidding rows, bids are computed sequentially. */
+	private static final int MIN_ROWS_PER_THREAD = 512;
+
+	private final SparseCostMatrix cm;
+
+	private final double[] initialPrices;
+
+	private final double finalEpsilon;
+
+	private int[] output;
+
+	private double[] prices;
+
+	private ExecutorService executorService;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Instantiates a new auction solver for the specified cost matrix, with a
+	 * final <code>epsilon</code> that yields the optimal assignment for
+	 * integer costs.
+	 *
+	 * @param cm
+	 *            the cost matrix of the linear assignment problem to solve.
+	 */
+	public AuctionLAP( final SparseCostMatrix cm )
+	{
+		this( cm, null );
+	}
+
+	/**
+	 * Instantiates a new auction solver for the specified cost matrix, warm
+	 * started with the specified column prices.
+	 *
+	 * @param cm
+	 *            the cost matrix of the linear assignment problem to solve.
+	 * @param initialPrices
+	 *            the initial price of each column, for instance the prices
+	 *            returned by {@link #getPrices()} for a similar problem. If
+	 *            <code>null</code>, all prices start at 0.
+	 */
+	public AuctionLAP( final SparseCostMatrix cm, final double[] initialPrices )
+	{
+		this( cm, initialPrices, 1d / ( cm.nRows + 1 ) );
+	}
+
+	/**
+	 * Instantiates a new auction solver for the specified cost matrix.
+	 *
+	 * @param cm
+	 *            the cost matrix of the linear assignment problem to solve.
+	 * @param initialPrices
+	 *            the initial price of each column, or <code>null</code> to
+	 *            start with all prices at 0.
+	 * @param finalEpsilon
+	 *            the <code>epsilon</code> of the last auction. The total cost
+	 *            of the assignment found is within
+	 *            <code>n × finalEpsilon</code> of the optimum.
+	 */
+	public AuctionLAP( final SparseCostMatrix cm, final double[] initialPrices, final double finalEpsilon )
+	{
+		this.cm = cm;
+		this.initialPrices = initialPrices;
+		this.finalEpsilon = finalEpsilon;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Sets the executor service the bids are computed on, by at most
+	 * {@link #getNumThreads()} workers. If <code>null</code>, the bids are
+	 * computed sequentially.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( cm.nRows != cm.nCols )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "This solver requires a square cost matrix. Found " + cm.nRows + " rows and " + cm.nCols + " columns.";
+			return false;
+		}
+		if ( null != initialPrices && initialPrices.length != cm.nCols )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "There must be one initial price per column. Found " + initialPrices.length + " prices for " + cm.nCols + " columns.";
+			return false;
+		}
+		if ( finalEpsilon <= 0 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The final epsilon must be strictly positive. Was: " + finalEpsilon + ".";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+
+		final int n = cm.nRows;
+		final double[] p = null == initialPrices ? new double[ n ] : initialPrices.clone();
+		final int[] x = new int[ n ];
+		final int[] y = new int[ n ];
+
+		double minCost = Double.POSITIVE_INFINITY;
+		double maxCost = Double.NEGATIVE_INFINITY;
+		for ( int k = 0; k < cm.cardinality; k++ )
+		{
+			minCost = Math.min( minCost, cm.cc[ k ] );
+			maxCost = Math.max( maxCost, cm.cc[ k ] );
+		}
+		final double range = Math.max( maxCost - minCost, finalEpsilon );
+
+		/*
+		 * Epsilon scaling. Warm-started prices are supposed to be close to the
+		 * final ones, so we skip the coarse auctions.
+		 */
+
+		double epsilon = Math.max( finalEpsilon, range / ( null == initialPrices ? EPSILON_SCALING : n ) );
+
+		final ExecutorService executor = numThreads > 1 && n >= 2 * MIN_ROWS_PER_THREAD ? executorService : null;
+		while ( true )
+		{
+			if ( !auction( x, y, p, epsilon, range, executor ) ) { return false; }
+			if ( epsilon <= finalEpsilon )
+			{
+				break;
+			}
+			epsilon = Math.max( finalEpsilon, epsilon / EPSILON_SCALING );
+		}
+
+		this.output = x;
+		this.prices = p;
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Runs one auction for the specified epsilon, starting from an empty
+	 * assignment and the specified prices.
+	 *
+	 * @return <code>false</code> if the problem has no complete assignment.
+	 */
+	private boolean auction( final int[] x, final int[] y, final double[] p, final double epsilon, final double range, final ExecutorService executor )
+	{
+		final int n = cm.nRows;
+		Arrays.fill( x, -1 );
+		Arrays.fill( y, -1 );
+
+		/*
+		 * In a feasible problem, the price of a column cannot rise by more
+		 * than the initial price spread plus n times the cost range during an
+		 * auction. We use twice this bound to detect infeasible problems.
+		 */
+
+		double minPrice = Double.POSITIVE_INFINITY;
+		double maxPrice = Double.NEGATIVE_INFINITY;
+		for ( int j = 0; j < n; j++ )
+		{
+			minPrice = Math.min( minPrice, p[ j ] );
+			maxPrice = Math.max( maxPrice, p[ j ] );
+		}
+		final double priceBound = maxPrice + 2 * ( ( maxPrice - minPrice ) + n * ( range + epsilon ) );
+
+		// The rows bidding in the current round.
+		int[] bidders = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			bidders[ i ] = i;
+		}
+		int nBidders = n;
+		int[] nextBidders = new int[ n ];
+
+		final int[] bidColumn = new int[ n ];
+		final double[] bidPrice = new double[ n ];
+
+		// The best bid received by each column in the current round.
+		final int[] bestBidder = new int[ n ];
+		final double[] bestPrice = new double[ n ];
+		final int[] bidRound = new int[ n ];
+		Arrays.fill( bidRound, -1 );
+
+		int round = 0;
+		while ( nBidders > 0 )
+		{
+			/*
+			 * Bidding phase.
+			 */
+
+			if ( null != executor && nBidders >= 2 * MIN_ROWS_PER_THREAD )
+			{
+				if ( !bidInParallel( bidders, nBidders, p, epsilon, range, bidColumn, bidPrice, executor ) ) { return false; }
+			}
+			else
+			{
+				bid( bidders, 0, nBidders, p, epsilon, range, bidColumn, bidPrice );
+			}
+
+			/*
+			 * Assignment phase: each column goes to its highest bidder.
+			 */
+
+			for ( int b = 0; b < nBidders; b++ )
+			{
+				final int i = bidders[ b ];
+				final int j = bidColumn[ i ];
+				if ( j < 0 )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + "The row " + i + " has no possible assignment.";
+					return false;
+				}
+				if ( bidRound[ j ] != round || bidPrice[ i ] > bestPrice[ j ] )
+				{
+					bidRound[ j ] = round;
+					bestBidder[ j ] = i;
+					bestPrice[ j ] = bidPrice[ i ];
+				}
+			}
+
+			int nNext = 0;
+			for ( int b = 0; b < nBidders; b++ )
+			{
+				final int i = bidders[ b ];
+				final int j = bidColumn[ i ];
+				if ( bestBidder[ j ] != i )
+				{
+					// Outbid.
+					nextBidders[ nNext++ ] = i;
+					continue;
+				}
+
+				if ( bestPrice[ j ] > priceBound )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + "The cost matrix does not admit a complete assignment.";
+					return false;
+				}
+
+				final int previousOwner = y[ j ];
+				if ( previousOwner >= 0 )
+				{
+					x[ previousOwner ] = -1;
+					nextBidders[ nNext++ ] = previousOwner;
+				}
+				x[ i ] = j;
+				y[ j ] = i;
+				p[ j ] = bestPrice[ j ];
+			}
+
+			final int[] tmp = bidders;
+			bidders = nextBidders;
+			nextBidders = tmp;
+			nBidders = nNext;
+			round++;
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the bids of the specified rows. The column each row bids for
+	 * and the price it offers are stored in the specified arrays, at the row
+	 * index.
+	 */
+	private void bid( final int[] bidders, final int from, final int to, final double[] p, final double epsilon, final double range, final int[] bidColumn, final double[] bidPrice )
+	{
+		for ( int b = from; b < to; b++ )
+		{
+			final int i = bidders[ b ];
+			double best = Double.POSITIVE_INFINITY;
+			double second = Double.POSITIVE_INFINITY;
+			int bestJ = -1;
+			for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
+			{
+				final int j = cm.kk[ k ];
+				final double v = cm.cc[ k ] + p[ j ];
+				if ( v < best )
+				{
+					second = best;
+					best = v;
+					bestJ = j;
+				}
+				else if ( v < second )
+				{
+					second = v;
+				}
+			}
+			if ( bestJ < 0 )
+			{
+				bidColumn[ i ] = -1;
+				continue;
+			}
+			if ( second == Double.POSITIVE_INFINITY )
+			{
+				// Only one possible column: any raise keeps epsilon-optimality.
+				second = best + range;
+			}
+			bidColumn[ i ] = bestJ;
+			// Always raise the price, even if epsilon is below its precision.
+			bidPrice[ i ] = Math.max( p[ bestJ ] + ( second - best ) + epsilon, Math.nextUp( p[ bestJ ] ) );
+		}
+	}
+
+	private boolean bidInParallel( final int[] bidders, final int nBidders, final double[] p, final double epsilon, final double range, final int[] bidColumn, final double[] bidPrice, final ExecutorService executor )
+	{
+		final int nTasks = Math.min( numThreads, nBidders / MIN_ROWS_PER_THREAD );
+		final Runnable[] workers = new Runnable[ nTasks ];
+		for ( int t = 0; t < nTasks; t++ )
+		{
+			final int from = ( int ) ( ( long ) nBidders * t / nTasks );
+			final int to = ( int ) ( ( long ) nBidders * ( t + 1 ) / nTasks );
+			workers[ t ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					bid( bidders, from, to, p, epsilon, range, bidColumn, bidPrice );
+				}
+			};
+		}
+
+		try
+		{
+			TMExecutors.startAndJoin( executor, workers );
+		}
+		catch ( final RuntimeException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the row assignments. The row <code>i</code> is associated to the
+	 * column <code>x[i]</code> in the cost matrix.
+	 *
+	 * @return the row assignments as an <code>int[]</code> array. This array
+	 *         is re-instantiated upon calling {@link #process()}.
+	 */
+	@Override
+	public int[] getResult()
+	{
+		return output;
+	}
+
+	/**
+	 * Returns the final column prices, that can be used to warm start the
+	 * solver of a similar problem.
+	 *
+	 * @return the price of each column, or <code>null</code> if the problem
+	 *         has not been solved yet.
+	 */
+	public double[] getPrices()
+	{
+		return prices;
+	}
+}
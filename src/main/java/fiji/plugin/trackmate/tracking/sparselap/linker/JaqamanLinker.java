@@ -3,21 +3,31 @@ package fiji.plugin.trackmate.tracking.sparselap.linker;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.CostMatrixCreator;
+import fiji.plugin.trackmate.util.ExecutorServiceAware;
+import fiji.plugin.trackmate.util.TMExecutors;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import net.imglib2.algorithm.BenchmarkAlgorithm;
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.util.Util;
 
 /**
  * Links two lists of objects based on the LAP framework described in Jaqaman
  * <i>et al.</i>, Nature Methods, <b>2008</b>.
+ * <p>
+ * The cost matrix is split in independent blocks, corresponding to groups of
+ * sources and targets that have no possible link between groups. Each block
+ * is solved separately, possibly in parallel, and the assignments are merged.
  * 
  * @author Jean-Yves Tinevez - 2014
  * 
@@ -26,7 +36,7 @@ import net.imglib2.util.Util;
  * @param <J>
  *            the type of the target objects to link.
  */
-public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >
+public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends MultiThreadedBenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >, ExecutorServiceAware
 {
 	private Map< K, J > assignments;
 
@@ -36,6 +46,37 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 
 	private final Logger logger;
 
+	/**
+	 * The number of non-infinite costs from which a problem is solved with
+	 * the {@link AuctionLAP} instead of the {@link LAPJV} by the
+	 * {@link #AUCTION_SOLVER_FACTORY}.
+	 */
+	public static final int AUCTION_MIN_CARDINALITY = 1 << 18;
+
+	/**
+	 * The tolerance on the total cost of the assignments found by the
+	 * {@link AuctionLAP} of the {@link #AUCTION_SOLVER_FACTORY}, relative to
+	 * the cost range.
+	 */
+	public static final double AUCTION_RELATIVE_TOLERANCE = 1e-6;
+
+	/**
+	 * The default solver factory, that solves all problems exactly with the
+	 * {@link LAPJV}.
+	 */
+	public static final LAPSolverFactory DEFAULT_SOLVER_FACTORY = LAPJV.FACTORY;
+
+	/**
+	 * A solver factory that uses the {@link LAPJV} for small problems, and
+	 * the {@link AuctionLAP} for large ones. The assignments found for large
+	 * problems are within {@link #AUCTION_RELATIVE_TOLERANCE} of the optimum.
+	 */
+	public static final LAPSolverFactory AUCTION_SOLVER_FACTORY = new SizeDependentLAPSolverFactory( AUCTION_MIN_CARDINALITY, LAPJV.FACTORY, AuctionLAP.factory( AUCTION_RELATIVE_TOLERANCE ) );
+
+	private LAPSolverFactory solverFactory = DEFAULT_SOLVER_FACTORY;
+
+	private ExecutorService executorService;
+
 	/**
 	 * Creates a new linker for the two specified object lists.
 	 * 
@@ -64,6 +105,29 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		this( costMatrixCreator, Logger.VOID_LOGGER );
 	}
 
+	/**
+	 * Sets the factory of the solvers used to solve the linear assignment
+	 * problems. By default, the {@link #DEFAULT_SOLVER_FACTORY} is used.
+	 * 
+	 * @param solverFactory
+	 *            the solver factory.
+	 */
+	public void setSolverFactory( final LAPSolverFactory solverFactory )
+	{
+		this.solverFactory = solverFactory;
+	}
+
+	/**
+	 * Sets the executor service independent blocks are solved on, by
+	 * {@link #getNumThreads()} workers. If <code>null</code>, the workers run
+	 * on new threads.
+	 */
+	@Override
+	public void setExecutorService( final ExecutorService executorService )
+	{
+		this.executorService = executorService;
+	}
+
 	/**
 	 * Returns the resulting assignments from this algorithm.
 	 * <p>
@@ -130,11 +194,163 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		}
 
 		/*
-		 * Complement the cost matrix with alternative no linking cost matrix.
+		 * Alternative no linking costs.
 		 */
 
-		logger.setStatus( "Completing the cost matrix..." );
+		final int nCols = tl.getNCols();
+		final int nRows = tl.getNRows();
+
+		final double[] altRows = new double[ nRows ];
+		for ( int i = 0; i < nRows; i++ )
+		{
+			altRows[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
+		}
+		final double[] altCols = new double[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			altCols[ j ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( j ) );
+		}
+
+		/*
+		 * Alt. cost for the bottom right quadrant is the overall min of
+		 * alternative costs. This deviate or extend a bit the u-track code.
+		 */
+		final double minCost = Math.min( Util.min( altCols ), Util.min( altRows ) );
+
+		/*
+		 * Split the problem in independent blocks.
+		 * 
+		 * The full cost matrix has a link between two blocks only if the
+		 * top-left matrix has one, so the connected components of the top-left
+		 * matrix yield independent sub-problems, that can be solved separately
+		 * with the same optimal total cost.
+		 */
+
+		logger.setStatus( "Splitting the cost matrix in independent blocks..." );
+		final List< SparseCostMatrix > blocks = new ArrayList< SparseCostMatrix >();
+		final List< int[] > blockRows = new ArrayList< int[] >();
+		final List< int[] > blockCols = new ArrayList< int[] >();
+		splitInBlocks( tl, blocks, blockRows, blockCols );
+		logger.setProgress( 0.6 );
+
+		/*
+		 * Solve each block.
+		 */
+
+		logger.setStatus( "Solving the cost matrix..." );
+		final int[][] results = new int[ blocks.size() ][];
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final AtomicBoolean ok = new AtomicBoolean( true );
+		final Runnable[] workers = new Runnable[ Math.max( 1, Math.min( numThreads, blocks.size() ) ) ];
+		for ( int iworker = 0; iworker < workers.length; iworker++ )
+		{
+			workers[ iworker ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for ( int b = ai.getAndIncrement(); b < results.length; b = ai.getAndIncrement() )
+					{
+						if ( !ok.get() )
+						{
+							break;
+						}
+
+						final int[] rows = blockRows.get( b );
+						final int[] cols = blockCols.get( b );
+						final double[] blockAltRows = new double[ rows.length ];
+						for ( int i = 0; i < rows.length; i++ )
+						{
+							blockAltRows[ i ] = altRows[ rows[ i ] ];
+						}
+						final double[] blockAltCols = new double[ cols.length ];
+						for ( int j = 0; j < cols.length; j++ )
+						{
+							blockAltCols[ j ] = altCols[ cols[ j ] ];
+						}
+						try
+						{
+							results[ b ] = solve( blocks.get( b ), blockAltRows, blockAltCols, minCost, solverFactory );
+						}
+						catch ( final IllegalStateException e )
+						{
+							errorMessage = e.getMessage();
+							ok.set( false );
+							return;
+						}
+					}
+				}
+			};
+		}
+
+		if ( workers.length == 1 )
+		{
+			workers[ 0 ].run();
+		}
+		else
+		{
+			try
+			{
+				TMExecutors.startAndJoin( executorService, workers );
+			}
+			catch ( final RuntimeException e )
+			{
+				errorMessage = e.getMessage();
+				return false;
+			}
+		}
+		if ( !ok.get() )
+		{
+			return false;
+		}
+		logger.setProgress( 0.9 );
+
+		/*
+		 * Merge block assignments.
+		 */
+
+		assignments = new HashMap< K, J >();
+		costs = new HashMap< K, Double >();
+		for ( int b = 0; b < blocks.size(); b++ )
+		{
+			final int[] assgn = results[ b ];
+			final SparseCostMatrix block = blocks.get( b );
+			final int[] rows = blockRows.get( b );
+			final int[] cols = blockCols.get( b );
+			for ( int i = 0; i < rows.length; i++ )
+			{
+				final int j = assgn[ i ];
+				if ( j < cols.length )
+				{
+					final K source = matrixRows.get( rows[ i ] );
+					final J target = matrixCols.get( cols[ j ] );
+					assignments.put( source, target );
+
+					final double cost = block.get( i, j, Double.POSITIVE_INFINITY );
+					costs.put( source, Double.valueOf( cost ) );
+				}
+			}
+		}
 
+		logger.setProgress( 1 );
+		logger.setStatus( "" );
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+
+		return true;
+	}
+
+	/**
+	 * Completes the specified top-left cost matrix with the alternative no
+	 * linking costs, and solves the resulting LAP.
+	 * 
+	 * @return the assignment of the full cost matrix, as returned by
+	 *         {@link LAPSolver#getResult()}.
+	 * @throws IllegalStateException
+	 *             if the LAP cannot be solved.
+	 */
+	private static final int[] solve( final SparseCostMatrix tl, final double[] altRows, final double[] altCols, final double minCost, final LAPSolverFactory solverFactory )
+	{
 		final int nCols = tl.getNCols();
 		final int nRows = tl.getNRows();
 
@@ -142,38 +358,30 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		 * Top right
 		 */
 
-		final double[] cctr = new double[ nRows ];
 		final int[] kktr = new int[ nRows ];
 		for ( int i = 0; i < nRows; i++ )
 		{
 			kktr[ i ] = i;
-			cctr[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
 		}
 		final int[] numbertr = new int[ nRows ];
 		Arrays.fill( numbertr, 1 );
-		final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
+		final SparseCostMatrix tr = new SparseCostMatrix( altRows, kktr, numbertr, nRows );
 
 		/*
 		 * Bottom left
 		 */
-		final double[] ccbl = new double[ nCols ];
 		final int[] kkbl = new int[ nCols ];
 		for ( int i = 0; i < kkbl.length; i++ )
 		{
 			kkbl[ i ] = i;
-			ccbl[ i ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( i ) );
 		}
 		final int[] numberbl = new int[ nCols ];
 		Arrays.fill( numberbl, 1 );
-		final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
+		final SparseCostMatrix bl = new SparseCostMatrix( altCols, kkbl, numberbl, nCols );
 
 		/*
 		 * Bottom right.
-		 * 
-		 * Alt. cost is the overall min of alternative costs. This deviate or
-		 * extend a bit the u-track code.
 		 */
-		final double minCost = Math.min( Util.min( ccbl ), Util.min( cctr ) );
 		final SparseCostMatrix br = tl.transpose();
 		br.fillWith( minCost );
 
@@ -181,42 +389,169 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		 * Stitch them together
 		 */
 		final SparseCostMatrix full = ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
-		logger.setProgress( 0.6 );
 
 		/*
 		 * Solve the full cost matrix.
 		 */
-		logger.setStatus( "Solving the cost matrix..." );
-		final LAPJV solver = new LAPJV( full );
+		final LAPSolver solver = solverFactory.create( full );
 		if ( !solver.checkInput() || !solver.process() )
 		{
-			errorMessage = solver.getErrorMessage();
-			return false;
+			throw new IllegalStateException( solver.getErrorMessage() );
 		}
+		return solver.getResult();
+	}
 
-		final int[] assgn = solver.getResult();
-		assignments = new HashMap< K, J >();
-		costs = new HashMap< K, Double >();
-		for ( int i = 0; i < assgn.length; i++ )
+	/**
+	 * Splits the specified cost matrix in blocks that correspond to the
+	 * connected components of the bipartite graph made of rows and columns,
+	 * linked by the non-infinite costs.
+	 * 
+	 * @param cm
+	 *            the cost matrix to split.
+	 * @param blocks
+	 *            the list in which to store the cost matrix of each block.
+	 * @param blockRows
+	 *            the list in which to store, for each block, the indices of
+	 *            the block rows in the cost matrix, in ascending order.
+	 * @param blockCols
+	 *            the list in which to store, for each block, the indices of
+	 *            the block columns in the cost matrix, in ascending order.
+	 */
+	private static final void splitInBlocks( final SparseCostMatrix cm, final List< SparseCostMatrix > blocks, final List< int[] > blockRows, final List< int[] > blockCols )
+	{
+		/*
+		 * Union-find over rows (indices 0 to nRows-1) and columns (indices
+		 * nRows to nRows+nCols-1).
+		 */
+
+		final int[] parent = new int[ cm.nRows + cm.nCols ];
+		for ( int n = 0; n < parent.length; n++ )
+		{
+			parent[ n ] = n;
+		}
+		for ( int i = 0; i < cm.nRows; i++ )
 		{
-			final int j = assgn[ i ];
-			if ( i < matrixRows.size() && j < matrixCols.size() )
+			for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
 			{
-				final K source = matrixRows.get( i );
-				final J target = matrixCols.get( j );
-				assignments.put( source, target );
+				final int ri = find( parent, i );
+				final int rj = find( parent, cm.nRows + cm.kk[ k ] );
+				if ( ri != rj )
+				{
+					parent[ ri ] = rj;
+				}
+			}
+		}
 
-				final double cost = full.get( i, j, Double.POSITIVE_INFINITY );
-				costs.put( source, Double.valueOf( cost ) );
+		/*
+		 * Label components, and count their rows and columns.
+		 */
+
+		final int[] label = new int[ parent.length ];
+		Arrays.fill( label, -1 );
+		int nBlocks = 0;
+		final int[] componentOf = new int[ parent.length ];
+		for ( int n = 0; n < parent.length; n++ )
+		{
+			final int root = find( parent, n );
+			if ( label[ root ] < 0 )
+			{
+				label[ root ] = nBlocks++;
 			}
+			componentOf[ n ] = label[ root ];
 		}
 
-		logger.setProgress( 1 );
-		logger.setStatus( "" );
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
+		if ( nBlocks == 1 )
+		{
+			// Nothing to split.
+			final int[] rows = new int[ cm.nRows ];
+			for ( int i = 0; i < rows.length; i++ )
+			{
+				rows[ i ] = i;
+			}
+			final int[] cols = new int[ cm.nCols ];
+			for ( int j = 0; j < cols.length; j++ )
+			{
+				cols[ j ] = j;
+			}
+			blocks.add( cm );
+			blockRows.add( rows );
+			blockCols.add( cols );
+			return;
+		}
 
-		return true;
+		final int[] nBlockRows = new int[ nBlocks ];
+		final int[] nBlockCols = new int[ nBlocks ];
+		final int[] nBlockCosts = new int[ nBlocks ];
+		// Index of each row and column in its block.
+		final int[] localIndex = new int[ parent.length ];
+		for ( int i = 0; i < cm.nRows; i++ )
+		{
+			final int b = componentOf[ i ];
+			localIndex[ i ] = nBlockRows[ b ]++;
+			nBlockCosts[ b ] += cm.number[ i ];
+		}
+		for ( int j = 0; j < cm.nCols; j++ )
+		{
+			final int b = componentOf[ cm.nRows + j ];
+			localIndex[ cm.nRows + j ] = nBlockCols[ b ]++;
+		}
+
+		/*
+		 * Fill block arrays. Iterating in ascending order keeps the column
+		 * indices sorted within each row.
+		 */
+
+		final int[][] rows = new int[ nBlocks ][];
+		final int[][] cols = new int[ nBlocks ][];
+		final int[][] kks = new int[ nBlocks ][];
+		final double[][] ccs = new double[ nBlocks ][];
+		final int[][] numbers = new int[ nBlocks ][];
+		for ( int b = 0; b < nBlocks; b++ )
+		{
+			rows[ b ] = new int[ nBlockRows[ b ] ];
+			cols[ b ] = new int[ nBlockCols[ b ] ];
+			kks[ b ] = new int[ nBlockCosts[ b ] ];
+			ccs[ b ] = new double[ nBlockCosts[ b ] ];
+			numbers[ b ] = new int[ nBlockRows[ b ] ];
+		}
+
+		for ( int j = 0; j < cm.nCols; j++ )
+		{
+			cols[ componentOf[ cm.nRows + j ] ][ localIndex[ cm.nRows + j ] ] = j;
+		}
+
+		final int[] fill = new int[ nBlocks ];
+		for ( int i = 0; i < cm.nRows; i++ )
+		{
+			final int b = componentOf[ i ];
+			final int li = localIndex[ i ];
+			rows[ b ][ li ] = i;
+			numbers[ b ][ li ] = cm.number[ i ];
+			for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
+			{
+				kks[ b ][ fill[ b ] ] = localIndex[ cm.nRows + cm.kk[ k ] ];
+				ccs[ b ][ fill[ b ] ] = cm.cc[ k ];
+				fill[ b ]++;
+			}
+		}
+
+		for ( int b = 0; b < nBlocks; b++ )
+		{
+			blocks.add( new SparseCostMatrix( ccs[ b ], kks[ b ], numbers[ b ], nBlockCols[ b ] ) );
+			blockRows.add( rows[ b ] );
+			blockCols.add( cols[ b ] );
+		}
+	}
+
+	private static final int find( final int[] parent, int n )
+	{
+		while ( parent[ n ] != n )
+		{
+			// Path halving.
+			parent[ n ] = parent[ parent[ n ] ];
+			n = parent[ n ];
+		}
+		return n;
 	}
 
 	public String resultToString()
@@ -6,8 +6,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import net.imglib2.algorithm.Benchmark;
-import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.util.Util;
 
 /**
@@ -40,9 +38,21 @@ import net.imglib2.util.Util;
  * @author Johannes Schindelin
  * @see http://www.sciencedirect.com/science/article/pii/030505489600010X#
  */
-public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
+public class LAPJV implements LAPSolver
 {
 
+	/**
+	 * A factory that creates {@link LAPJV} solvers.
+	 */
+	public static final LAPSolverFactory FACTORY = new LAPSolverFactory()
+	{
+		@Override
+		public LAPSolver create( final SparseCostMatrix cm )
+		{
+			return new LAPJV( cm );
+		}
+	};
+
 	private static final String BASE_ERROR_MESSAGE = "[JonkerVolgenantSparseAlgorithm] ";
 
 	private int[] output;
@@ -154,7 +164,12 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 			}
 		}
 
-		if ( f == 0 ) { return true; }
+		if ( f == 0 )
+		{
+			// Column reduction assigned all the rows.
+			setOutput( x, start );
+			return true;
+		}
 
 		/*
 		 * Augmenting row reduction.
@@ -340,6 +355,12 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 		 * Terminate and prepare outputs.
 		 */
 
+		setOutput( x, start );
+		return true;
+	}
+
+	private void setOutput( final int[] x, final long start )
+	{
 		this.output = new int[ x.length ];
 		for ( int i = 0; i < x.length; i++ )
 		{
@@ -348,7 +369,6 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 
 		final long end = System.currentTimeMillis();
 		processingTime = end - start;
-		return true;
 	}
 
 	/*
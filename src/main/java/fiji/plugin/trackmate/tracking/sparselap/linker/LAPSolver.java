@@ -0,0 +1,17 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.OutputAlgorithm;
+
+/**
+ * Interface for solvers of linear assignment problems (LAP) defined by a
+ * {@link SparseCostMatrix}.
+ * <p>
+ * The result is the row assignment: the row <code>i</code> is assigned to the
+ * column <code>getResult()[i]</code> of the cost matrix, such that the total
+ * cost is minimal.
+ *
+ * @see LAPSolverFactory
+ */
+public interface LAPSolver extends OutputAlgorithm< int[] >, Benchmark
+{}
@@ -0,0 +1,20 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+/**
+ * Interface for factories that create the {@link LAPSolver} used to solve a
+ * specific cost matrix. Since the matrix is given, a factory can pick the
+ * solver best suited to its size or density.
+ */
+public interface LAPSolverFactory
+{
+
+	/**
+	 * Creates a new solver for the specified cost matrix.
+	 *
+	 * @param cm
+	 *            the cost matrix of the linear assignment problem to solve.
+	 * @return a new solver.
+	 */
+	public LAPSolver create( final SparseCostMatrix cm );
+
+}
@@ -0,0 +1,41 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+/**
+ * A {@link LAPSolverFactory} that delegates to one factory for small problems
+ * and to another one for large problems. The size of a problem is the number
+ * of non-infinite costs of its cost matrix.
+ */
+public class SizeDependentLAPSolverFactory implements LAPSolverFactory
+{
+
+	private final int threshold;
+
+	private final LAPSolverFactory small;
+
+	private final LAPSolverFactory large;
+
+	/**
+	 * Creates a new factory.
+	 *
+	 * @param threshold
+	 *            the number of non-infinite costs from which a problem is
+	 *            considered large.
+	 * @param small
+	 *            the factory to use for small problems.
+	 * @param large
+	 *            the factory to use for large problems.
+	 */
+	public SizeDependentLAPSolverFactory( final int threshold, final LAPSolverFactory small, final LAPSolverFactory large )
+	{
+		this.threshold = threshold;
+		this.small = small;
+		this.large = large;
+	}
+
+	@Override
+	public LAPSolver create( final SparseCostMatrix cm )
+	{
+		if ( cm.cardinality < threshold ) { return small.create( cm ); }
+		return large.create( cm );
+	}
+}
@@ -0,0 +1,24 @@
+package fiji.plugin.trackmate.util;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Interface for algorithms that can run their parallel parts on an executor
+ * service provided by the caller, instead of creating their own threads. This
+ * lets nested parallel algorithms share the threads of a single executor, as
+ * made by {@link TMExecutors#newSharedExecutor(int)}.
+ */
+public interface ExecutorServiceAware
+{
+
+	/**
+	 * Sets the executor service to run parallel tasks on. The algorithm does
+	 * not shut it down.
+	 *
+	 * @param executorService
+	 *            the executor service, or <code>null</code> to let the
+	 *            algorithm create its own threads.
+	 */
+	public void setExecutorService( ExecutorService executorService );
+
+}
@@ -0,0 +1,298 @@
+package fiji.plugin.trackmate.util;
+
+/**
+ * A summary of the values of one feature over a collection of objects, used to
+ * answer threshold queries without iterating over all the values.
+ * <p>
+ * The values are sorted once, on the first query, together with the index of
+ * the object they belong to. Counting the objects above or below a threshold
+ * is then a binary search, and the percentiles, the histogram bin number and
+ * the Otsu threshold are computed once and cached. All the results are
+ * identical to the ones of {@link TMUtils#getPercentile(double[], double)},
+ * {@link TMUtils#getNBins(double[], int, int)} and
+ * {@link TMUtils#otsuThreshold(double[])} on the same values.
+ * <p>
+ * The values array must not be modified once given to a summary: a summary
+ * for new values is built instead. This class is not thread-safe.
+ */
+public class FeatureSummary
+{
+
+	private final double[] values;
+
+	/** The values, in ascending order, then the NaNs. */
+	private double[] sorted;
+
+	/** The keys of {@link #sorted}, as given by {@link #key(double)}. */
+	private long[] keys;
+
+	/** The index in {@link #values} of each element of {@link #sorted}. */
+	private int[] order;
+
+	/** The number of values that are not NaN. */
+	private int nValid;
+
+	private double otsuThreshold = Double.NaN;
+
+	private boolean otsuComputed = false;
+
+	/**
+	 * Creates a summary of the specified values. Nothing is computed until the
+	 * first query.
+	 *
+	 * @param values
+	 *            the feature values, one per object. Not copied.
+	 */
+	public FeatureSummary( final double[] values )
+	{
+		this.values = values;
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Returns the values summarized by this instance, in their original order.
+	 */
+	public double[] getValues()
+	{
+		return values;
+	}
+
+	/**
+	 * Returns the number of values summarized by this instance.
+	 */
+	public int size()
+	{
+		return values.length;
+	}
+
+	/**
+	 * Returns the smallest value that is not NaN, or
+	 * {@link Double#POSITIVE_INFINITY} if there is none.
+	 */
+	public double getMin()
+	{
+		sort();
+		return nValid > 0 ? sorted[ 0 ] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the largest value that is not NaN, or
+	 * {@link Double#NEGATIVE_INFINITY} if there is none.
+	 */
+	public double getMax()
+	{
+		sort();
+		return nValid > 0 ? sorted[ nValid - 1 ] : Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the number of objects retained by a threshold on this feature.
+	 * As for feature filters, an object is retained if its value is not
+	 * strictly below (<code>isAbove</code>) or strictly above the threshold.
+	 * Objects with a NaN value, and all objects if the threshold is NaN, are
+	 * retained.
+	 *
+	 * @param threshold
+	 *            the threshold value.
+	 * @param isAbove
+	 *            whether objects are retained above or below the threshold.
+	 * @return the number of objects retained.
+	 */
+	public int count( final double threshold, final boolean isAbove )
+	{
+		if ( Double.isNaN( threshold ) ) { return values.length; }
+		sort();
+		final int nNaN = values.length - nValid;
+		if ( isAbove )
+		{
+			return nValid - lowerBound( threshold ) + nNaN;
+		}
+		else
+		{
+			return upperBound( threshold ) + nNaN;
+		}
+	}
+
+	/**
+	 * Returns the indices of the objects retained by a threshold on this
+	 * feature, as defined in {@link #count(double, boolean)}.
+	 *
+	 * @param threshold
+	 *            the threshold value.
+	 * @param isAbove
+	 *            whether objects are retained above or below the threshold.
+	 * @return a new array containing the indices of the objects retained, in
+	 *         the order of their values.
+	 */
+	public int[] getIndices( final double threshold, final boolean isAbove )
+	{
+		sort();
+		if ( Double.isNaN( threshold ) ) { return order.clone(); }
+		final int nNaN = values.length - nValid;
+		final int[] indices;
+		if ( isAbove )
+		{
+			final int from = lowerBound( threshold );
+			indices = new int[ nValid - from + nNaN ];
+			System.arraycopy( order, from, indices, 0, indices.length );
+		}
+		else
+		{
+			final int to = upperBound( threshold );
+			indices = new int[ to + nNaN ];
+			System.arraycopy( order, 0, indices, 0, to );
+			System.arraycopy( order, nValid, indices, to, nNaN );
+		}
+		return indices;
+	}
+
+	/**
+	 * Returns an estimate of the <code>p</code>th percentile of the values.
+	 *
+	 * @see TMUtils#getPercentile(double[], double)
+	 */
+	public double getPercentile( final double p )
+	{
+		final int size = values.length;
+		if ( ( p > 1 ) || ( p <= 0 ) ) { throw new IllegalArgumentException( "invalid quantile value: " + p ); }
+		if ( size == 0 ) { return Double.NaN; }
+		if ( size == 1 ) { return values[ 0 ]; }
+		sort();
+		final double n = size;
+		final double pos = p * ( n + 1 );
+		final double fpos = Math.floor( pos );
+		final int intPos = ( int ) fpos;
+		final double dif = pos - fpos;
+
+		if ( pos < 1 ) { return sorted[ 0 ]; }
+		if ( pos >= n ) { return sorted[ size - 1 ]; }
+		final double lower = sorted[ intPos - 1 ];
+		final double upper = sorted[ intPos ];
+		return lower + dif * ( upper - lower );
+	}
+
+	/**
+	 * Returns the optimal bin number for a histogram of the values, using the
+	 * Freedman and Diaconis rule, within the specified bounds.
+	 *
+	 * @see TMUtils#getNBins(double[], int, int)
+	 */
+	public int getNBins( final int minBinNumber, final int maxBinNumber )
+	{
+		final double q1 = getPercentile( 0.25 );
+		final double q3 = getPercentile( 0.75 );
+		final double iqr = q3 - q1;
+		final double binWidth = 2 * iqr * Math.pow( values.length, -0.33 );
+		final double range = getMax() - getMin();
+		int nBin = ( int ) ( range / binWidth + 1 );
+		if ( nBin > maxBinNumber )
+		{
+			nBin = maxBinNumber;
+		}
+		else if ( nBin < minBinNumber )
+		{
+			nBin = minBinNumber;
+		}
+		return nBin;
+	}
+
+	/**
+	 * Returns a threshold for the values, using an Otsu histogram thresholding
+	 * method. The threshold is computed on the first call only.
+	 *
+	 * @see TMUtils#otsuThreshold(double[])
+	 */
+	public double otsuThreshold()
+	{
+		if ( !otsuComputed )
+		{
+			final int nBins = getNBins( 8, 256 );
+			final double min = getMin();
+			final double binWidth = ( getMax() - min ) / nBins;
+			final int[] hist = new int[ nBins ];
+			for ( int i = 0; i < nValid; i++ )
+			{
+				final int index = Math.min( ( int ) Math.floor( ( sorted[ i ] - min ) / binWidth ), nBins - 1 );
+				hist[ index ]++;
+			}
+			// NaNs end up in the first bin, as in TMUtils.
+			hist[ 0 ] += values.length - nValid;
+			final int thresholdIndex = TMUtils.otsuThresholdIndex( hist, values.length );
+			otsuThreshold = min + binWidth * thresholdIndex;
+			otsuComputed = true;
+		}
+		return otsuThreshold;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Returns the index in {@link #sorted} of the first value not smaller than
+	 * the specified threshold.
+	 */
+	private int lowerBound( final double threshold )
+	{
+		return SortedIndex.lowerBound( keys, 0, nValid, key( threshold ) );
+	}
+
+	/**
+	 * Returns the index in {@link #sorted} of the first value strictly larger
+	 * than the specified threshold.
+	 */
+	private int upperBound( final double threshold )
+	{
+		return SortedIndex.upperBound( keys, 0, nValid, key( threshold ) );
+	}
+
+	/**
+	 * Maps a value to its sort key. Adding zero turns <code>-0</code> into
+	 * <code>+0</code>, so that they compare equal, as with the
+	 * <code>&lt;</code> operator.
+	 */
+	private static long key( final double val )
+	{
+		return SortedIndex.key( val + 0d );
+	}
+
+	private void sort()
+	{
+		if ( null != sorted ) { return; }
+
+		final int n = values.length;
+		final long[] k = new long[ n ];
+		final int[] indices = new int[ n ];
+		// Move NaNs to the end, they cannot be compared.
+		int head = 0;
+		int tail = n;
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( Double.isNaN( values[ i ] ) )
+			{
+				tail--;
+				indices[ tail ] = i;
+			}
+			else
+			{
+				k[ head ] = key( values[ i ] );
+				indices[ head ] = i;
+				head++;
+			}
+		}
+		SortedIndex.sort( k, indices, 0, head );
+
+		final double[] s = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			s[ i ] = values[ indices[ i ] ];
+		}
+		nValid = head;
+		order = indices;
+		keys = k;
+		sorted = s;
+	}
+}
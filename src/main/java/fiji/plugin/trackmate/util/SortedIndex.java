@@ -0,0 +1,182 @@
+package fiji.plugin.trackmate.util;
+
+/**
+ * Static utilities to sort feature values together with the index of the
+ * object they belong to, and to search the sorted values for a threshold.
+ * <p>
+ * Values are sorted as longs, after mapping them with {@link #key(double)}, so
+ * that they are ordered as by {@link Double#compare(double, double)} without
+ * comparing doubles in the inner loops.
+ */
+public class SortedIndex
+{
+
+	/** Below this size, ranges are sorted by insertion. */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	private SortedIndex()
+	{}
+
+	/**
+	 * Maps a double to a long so that longs compare as the doubles do with
+	 * {@link Double#compare(double, double)}.
+	 */
+	public static long key( final double val )
+	{
+		final long bits = Double.doubleToLongBits( val );
+		return bits ^ ( ( bits >> 63 ) & 0x7fffffffffffffffl );
+	}
+
+	/**
+	 * Sorts the specified range of the keys in ascending order, and applies the
+	 * same permutation to the indices.
+	 *
+	 * @param keys
+	 *            the keys to sort.
+	 * @param indices
+	 *            the indices to permute along with the keys.
+	 * @param from
+	 *            the first index of the range, inclusive.
+	 * @param to
+	 *            the last index of the range, exclusive.
+	 */
+	public static void sort( final long[] keys, final int[] indices, final int from, final int to )
+	{
+		quickSort( keys, indices, from, to - 1 );
+	}
+
+	/**
+	 * Returns the first position in the specified sorted range whose key is
+	 * not smaller than the specified key.
+	 */
+	public static int lowerBound( final long[] keys, final int from, final int to, final long key )
+	{
+		int low = from;
+		int high = to;
+		while ( low < high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			if ( keys[ mid ] < key )
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the first position in the specified sorted range whose key is
+	 * strictly larger than the specified key.
+	 */
+	public static int upperBound( final long[] keys, final int from, final int to, final long key )
+	{
+		int low = from;
+		int high = to;
+		while ( low < high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			if ( keys[ mid ] <= key )
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * @param left
+	 *            the first index of the range, inclusive.
+	 * @param right
+	 *            the last index of the range, inclusive.
+	 */
+	private static void quickSort( final long[] keys, final int[] indices, int left, int right )
+	{
+		while ( right - left >= INSERTION_SORT_THRESHOLD )
+		{
+			// Median of three as pivot.
+			final int mid = ( left + right ) >>> 1;
+			if ( keys[ mid ] < keys[ left ] )
+			{
+				swap( keys, indices, mid, left );
+			}
+			if ( keys[ right ] < keys[ left ] )
+			{
+				swap( keys, indices, right, left );
+			}
+			if ( keys[ right ] < keys[ mid ] )
+			{
+				swap( keys, indices, right, mid );
+			}
+			final long pivot = keys[ mid ];
+
+			int i = left;
+			int j = right;
+			while ( i <= j )
+			{
+				while ( keys[ i ] < pivot )
+				{
+					i++;
+				}
+				while ( keys[ j ] > pivot )
+				{
+					j--;
+				}
+				if ( i <= j )
+				{
+					swap( keys, indices, i, j );
+					i++;
+					j--;
+				}
+			}
+
+			// Recurse on the smaller part to bound the stack depth.
+			if ( j - left < right - i )
+			{
+				quickSort( keys, indices, left, j );
+				left = i;
+			}
+			else
+			{
+				quickSort( keys, indices, i, right );
+				right = j;
+			}
+		}
+
+		for ( int i = left + 1; i <= right; i++ )
+		{
+			final long key = keys[ i ];
+			final int index = indices[ i ];
+			int j = i - 1;
+			while ( j >= left && keys[ j ] > key )
+			{
+				keys[ j + 1 ] = keys[ j ];
+				indices[ j + 1 ] = indices[ j ];
+				j--;
+			}
+			keys[ j + 1 ] = key;
+			indices[ j + 1 ] = index;
+		}
+	}
+
+	private static void swap( final long[] keys, final int[] indices, final int i, final int j )
+	{
+		final long tmp = keys[ i ];
+		keys[ i ] = keys[ j ];
+		keys[ j ] = tmp;
+		final int itmp = indices[ i ];
+		indices[ i ] = indices[ j ];
+		indices[ j ] = itmp;
+	}
+}
@@ -33,6 +33,15 @@ public class SpotNeighborhood< T extends RealType< T >> implements Neighborhood<
 	 */
 
 	public SpotNeighborhood( final Spot spot, final ImgPlus< T > img )
+	{
+		this( spot, spot.getFeature( Spot.RADIUS ), img );
+	}
+
+	/**
+	 * Creates a neighborhood centered on the specified spot, with the
+	 * specified radius instead of the spot radius.
+	 */
+	public SpotNeighborhood( final Spot spot, final double radius, final ImgPlus< T > img )
 	{
 		this.calibration = TMUtils.getSpatialCalibration( img );
 		// Center
@@ -45,7 +54,7 @@ public class SpotNeighborhood< T extends RealType< T >> implements Neighborhood<
 		final long[] span = new long[ img.numDimensions() ];
 		for ( int d = 0; d < span.length; d++ )
 		{
-			span[ d ] = Math.round( spot.getFeature( Spot.RADIUS ) / calibration[ d ] );
+			span[ d ] = Math.round( radius / calibration[ d ] );
 		}
 
 		// Neighborhood
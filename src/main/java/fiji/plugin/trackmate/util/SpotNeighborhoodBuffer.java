@@ -0,0 +1,170 @@
+package fiji.plugin.trackmate.util;
+
+import net.imglib2.meta.ImgPlus;
+import net.imglib2.type.numeric.RealType;
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * A cache for the pixels of the last spot neighborhoods read in an image.
+ * <p>
+ * Several spot analyzers iterate over the same {@link SpotNeighborhood} of a
+ * spot. When they share a buffer and process spots one after the other, the
+ * pixels of each neighborhood are read from the image only once: the first
+ * analyzer fills a {@link Sample}, the next ones get it back from the cache.
+ * Arrays are recycled from one spot to the next.
+ * <p>
+ * A buffer is keyed on the spot, its position and the neighborhood radius, not
+ * on the image. It must therefore be shared only by analyzers that operate on
+ * the same image (same frame and same channel). This class is not thread-safe;
+ * use one instance per thread.
+ */
+public class SpotNeighborhoodBuffer< T extends RealType< T >>
+{
+
+	/**
+	 * Number of neighborhoods kept. Two is enough for analyzers that read the
+	 * spot neighborhood and the one at twice the spot radius.
+	 */
+	private static final int N_SAMPLES = 2;
+
+	private final Sample[] samples = new Sample[ N_SAMPLES ];
+
+	/** Index of the sample to overwrite next. */
+	private int next = 0;
+
+	public SpotNeighborhoodBuffer()
+	{
+		for ( int i = 0; i < samples.length; i++ )
+		{
+			samples[ i ] = new Sample();
+		}
+	}
+
+	/**
+	 * Returns the pixels of the neighborhood of the specified spot, with the
+	 * specified radius. If this buffer does not hold them already, they are
+	 * read from the specified image.
+	 *
+	 * @param spot
+	 *            the spot at the center of the neighborhood.
+	 * @param radius
+	 *            the radius of the neighborhood, in physical units.
+	 * @param img
+	 *            the image to read pixels from, if needed.
+	 * @return the neighborhood sample. It is valid until this method is called
+	 *         {@value #N_SAMPLES} times with other neighborhoods.
+	 */
+	public Sample get( final Spot spot, final double radius, final ImgPlus< T > img )
+	{
+		for ( final Sample sample : samples )
+		{
+			if ( sample.holds( spot, radius ) ) { return sample; }
+		}
+		final Sample sample = samples[ next ];
+		next = ( next + 1 ) % samples.length;
+		sample.fill( spot, radius, img );
+		return sample;
+	}
+
+	/**
+	 * Forgets all the neighborhoods held by this buffer.
+	 */
+	public void clear()
+	{
+		for ( final Sample sample : samples )
+		{
+			sample.spot = null;
+		}
+	}
+
+	/**
+	 * The pixels of a spot neighborhood, in the iteration order of
+	 * {@link SpotNeighborhoodCursor}.
+	 */
+	public static final class Sample
+	{
+
+		/** The number of pixels in the neighborhood. */
+		public int size;
+
+		/** The number of dimensions of the image. */
+		public int numDimensions;
+
+		/** The pixel values. Only the first {@link #size} are valid. */
+		public double[] values = new double[ 0 ];
+
+		/**
+		 * The squared distances of the pixels to the spot center, in physical
+		 * units.
+		 */
+		public double[] distancesSquared = new double[ 0 ];
+
+		/**
+		 * The positions of the pixels relative to the spot center, in physical
+		 * units. The position of pixel <code>i</code> along dimension
+		 * <code>d</code> is at index <code>i * numDimensions + d</code>.
+		 */
+		public double[] positions = new double[ 0 ];
+
+		private Spot spot;
+
+		private double radius;
+
+		private final double[] center = new double[ 3 ];
+
+		private Sample()
+		{}
+
+		private boolean holds( final Spot other, final double otherRadius )
+		{
+			if ( spot != other || radius != otherRadius ) { return false; }
+			for ( int d = 0; d < center.length; d++ )
+			{
+				if ( center[ d ] != other.getDoublePosition( d ) ) { return false; }
+			}
+			return true;
+		}
+
+		private < R extends RealType< R >> void fill( final Spot target, final double targetRadius, final ImgPlus< R > img )
+		{
+			final SpotNeighborhood< R > neighborhood = new SpotNeighborhood< R >( target, targetRadius, img );
+			final int capacity = ( int ) neighborhood.size();
+			numDimensions = img.numDimensions();
+			if ( values.length < capacity )
+			{
+				values = new double[ capacity ];
+				distancesSquared = new double[ capacity ];
+			}
+			if ( positions.length < capacity * numDimensions )
+			{
+				positions = new double[ capacity * numDimensions ];
+			}
+
+			final double[] position = new double[ numDimensions ];
+			final SpotNeighborhoodCursor< R > cursor = neighborhood.cursor();
+			int n = 0;
+			while ( cursor.hasNext() )
+			{
+				cursor.fwd();
+				values[ n ] = cursor.get().getRealDouble();
+				cursor.getRelativePosition( position );
+				double d2 = 0;
+				for ( int d = 0; d < numDimensions; d++ )
+				{
+					positions[ n * numDimensions + d ] = position[ d ];
+					d2 += position[ d ] * position[ d ];
+				}
+				distancesSquared[ n ] = d2;
+				n++;
+			}
+			size = n;
+
+			spot = target;
+			radius = targetRadius;
+			for ( int d = 0; d < center.length; d++ )
+			{
+				center[ d ] = target.getDoublePosition( d );
+			}
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package fiji.plugin.trackmate.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Static utilities to run the parallel parts of TrackMate algorithms on an
+ * executor service shared by all of them.
+ * <p>
+ * The shared executor never queues tasks. A task submitted while all its
+ * threads are busy is run by the submitting thread itself. Therefore a task
+ * that submits sub-tasks and waits for them never waits for a free thread,
+ * nested parallel sections cannot deadlock, and the number of threads working
+ * at once is bounded by the executor size plus the number of outside threads
+ * that submit tasks.
+ */
+public class TMExecutors
+{
+
+	/**
+	 * How long idle threads of a shared executor are kept alive.
+	 */
+	private static final long KEEP_ALIVE_SECONDS = 10;
+
+	private static final AtomicInteger POOL_NUMBER = new AtomicInteger( 1 );
+
+	private TMExecutors()
+	{}
+
+	/**
+	 * Creates a new executor service meant to be shared by all the algorithms
+	 * of a TrackMate session. Its threads are daemon threads that stop when
+	 * idle, so it does not need to be shut down. Tasks submitted after it is
+	 * shut down are rejected.
+	 *
+	 * @param numThreads
+	 *            the total number of threads to work with, counting the thread
+	 *            that submits tasks. The executor itself creates at most
+	 *            <code>numThreads - 1</code> threads.
+	 * @return a new executor service.
+	 */
+	public static ExecutorService newSharedExecutor( final int numThreads )
+	{
+		final int poolSize = Math.max( 1, numThreads - 1 );
+		final String prefix = "TrackMate worker " + POOL_NUMBER.getAndIncrement() + "-";
+		final ThreadFactory threadFactory = new ThreadFactory()
+		{
+			private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+			@Override
+			public Thread newThread( final Runnable r )
+			{
+				final Thread thread = new Thread( r, prefix + threadNumber.getAndIncrement() );
+				thread.setDaemon( true );
+				return thread;
+			}
+		};
+		final RejectedExecutionHandler callerRuns = new RejectedExecutionHandler()
+		{
+			@Override
+			public void rejectedExecution( final Runnable r, final ThreadPoolExecutor executor )
+			{
+				if ( executor.isShutdown() ) { throw new RejectedExecutionException( "Shared executor has been shut down." ); }
+				r.run();
+			}
+		};
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor( poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue< Runnable >(), threadFactory, callerRuns );
+		executor.allowCoreThreadTimeOut( true );
+		return executor;
+	}
+
+	/**
+	 * Runs the specified workers in parallel and waits for all of them to
+	 * complete. This is the counterpart of
+	 * <code>SimpleMultiThreading.startAndJoin()</code> for workers that are
+	 * {@link Runnable}s rather than {@link Thread}s.
+	 *
+	 * @param executor
+	 *            the executor to run the workers on. If <code>null</code>, one
+	 *            new thread is started per worker.
+	 * @param workers
+	 *            the workers to run.
+	 * @throws RuntimeException
+	 *             wrapping an {@link InterruptedException} if the calling
+	 *             thread is interrupted while waiting. All workers are
+	 *             interrupted and waited for before it is thrown.
+	 */
+	public static void startAndJoin( final ExecutorService executor, final Runnable... workers )
+	{
+		if ( null == executor )
+		{
+			final Thread[] threads = new Thread[ workers.length ];
+			for ( int i = 0; i < threads.length; i++ )
+			{
+				threads[ i ] = new Thread( workers[ i ], "TrackMate thread " + ( 1 + i ) + "/" + threads.length );
+				threads[ i ].start();
+			}
+			try
+			{
+				for ( final Thread thread : threads )
+				{
+					thread.join();
+				}
+			}
+			catch ( final InterruptedException e )
+			{
+				for ( final Thread thread : threads )
+				{
+					thread.interrupt();
+				}
+				for ( final Thread thread : threads )
+				{
+					joinUninterruptibly( thread );
+				}
+				throw new RuntimeException( e );
+			}
+			return;
+		}
+
+		invokeAndWait( executor, Arrays.asList( workers ) );
+	}
+
+	/**
+	 * Runs the specified tasks in parallel and waits for all of them to
+	 * complete.
+	 *
+	 * @param executor
+	 *            the executor to run the tasks on. If <code>null</code>, a
+	 *            private executor of <code>numThreads</code> threads is created
+	 *            and shut down when done.
+	 * @param numThreads
+	 *            the number of threads of the private executor.
+	 * @param tasks
+	 *            the tasks to run.
+	 * @throws RuntimeException
+	 *             wrapping an {@link InterruptedException} if the calling
+	 *             thread is interrupted while waiting. All tasks are
+	 *             interrupted and waited for before it is thrown.
+	 */
+	public static void runAll( final ExecutorService executor, final int numThreads, final Collection< ? extends Runnable > tasks )
+	{
+		final ExecutorService service = null == executor ? Executors.newFixedThreadPool( Math.max( 1, numThreads ) ) : executor;
+		try
+		{
+			invokeAndWait( service, tasks );
+		}
+		finally
+		{
+			if ( service != executor )
+			{
+				service.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Runs the specified tasks on the specified executor and waits until all
+	 * of them have returned, even after an interruption, so that no task is
+	 * still running when this method returns. The first exception thrown by a
+	 * task is re-thrown.
+	 */
+	private static void invokeAndWait( final ExecutorService executor, final Collection< ? extends Runnable > tasks )
+	{
+		final CountDownLatch done = new CountDownLatch( tasks.size() );
+		final List< FutureTask< Object > > futures = new ArrayList< FutureTask< Object > >( tasks.size() );
+		for ( final Runnable task : tasks )
+		{
+			futures.add( new FutureTask< Object >( task, null ) );
+		}
+
+		int submitted = 0;
+		try
+		{
+			for ( final FutureTask< Object > future : futures )
+			{
+				executor.execute( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							future.run();
+						}
+						finally
+						{
+							done.countDown();
+						}
+					}
+				} );
+				submitted++;
+			}
+			done.await();
+		}
+		catch ( final InterruptedException e )
+		{
+			cancel( futures, done, submitted );
+			throw new RuntimeException( e );
+		}
+		catch ( final RejectedExecutionException e )
+		{
+			cancel( futures, done, submitted );
+			throw e;
+		}
+
+		try
+		{
+			for ( final FutureTask< Object > future : futures )
+			{
+				future.get();
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			// Cannot happen: all tasks are done.
+			throw new RuntimeException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException ) { throw ( RuntimeException ) cause; }
+			if ( cause instanceof Error ) { throw ( Error ) cause; }
+			throw new RuntimeException( cause );
+		}
+	}
+
+	/**
+	 * Interrupts the running tasks, discards the others, and waits for the
+	 * submitted ones to return.
+	 */
+	private static void cancel( final List< FutureTask< Object > > futures, final CountDownLatch done, final int submitted )
+	{
+		for ( final FutureTask< Object > future : futures )
+		{
+			future.cancel( true );
+		}
+		for ( int i = submitted; i < futures.size(); i++ )
+		{
+			done.countDown();
+		}
+		boolean interrupted = false;
+		while ( done.getCount() > 0 )
+		{
+			try
+			{
+				done.await();
+			}
+			catch ( final InterruptedException e )
+			{
+				interrupted = true;
+			}
+		}
+		if ( interrupted )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void joinUninterruptibly( final Thread thread )
+	{
+		boolean interrupted = false;
+		while ( thread.isAlive() )
+		{
+			try
+			{
+				thread.join();
+			}
+			catch ( final InterruptedException e )
+			{
+				interrupted = true;
+			}
+		}
+		if ( interrupted )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
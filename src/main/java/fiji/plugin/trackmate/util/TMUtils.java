@@ -335,6 +335,91 @@ public class TMUtils
 		return lower + dif * ( upper - lower );
 	}
 
+	/**
+	 * Returns the <code>k</code>th smallest value of the specified range of an
+	 * array, counting from 0, in linear average time. The range is reordered
+	 * so that the value at index <code>from + k</code> is the returned value,
+	 * values before are not larger and values after are not smaller.
+	 *
+	 * @param values
+	 *            the array. Its specified range is reordered.
+	 * @param from
+	 *            the first index of the range, inclusive.
+	 * @param to
+	 *            the last index of the range, exclusive.
+	 * @param k
+	 *            the rank of the value to return in the range. For instance,
+	 *            <code>(to - from) / 2</code> for the upper median.
+	 * @return the <code>k</code>th smallest value.
+	 */
+	public static final double select( final double[] values, final int from, final int to, final int k )
+	{
+		if ( k < 0 || k >= to - from ) { throw new IllegalArgumentException( "Rank " + k + " out of range [0, " + ( to - from ) + "[." ); }
+		final int target = from + k;
+		int left = from;
+		int right = to - 1;
+		while ( right > left )
+		{
+			// Median of three as pivot, to avoid the worst case on sorted
+			// data.
+			final int mid = ( left + right ) >>> 1;
+			if ( values[ mid ] < values[ left ] )
+			{
+				swap( values, mid, left );
+			}
+			if ( values[ right ] < values[ left ] )
+			{
+				swap( values, right, left );
+			}
+			if ( values[ right ] < values[ mid ] )
+			{
+				swap( values, right, mid );
+			}
+			final double pivot = values[ mid ];
+
+			int i = left;
+			int j = right;
+			while ( i <= j )
+			{
+				while ( values[ i ] < pivot )
+				{
+					i++;
+				}
+				while ( values[ j ] > pivot )
+				{
+					j--;
+				}
+				if ( i <= j )
+				{
+					swap( values, i, j );
+					i++;
+					j--;
+				}
+			}
+
+			if ( target <= j )
+			{
+				right = j;
+			}
+			else if ( target >= i )
+			{
+				left = i;
+			}
+			else
+			{
+				break;
+			}
+		}
+		return values[ target ];
+	}
+
+	private static final void swap( final double[] values, final int i, final int j )
+	{
+		final double tmp = values[ i ];
+		values[ i ] = values[ j ];
+		values[ j ] = tmp;
+	}
+
 	/**
 	 * Returns <code>[range, min, max]</code> of the given double array.
 	 * 
@@ -465,7 +550,7 @@ public class TMUtils
 	 *            the number of data items this histogram was built on
 	 * @return the bin index of the histogram that thresholds it
 	 */
-	private static final int otsuThresholdIndex( final int[] hist, final int nPoints )
+	static final int otsuThresholdIndex( final int[] hist, final int nPoints )
 	{
 		final int total = nPoints;
 
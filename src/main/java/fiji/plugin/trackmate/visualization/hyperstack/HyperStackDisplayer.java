@@ -107,6 +107,7 @@ public class HyperStackDisplayer extends AbstractTrackMateModelView
 	{
 		if ( DEBUG )
 			System.out.println( "[HyperStackDisplayer] Received model changed event ID: " + event.getEventID() + " from " + event.getSource() );
+		trackOverlay.modelChanged( event );
 		boolean redoOverlay = false;
 
 		switch ( event.getEventID() )
@@ -0,0 +1,470 @@
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * A frame-bucketed and spatially gridded index of the edges of the visible
+ * tracks of a model, used by {@link TrackOverlay} to paint only the edges of
+ * the displayed time window that cross the viewport.
+ * <p>
+ * Edges are bucketed by the frame of their source spot. Within a frame, they
+ * are sorted by the cell of a regular XY grid that contains their middle. A
+ * query rectangle is enlarged by the largest half extent of the edges of the
+ * frame, so that no edge crossing it is missed. Positions are stored in pixel
+ * units, with the half-pixel offset used for display.
+ * <p>
+ * The index is kept in sync with the model through
+ * {@link #modelChanged(ModelChangeEvent)}: moving spots only rebuilds the
+ * frames of their edges, other changes rebuild the whole index on the next
+ * query. This class is not thread-safe.
+ */
+class TrackEdgeIndex
+{
+
+	/** The target mean number of edges per grid cell. */
+	private static final int EDGES_PER_CELL = 16;
+
+	/** The maximal number of grid cells along X and Y. */
+	private static final int MAX_GRID_SIZE = 64;
+
+	private final Model model;
+
+	private final double[] calibration;
+
+	/** The edges per source frame, or <code>null</code> if to be rebuilt. */
+	private List< FrameEdges > frames;
+
+	private final Set< Integer > dirtyFrames = new HashSet< Integer >();
+
+	/** The number of edges and visible tracks when the index was built. */
+	private int nEdges;
+
+	private int nTracks;
+
+	TrackEdgeIndex( final Model model, final double[] calibration )
+	{
+		this.model = model;
+		this.calibration = calibration;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Updates this index after a change in the model.
+	 */
+	void modelChanged( final ModelChangeEvent event )
+	{
+		if ( null == frames ) { return; }
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.MODEL_MODIFIED:
+		{
+			for ( final DefaultWeightedEdge edge : event.getEdges() )
+			{
+				if ( event.getEdgeFlag( edge ) != ModelChangeEvent.FLAG_EDGE_MODIFIED )
+				{
+					// Track IDs and visibility may change.
+					invalidate();
+					return;
+				}
+			}
+			final TrackModel trackModel = model.getTrackModel();
+			for ( final Spot spot : event.getSpots() )
+			{
+				final int flag = event.getSpotFlag( spot ).intValue();
+				if ( flag == ModelChangeEvent.FLAG_SPOT_FRAME_CHANGED )
+				{
+					invalidate();
+					return;
+				}
+				if ( flag == ModelChangeEvent.FLAG_SPOT_MODIFIED )
+				{
+					for ( final DefaultWeightedEdge edge : trackModel.edgesOf( spot ) )
+					{
+						dirtyFrames.add( Integer.valueOf( frameOf( trackModel.getEdgeSource( edge ) ) ) );
+					}
+				}
+			}
+			break;
+		}
+
+		case ModelChangeEvent.SPOTS_FILTERED:
+			// Tracks are drawn regardless of spot visibility.
+			break;
+
+		default:
+			invalidate();
+			break;
+		}
+	}
+
+	/**
+	 * Discards the index content. It is rebuilt on the next call to
+	 * {@link #update()}.
+	 */
+	void invalidate()
+	{
+		frames = null;
+		dirtyFrames.clear();
+	}
+
+	/**
+	 * Rebuilds the parts of the index that are out of date.
+	 *
+	 * @return <code>true</code> if the index content changed.
+	 */
+	boolean update()
+	{
+		synchronized ( model )
+		{
+			final TrackModel trackModel = model.getTrackModel();
+			// Catches the changes made without events.
+			if ( null != frames && ( nEdges != trackModel.edgeSet().size() || nTracks != trackModel.nTracks( true ) ) )
+			{
+				invalidate();
+			}
+
+			if ( null == frames )
+			{
+				build( trackModel );
+				return true;
+			}
+			if ( dirtyFrames.isEmpty() ) { return false; }
+
+			for ( final Integer frame : dirtyFrames )
+			{
+				rebuild( trackModel, frame.intValue() );
+			}
+			dirtyFrames.clear();
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the edges of the specified source frame, or <code>null</code>
+	 * if there are none. {@link #update()} must be called first.
+	 */
+	FrameEdges getFrame( final int frame )
+	{
+		if ( frame < 0 || frame >= frames.size() ) { return null; }
+		return frames.get( frame );
+	}
+
+	/**
+	 * Returns the number of frames indexed. {@link #update()} must be called
+	 * first.
+	 */
+	int nFrames()
+	{
+		return frames.size();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void build( final TrackModel trackModel )
+	{
+		final List< FrameBuilder > builders = new ArrayList< FrameBuilder >();
+		for ( final Integer trackID : trackModel.unsortedTrackIDs( true ) )
+		{
+			for ( final DefaultWeightedEdge edge : trackModel.trackEdges( trackID ) )
+			{
+				final Spot source = trackModel.getEdgeSource( edge );
+				final int frame = frameOf( source );
+				while ( builders.size() <= frame )
+				{
+					builders.add( null );
+				}
+				FrameBuilder builder = builders.get( frame );
+				if ( null == builder )
+				{
+					builder = new FrameBuilder();
+					builders.set( frame, builder );
+				}
+				builder.add( edge, trackID.intValue(), source, trackModel.getEdgeTarget( edge ) );
+			}
+		}
+
+		frames = new ArrayList< FrameEdges >( builders.size() );
+		for ( final FrameBuilder builder : builders )
+		{
+			frames.add( null == builder ? null : builder.build() );
+		}
+		nEdges = trackModel.edgeSet().size();
+		nTracks = trackModel.nTracks( true );
+	}
+
+	private void rebuild( final TrackModel trackModel, final int frame )
+	{
+		final FrameBuilder builder = new FrameBuilder();
+		for ( final Spot spot : model.getSpots().iterable( frame, false ) )
+		{
+			for ( final DefaultWeightedEdge edge : trackModel.edgesOf( spot ) )
+			{
+				if ( trackModel.getEdgeSource( edge ) != spot )
+				{
+					continue;
+				}
+				final Integer trackID = trackModel.trackIDOf( edge );
+				if ( null == trackID || !trackModel.isVisible( trackID ) )
+				{
+					continue;
+				}
+				builder.add( edge, trackID.intValue(), spot, trackModel.getEdgeTarget( edge ) );
+			}
+		}
+		while ( frames.size() <= frame )
+		{
+			frames.add( null );
+		}
+		frames.set( frame, builder.size == 0 ? null : builder.build() );
+	}
+
+	private static int frameOf( final Spot spot )
+	{
+		return spot.getFeature( Spot.FRAME ).intValue();
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Receives the edges found by a query.
+	 */
+	static interface EdgeVisitor
+	{
+		/**
+		 * Called for each edge found.
+		 *
+		 * @param edges
+		 *            the edges of the frame.
+		 * @param i
+		 *            the index of the edge in the arrays of the frame.
+		 */
+		public void visit( FrameEdges edges, int i );
+	}
+
+	/**
+	 * The edges of one source frame, sorted by grid cell.
+	 */
+	static final class FrameEdges
+	{
+
+		final DefaultWeightedEdge[] edges;
+
+		final int[] trackIDs;
+
+		/** Source and target positions, in pixel units. */
+		final float[] x0;
+
+		final float[] y0;
+
+		final float[] x1;
+
+		final float[] y1;
+
+		/** Source and target Z positions, in physical units. */
+		final float[] z0;
+
+		final float[] z1;
+
+		private final float gridX;
+
+		private final float gridY;
+
+		private final float cellWidth;
+
+		private final float cellHeight;
+
+		private final int nCols;
+
+		private final int nRows;
+
+		/** The index of the first edge of each cell, and the size at the end. */
+		private final int[] cellStart;
+
+		private final float maxHalfWidth;
+
+		private final float maxHalfHeight;
+
+		private FrameEdges( final FrameBuilder b )
+		{
+			final int n = b.size;
+			float minX = Float.POSITIVE_INFINITY;
+			float minY = Float.POSITIVE_INFINITY;
+			float maxX = Float.NEGATIVE_INFINITY;
+			float maxY = Float.NEGATIVE_INFINITY;
+			float halfWidth = 0;
+			float halfHeight = 0;
+			for ( int i = 0; i < n; i++ )
+			{
+				final float mx = 0.5f * ( b.x0[ i ] + b.x1[ i ] );
+				final float my = 0.5f * ( b.y0[ i ] + b.y1[ i ] );
+				minX = Math.min( minX, mx );
+				minY = Math.min( minY, my );
+				maxX = Math.max( maxX, mx );
+				maxY = Math.max( maxY, my );
+				halfWidth = Math.max( halfWidth, 0.5f * Math.abs( b.x1[ i ] - b.x0[ i ] ) );
+				halfHeight = Math.max( halfHeight, 0.5f * Math.abs( b.y1[ i ] - b.y0[ i ] ) );
+			}
+			maxHalfWidth = halfWidth;
+			maxHalfHeight = halfHeight;
+
+			final int size = Math.max( 1, Math.min( MAX_GRID_SIZE, ( int ) Math.ceil( Math.sqrt( ( double ) n / EDGES_PER_CELL ) ) ) );
+			nCols = size;
+			nRows = size;
+			gridX = minX;
+			gridY = minY;
+			cellWidth = Math.max( 1f, ( maxX - minX ) / size );
+			cellHeight = Math.max( 1f, ( maxY - minY ) / size );
+
+			// Counting sort by cell.
+			final int[] cells = new int[ n ];
+			cellStart = new int[ nCols * nRows + 1 ];
+			for ( int i = 0; i < n; i++ )
+			{
+				cells[ i ] = cell( 0.5f * ( b.x0[ i ] + b.x1[ i ] ), 0.5f * ( b.y0[ i ] + b.y1[ i ] ) );
+				cellStart[ cells[ i ] + 1 ]++;
+			}
+			for ( int c = 0; c < nCols * nRows; c++ )
+			{
+				cellStart[ c + 1 ] += cellStart[ c ];
+			}
+			final int[] next = new int[ nCols * nRows ];
+			System.arraycopy( cellStart, 0, next, 0, next.length );
+
+			edges = new DefaultWeightedEdge[ n ];
+			trackIDs = new int[ n ];
+			x0 = new float[ n ];
+			y0 = new float[ n ];
+			x1 = new float[ n ];
+			y1 = new float[ n ];
+			z0 = new float[ n ];
+			z1 = new float[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				final int j = next[ cells[ i ] ]++;
+				edges[ j ] = b.edges.get( i );
+				trackIDs[ j ] = b.trackIDs[ i ];
+				x0[ j ] = b.x0[ i ];
+				y0[ j ] = b.y0[ i ];
+				x1[ j ] = b.x1[ i ];
+				y1[ j ] = b.y1[ i ];
+				z0[ j ] = b.z0[ i ];
+				z1[ j ] = b.z1[ i ];
+			}
+		}
+
+		/**
+		 * Returns the number of edges in this frame.
+		 */
+		int size()
+		{
+			return edges.length;
+		}
+
+		/**
+		 * Visits the edges whose bounding box intersects the specified
+		 * rectangle, in pixel units.
+		 */
+		void query( final double xmin, final double ymin, final double xmax, final double ymax, final EdgeVisitor visitor )
+		{
+			final int col0 = Math.max( 0, ( int ) Math.floor( ( xmin - maxHalfWidth - gridX ) / cellWidth ) );
+			final int col1 = Math.min( nCols - 1, ( int ) Math.floor( ( xmax + maxHalfWidth - gridX ) / cellWidth ) );
+			final int row0 = Math.max( 0, ( int ) Math.floor( ( ymin - maxHalfHeight - gridY ) / cellHeight ) );
+			final int row1 = Math.min( nRows - 1, ( int ) Math.floor( ( ymax + maxHalfHeight - gridY ) / cellHeight ) );
+			for ( int row = row0; row <= row1; row++ )
+			{
+				for ( int col = col0; col <= col1; col++ )
+				{
+					final int c = row * nCols + col;
+					for ( int i = cellStart[ c ]; i < cellStart[ c + 1 ]; i++ )
+					{
+						if ( Math.max( x0[ i ], x1[ i ] ) < xmin || Math.min( x0[ i ], x1[ i ] ) > xmax || Math.max( y0[ i ], y1[ i ] ) < ymin || Math.min( y0[ i ], y1[ i ] ) > ymax )
+						{
+							continue;
+						}
+						visitor.visit( this, i );
+					}
+				}
+			}
+		}
+
+		private int cell( final float x, final float y )
+		{
+			final int col = Math.min( nCols - 1, Math.max( 0, ( int ) ( ( x - gridX ) / cellWidth ) ) );
+			final int row = Math.min( nRows - 1, Math.max( 0, ( int ) ( ( y - gridY ) / cellHeight ) ) );
+			return row * nCols + col;
+		}
+	}
+
+	/**
+	 * Accumulates the edges of one frame before they are sorted.
+	 */
+	private final class FrameBuilder
+	{
+
+		private final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >();
+
+		private int size = 0;
+
+		private int[] trackIDs = new int[ 16 ];
+
+		private float[] x0 = new float[ 16 ];
+
+		private float[] y0 = new float[ 16 ];
+
+		private float[] x1 = new float[ 16 ];
+
+		private float[] y1 = new float[ 16 ];
+
+		private float[] z0 = new float[ 16 ];
+
+		private float[] z1 = new float[ 16 ];
+
+		private void add( final DefaultWeightedEdge edge, final int trackID, final Spot source, final Spot target )
+		{
+			if ( size == trackIDs.length )
+			{
+				final int capacity = 2 * size;
+				trackIDs = Arrays.copyOf( trackIDs, capacity );
+				x0 = Arrays.copyOf( x0, capacity );
+				y0 = Arrays.copyOf( y0, capacity );
+				x1 = Arrays.copyOf( x1, capacity );
+				y1 = Arrays.copyOf( y1, capacity );
+				z0 = Arrays.copyOf( z0, capacity );
+				z1 = Arrays.copyOf( z1, capacity );
+			}
+			edges.add( edge );
+			trackIDs[ size ] = trackID;
+			// So that spot centers are displayed on the pixel centers.
+			x0[ size ] = ( float ) ( source.getFeature( Spot.POSITION_X ).doubleValue() / calibration[ 0 ] + 0.5 );
+			y0[ size ] = ( float ) ( source.getFeature( Spot.POSITION_Y ).doubleValue() / calibration[ 1 ] + 0.5 );
+			x1[ size ] = ( float ) ( target.getFeature( Spot.POSITION_X ).doubleValue() / calibration[ 0 ] + 0.5 );
+			y1[ size ] = ( float ) ( target.getFeature( Spot.POSITION_Y ).doubleValue() / calibration[ 1 ] + 0.5 );
+			z0[ size ] = source.getFeature( Spot.POSITION_Z ).floatValue();
+			z1[ size ] = target.getFeature( Spot.POSITION_Z ).floatValue();
+			size++;
+		}
+
+		private FrameEdges build()
+		{
+			return new FrameEdges( this );
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package fiji.plugin.trackmate.visualization.hyperstack;
 
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.visualization.TrackColorGenerator;
@@ -14,11 +15,16 @@ import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -43,6 +49,14 @@ public class TrackOverlay extends Roi
 
 	private TrackColorGenerator colorGenerator;
 
+	/** The edges of the visible tracks, by frame and grid cell. */
+	private final TrackEdgeIndex edgeIndex;
+
+	/** The paths painted last, and the state they were built for. */
+	private List< EdgeBatch > batches;
+
+	private PaintKey paintKey;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -54,6 +68,7 @@ public class TrackOverlay extends Roi
 		this.calibration = TMUtils.getSpatialCalibration( imp );
 		this.imp = imp;
 		this.displaySettings = displaySettings;
+		this.edgeIndex = new TrackEdgeIndex( model, calibration );
 	}
 
 	/*
@@ -102,7 +117,6 @@ public class TrackOverlay extends Roi
 		final int currentFrame = imp.getFrame() - 1;
 		final int trackDisplayMode = ( Integer ) displaySettings.get( TrackMateModelView.KEY_TRACK_DISPLAY_MODE );
 		final int trackDisplayDepth = ( Integer ) displaySettings.get( TrackMateModelView.KEY_TRACK_DISPLAY_DEPTH );
-		final Set< Integer > filteredTrackKeys = model.getTrackModel().unsortedTrackIDs( true );
 
 		g2d.setStroke( new BasicStroke( 2.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND ) );
 		if ( trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL || trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK )
@@ -130,114 +144,39 @@ public class TrackOverlay extends Roi
 			break;
 		}
 
-		float transparency;
 		switch ( trackDisplayMode )
 		{
-
-		case TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE:
-		{
-			for ( final Integer trackID : filteredTrackKeys )
-			{
-				colorGenerator.setCurrentTrackID( trackID );
-				Set< DefaultWeightedEdge > track;
-				synchronized ( model )
-				{
-					track = new HashSet< DefaultWeightedEdge >( model.getTrackModel().trackEdges( trackID ) );
-				}
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					if ( highlight.contains( edge ) )
-						continue;
-
-					source = model.getTrackModel().getEdgeSource( edge );
-					target = model.getTrackModel().getEdgeTarget( edge );
-
-					final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
-					final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
-					if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
-						continue;
-
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification );
-				}
-			}
-			break;
-		}
-
 		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_QUICK:
 		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD_QUICK:
 		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD_QUICK:
-		{
-
 			g2d.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF );
-
-			for ( final Integer trackID : filteredTrackKeys )
-			{
-				colorGenerator.setCurrentTrackID( trackID );
-				Set< DefaultWeightedEdge > track;
-				synchronized ( model )
-				{
-					track = new HashSet< DefaultWeightedEdge >( model.getTrackModel().trackEdges( trackID ) );
-				}
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					if ( highlight.contains( edge ) )
-						continue;
-
-					source = model.getTrackModel().getEdgeSource( edge );
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-					if ( sourceFrame < minT || sourceFrame >= maxT )
-						continue;
-
-					target = model.getTrackModel().getEdgeTarget( edge );
-
-					final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
-					final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
-					if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
-						continue;
-
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification );
-				}
-			}
 			break;
-		}
 
 		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL:
 		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD:
 		case TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD:
-		{
-
 			g2d.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
-
-			for ( final Integer trackID : filteredTrackKeys )
-			{
-				colorGenerator.setCurrentTrackID( trackID );
-				final Set< DefaultWeightedEdge > track;
-				synchronized ( model )
-				{
-					track = new HashSet< DefaultWeightedEdge >( model.getTrackModel().trackEdges( trackID ) );
-				}
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					if ( highlight.contains( edge ) )
-						continue;
-
-					source = model.getTrackModel().getEdgeSource( edge );
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-					if ( sourceFrame < minT || sourceFrame >= maxT )
-						continue;
-
-					transparency = ( float ) ( 1 - Math.abs( ( double ) sourceFrame - currentFrame ) / trackDisplayDepth );
-					target = model.getTrackModel().getEdgeTarget( edge );
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification, transparency );
-				}
-			}
 			break;
+		}
 
+		// Only rebuild the paths if something changed since the last paint.
+		if ( edgeIndex.update() )
+		{
+			batches = null;
+		}
+		final PaintKey key = new PaintKey( trackDisplayMode, minT, maxT, currentFrame, trackDisplayDepth, doLimitDrawingDepth, drawingDepth, zslice, xcorner, ycorner, magnification, ic.getSrcRect(), highlight );
+		if ( null == batches || !key.equals( paintKey ) )
+		{
+			batches = createBatches( key );
+			paintKey = key;
 		}
 
+		for ( final EdgeBatch batch : batches )
+		{
+			if ( batch.transparency >= 0 )
+				g2d.setComposite( AlphaComposite.getInstance( AlphaComposite.SRC_OVER, batch.transparency ) );
+			g2d.setColor( batch.color );
+			g2d.draw( batch.path );
 		}
 
 		// Restore graphic device original settings
@@ -252,34 +191,6 @@ public class TrackOverlay extends Roi
 	 * PROTECTED METHODS
 	 */
 
-	protected void drawEdge( final Graphics2D g2d, final Spot source, final Spot target, final int xcorner, final int ycorner, final double magnification, final float transparency )
-	{
-		// Find x & y in physical coordinates
-		final double x0i = source.getFeature( Spot.POSITION_X );
-		final double y0i = source.getFeature( Spot.POSITION_Y );
-		final double x1i = target.getFeature( Spot.POSITION_X );
-		final double y1i = target.getFeature( Spot.POSITION_Y );
-		// In pixel units
-		final double x0p = x0i / calibration[ 0 ] + 0.5f;
-		final double y0p = y0i / calibration[ 1 ] + 0.5f;
-		final double x1p = x1i / calibration[ 0 ] + 0.5f;
-		final double y1p = y1i / calibration[ 1 ] + 0.5f;
-		// Scale to image zoom
-		final double x0s = ( x0p - xcorner ) * magnification;
-		final double y0s = ( y0p - ycorner ) * magnification;
-		final double x1s = ( x1p - xcorner ) * magnification;
-		final double y1s = ( y1p - ycorner ) * magnification;
-		// Round
-		final int x0 = ( int ) Math.round( x0s );
-		final int y0 = ( int ) Math.round( y0s );
-		final int x1 = ( int ) Math.round( x1s );
-		final int y1 = ( int ) Math.round( y1s );
-
-		g2d.setComposite( AlphaComposite.getInstance( AlphaComposite.SRC_OVER, transparency ) );
-		g2d.drawLine( x0, y0, x1, y1 );
-
-	}
-
 	protected void drawEdge( final Graphics2D g2d, final Spot source, final Spot target, final int xcorner, final int ycorner, final double magnification )
 	{
 		// Find x & y in physical coordinates
@@ -310,9 +221,219 @@ public class TrackOverlay extends Roi
 
 	}
 
-	public void setTrackColorGenerator( final TrackColorGenerator colorGenerator )
+	public synchronized void setTrackColorGenerator( final TrackColorGenerator colorGenerator )
 	{
 		this.colorGenerator = colorGenerator;
+		batches = null;
+	}
+
+	/**
+	 * Notifies this overlay that the model changed, so that the edges it
+	 * paints are updated.
+	 *
+	 * @param event
+	 *            the model change event.
+	 */
+	public synchronized void modelChanged( final ModelChangeEvent event )
+	{
+		edgeIndex.modelChanged( event );
+		batches = null;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Collects the edges to paint in one path per color, and per frame for the
+	 * modes that fade tracks with time.
+	 */
+	private List< EdgeBatch > createBatches( final PaintKey key )
+	{
+		final boolean fading = key.trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL || key.trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_FORWARD || key.trackDisplayMode == TrackMateModelView.TRACK_DISPLAY_MODE_LOCAL_BACKWARD;
+		int fromFrame = 0;
+		int toFrame = edgeIndex.nFrames();
+		if ( key.trackDisplayMode != TrackMateModelView.TRACK_DISPLAY_MODE_WHOLE )
+		{
+			fromFrame = Math.max( fromFrame, key.minT );
+			toFrame = Math.min( toFrame, key.maxT );
+		}
+
+		// The visible part of the image, with a margin for the line width.
+		final double margin = 1 + 2 / key.magnification;
+		final double xmin = key.srcRect.x - margin;
+		final double ymin = key.srcRect.y - margin;
+		final double xmax = key.srcRect.x + key.srcRect.width + margin;
+		final double ymax = key.srcRect.y + key.srcRect.height + margin;
+
+		final BatchBuilder builder = new BatchBuilder( key, !fading && key.doLimitDrawingDepth );
+		for ( int frame = fromFrame; frame < toFrame; frame++ )
+		{
+			final TrackEdgeIndex.FrameEdges edges = edgeIndex.getFrame( frame );
+			if ( null == edges )
+				continue;
+
+			if ( fading )
+			{
+				builder.startBatches( ( float ) ( 1 - Math.abs( ( double ) frame - key.currentFrame ) / key.trackDisplayDepth ) );
+			}
+			edges.query( xmin, ymin, xmax, ymax, builder );
+		}
+		return builder.batches;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Edges drawn with the same color and transparency.
+	 */
+	private static final class EdgeBatch
+	{
+
+		private final Color color;
+
+		/** The transparency, or a negative value to keep the composite. */
+		private final float transparency;
+
+		private final Path2D.Float path = new Path2D.Float();
+
+		private EdgeBatch( final Color color, final float transparency )
+		{
+			this.color = color;
+			this.transparency = transparency;
+		}
 	}
 
+	/**
+	 * Adds the edges visited to the path of their color.
+	 */
+	private final class BatchBuilder implements TrackEdgeIndex.EdgeVisitor
+	{
+
+		private final List< EdgeBatch > batches = new ArrayList< EdgeBatch >();
+
+		private Map< Color, EdgeBatch > batchesPerColor = new HashMap< Color, EdgeBatch >();
+
+		private float transparency = -1f;
+
+		private final PaintKey key;
+
+		private final boolean limitDrawingDepth;
+
+		private int currentTrackID;
+
+		private boolean hasCurrentTrack = false;
+
+		private BatchBuilder( final PaintKey key, final boolean limitDrawingDepth )
+		{
+			this.key = key;
+			this.limitDrawingDepth = limitDrawingDepth;
+		}
+
+		/**
+		 * Makes the next edges go to new batches, with the specified
+		 * transparency.
+		 */
+		private void startBatches( final float batchTransparency )
+		{
+			this.transparency = batchTransparency;
+			this.batchesPerColor = new HashMap< Color, EdgeBatch >();
+		}
+
+		@Override
+		public void visit( final TrackEdgeIndex.FrameEdges edges, final int i )
+		{
+			final DefaultWeightedEdge edge = edges.edges[ i ];
+			if ( key.highlight.contains( edge ) )
+				return;
+			if ( limitDrawingDepth && Math.abs( edges.z0[ i ] - key.zslice ) > key.drawingDepth && Math.abs( edges.z1[ i ] - key.zslice ) > key.drawingDepth )
+				return;
+
+			if ( !hasCurrentTrack || currentTrackID != edges.trackIDs[ i ] )
+			{
+				currentTrackID = edges.trackIDs[ i ];
+				hasCurrentTrack = true;
+				colorGenerator.setCurrentTrackID( Integer.valueOf( currentTrackID ) );
+			}
+			final Color color = colorGenerator.color( edge );
+			EdgeBatch batch = batchesPerColor.get( color );
+			if ( null == batch )
+			{
+				batch = new EdgeBatch( color, transparency );
+				batchesPerColor.put( color, batch );
+				batches.add( batch );
+			}
+			// Scale to image zoom and round, as in drawEdge().
+			batch.path.moveTo( Math.round( ( edges.x0[ i ] - key.xcorner ) * key.magnification ), Math.round( ( edges.y0[ i ] - key.ycorner ) * key.magnification ) );
+			batch.path.lineTo( Math.round( ( edges.x1[ i ] - key.xcorner ) * key.magnification ), Math.round( ( edges.y1[ i ] - key.ycorner ) * key.magnification ) );
+		}
+	}
+
+	/**
+	 * The display state the batches were built for. They are reused as long
+	 * as it does not change.
+	 */
+	private static final class PaintKey
+	{
+
+		private final int trackDisplayMode;
+
+		private final int minT;
+
+		private final int maxT;
+
+		private final int currentFrame;
+
+		private final int trackDisplayDepth;
+
+		private final boolean doLimitDrawingDepth;
+
+		private final double drawingDepth;
+
+		private final double zslice;
+
+		private final int xcorner;
+
+		private final int ycorner;
+
+		private final double magnification;
+
+		private final Rectangle srcRect;
+
+		private final Set< DefaultWeightedEdge > highlight;
+
+		private PaintKey( final int trackDisplayMode, final int minT, final int maxT, final int currentFrame, final int trackDisplayDepth, final boolean doLimitDrawingDepth, final double drawingDepth, final double zslice, final int xcorner, final int ycorner, final double magnification, final Rectangle srcRect, final Collection< DefaultWeightedEdge > highlight )
+		{
+			this.trackDisplayMode = trackDisplayMode;
+			this.minT = minT;
+			this.maxT = maxT;
+			this.currentFrame = currentFrame;
+			this.trackDisplayDepth = trackDisplayDepth;
+			this.doLimitDrawingDepth = doLimitDrawingDepth;
+			this.drawingDepth = drawingDepth;
+			this.zslice = zslice;
+			this.xcorner = xcorner;
+			this.ycorner = ycorner;
+			this.magnification = magnification;
+			this.srcRect = new Rectangle( srcRect );
+			this.highlight = new HashSet< DefaultWeightedEdge >( highlight );
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof PaintKey ) )
+				return false;
+			final PaintKey o = ( PaintKey ) obj;
+			return trackDisplayMode == o.trackDisplayMode && minT == o.minT && maxT == o.maxT && currentFrame == o.currentFrame && trackDisplayDepth == o.trackDisplayDepth && doLimitDrawingDepth == o.doLimitDrawingDepth && drawingDepth == o.drawingDepth && zslice == o.zslice && xcorner == o.xcorner && ycorner == o.ycorner && magnification == o.magnification && srcRect.equals( o.srcRect ) && highlight.equals( o.highlight );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * ( 31 * currentFrame + xcorner ) + ycorner;
+		}
+	}
 }
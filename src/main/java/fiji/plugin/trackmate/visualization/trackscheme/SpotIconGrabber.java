@@ -47,12 +47,34 @@ public class SpotIconGrabber< T extends RealType< T >>
 	 */
 	public String getImageString( final Spot spot )
 	{
-		// Get crop coordinates
-		final double[] calibration = TMUtils.getSpatialCalibration( img );
+		final byte[] png = getImageBytes( spot );
+		if ( png.length == 0 ) { return ""; }
+		return mxBase64.encodeToString( png, false );
+	}
+
+	/**
+	 * Returns the PNG image of the specified spot, as bytes.
+	 *
+	 * @see #getImageString(Spot)
+	 */
+	public byte[] getImageBytes( final Spot spot )
+	{
 		final double radius = spot.getFeature( Spot.RADIUS ); // physical units,
 																// REQUIRED!
-		final long x = Math.round( ( spot.getFeature( Spot.POSITION_X ) - radius ) / calibration[ 0 ] );
-		final long y = Math.round( ( spot.getFeature( Spot.POSITION_Y ) - radius ) / calibration[ 1 ] );
+		return getImageBytes( spot.getFeature( Spot.POSITION_X ), spot.getFeature( Spot.POSITION_Y ), spot.getFeature( Spot.POSITION_Z ), radius );
+	}
+
+	/**
+	 * Returns the PNG image of a spot with the specified center and radius,
+	 * in physical units, as bytes. Returns an empty array if the image cannot
+	 * be encoded.
+	 */
+	public byte[] getImageBytes( final double xs, final double ys, final double zs, final double radius )
+	{
+		// Get crop coordinates
+		final double[] calibration = TMUtils.getSpatialCalibration( img );
+		final long x = Math.round( ( xs - radius ) / calibration[ 0 ] );
+		final long y = Math.round( ( ys - radius ) / calibration[ 1 ] );
 		final long width = Math.max( 1, Math.round( 2 * radius / calibration[ 0 ] ) );
 		final long height = Math.max( 1, Math.round( 2 * radius / calibration[ 1 ] ) );
 
@@ -60,7 +82,7 @@ public class SpotIconGrabber< T extends RealType< T >>
 		long slice = 0;
 		if ( img.numDimensions() > 2 )
 		{
-			slice = Math.round( spot.getFeature( Spot.POSITION_Z ) / calibration[ 2 ] );
+			slice = Math.round( zs / calibration[ 2 ] );
 			if ( slice < 0 )
 			{
 				slice = 0;
@@ -78,18 +100,18 @@ public class SpotIconGrabber< T extends RealType< T >>
 		final ImageProcessor ip = imp.getProcessor();
 		ip.resetMinAndMax();
 
-		// Convert to base64
+		// Convert to PNG
 		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		final BufferedImage img = ip.getBufferedImage();
 		try
 		{
 			ImageIO.write( img, "png", bos );
-			return mxBase64.encodeToString( bos.toByteArray(), false );
+			return bos.toByteArray();
 		}
 		catch ( final IOException e )
 		{
 			e.printStackTrace();
-			return "";
+			return new byte[ 0 ];
 		}
 	}
 
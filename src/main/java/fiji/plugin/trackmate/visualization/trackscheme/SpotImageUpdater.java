@@ -4,54 +4,515 @@ import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.util.TMUtils;
+import fiji.plugin.trackmate.visualization.trackscheme.SpotThumbnailCache.Key;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
 
 import net.imglib2.meta.ImgPlus;
 import net.imglib2.meta.view.HyperSliceImgPlus;
 
-public class SpotImageUpdater {
-	
-	private Integer previousFrame;
-	private SpotIconGrabber<?> grabber;
+import com.mxgraph.util.mxBase64;
+
+/**
+ * Generates the thumbnail image strings of spots, from the raw image of a
+ * {@link Settings} object.
+ * <p>
+ * Thumbnails are kept in a bounded in-memory cache, and optionally in a
+ * folder on disk, so that they are rendered once per spot geometry. They can
+ * be generated synchronously with {@link #getImageString(Spot)}, or
+ * asynchronously with {@link #requestImageString(Spot, Listener)}: requests
+ * made in a row are grouped per frame, rendered in batches by background
+ * threads, and delivered batch by batch on the event dispatch thread.
+ */
+public class SpotImageUpdater
+{
+
+	/** The default number of thumbnails kept in memory. */
+	public static final int DEFAULT_CACHE_SIZE = 10000;
+
+	/** The maximal number of spots rendered by a background task. */
+	private static final int BATCH_SIZE = 32;
+
+	/** How long idle rendering threads are kept alive. */
+	private static final long KEEP_ALIVE_SECONDS = 10;
+
+	private static final AtomicInteger POOL_NUMBER = new AtomicInteger( 1 );
+
+	/**
+	 * Interface for classes that receive the thumbnails requested
+	 * asynchronously.
+	 */
+	public static interface Listener
+	{
+		/**
+		 * Called on the event dispatch thread when a batch of thumbnails is
+		 * ready. A spot may have been moved since its thumbnail was requested:
+		 * its thumbnail is then outdated, and the key it was rendered for
+		 * differs from {@link Key#of(Spot)}.
+		 *
+		 * @param images
+		 *            the image strings of the batch, per spot.
+		 * @param keys
+		 *            the keys the images were rendered for, per spot.
+		 */
+		public void imageStringsReady( Map< Spot, String > images, Map< Spot, Key > keys );
+	}
+
 	private final Settings settings;
 
-	public SpotImageUpdater(final Settings settings) {
+	private final SpotThumbnailCache cache;
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Incremented when pending requests are cancelled. Tasks started for a
+	 * previous generation stop and deliver nothing.
+	 */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	/** The requests not dispatched yet. Guarded by itself. */
+	private final List< Request > pending = new ArrayList< Request >();
+
+	/** Whether a dispatch of the pending requests is scheduled. */
+	private boolean dispatchScheduled = false;
+
+	/** The frame of the grabber used by synchronous calls. */
+	private int previousFrame = -1;
+
+	private SpotIconGrabber< ? > grabber;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public SpotImageUpdater( final Settings settings )
+	{
+		this( settings, DEFAULT_CACHE_SIZE, Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * Creates a new updater.
+	 *
+	 * @param settings
+	 *            the settings containing the raw image.
+	 * @param cacheSize
+	 *            the maximal number of thumbnails kept in memory.
+	 * @param numThreads
+	 *            the number of background threads rendering thumbnails.
+	 */
+	public SpotImageUpdater( final Settings settings, final int cacheSize, final int numThreads )
+	{
 		this.settings = settings;
-		this.previousFrame = -1;
-	}
-
-	/**
-	 * @return the image string of the given spot, based on the raw images contained in the given model.
-	 * For performance, the image at target frame is stored for subsequent calls of this method. 
-	 * So it is a good idea to group calls to this method for spots that belong to the
-	 * same frame.
-	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	public String getImageString(final Spot spot) {
-
-		Integer frame = spot.getFeature(Spot.FRAME).intValue();
-		if (null == frame)
-			return "";
-		if (frame == previousFrame) {
-			// Keep the same image than in memory
-		} else {
-			ImgPlus img = TMUtils.rawWraps(settings.imp);
-			int targetChannel = 0;
-			if (settings != null && settings.detectorSettings != null) {
-				// Try to extract it from detector settings target channel
-				Map<String, Object> ds = settings.detectorSettings;
-				Object obj = ds.get(KEY_TARGET_CHANNEL);
-				if (null != obj && obj instanceof Integer) {
-					targetChannel = ((Integer) obj) - 1;
+		this.cache = new SpotThumbnailCache( cacheSize );
+		final int poolSize = Math.max( 1, numThreads );
+		final String prefix = "TrackScheme thumbnails " + POOL_NUMBER.getAndIncrement() + "-";
+		final ThreadFactory threadFactory = new ThreadFactory()
+		{
+			private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+			@Override
+			public Thread newThread( final Runnable r )
+			{
+				final Thread thread = new Thread( r, prefix + threadNumber.getAndIncrement() );
+				thread.setDaemon( true );
+				thread.setPriority( Thread.MIN_PRIORITY );
+				return thread;
+			}
+		};
+		this.executor = new ThreadPoolExecutor( poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue< Runnable >(), threadFactory );
+		executor.allowCoreThreadTimeOut( true );
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the image string of the given spot, based on the raw images
+	 * contained in the settings, rendering it on the calling thread if it is
+	 * not in the cache. For performance, the image at target frame is stored
+	 * for subsequent calls of this method. So it is a good idea to group calls
+	 * to this method for spots that belong to the same frame.
+	 *
+	 * @return the image string of the given spot.
+	 */
+	public synchronized String getImageString( final Spot spot )
+	{
+		final Key key = Key.of( spot );
+		if ( null == key ) { return ""; }
+		String image = cache.get( key );
+		if ( null != image ) { return image; }
+
+		if ( key.frame != previousFrame )
+		{
+			grabber = createGrabber( key.frame );
+			previousFrame = key.frame;
+		}
+		image = render( grabber, key );
+		cache.put( key, image );
+		return image;
+	}
+
+	/**
+	 * Returns the image string of the given spot if it is in the memory cache,
+	 * <code>null</code> otherwise.
+	 */
+	public String getCachedImageString( final Spot spot )
+	{
+		final Key key = Key.of( spot );
+		if ( null == key ) { return null; }
+		return cache.get( key );
+	}
+
+	/**
+	 * Requests the image string of the given spot, to be delivered to the
+	 * specified listener on the event dispatch thread. The spot position and
+	 * radius are read when this method is called.
+	 * <p>
+	 * Requests made in a row are dispatched together, once the event dispatch
+	 * thread is done with the current event. Thumbnails found in the memory
+	 * cache are delivered first, at once; the others are delivered in batches
+	 * of spots of the same frame, as they are rendered.
+	 *
+	 * @param spot
+	 *            the spot to render.
+	 * @param listener
+	 *            the listener to deliver the thumbnail to.
+	 * @return <code>false</code> if the spot misses its frame or radius, and
+	 *         no thumbnail will be delivered.
+	 */
+	public boolean requestImageString( final Spot spot, final Listener listener )
+	{
+		final Key key = Key.of( spot );
+		if ( null == key ) { return false; }
+		synchronized ( pending )
+		{
+			pending.add( new Request( spot, key, listener ) );
+			if ( !dispatchScheduled )
+			{
+				dispatchScheduled = true;
+				SwingUtilities.invokeLater( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						dispatch();
+					}
+				} );
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Requests the image strings of the given spots.
+	 *
+	 * @return the number of thumbnails that will be delivered.
+	 * @see #requestImageString(Spot, Listener)
+	 */
+	public int requestImageStrings( final Collection< Spot > spots, final Listener listener )
+	{
+		int nRequested = 0;
+		for ( final Spot spot : spots )
+		{
+			if ( requestImageString( spot, listener ) )
+			{
+				nRequested++;
+			}
+		}
+		return nRequested;
+	}
+
+	/**
+	 * Cancels the requests not delivered yet. Thumbnails being rendered are
+	 * still stored in the cache, but not delivered.
+	 */
+	public void cancel()
+	{
+		generation.incrementAndGet();
+		synchronized ( pending )
+		{
+			pending.clear();
+		}
+		executor.getQueue().clear();
+	}
+
+	/**
+	 * Sets the folder in which thumbnails are stored on disk, in addition to
+	 * the memory cache. Thumbnails are stored in a sub-folder named after the
+	 * raw image and its file, in files named after the spot ID and geometry,
+	 * and are read back instead of being rendered again, including in later
+	 * sessions.
+	 *
+	 * @param folder
+	 *            the folder to use, or <code>null</code> to not store
+	 *            thumbnails on disk.
+	 */
+	public void setDiskCache( final File folder )
+	{
+		cache.setFolder( null == folder ? null : new File( folder, getImageName() ) );
+	}
+
+	/**
+	 * Returns the folder in which thumbnails of the current raw image are
+	 * stored on disk, or <code>null</code> if the disk is not used.
+	 */
+	public File getDiskCache()
+	{
+		return cache.getFolder();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Answers the pending requests from the memory cache, and submits the
+	 * others to the background threads. Runs on the event dispatch thread.
+	 */
+	private void dispatch()
+	{
+		final List< Request > requests;
+		synchronized ( pending )
+		{
+			requests = new ArrayList< Request >( pending );
+			pending.clear();
+			dispatchScheduled = false;
+		}
+		final int gen = generation.get();
+
+		// Group per listener, keep the latest request per spot.
+		final Map< Listener, Map< Spot, String >> hits = new LinkedHashMap< Listener, Map< Spot, String >>();
+		final Map< Listener, Map< Spot, Key >> hitKeys = new HashMap< Listener, Map< Spot, Key >>();
+		final Map< Listener, Map< Spot, Request >> misses = new LinkedHashMap< Listener, Map< Spot, Request >>();
+		for ( final Request request : requests )
+		{
+			Map< Spot, String > listenerHits = hits.get( request.listener );
+			Map< Spot, Request > listenerMisses = misses.get( request.listener );
+			if ( null == listenerHits )
+			{
+				listenerHits = new LinkedHashMap< Spot, String >();
+				hits.put( request.listener, listenerHits );
+				hitKeys.put( request.listener, new HashMap< Spot, Key >() );
+				listenerMisses = new LinkedHashMap< Spot, Request >();
+				misses.put( request.listener, listenerMisses );
+			}
+			final String image = cache.get( request.key );
+			if ( null != image )
+			{
+				listenerMisses.remove( request.spot );
+				listenerHits.put( request.spot, image );
+				hitKeys.get( request.listener ).put( request.spot, request.key );
+			}
+			else
+			{
+				listenerHits.remove( request.spot );
+				listenerMisses.put( request.spot, request );
+			}
+		}
+
+		for ( final Listener listener : misses.keySet() )
+		{
+			// Batch misses per frame.
+			final TreeMap< Integer, List< Request >> perFrame = new TreeMap< Integer, List< Request >>();
+			for ( final Request request : misses.get( listener ).values() )
+			{
+				List< Request > frameRequests = perFrame.get( request.key.frame );
+				if ( null == frameRequests )
+				{
+					frameRequests = new ArrayList< Request >();
+					perFrame.put( request.key.frame, frameRequests );
 				}
-			} // TODO: be more flexible about that
-			ImgPlus<?> imgCT = HyperSliceImgPlus.fixTimeAxis( 
-					HyperSliceImgPlus.fixChannelAxis(img, targetChannel), 
-					frame);
-			grabber = new SpotIconGrabber(imgCT);
-			previousFrame = frame;
-		}
-		return grabber.getImageString(spot);			
+				frameRequests.add( request );
+			}
+			for ( final Integer frame : perFrame.keySet() )
+			{
+				final List< Request > frameRequests = perFrame.get( frame );
+				for ( int from = 0; from < frameRequests.size(); from += BATCH_SIZE )
+				{
+					final int to = Math.min( frameRequests.size(), from + BATCH_SIZE );
+					executor.execute( new RenderTask( gen, frame, new ArrayList< Request >( frameRequests.subList( from, to ) ), listener ) );
+				}
+			}
+		}
+
+		for ( final Listener listener : hits.keySet() )
+		{
+			final Map< Spot, String > images = hits.get( listener );
+			if ( !images.isEmpty() )
+			{
+				listener.imageStringsReady( images, hitKeys.get( listener ) );
+			}
+		}
+	}
+
+	/**
+	 * Returns the PNG image string of the spot with the specified key, read
+	 * from the disk or rendered.
+	 */
+	private String render( final SpotIconGrabber< ? > grabber, final Key key )
+	{
+		byte[] png = cache.read( key );
+		if ( null == png )
+		{
+			if ( null == grabber ) { return ""; }
+			png = grabber.getImageBytes( key.x, key.y, key.z, key.radius );
+			if ( png.length == 0 ) { return ""; }
+			cache.write( key, png );
+		}
+		return mxBase64.encodeToString( png, false );
+	}
+
+	/**
+	 * Returns a new grabber on the target channel of the raw image, at the
+	 * specified frame, or <code>null</code> if there is no raw image.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private SpotIconGrabber< ? > createGrabber( final int frame )
+	{
+		if ( null == settings || null == settings.imp ) { return null; }
+		final ImgPlus img = TMUtils.rawWraps( settings.imp );
+		final ImgPlus< ? > imgCT = HyperSliceImgPlus.fixTimeAxis( HyperSliceImgPlus.fixChannelAxis( img, getTargetChannel() ), frame );
+		return new SpotIconGrabber( imgCT );
+	}
+
+	private int getTargetChannel()
+	{
+		int targetChannel = 0;
+		if ( settings != null && settings.detectorSettings != null )
+		{
+			// Try to extract it from detector settings target channel
+			final Map< String, Object > ds = settings.detectorSettings;
+			final Object obj = ds.get( KEY_TARGET_CHANNEL );
+			if ( null != obj && obj instanceof Integer )
+			{
+				targetChannel = ( ( Integer ) obj ) - 1;
+			}
+		} // TODO: be more flexible about that
+		return targetChannel;
+	}
+
+	/**
+	 * Returns a name identifying the raw image and the channel thumbnails are
+	 * taken from, usable as a file name. Images opened from a file are
+	 * identified by the path, modification time and length of the file, so
+	 * that another image with the same title, or the same file modified, does
+	 * not reuse the thumbnails. Other images are identified by their ID, valid
+	 * for this session only.
+	 */
+	private String getImageName()
+	{
+		if ( null == settings || null == settings.imp ) { return "no-image"; }
+		final int[] dims = settings.imp.getDimensions();
+		final StringBuilder str = new StringBuilder( settings.imp.getTitle().replaceAll( "[^\\w\\-.]", "_" ) );
+		for ( final int dim : dims )
+		{
+			str.append( '_' ).append( dim );
+		}
+		str.append( "_c" ).append( getTargetChannel() + 1 );
+
+		final File file = ( null == settings.imageFolder || settings.imageFolder.isEmpty() || null == settings.imageFileName ) ? null : new File( settings.imageFolder, settings.imageFileName );
+		if ( null != file && file.isFile() )
+		{
+			final String id = file.getAbsolutePath() + '|' + file.lastModified() + '|' + file.length();
+			str.append( "_f" ).append( Integer.toHexString( id.hashCode() ) );
+		}
+		else
+		{
+			str.append( "_id" ).append( Math.abs( settings.imp.getID() ) );
+		}
+		return str.toString();
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static final class Request
+	{
+
+		private final Spot spot;
+
+		private final Key key;
+
+		private final Listener listener;
+
+		private Request( final Spot spot, final Key key, final Listener listener )
+		{
+			this.spot = spot;
+			this.key = key;
+			this.listener = listener;
+		}
+	}
+
+	/**
+	 * Renders a batch of spots of one frame and delivers them on the event
+	 * dispatch thread.
+	 */
+	private final class RenderTask implements Runnable
+	{
+
+		private final int gen;
+
+		private final int frame;
+
+		private final List< Request > requests;
+
+		private final Listener listener;
+
+		private RenderTask( final int gen, final int frame, final List< Request > requests, final Listener listener )
+		{
+			this.gen = gen;
+			this.frame = frame;
+			this.requests = requests;
+			this.listener = listener;
+		}
+
+		@Override
+		public void run()
+		{
+			if ( gen != generation.get() ) { return; }
+			final SpotIconGrabber< ? > grabber = createGrabber( frame );
+			final Map< Spot, String > images = new LinkedHashMap< Spot, String >( requests.size() );
+			final Map< Spot, Key > keys = new HashMap< Spot, Key >( requests.size() );
+			for ( final Request request : requests )
+			{
+				if ( gen != generation.get() ) { return; }
+				String image = cache.get( request.key );
+				if ( null == image )
+				{
+					image = render( grabber, request.key );
+					cache.put( request.key, image );
+				}
+				images.put( request.spot, image );
+				keys.put( request.spot, request.key );
+			}
+
+			SwingUtilities.invokeLater( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if ( gen == generation.get() )
+					{
+						listener.imageStringsReady( images, keys );
+					}
+				}
+			} );
+		}
 	}
 }
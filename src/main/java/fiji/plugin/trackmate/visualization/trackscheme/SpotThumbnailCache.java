@@ -0,0 +1,270 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import fiji.plugin.trackmate.Spot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the thumbnails of spots, in memory, and optionally on
+ * disk.
+ * <p>
+ * In memory, thumbnails are stored as encoded image strings, and the least
+ * recently used ones are evicted past the capacity. On disk, they are stored
+ * as PNG files in a folder, named after the spot ID and geometry. A thumbnail
+ * is only returned for a spot whose frame, position and radius are the ones it
+ * was rendered for, so that modified spots get a new thumbnail.
+ * <p>
+ * This class is thread-safe.
+ */
+class SpotThumbnailCache
+{
+
+	private static final int BUFFER_SIZE = 4096;
+
+	private final LinkedHashMap< Key, String > images;
+
+	/** The folder to store PNG files in, or <code>null</code>. */
+	private volatile File folder;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param capacity
+	 *            the maximal number of thumbnails kept in memory.
+	 */
+	SpotThumbnailCache( final int capacity )
+	{
+		this.images = new LinkedHashMap< Key, String >( 16, 0.75f, true )
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Key, String > eldest )
+			{
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the image string stored in memory for the specified key, or
+	 * <code>null</code> if there is none.
+	 */
+	String get( final Key key )
+	{
+		synchronized ( images )
+		{
+			return images.get( key );
+		}
+	}
+
+	/**
+	 * Stores in memory the image string of the specified key.
+	 */
+	void put( final Key key, final String image )
+	{
+		synchronized ( images )
+		{
+			images.put( key, image );
+		}
+	}
+
+	/**
+	 * Returns the number of thumbnails stored in memory.
+	 */
+	int size()
+	{
+		synchronized ( images )
+		{
+			return images.size();
+		}
+	}
+
+	/**
+	 * Empties the memory cache. Files on disk are kept.
+	 */
+	void clear()
+	{
+		synchronized ( images )
+		{
+			images.clear();
+		}
+	}
+
+	/**
+	 * Sets the folder to store PNG files in. It is created on the first write.
+	 *
+	 * @param folder
+	 *            the folder, or <code>null</code> to not use the disk.
+	 */
+	void setFolder( final File folder )
+	{
+		this.folder = folder;
+	}
+
+	File getFolder()
+	{
+		return folder;
+	}
+
+	/**
+	 * Returns the PNG file stored on disk for the specified key, as bytes, or
+	 * <code>null</code> if there is none or if it cannot be read.
+	 */
+	byte[] read( final Key key )
+	{
+		final File dir = folder;
+		if ( null == dir ) { return null; }
+		final File file = new File( dir, key.fileName() );
+		if ( !file.isFile() ) { return null; }
+
+		InputStream is = null;
+		try
+		{
+			is = new FileInputStream( file );
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream( ( int ) file.length() );
+			final byte[] buffer = new byte[ BUFFER_SIZE ];
+			int n;
+			while ( ( n = is.read( buffer ) ) > 0 )
+			{
+				bos.write( buffer, 0, n );
+			}
+			return bos.toByteArray();
+		}
+		catch ( final IOException e )
+		{
+			return null;
+		}
+		finally
+		{
+			close( is );
+		}
+	}
+
+	/**
+	 * Stores the specified PNG file on disk for the specified key, if a folder
+	 * is set.
+	 *
+	 * @return <code>false</code> if the file could not be written.
+	 */
+	boolean write( final Key key, final byte[] png )
+	{
+		final File dir = folder;
+		if ( null == dir ) { return true; }
+		if ( !dir.isDirectory() && !dir.mkdirs() ) { return false; }
+
+		// Write to a temporary file first, so that readers never see a partial
+		// file.
+		final File file = new File( dir, key.fileName() );
+		final File tmp = new File( dir, key.fileName() + "." + Thread.currentThread().getId() + ".tmp" );
+		OutputStream os = null;
+		try
+		{
+			os = new FileOutputStream( tmp );
+			os.write( png );
+			os.close();
+			os = null;
+			if ( !tmp.renameTo( file ) )
+			{
+				file.delete();
+				if ( !tmp.renameTo( file ) )
+				{
+					tmp.delete();
+					return false;
+				}
+			}
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			close( os );
+			tmp.delete();
+			return false;
+		}
+	}
+
+	private static void close( final Closeable closeable )
+	{
+		if ( null == closeable ) { return; }
+		try
+		{
+			closeable.close();
+		}
+		catch ( final IOException e )
+		{}
+	}
+
+	/**
+	 * The identity of a thumbnail: the spot ID, frame, position and radius it
+	 * is rendered for.
+	 */
+	static final class Key
+	{
+
+		final int id;
+
+		final int frame;
+
+		final double x;
+
+		final double y;
+
+		final double z;
+
+		final double radius;
+
+		Key( final int id, final int frame, final double x, final double y, final double z, final double radius )
+		{
+			this.id = id;
+			this.frame = frame;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.radius = radius;
+		}
+
+		/**
+		 * Returns the key of the specified spot, as it is now, or
+		 * <code>null</code> if the spot misses its frame or radius.
+		 */
+		static Key of( final Spot spot )
+		{
+			final Double frame = spot.getFeature( Spot.FRAME );
+			final Double radius = spot.getFeature( Spot.RADIUS );
+			if ( null == frame || null == radius ) { return null; }
+			return new Key( spot.ID(), frame.intValue(), spot.getFeature( Spot.POSITION_X ), spot.getFeature( Spot.POSITION_Y ), spot.getFeature( Spot.POSITION_Z ), radius );
+		}
+
+		String fileName()
+		{
+			return id + "_t" + frame + "_" + Long.toHexString( Double.doubleToLongBits( x ) ) + "_" + Long.toHexString( Double.doubleToLongBits( y ) ) + "_" + Long.toHexString( Double.doubleToLongBits( z ) ) + "_" + Long.toHexString( Double.doubleToLongBits( radius ) ) + ".png";
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof Key ) ) { return false; }
+			final Key other = ( Key ) obj;
+			return id == other.id && frame == other.frame && Double.doubleToLongBits( x ) == Double.doubleToLongBits( other.x ) && Double.doubleToLongBits( y ) == Double.doubleToLongBits( other.y ) && Double.doubleToLongBits( z ) == Double.doubleToLongBits( other.z ) && Double.doubleToLongBits( radius ) == Double.doubleToLongBits( other.radius );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			long bits = Double.doubleToLongBits( x );
+			bits = 31 * bits + Double.doubleToLongBits( y );
+			bits = 31 * bits + Double.doubleToLongBits( z );
+			bits = 31 * bits + Double.doubleToLongBits( radius );
+			return 31 * ( 31 * id + frame ) + ( int ) ( bits ^ ( bits >>> 32 ) );
+		}
+	}
+}
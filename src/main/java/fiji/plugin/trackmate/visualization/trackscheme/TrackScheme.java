@@ -21,6 +21,7 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.visualization.AbstractTrackMateModelView;
 import fiji.plugin.trackmate.visualization.TrackColorGenerator;
 import fiji.plugin.trackmate.visualization.TrackMateModelView;
+import fiji.plugin.trackmate.visualization.trackscheme.SpotThumbnailCache.Key;
 import ij.ImagePlus;
 
 import java.awt.Color;
@@ -31,6 +32,7 @@ import java.awt.Point;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -99,6 +101,13 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 	static final String KEY = "TRACKSCHEME";
 
+	/**
+	 * Key for the display setting that sets the folder in which spot
+	 * thumbnails are stored on disk, as a {@link File}. If <code>null</code>,
+	 * the default, thumbnails are kept in memory only.
+	 */
+	public static final String KEY_THUMBNAIL_DISK_CACHE = "ThumbnailDiskCache";
+
 	/*
 	 * FIELDS
 	 */
@@ -145,6 +154,12 @@ public class TrackScheme extends AbstractTrackMateModelView
 	 */
 	private SpotImageUpdater spotImageUpdater;
 
+	/**
+	 * Sets the thumbnails rendered in the background by the
+	 * {@link #spotImageUpdater} in the style of spot cells.
+	 */
+	private final ThumbnailSetter thumbnailSetter = new ThumbnailSetter();
+
 	TrackSchemeStylist stylist;
 
 	/**
@@ -174,6 +189,10 @@ public class TrackScheme extends AbstractTrackMateModelView
 	public void setSpotImageUpdater( final SpotImageUpdater spotImageUpdater )
 	{
 		this.spotImageUpdater = spotImageUpdater;
+		if ( null != spotImageUpdater )
+		{
+			spotImageUpdater.setDiskCache( ( File ) displaySettings.get( KEY_THUMBNAIL_DISK_CACHE ) );
+		}
 	}
 
 	public SelectionModel getSelectionModel()
@@ -296,10 +315,7 @@ public class TrackScheme extends AbstractTrackMateModelView
 			// Update cell look
 			if ( spotImageUpdater != null && doThumbnailCapture )
 			{
-				String style = cell.getStyle();
-				final String imageStr = spotImageUpdater.getImageString( spot );
-				style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
-				graph.getModel().setStyle( cell, style );
+				setThumbnail( cell, spot );
 			}
 		}
 		finally
@@ -333,12 +349,35 @@ public class TrackScheme extends AbstractTrackMateModelView
 		// Set its style
 		if ( null != spotImageUpdater && doThumbnailCapture )
 		{
-			final String imageStr = spotImageUpdater.getImageString( spot );
-			graph.getModel().setStyle( cellAdded, mxConstants.STYLE_IMAGE + "=" + "data:image/base64," + imageStr );
+			setThumbnail( cellAdded, spot );
 		}
 		return cellAdded;
 	}
 
+	/**
+	 * Sets the thumbnail of the specified spot in the style of its cell, right
+	 * away if it is cached, or once it is rendered in the background
+	 * otherwise.
+	 */
+	private void setThumbnail( final mxICell cell, final Spot spot )
+	{
+		final String imageStr = spotImageUpdater.getCachedImageString( spot );
+		if ( null != imageStr )
+		{
+			setThumbnail( cell, imageStr );
+		}
+		else
+		{
+			spotImageUpdater.requestImageString( spot, thumbnailSetter );
+		}
+	}
+
+	private void setThumbnail( final mxICell cell, final String imageStr )
+	{
+		final String style = mxStyleUtils.setStyle( cell.getStyle(), mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
+		graph.getModel().setStyle( cell, style );
+	}
+
 	/**
 	 * Import a whole track from the {@link Model} and make it visible.
 	 *
@@ -790,6 +829,13 @@ public class TrackScheme extends AbstractTrackMateModelView
 				refresh();
 			}
 		}
+		else if ( KEY_THUMBNAIL_DISK_CACHE.equals( key ) )
+		{
+			if ( null != spotImageUpdater )
+			{
+				spotImageUpdater.setDiskCache( ( File ) value );
+			}
+		}
 		displaySettings.put( key, value );
 	}
 
@@ -1031,6 +1077,10 @@ public class TrackScheme extends AbstractTrackMateModelView
 			public void windowClosing( final WindowEvent e )
 			{
 				model.removeModelChangeListener( TrackScheme.this );
+				if ( null != spotImageUpdater )
+				{
+					spotImageUpdater.cancel();
+				}
 			}
 		} );
 		gui.setLocationByPlatform( true );
@@ -1120,6 +1170,73 @@ public class TrackScheme extends AbstractTrackMateModelView
 
 	}
 
+	/**
+	 * Sets the thumbnails delivered by the {@link SpotImageUpdater} in the
+	 * style of the spot cells, and reports the progress of a thumbnail
+	 * capture.
+	 */
+	private class ThumbnailSetter implements SpotImageUpdater.Listener
+	{
+
+		/** The number of thumbnails expected, 0 to not report progress. */
+		private int expected = 0;
+
+		private int received = 0;
+
+		/**
+		 * Reports progress until the specified number of thumbnails is
+		 * received.
+		 */
+		private void expect( final int nThumbnails )
+		{
+			expected = nThumbnails;
+			if ( expected > 0 )
+			{
+				gui.logger.setStatus( "Collecting spot thumbnails." );
+			}
+		}
+
+		@Override
+		public void imageStringsReady( final Map< Spot, String > images, final Map< Spot, Key > keys )
+		{
+			graph.getModel().beginUpdate();
+			try
+			{
+				for ( final Spot spot : images.keySet() )
+				{
+					// Skip thumbnails of spots moved since they were requested.
+					if ( !keys.get( spot ).equals( Key.of( spot ) ) )
+					{
+						continue;
+					}
+					final mxICell cell = graph.getCellFor( spot );
+					if ( null != cell )
+					{
+						setThumbnail( cell, images.get( spot ) );
+					}
+				}
+			}
+			finally
+			{
+				graph.getModel().endUpdate();
+			}
+
+			if ( expected > 0 )
+			{
+				received += images.size();
+				if ( received >= expected )
+				{
+					gui.logger.setProgress( 0d );
+					gui.logger.setStatus( "" );
+				}
+				else
+				{
+					gui.logger.setProgress( ( double ) received / expected );
+				}
+			}
+		}
+	}
+
 	private class SelectionChangeListener implements mxIEventListener
 	{
 
@@ -1247,39 +1364,19 @@ public class TrackScheme extends AbstractTrackMateModelView
 				spotPerFrame.get( frame ).add( spot );
 			}
 		}
-		// Set spot image to cell style
+		// Render spot images in the background, they are set to cell style
+		// as they come.
 		if ( null != spotImageUpdater )
 		{
-			gui.logger.setStatus( "Collecting spot thumbnails." );
-			int index = 0;
-			try
+			final ThumbnailSetter progressSetter = new ThumbnailSetter();
+			int nRequested = 0;
+			for ( final Integer frame : frames )
 			{
-				graph.getModel().beginUpdate();
-
-				// Iterate per frame
-				for ( final Integer frame : frames )
-				{
-					for ( final Spot spot : spotPerFrame.get( frame ) )
-					{
-
-						final mxICell cell = graph.getCellFor( spot );
-						final String imageStr = spotImageUpdater.getImageString( spot );
-						String style = cell.getStyle();
-						style = mxStyleUtils.setStyle( style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr );
-						graph.getModel().setStyle( cell, style );
-
-					}
-					gui.logger.setProgress( ( double ) index++ / frames.size() );
-				}
-			}
-			finally
-			{
-				graph.getModel().endUpdate();
-				gui.logger.setProgress( 0d );
-				gui.logger.setStatus( "" );
-				thumbnailCaptured = true; // After that they will be kept in
-				// synch thanks to #modelChanged
+				nRequested += spotImageUpdater.requestImageStrings( spotPerFrame.get( frame ), progressSetter );
 			}
+			progressSetter.expect( nRequested );
+			thumbnailCaptured = true; // After that they will be kept in
+			// synch thanks to #modelChanged
 		}
 	}
 
@@ -6,6 +6,7 @@ import fiji.plugin.trackmate.visualization.trackscheme.utils.SearchBar;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -15,6 +16,7 @@ import javax.swing.Box;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JToolBar;
 
 public class TrackSchemeToolbar extends JToolBar
@@ -30,6 +32,8 @@ public class TrackSchemeToolbar extends JToolBar
 
 	private static final ImageIcon THUMBNAIL_OFF_ICON = new ImageIcon( TrackSchemeFrame.class.getResource( "resources/images_bw.png" ) );;
 
+	private static final ImageIcon THUMBNAIL_DISK_CACHE_ICON = new ImageIcon( TrackSchemeFrame.class.getResource( "resources/camera_export.png" ) );
+
 	private static final ImageIcon RESET_ZOOM_ICON = new ImageIcon( TrackSchemeFrame.class.getResource( "resources/zoom.png" ) );
 
 	private static final ImageIcon ZOOM_IN_ICON = new ImageIcon( TrackSchemeFrame.class.getResource( "resources/zoom_in.png" ) );
@@ -121,6 +125,32 @@ public class TrackSchemeToolbar extends JToolBar
 		final JButton toggleThumbnailsButton = new JButton( toggleThumbnailAction );
 		toggleThumbnailsButton.setToolTipText( "<html>If enabled, spot thumnails will be captured <br/>" + "Can take long for large models.</html>" );
 
+		/*
+		 * Store thumbnails on disk
+		 */
+		final Action diskCacheAction = new AbstractAction( null, THUMBNAIL_DISK_CACHE_ICON )
+		{
+			@Override
+			public void actionPerformed( final ActionEvent e )
+			{
+				if ( null != trackScheme.getDisplaySettings( TrackScheme.KEY_THUMBNAIL_DISK_CACHE ) )
+				{
+					trackScheme.setDisplaySettings( TrackScheme.KEY_THUMBNAIL_DISK_CACHE, null );
+				}
+				else
+				{
+					final JFileChooser chooser = new JFileChooser();
+					chooser.setFileSelectionMode( JFileChooser.DIRECTORIES_ONLY );
+					chooser.setDialogTitle( "Folder to store spot thumbnails in" );
+					if ( chooser.showDialog( TrackSchemeToolbar.this, "Select" ) != JFileChooser.APPROVE_OPTION ) { return; }
+					trackScheme.setDisplaySettings( TrackScheme.KEY_THUMBNAIL_DISK_CACHE, chooser.getSelectedFile() );
+				}
+				putValue( SHORT_DESCRIPTION, getDiskCacheToolTip( ( File ) trackScheme.getDisplaySettings( TrackScheme.KEY_THUMBNAIL_DISK_CACHE ) ) );
+			}
+		};
+		diskCacheAction.putValue( Action.SHORT_DESCRIPTION, getDiskCacheToolTip( ( File ) trackScheme.getDisplaySettings( TrackScheme.KEY_THUMBNAIL_DISK_CACHE ) ) );
+		final JButton diskCacheButton = new JButton( diskCacheAction );
+
 		/*
 		 * Zoom
 		 */
@@ -292,6 +322,7 @@ public class TrackSchemeToolbar extends JToolBar
 		addSeparator();
 		// Thumbnails
 		add( toggleThumbnailsButton );
+		add( diskCacheButton );
 		// Separator
 		addSeparator();
 		// Linking
@@ -328,4 +359,10 @@ public class TrackSchemeToolbar extends JToolBar
 		final Dimension dim = new Dimension( 100, 30 );
 		setPreferredSize( dim );
 	}
+
+	private static String getDiskCacheToolTip( final File folder )
+	{
+		if ( null == folder ) { return "<html>Store spot thumbnails on disk, to reuse them <br/>" + "in later sessions. Click to select a folder.</html>"; }
+		return "<html>Spot thumbnails are stored in " + folder.getPath() + ". <br/>" + "Click to keep them in memory only.</html>";
+	}
 }
@@ -1,6 +1,7 @@
 package fiji.plugin.trackmate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
@@ -561,4 +562,43 @@ public class ModelTest {
 		}
 
 	}
+
+	/**
+	 * Test that editing a spot only discards the spatial index of its frame.
+	 */
+	@Test
+	public void testEditKeepsOtherFrameGrids() {
+		final Model model = new Model();
+		final Spot s0 = new Spot( 0d, 0d, 0d, 1d, -1d, "S0" );
+		final Spot s1 = new Spot( 10d, 0d, 0d, 1d, -1d, "S1" );
+		model.beginUpdate();
+		try {
+			model.addSpotTo(s0, 0);
+			model.addSpotTo(s1, 1);
+		} finally {
+			model.endUpdate();
+		}
+
+		// Build the grids of both frames.
+		final SpotCollection spots = model.getSpots();
+		assertEquals(s0, spots.getClosestSpot(s1, 0, false));
+		assertEquals(s1, spots.getClosestSpot(s0, 1, false));
+		assertTrue(spots.hasGrid(0));
+		assertTrue(spots.hasGrid(1));
+
+		// Move the spot of frame 0.
+		model.beginUpdate();
+		try {
+			s0.putFeature(Spot.POSITION_X, 20d);
+			model.updateFeatures(s0);
+		} finally {
+			model.endUpdate();
+		}
+
+		assertFalse(spots.hasGrid(0));
+		assertTrue(spots.hasGrid(1));
+		assertEquals(s0, spots.getSpotAt(new Spot( 20d, 0d, 0d, 1d, -1d ), 0, false));
+		assertEquals(s1, spots.getSpotAt(new Spot( 10d, 0d, 0d, 1d, -1d ), 1, false));
+	}
+
 }
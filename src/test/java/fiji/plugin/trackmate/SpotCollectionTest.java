@@ -197,6 +197,88 @@ public class SpotCollectionTest
 		assertEquals( 3 * 5, sc.getNSpots( true ) );
 	}
 
+	@Test
+	public void testIndexedFilters()
+	{
+		final SpotCollection scanned = new SpotCollection();
+		final SpotCollection indexed = new SpotCollection();
+		indexed.setIndexed( true );
+		final Random ran = new Random( 1l );
+		final List< Spot > allScanned = new ArrayList< Spot >();
+		final List< Spot > allIndexed = new ArrayList< Spot >();
+		for ( int frame = 0; frame < 5; frame++ )
+		{
+			final List< Spot > spotsScanned = new ArrayList< Spot >();
+			final List< Spot > spotsIndexed = new ArrayList< Spot >();
+			for ( int j = 0; j < 200; j++ )
+			{
+				// Ties, signed zeros and NaNs.
+				final double quality = ran.nextInt( 10 ) == 0 ? Double.NaN : ran.nextInt( 20 ) - 10d;
+				final double radius = ran.nextInt( 10 ) == 0 ? -0d : ran.nextGaussian();
+				final Spot spot = new Spot( j, j, 0, radius, quality );
+				spotsScanned.add( spot );
+				spotsIndexed.add( new Spot( j, j, 0, radius, quality ) );
+			}
+			scanned.put( frame, spotsScanned );
+			indexed.put( frame, spotsIndexed );
+			allScanned.addAll( spotsScanned );
+			allIndexed.addAll( spotsIndexed );
+		}
+
+		for ( int t = 0; t < 100; t++ )
+		{
+			final List< FeatureFilter > filters = new ArrayList< FeatureFilter >();
+			final int nFilters = t < 50 ? 1 : ran.nextInt( 4 );
+			for ( int i = 0; i < nFilters; i++ )
+			{
+				if ( t % 7 == 0 )
+				{
+					filters.add( new FeatureFilter( Spot.RADIUS, 0d, ran.nextBoolean() ) );
+				}
+				else if ( ran.nextBoolean() )
+				{
+					filters.add( new FeatureFilter( Spot.QUALITY, ran.nextInt( 24 ) - 12d, t < 25 ) );
+				}
+				else
+				{
+					filters.add( new FeatureFilter( Spot.RADIUS, ran.nextGaussian(), ran.nextBoolean() ) );
+				}
+			}
+			if ( t % 10 == 9 )
+			{
+				scanned.setVisible( ran.nextBoolean() );
+				indexed.setVisible( ran.nextBoolean() );
+			}
+			scanned.filter( filters );
+			indexed.filter( filters );
+
+			for ( int i = 0; i < allScanned.size(); i++ )
+			{
+				assertEquals( "For filters " + filters + ".", isVisible( allScanned.get( i ) ), isVisible( allIndexed.get( i ) ) );
+			}
+		}
+	}
+
+	@Test
+	public void testIndexedFilterAfterAdd()
+	{
+		sc.setIndexed( true );
+		sc.filter( new FeatureFilter( Spot.QUALITY, 2d, false ) );
+		assertEquals( 3 * N_FRAMES, sc.getNSpots( true ) );
+
+		sc.add( new Spot( 0d, 0d, 0d, 1d, 0d ), frames.get( 0 ) );
+		sc.filter( new FeatureFilter( Spot.QUALITY, 1d, false ) );
+		assertEquals( 2 * N_FRAMES + 1, sc.getNSpots( true ) );
+
+		// Feature changes must be signaled.
+		final Spot spot = sc.iterator( frames.get( 1 ), false ).next();
+		final int expected = spot.getFeature( Spot.QUALITY ) > 1d ? 2 * N_FRAMES + 2 : 2 * N_FRAMES + 1;
+		spot.putFeature( Spot.QUALITY, -1d );
+		sc.invalidateIndex();
+		sc.filter( new FeatureFilter( Spot.QUALITY, 1d, false ) );
+		assertEquals( expected, sc.getNSpots( true ) );
+	}
+
 	@Test
 	public void testGetClosestSpot()
 	{
@@ -296,6 +378,114 @@ public class SpotCollectionTest
 		}
 	}
 
+	@Test
+	public void testSpatialQueries()
+	{
+		final Random ran = new Random( 5l );
+		final SpotCollection collection = new SpotCollection();
+		final List< Spot > spots = new ArrayList< Spot >();
+		for ( int i = 0; i < 500; i++ )
+		{
+			final Spot spot = new Spot( 100 * ran.nextDouble(), 50 * ran.nextDouble(), 10 * ran.nextDouble(), 1 + 4 * ran.nextDouble(), -1d );
+			collection.add( spot, 0 );
+			spot.putFeature( SpotCollection.VISIBLITY, ran.nextBoolean() ? SpotCollection.ONE : SpotCollection.ZERO );
+			spots.add( spot );
+		}
+		checkSpatialQueries( ran, collection, spots );
+
+		// Incremental updates, inside and outside the indexed bounds.
+		for ( int i = 0; i < 100; i++ )
+		{
+			final Spot removed = spots.remove( ran.nextInt( spots.size() ) );
+			assertTrue( collection.remove( removed, 0 ) );
+			final Spot added = new Spot( 150 * ran.nextDouble() - 25, 75 * ran.nextDouble() - 12, 10 * ran.nextDouble(), 1 + 4 * ran.nextDouble(), -1d );
+			collection.add( added, 0 );
+			spots.add( added );
+		}
+		checkSpatialQueries( ran, collection, spots );
+
+		// Moves must be signaled.
+		for ( final Spot spot : spots )
+		{
+			spot.putFeature( Spot.POSITION_X, spot.getFeature( Spot.POSITION_Y ) );
+			spot.putFeature( Spot.RADIUS, 2 * spot.getFeature( Spot.RADIUS ) );
+		}
+		collection.invalidateIndex();
+		checkSpatialQueries( ran, collection, spots );
+
+		assertNull( collection.getClosestSpot( spots.get( 0 ), 1, false ) );
+		assertNull( collection.getSpotAt( spots.get( 0 ), 1, false ) );
+		assertTrue( collection.getNClosestSpots( spots.get( 0 ), 1, 3, false ).isEmpty() );
+	}
+
+	/**
+	 * Compares the spatial queries of the specified collection, in frame 0,
+	 * with a scan of the specified spots.
+	 */
+	private static void checkSpatialQueries( final Random ran, final SpotCollection collection, final List< Spot > spots )
+	{
+		for ( int i = 0; i < 200; i++ )
+		{
+			final Spot location = new Spot( 160 * ran.nextDouble() - 30, 80 * ran.nextDouble() - 15, 10 * ran.nextDouble(), 1d, -1d );
+			final boolean visibleOnly = ran.nextBoolean();
+			final List< Spot > candidates = new ArrayList< Spot >();
+			for ( final Spot spot : spots )
+			{
+				if ( !visibleOnly || isVisible( spot ) )
+				{
+					candidates.add( spot );
+				}
+			}
+
+			double minDist = Double.POSITIVE_INFINITY;
+			double minDistAt = Double.POSITIVE_INFINITY;
+			final double[] d2s = new double[ candidates.size() ];
+			int nWithin = 0;
+			for ( int j = 0; j < d2s.length; j++ )
+			{
+				final Spot spot = candidates.get( j );
+				d2s[ j ] = spot.squareDistanceTo( location );
+				minDist = Math.min( minDist, d2s[ j ] );
+				final double radius = spot.getFeature( Spot.RADIUS );
+				if ( d2s[ j ] < radius * radius )
+				{
+					minDistAt = Math.min( minDistAt, d2s[ j ] );
+				}
+				if ( d2s[ j ] <= 100d )
+				{
+					nWithin++;
+				}
+			}
+			Arrays.sort( d2s );
+
+			assertEquals( minDist, collection.getClosestSpot( location, 0, visibleOnly ).squareDistanceTo( location ), 0d );
+			final Spot at = collection.getSpotAt( location, 0, visibleOnly );
+			if ( Double.isInfinite( minDistAt ) )
+			{
+				assertNull( at );
+			}
+			else
+			{
+				assertEquals( minDistAt, at.squareDistanceTo( location ), 0d );
+			}
+
+			final int n = ran.nextInt( 20 );
+			final List< Spot > closest = collection.getNClosestSpots( location, 0, n, visibleOnly );
+			assertEquals( Math.min( n, d2s.length ), closest.size() );
+			for ( int j = 0; j < closest.size(); j++ )
+			{
+				assertEquals( d2s[ j ], closest.get( j ).squareDistanceTo( location ), 0d );
+			}
+
+			final List< Spot > within = collection.getSpotsWithin( location, 0, 10d, visibleOnly );
+			assertEquals( nWithin, within.size() );
+			for ( final Spot spot : within )
+			{
+				assertTrue( spot.squareDistanceTo( location ) <= 100d );
+			}
+		}
+	}
+
 	@Test
 	public void testGetNSpots()
 	{
@@ -0,0 +1,141 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SpotTest
+{
+
+	@Test
+	public void testMissingFeature()
+	{
+		final Spot spot = new Spot( 1, 2, 3, 4, 5 );
+		assertNull( "A feature never used must be null.", spot.getFeature( "SpotTest_NEVER_USED" ) );
+
+		// The feature gets a slot, but this spot does not set it.
+		final Spot other = new Spot( 1, 2, 3, 4, 5 );
+		other.putFeature( "SpotTest_MISSING", 1d );
+		assertNull( "A feature set on another spot only must be null.", spot.getFeature( "SpotTest_MISSING" ) );
+		assertFalse( spot.getFeatures().containsKey( "SpotTest_MISSING" ) );
+		assertNull( spot.getFeatures().get( "SpotTest_MISSING" ) );
+		assertEquals( 1d, other.getFeature( "SpotTest_MISSING" ), 0d );
+	}
+
+	@Test
+	public void testNaN()
+	{
+		final Spot spot = new Spot( 1, 2, 3, 4, 5 );
+		spot.putFeature( "SpotTest_NAN", Double.NaN );
+		assertNotNull( "NaN is a value, not a missing feature.", spot.getFeature( "SpotTest_NAN" ) );
+		assertTrue( Double.isNaN( spot.getFeature( "SpotTest_NAN" ) ) );
+		assertTrue( spot.getFeatures().containsKey( "SpotTest_NAN" ) );
+
+		// Even a NaN with the bits that mark missing features.
+		final double marker = Double.longBitsToDouble( 0x7ff8000000000001l );
+		spot.putFeature( "SpotTest_NAN_MARKER", marker );
+		assertNotNull( spot.getFeature( "SpotTest_NAN_MARKER" ) );
+		assertTrue( Double.isNaN( spot.getFeature( "SpotTest_NAN_MARKER" ) ) );
+
+		spot.putFeature( Spot.QUALITY, Double.NaN );
+		assertTrue( Double.isNaN( spot.getFeature( Spot.QUALITY ) ) );
+	}
+
+	@Test
+	public void testMapView()
+	{
+		final Spot spot = new Spot( 1, 2, 3, 4, 5 );
+		final Map< String, Double > features = spot.getFeatures();
+		assertEquals( 5, features.size() );
+
+		// Writes through the map reach the spot.
+		assertNull( features.put( "SpotTest_VIEW", 10d ) );
+		assertEquals( 10d, spot.getFeature( "SpotTest_VIEW" ), 0d );
+		assertEquals( 10d, features.put( "SpotTest_VIEW", 11d ), 0d );
+		assertEquals( 11d, spot.getFeature( "SpotTest_VIEW" ), 0d );
+		assertEquals( 6, features.size() );
+
+		// Writes to the spot are seen by the map.
+		spot.putFeature( Spot.RADIUS, 7d );
+		assertEquals( 7d, features.get( Spot.RADIUS ), 0d );
+
+		assertEquals( 11d, features.remove( "SpotTest_VIEW" ), 0d );
+		assertNull( spot.getFeature( "SpotTest_VIEW" ) );
+		assertNull( features.remove( "SpotTest_VIEW" ) );
+		assertEquals( 5, features.size() );
+
+		// Entries write through too.
+		for ( final Map.Entry< String, Double > entry : features.entrySet() )
+		{
+			if ( entry.getKey().equals( Spot.QUALITY ) )
+			{
+				entry.setValue( 50d );
+			}
+		}
+		assertEquals( 50d, spot.getFeature( Spot.QUALITY ), 0d );
+
+		for ( final Iterator< Map.Entry< String, Double > > it = features.entrySet().iterator(); it.hasNext(); )
+		{
+			if ( it.next().getKey().equals( Spot.QUALITY ) )
+			{
+				it.remove();
+			}
+		}
+		assertNull( spot.getFeature( Spot.QUALITY ) );
+		assertEquals( 4, features.size() );
+	}
+
+	@Test
+	public void testIterationOrder()
+	{
+		final Spot spot = new Spot( 1, 2, 3, 4, 5 );
+		spot.putFeature( "SpotTest_ORDER_B", 2d );
+		spot.putFeature( "SpotTest_ORDER_A", 1d );
+		spot.putFeature( Spot.FRAME, 0d );
+
+		final List< String > keys = new ArrayList< String >( spot.getFeatures().keySet() );
+		assertEquals( Arrays.asList( Spot.POSITION_X, Spot.POSITION_Y, Spot.POSITION_Z, Spot.RADIUS, Spot.QUALITY, Spot.FRAME ), keys.subList( 0, 6 ) );
+		assertTrue( "Features are iterated in the order they were first used.", keys.indexOf( "SpotTest_ORDER_B" ) < keys.indexOf( "SpotTest_ORDER_A" ) );
+	}
+
+	@Test
+	public void testSlotGrowth()
+	{
+		// This spot is created before the features below get a slot.
+		final Spot old = new Spot( 1, 2, 3, 4, 5 );
+
+		final Spot spot = new Spot( 1, 2, 3, 4, 5 );
+		final int n = 200;
+		for ( int i = 0; i < n; i++ )
+		{
+			spot.putFeature( "SpotTest_GROWTH_" + i, Double.valueOf( i ) );
+		}
+		for ( int i = 0; i < n; i++ )
+		{
+			assertEquals( i, spot.getFeature( "SpotTest_GROWTH_" + i ), 0d );
+			assertNull( old.getFeature( "SpotTest_GROWTH_" + i ) );
+		}
+		assertEquals( 5 + n, spot.getFeatures().size() );
+
+		old.putFeature( "SpotTest_GROWTH_" + ( n - 1 ), -1d );
+		assertEquals( -1d, old.getFeature( "SpotTest_GROWTH_" + ( n - 1 ) ), 0d );
+		assertNull( old.getFeature( "SpotTest_GROWTH_0" ) );
+		assertEquals( 6, old.getFeatures().size() );
+		assertEquals( 2d, old.getDoublePosition( 1 ), 0d );
+
+		// A copy does not share the storage.
+		final Spot copy = new Spot( spot );
+		copy.putFeature( Spot.POSITION_X, 100d );
+		assertEquals( 1d, spot.getFeature( Spot.POSITION_X ), 0d );
+	}
+}
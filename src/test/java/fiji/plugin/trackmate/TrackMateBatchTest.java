@@ -0,0 +1,149 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrackMateBatchTest
+{
+
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		folder = File.createTempFile( "TrackMateBatch", "" );
+		assertTrue( folder.delete() && folder.mkdir() );
+	}
+
+	@After
+	public void tearDown()
+	{
+		delete( folder );
+	}
+
+	@Test
+	public void testGlobToRegex()
+	{
+		final Pattern star = Pattern.compile( TrackMateBatch.globToRegex( "*.tif" ) );
+		assertTrue( star.matcher( "movie.tif" ).matches() );
+		assertTrue( star.matcher( ".tif" ).matches() );
+		assertFalse( star.matcher( "movie.tiff" ).matches() );
+		assertFalse( star.matcher( "movie.tif.bak" ).matches() );
+		assertFalse( "Dots are not wildcards.", star.matcher( "movie_tif" ).matches() );
+
+		final Pattern question = Pattern.compile( TrackMateBatch.globToRegex( "movie?.tif" ) );
+		assertTrue( question.matcher( "movie1.tif" ).matches() );
+		assertFalse( question.matcher( "movie12.tif" ).matches() );
+		assertFalse( question.matcher( "movie.tif" ).matches() );
+
+		final Pattern special = Pattern.compile( TrackMateBatch.globToRegex( "a+b (1)[x]$.tif" ) );
+		assertTrue( special.matcher( "a+b (1)[x]$.tif" ).matches() );
+		assertFalse( special.matcher( "aab (1)x$.tif" ).matches() );
+	}
+
+	@Test
+	public void testExpandPattern() throws IOException
+	{
+		final File b = touch( "b.tif" );
+		final File a = touch( "a.tif" );
+		touch( "c.txt" );
+		assertTrue( new File( folder, "d.tif" ).mkdir() );
+
+		assertEquals( "Only files are matched, in sorted order.", Arrays.asList( a, b ), TrackMateBatch.expand( new File( folder, "*.tif" ).getPath() ) );
+		assertEquals( Arrays.asList( a ), TrackMateBatch.expand( new File( folder, "a.ti?" ).getPath() ) );
+
+		// Plain paths are returned as they are, even if they do not exist.
+		final File missing = new File( folder, "missing.tif" );
+		assertEquals( Arrays.asList( missing ), TrackMateBatch.expand( missing.getPath() ) );
+		assertTrue( TrackMateBatch.expand( new File( folder, "*.png" ).getPath() ).isEmpty() );
+	}
+
+	@Test
+	public void testExpandList() throws IOException
+	{
+		final File a = touch( "a.tif" );
+		final File b = touch( "b.tif" );
+		final File c = touch( "c.tif" );
+		final File sub = new File( folder, "list2.txt" );
+		write( sub, c.getPath() );
+		final File list = new File( folder, "list.txt" );
+		write( list, "# A comment.", b.getPath(), "", "   " + a.getPath() + "   ", "@" + sub.getPath(), new File( folder, "?.tif" ).getPath() );
+
+		final List< File > files = TrackMateBatch.expand( "@" + list.getPath() );
+		assertEquals( Arrays.asList( b, a, c, a, b, c ), files );
+	}
+
+	@Test
+	public void testReadDone() throws IOException
+	{
+		final File report = new File( folder, TrackMateBatch.REPORT_FILE_NAME );
+		assertTrue( "No report, nothing done.", TrackMateBatch.readDone( report ).isEmpty() );
+
+		final String ok = new File( folder, "ok.tif" ).getAbsolutePath();
+		final String failed = new File( folder, "failed.tif" ).getAbsolutePath();
+		final String retried = new File( folder, "retried.tif" ).getAbsolutePath();
+		write( report,
+				"Image\tStatus\tSpots\tTracks",
+				ok + "\tOK\t10\t2\t1\t1\t1\t1\t1\t5\t",
+				failed + "\tFAILED\t-1\t-1\t-1\t-1\t-1\t-1\t-1\t3\tCannot open image.",
+				retried + "\tFAILED\t-1\t-1\t-1\t-1\t-1\t-1\t-1\t3\tOut of memory.",
+				retried + "\tOK\t4\t1\t1\t1\t1\t1\t1\t5\t",
+				"truncated line" );
+
+		final Set< String > done = TrackMateBatch.readDone( report );
+		assertEquals( 2, done.size() );
+		assertTrue( done.contains( ok ) );
+		assertTrue( "An image that succeeded on resume is done.", done.contains( retried ) );
+		assertFalse( "A failed image is processed again.", done.contains( failed ) );
+	}
+
+	private File touch( final String name ) throws IOException
+	{
+		final File file = new File( folder, name );
+		assertTrue( file.createNewFile() );
+		return file;
+	}
+
+	private static void write( final File file, final String... lines ) throws IOException
+	{
+		final PrintWriter writer = new PrintWriter( new FileWriter( file ) );
+		try
+		{
+			for ( final String line : lines )
+			{
+				writer.println( line );
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	private static void delete( final File file )
+	{
+		final File[] children = file.listFiles();
+		if ( null != children )
+		{
+			for ( final File child : children )
+			{
+				delete( child );
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,205 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.detection.DetectionSink;
+import fiji.plugin.trackmate.detection.DetectorKeys;
+import fiji.plugin.trackmate.detection.LogDetectorFactory;
+import fiji.plugin.trackmate.detection.SpotFileSink;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class TrackMateDetectionSinkTest
+{
+
+	private static final int N_FRAMES = 8;
+
+	private static final double RADIUS = 3d;
+
+	@Test
+	public void testStreamingMatchesModel()
+	{
+		final TrackMate reference = new TrackMate( createSettings() );
+		assertTrue( reference.getErrorMessage(), reference.execDetection() );
+		final SpotCollection expected = reference.getModel().getSpots();
+
+		final CollectingSink sink = new CollectingSink( -1 );
+		final TrackMate streaming = new TrackMate( createSettings() );
+		streaming.setDetectionSink( sink );
+		streaming.setMaxFramesInFlight( 2 );
+		assertTrue( streaming.getErrorMessage(), streaming.execDetection() );
+
+		assertTrue( sink.closed );
+		assertEquals( "The model is left untouched by a sink.", 0, streaming.getModel().getSpots().getNSpots( false ) );
+		assertEquals( N_FRAMES, sink.spots.size() );
+		for ( int frame = 0; frame < N_FRAMES; frame++ )
+		{
+			final List< Spot > expectedSpots = new ArrayList< Spot >();
+			for ( final Spot spot : expected.iterable( frame, false ) )
+			{
+				expectedSpots.add( spot );
+			}
+			final List< Spot > actualSpots = sink.spots.get( frame );
+			assertTrue( "Spots should be found in frame " + frame + ".", !expectedSpots.isEmpty() );
+			assertEquals( expectedSpots.size(), actualSpots.size() );
+			sort( expectedSpots );
+			sort( actualSpots );
+			for ( int i = 0; i < expectedSpots.size(); i++ )
+			{
+				final Spot e = expectedSpots.get( i );
+				final Spot a = actualSpots.get( i );
+				for ( final String feature : new String[] { Spot.POSITION_X, Spot.POSITION_Y, Spot.POSITION_Z, Spot.POSITION_T, Spot.RADIUS, Spot.QUALITY } )
+				{
+					assertEquals( feature, e.getFeature( feature ), a.getFeature( feature ), 1e-9 );
+				}
+			}
+		}
+	}
+
+	@Test( timeout = 60000 )
+	public void testThrowingSink()
+	{
+		final CollectingSink sink = new CollectingSink( 2 );
+		final TrackMate trackmate = new TrackMate( createSettings() );
+		trackmate.setDetectionSink( sink );
+		trackmate.setMaxFramesInFlight( 1 );
+		assertFalse( "Detection must fail, not hang, when the sink throws.", trackmate.execDetection() );
+		assertNotNull( trackmate.getErrorMessage() );
+		assertTrue( trackmate.getErrorMessage().contains( "Sink failure" ) );
+		assertTrue( "The sink must still be closed.", sink.closed );
+	}
+
+	@Test
+	public void testSpotFileSinkKeepsIDs() throws IOException
+	{
+		final File file = File.createTempFile( "spots", ".bin" );
+		try
+		{
+			final List< Spot > spots = new ArrayList< Spot >();
+			for ( int i = 0; i < 5; i++ )
+			{
+				final Spot spot = new Spot( i, 2 * i, 0, 1.5, 10 + i );
+				spot.putFeature( Spot.POSITION_T, 3d );
+				spots.add( spot );
+			}
+			final SpotFileSink sink = new SpotFileSink( file );
+			assertTrue( sink.getErrorMessage(), sink.put( 3, spots ) && sink.close() );
+
+			final SpotCollection read = SpotFileSink.read( file );
+			assertEquals( spots.size(), read.getNSpots( 3, false ) );
+			for ( final Spot spot : spots )
+			{
+				final Spot copy = read.search( spot.ID() );
+				assertNotNull( "Spot IDs must be kept.", copy );
+				assertEquals( spot.getName(), copy.getName() );
+				assertEquals( spot.getFeature( Spot.POSITION_Y ), copy.getFeature( Spot.POSITION_Y ), 0d );
+				assertEquals( spot.getFeature( Spot.QUALITY ), copy.getFeature( Spot.QUALITY ), 0d );
+				assertEquals( 3d, copy.getFeature( Spot.POSITION_T ), 0d );
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	private static void sort( final List< Spot > spots )
+	{
+		Collections.sort( spots, new Comparator< Spot >()
+		{
+			@Override
+			public int compare( final Spot o1, final Spot o2 )
+			{
+				final int c = Double.compare( o1.getFeature( Spot.POSITION_X ), o2.getFeature( Spot.POSITION_X ) );
+				return c != 0 ? c : Double.compare( o1.getFeature( Spot.POSITION_Y ), o2.getFeature( Spot.POSITION_Y ) );
+			}
+		} );
+	}
+
+	/**
+	 * Settings for a 64x64 movie with 3 blobs per frame, moving along X.
+	 */
+	private static Settings createSettings()
+	{
+		final ImagePlus imp = IJ.createImage( "blobs", "32-bit black", 64, 64, 1, 1, N_FRAMES );
+		for ( int frame = 0; frame < N_FRAMES; frame++ )
+		{
+			final ImageProcessor ip = imp.getStack().getProcessor( imp.getStackIndex( 1, 1, frame + 1 ) );
+			for ( int blob = 0; blob < 3; blob++ )
+			{
+				final double bx = 10 + 2 * frame + 5 * blob;
+				final double by = 12 + 18 * blob;
+				for ( int y = 0; y < 64; y++ )
+				{
+					for ( int x = 0; x < 64; x++ )
+					{
+						final double d2 = ( x - bx ) * ( x - bx ) + ( y - by ) * ( y - by );
+						ip.setf( x, y, ip.getf( x, y ) + ( float ) ( 200 * Math.exp( -d2 / ( RADIUS * RADIUS ) ) ) );
+					}
+				}
+			}
+		}
+
+		final Settings settings = new Settings();
+		settings.setFrom( imp );
+		settings.detectorFactory = new LogDetectorFactory();
+		final Map< String, Object > detectorSettings = settings.detectorFactory.getDefaultSettings();
+		detectorSettings.put( DetectorKeys.KEY_RADIUS, RADIUS );
+		detectorSettings.put( DetectorKeys.KEY_THRESHOLD, 1d );
+		settings.detectorSettings = detectorSettings;
+		return settings;
+	}
+
+	/**
+	 * Keeps the spots it receives, and throws on the specified frame.
+	 */
+	private static class CollectingSink implements DetectionSink
+	{
+
+		private final int failingFrame;
+
+		private final Map< Integer, List< Spot >> spots = new TreeMap< Integer, List< Spot >>();
+
+		private boolean closed = false;
+
+		public CollectingSink( final int failingFrame )
+		{
+			this.failingFrame = failingFrame;
+		}
+
+		@Override
+		public boolean put( final int frame, final List< Spot > frameSpots )
+		{
+			if ( frame == failingFrame ) { throw new IllegalStateException( "Sink failure" ); }
+			spots.put( frame, new ArrayList< Spot >( frameSpots ) );
+			return true;
+		}
+
+		@Override
+		public boolean close()
+		{
+			closed = true;
+			return true;
+		}
+
+		@Override
+		public String getErrorMessage()
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.LogDetector.Tile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+public class LogDetectorTilesTest
+{
+
+	@Test
+	public void testSingleTile()
+	{
+		final Interval interval = new FinalInterval( new long[] { 10, 20 }, new long[] { 109, 219 } );
+		final List< Tile > tiles = LogDetector.createTiles( interval, new long[] { 8, 8 }, 0 );
+		assertEquals( "Tiling disabled should yield one tile.", 1, tiles.size() );
+
+		final List< Tile > tiles2 = LogDetector.createTiles( interval, new long[] { 8, 8 }, 100 * 200 );
+		assertEquals( "Small interval should yield one tile.", 1, tiles2.size() );
+		assertIntervalEquals( interval, tiles2.get( 0 ).core );
+		assertIntervalEquals( interval, tiles2.get( 0 ).extended );
+	}
+
+	@Test
+	public void testTilesPartitionInterval()
+	{
+		final Interval interval = new FinalInterval( new long[] { 5, 0, 2 }, new long[] { 404, 300, 41 } );
+		final long[] halo = new long[] { 12, 12, 5 };
+		final long maxTileSize = 100 * 100 * 40;
+		final List< Tile > tiles = LogDetector.createTiles( interval, halo, maxTileSize );
+		assertTrue( "Large interval should be split.", tiles.size() > 1 );
+
+		final long width = interval.dimension( 0 );
+		final long height = interval.dimension( 1 );
+		final long depth = interval.dimension( 2 );
+		final int[] owners = new int[ ( int ) ( width * height * depth ) ];
+		for ( final Tile tile : tiles )
+		{
+			long size = 1;
+			for ( int d = 0; d < 3; d++ )
+			{
+				// Extended interval = core + halo, clipped to the interval.
+				assertEquals( Math.max( interval.min( d ), tile.core.min( d ) - halo[ d ] ), tile.extended.min( d ) );
+				assertEquals( Math.min( interval.max( d ), tile.core.max( d ) + halo[ d ] ), tile.extended.max( d ) );
+				size *= tile.extended.dimension( d );
+			}
+			assertTrue( "Tile is larger than the maximal size: " + size, size <= maxTileSize );
+
+			for ( long z = tile.core.min( 2 ); z <= tile.core.max( 2 ); z++ )
+			{
+				for ( long y = tile.core.min( 1 ); y <= tile.core.max( 1 ); y++ )
+				{
+					for ( long x = tile.core.min( 0 ); x <= tile.core.max( 0 ); x++ )
+					{
+						owners[ ( int ) ( ( x - interval.min( 0 ) ) + width * ( ( y - interval.min( 1 ) ) + height * ( z - interval.min( 2 ) ) ) ) ]++;
+					}
+				}
+			}
+		}
+
+		for ( int i = 0; i < owners.length; i++ )
+		{
+			assertEquals( "Pixel " + i + " should belong to exactly one tile core.", 1, owners[ i ] );
+		}
+	}
+
+	@Test
+	public void testCoresNotSmallerThanHalo()
+	{
+		final Interval interval = new FinalInterval( 64, 64 );
+		final long[] halo = new long[] { 10, 10 };
+		final List< Tile > tiles = LogDetector.createTiles( interval, halo, 1 );
+		for ( final Tile tile : tiles )
+		{
+			for ( int d = 0; d < 2; d++ )
+			{
+				assertTrue( tile.core.dimension( d ) >= halo[ d ] );
+			}
+		}
+	}
+
+	@Test
+	public void testSameSpotsOnTileBorders()
+	{
+		final double radius = 3d;
+		final double[] calibration = new double[] { 1d, 1d };
+		final int size = 240;
+		final long maxTileSize = 70 * 70;
+		final Interval interval = new FinalInterval( size, size );
+
+		// Put blobs on the borders and corners of the tile cores.
+		final LogDetector< FloatType > probe = new LogDetector< FloatType >( ArrayImgs.floats( size, size ), interval, calibration, radius, 1d, true, false );
+		final List< Tile > tiles = LogDetector.createTiles( interval, probe.getHalo(), maxTileSize );
+		assertTrue( "The image should be split in several tiles.", tiles.size() > 1 );
+		final List< double[] > blobs = new ArrayList< double[] >();
+		for ( final Tile tile : tiles )
+		{
+			final long x0 = tile.core.min( 0 );
+			final long y0 = tile.core.min( 1 );
+			addBlob( blobs, x0 + 0.3, y0 + 0.2, size );
+			addBlob( blobs, x0 - 0.4, y0 + tile.core.dimension( 1 ) / 2 + 0.1, size );
+			addBlob( blobs, x0 + tile.core.dimension( 0 ) / 2 + 0.2, y0 - 0.3, size );
+		}
+		final Img< FloatType > img = createImg( size, blobs, radius );
+
+		final List< Spot > expected = detect( img, interval, calibration, radius, 0 );
+		final List< Spot > actual = detect( img, interval, calibration, radius, maxTileSize );
+		assertTrue( "Spots should be found.", expected.size() >= blobs.size() );
+		assertEquals( "Tiling should not change the number of spots.", expected.size(), actual.size() );
+		for ( int i = 0; i < expected.size(); i++ )
+		{
+			for ( int d = 0; d < 2; d++ )
+			{
+				assertEquals( expected.get( i ).getDoublePosition( d ), actual.get( i ).getDoublePosition( d ), 1e-3 );
+			}
+			final double quality = expected.get( i ).getFeature( Spot.QUALITY );
+			assertEquals( quality, actual.get( i ).getFeature( Spot.QUALITY ), 1e-3 * Math.abs( quality ) );
+		}
+	}
+
+	private static List< Spot > detect( final Img< FloatType > img, final Interval interval, final double[] calibration, final double radius, final long maxTileSize )
+	{
+		final LogDetector< FloatType > detector = new LogDetector< FloatType >( img, interval, calibration, radius, 1d, true, false );
+		detector.setNumThreads( 2 );
+		detector.setMaxTileSize( maxTileSize );
+		assertTrue( detector.getErrorMessage(), detector.checkInput() && detector.process() );
+		final List< Spot > spots = new ArrayList< Spot >( detector.getResult() );
+		Collections.sort( spots, new Comparator< Spot >()
+		{
+			@Override
+			public int compare( final Spot o1, final Spot o2 )
+			{
+				final int c = Double.compare( o1.getDoublePosition( 0 ), o2.getDoublePosition( 0 ) );
+				return c != 0 ? c : Double.compare( o1.getDoublePosition( 1 ), o2.getDoublePosition( 1 ) );
+			}
+		} );
+		return spots;
+	}
+
+	/**
+	 * Adds a blob at the specified position, unless it is too close to the
+	 * image border or to another blob to be resolved.
+	 */
+	private static void addBlob( final List< double[] > blobs, final double x, final double y, final int size )
+	{
+		if ( x < 8 || y < 8 || x > size - 9 || y > size - 9 ) { return; }
+		for ( final double[] blob : blobs )
+		{
+			final double dx = blob[ 0 ] - x;
+			final double dy = blob[ 1 ] - y;
+			if ( dx * dx + dy * dy < 15 * 15 ) { return; }
+		}
+		blobs.add( new double[] { x, y } );
+	}
+
+	private static Img< FloatType > createImg( final int size, final List< double[] > blobs, final double radius )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( size, size );
+		final Cursor< FloatType > cursor = img.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			double val = 0;
+			for ( final double[] blob : blobs )
+			{
+				final double dx = cursor.getDoublePosition( 0 ) - blob[ 0 ];
+				final double dy = cursor.getDoublePosition( 1 ) - blob[ 1 ];
+				val += 200 * Math.exp( -( dx * dx + dy * dy ) / ( radius * radius ) );
+			}
+			cursor.get().setReal( val );
+		}
+		return img;
+	}
+
+	private static void assertIntervalEquals( final Interval expected, final Interval actual )
+	{
+		assertEquals( expected.numDimensions(), actual.numDimensions() );
+		for ( int d = 0; d < expected.numDimensions(); d++ )
+		{
+			assertEquals( expected.min( d ), actual.min( d ) );
+			assertEquals( expected.max( d ), actual.max( d ) );
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Spot;
+
+import java.util.List;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+public class LogDetectorWorkspaceTest
+{
+
+	private static final double RADIUS = 3d;
+
+	private static final double[] CALIBRATION = new double[] { 1d, 1d };
+
+	@Test
+	public void testKernelTransformedOnce()
+	{
+		final LogDetectorWorkspace workspace = new LogDetectorWorkspace( RADIUS, CALIBRATION );
+		final int nFrames = 5;
+		for ( int frame = 0; frame < nFrames; frame++ )
+		{
+			final Img< FloatType > img = createImg( 20 + frame, 30 );
+			final List< Spot > expected = detect( img, null );
+			final List< Spot > actual = detect( img, workspace );
+
+			assertTrue( "Spots should be found.", !expected.isEmpty() );
+			assertEquals( expected.size(), actual.size() );
+			for ( int i = 0; i < expected.size(); i++ )
+			{
+				for ( int d = 0; d < 2; d++ )
+				{
+					assertEquals( expected.get( i ).getDoublePosition( d ), actual.get( i ).getDoublePosition( d ), 1e-6 );
+				}
+				assertEquals( expected.get( i ).getFeature( Spot.QUALITY ), actual.get( i ).getFeature( Spot.QUALITY ), 1e-6 );
+			}
+		}
+		assertEquals( "The kernel should be transformed once for all frames.", 1, workspace.getKernelTransformCount() );
+	}
+
+	@Test
+	public void testMatches()
+	{
+		final LogDetectorWorkspace workspace = new LogDetectorWorkspace( RADIUS, CALIBRATION );
+		assertTrue( workspace.matches( RADIUS, new double[] { 1d, 1d } ) );
+		assertTrue( !workspace.matches( RADIUS + 1, CALIBRATION ) );
+		assertTrue( !workspace.matches( RADIUS, new double[] { 1d, 0.5 } ) );
+	}
+
+	@Test
+	public void testReleaseWorkspace()
+	{
+		final LogDetectorFactory< FloatType > factory = new LogDetectorFactory< FloatType >();
+		final LogDetectorWorkspace workspace = factory.getWorkspace( RADIUS, CALIBRATION );
+		assertSame( "Detectors of a run share the workspace.", workspace, factory.getWorkspace( RADIUS, CALIBRATION ) );
+		factory.releaseWorkspace();
+		assertNotSame( "A released workspace is not reused.", workspace, factory.getWorkspace( RADIUS, CALIBRATION ) );
+	}
+
+	private static List< Spot > detect( final Img< FloatType > img, final LogDetectorWorkspace workspace )
+	{
+		final LogDetector< FloatType > detector = new LogDetector< FloatType >( img, img, CALIBRATION, RADIUS, 1d, true, false );
+		detector.setNumThreads( 1 );
+		detector.setWorkspace( workspace );
+		assertTrue( detector.getErrorMessage(), detector.checkInput() && detector.process() );
+		return detector.getResult();
+	}
+
+	/**
+	 * A 64x64 image with a single bright blob at the specified position.
+	 */
+	private static Img< FloatType > createImg( final int x, final int y )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( 64, 64 );
+		final Cursor< FloatType > cursor = img.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final double dx = cursor.getDoublePosition( 0 ) - x;
+			final double dy = cursor.getDoublePosition( 1 ) - y;
+			cursor.get().setReal( 200 * Math.exp( -( dx * dx + dy * dy ) / ( RADIUS * RADIUS ) ) );
+		}
+		return img;
+	}
+}
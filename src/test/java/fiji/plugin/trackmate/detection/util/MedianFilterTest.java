@@ -0,0 +1,166 @@
+package fiji.plugin.trackmate.detection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+public class MedianFilterTest
+{
+
+	@Test
+	public void test2D()
+	{
+		final Img< FloatType > img = createImg( new Random( 1l ), 37, 23 );
+		for ( int radius = 0; radius <= 3; radius++ )
+		{
+			check( img, filter( img, radius, false, null ), radius, false );
+		}
+	}
+
+	@Test
+	public void test3D()
+	{
+		final Img< FloatType > img = createImg( new Random( 2l ), 17, 13, 7 );
+		for ( int radius = 1; radius <= 2; radius++ )
+		{
+			check( img, filter( img, radius, false, null ), radius, false );
+			check( img, filter( img, radius, true, null ), radius, true );
+		}
+	}
+
+	@Test
+	public void testThinImages()
+	{
+		final Random ran = new Random( 3l );
+		final Img< FloatType > line = createImg( ran, 11 );
+		check( line, filter( line, 1, false, null ), 1, false );
+		final Img< FloatType > row = createImg( ran, 11, 1 );
+		check( row, filter( row, 1, false, null ), 1, false );
+		final Img< FloatType > column = createImg( ran, 2, 11 );
+		check( column, filter( column, 1, false, null ), 1, false );
+	}
+
+	@Test
+	public void testInPlace()
+	{
+		final Img< FloatType > img = createImg( new Random( 4l ), 31, 19 );
+		final Img< FloatType > copy = img.copy();
+		final Img< FloatType > result = filter( img, 1, false, img );
+		assertSame( img, result );
+		check( copy, result, 1, false );
+	}
+
+	@Test
+	public void testInPlaceBands()
+	{
+		final Img< FloatType > img = createImg( new Random( 5l ), 23, 29 );
+		for ( int radius = 1; radius <= 3; radius++ )
+		{
+			for ( int bandRows = 1; bandRows <= 8; bandRows += 3 )
+			{
+				final Img< FloatType > copy = img.copy();
+				check( img, filter( copy, radius, false, copy, bandRows ), radius, false );
+			}
+		}
+
+		final Img< FloatType > img3D = createImg( new Random( 6l ), 9, 11, 8 );
+		for ( int radius = 1; radius <= 2; radius++ )
+		{
+			final Img< FloatType > copy = img3D.copy();
+			check( img3D, filter( copy, radius, false, copy, 1 ), radius, false );
+			final Img< FloatType > planes = img3D.copy();
+			check( img3D, filter( planes, radius, true, planes, 1 ), radius, true );
+		}
+	}
+
+	private static Img< FloatType > filter( final Img< FloatType > img, final int radius, final boolean planeWise, final Img< FloatType > output )
+	{
+		return filter( img, radius, planeWise, output, MedianFilter.BAND_ROWS );
+	}
+
+	private static Img< FloatType > filter( final Img< FloatType > img, final int radius, final boolean planeWise, final Img< FloatType > output, final int bandRows )
+	{
+		final MedianFilter< FloatType > filter = new MedianFilter< FloatType >( img, radius, output );
+		filter.bandRows = bandRows;
+		filter.setPlaneWise( planeWise );
+		filter.setNumThreads( 3 );
+		assertTrue( filter.getErrorMessage(), filter.checkInput() && filter.process() );
+		return filter.getResult();
+	}
+
+	/**
+	 * Compares the filtered image with the lower median of the window pixels
+	 * inside the source, computed by sorting.
+	 */
+	private static void check( final Img< FloatType > source, final Img< FloatType > result, final int radius, final boolean planeWise )
+	{
+		final int nDims = source.numDimensions();
+		final long[] dims = new long[ nDims ];
+		source.dimensions( dims );
+		final float[] values = new float[ ( int ) Math.pow( 2 * radius + 1, nDims ) ];
+		final long[] pos = new long[ nDims ];
+		final long[] neighbor = new long[ nDims ];
+		final RandomAccess< FloatType > ra = source.randomAccess();
+		final Cursor< FloatType > cursor = result.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.localize( pos );
+
+			int n = 0;
+			for ( int i = 0; i < values.length; i++ )
+			{
+				boolean inside = true;
+				int offset = i;
+				for ( int d = 0; d < nDims; d++ )
+				{
+					final int r = planeWise && d == 2 ? 0 : radius;
+					final int delta = offset % ( 2 * radius + 1 ) - radius;
+					offset /= 2 * radius + 1;
+					if ( Math.abs( delta ) > r )
+					{
+						inside = false;
+					}
+					neighbor[ d ] = pos[ d ] + delta;
+					if ( neighbor[ d ] < 0 || neighbor[ d ] >= dims[ d ] )
+					{
+						inside = false;
+					}
+				}
+				if ( !inside )
+				{
+					continue;
+				}
+				ra.setPosition( neighbor );
+				values[ n++ ] = ra.get().get();
+			}
+			Arrays.sort( values, 0, n );
+			assertEquals( "At " + Arrays.toString( pos ), values[ ( n - 1 ) / 2 ], cursor.get().get(), 0f );
+		}
+	}
+
+	/**
+	 * A random image with few distinct values, so that windows have
+	 * duplicates.
+	 */
+	private static Img< FloatType > createImg( final Random ran, final long... dims )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( dims );
+		for ( final FloatType pixel : img )
+		{
+			pixel.set( ran.nextInt( 8 ) - 2.5f );
+		}
+		return img;
+	}
+}
@@ -0,0 +1,176 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+public class TmBinaryRoundTripTest
+{
+
+	private static final int N_TRACKS = 4;
+
+	private static final int N_FRAMES = 300;
+
+	private static final String EDGE_FEATURE = "EDGE_SPEED";
+
+	private static final String TRACK_FEATURE = "TRACK_LENGTH";
+
+	private static final String SPOT_FEATURE = "SPOT_EXTRA";
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final Model model = createModel();
+		final File file = File.createTempFile( "TrackMate-binary", TmBinaryWriter.FILE_EXTENSION );
+		try
+		{
+			final TmBinaryWriter writer = new TmBinaryWriter( file );
+			writer.appendLog( "A log.\n" );
+			writer.appendModel( model );
+			writer.writeToFile();
+			assertTrue( TmBinaryReader.isBinaryFile( file ) );
+
+			final TmBinaryReader reader = new TmBinaryReader( file );
+			assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+			assertEquals( "A log.\n", reader.getLog() );
+			final Model copy = reader.getModel();
+			assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+
+			// Spots.
+			assertEquals( model.getSpots().getNSpots( false ), copy.getSpots().getNSpots( false ) );
+			for ( final Spot spot : model.getSpots().iterable( false ) )
+			{
+				final Spot other = copy.getSpots().search( spot.ID() );
+				assertNotNull( "Spot " + spot.ID() + " should be read back.", other );
+				assertEquals( spot.getName(), other.getName() );
+				for ( final String feature : spot.getFeatures().keySet() )
+				{
+					assertEquals( feature, spot.getFeature( feature ), other.getFeature( feature ) );
+				}
+				if ( null == spot.getFeature( SPOT_FEATURE ) )
+				{
+					assertNull( "A missing feature must stay missing.", other.getFeature( SPOT_FEATURE ) );
+				}
+			}
+
+			// Edges.
+			final TrackModel tm = model.getTrackModel();
+			final TrackModel tmCopy = copy.getTrackModel();
+			final FeatureModel fm = model.getFeatureModel();
+			final FeatureModel fmCopy = copy.getFeatureModel();
+			assertEquals( tm.edgeSet().size(), tmCopy.edgeSet().size() );
+			for ( final DefaultWeightedEdge edge : tm.edgeSet() )
+			{
+				final Spot source = copy.getSpots().search( tm.getEdgeSource( edge ).ID() );
+				final Spot target = copy.getSpots().search( tm.getEdgeTarget( edge ).ID() );
+				final DefaultWeightedEdge other = tmCopy.getEdge( source, target );
+				assertNotNull( other );
+				assertEquals( tm.getEdgeWeight( edge ), tmCopy.getEdgeWeight( other ), 0d );
+				assertEquals( fm.getEdgeFeature( edge, EDGE_FEATURE ), fmCopy.getEdgeFeature( other, EDGE_FEATURE ) );
+			}
+			assertTrue( fmCopy.getEdgeFeatures().contains( EDGE_FEATURE ) );
+
+			// Tracks.
+			assertEquals( tm.nTracks( false ), tmCopy.nTracks( false ) );
+			assertEquals( tm.nTracks( true ), tmCopy.nTracks( true ) );
+			for ( final Integer trackID : tm.trackIDs( false ) )
+			{
+				assertEquals( tm.name( trackID ), tmCopy.name( trackID ) );
+				assertEquals( tm.isVisible( trackID ), tmCopy.isVisible( trackID ) );
+				assertEquals( tm.trackSpots( trackID ).size(), tmCopy.trackSpots( trackID ).size() );
+				assertEquals( fm.getTrackFeature( trackID, TRACK_FEATURE ), fmCopy.getTrackFeature( trackID, TRACK_FEATURE ) );
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/**
+	 * Returns a model with straight tracks, spanning more than a buffer, with
+	 * one spot name longer than 64 kB, non-ASCII names, NaN and missing
+	 * feature values.
+	 */
+	private static Model createModel()
+	{
+		final Model model = new Model();
+		final FeatureModel fm = model.getFeatureModel();
+		fm.declareEdgeFeatures( Collections.singleton( EDGE_FEATURE ), Collections.singletonMap( EDGE_FEATURE, "Speed" ), Collections.singletonMap( EDGE_FEATURE, "Speed" ), Collections.singletonMap( EDGE_FEATURE, Dimension.VELOCITY ), Collections.singletonMap( EDGE_FEATURE, Boolean.FALSE ) );
+		fm.declareTrackFeatures( Collections.singleton( TRACK_FEATURE ), Collections.singletonMap( TRACK_FEATURE, "Length" ), Collections.singletonMap( TRACK_FEATURE, "Length" ), Collections.singletonMap( TRACK_FEATURE, Dimension.LENGTH ), Collections.singletonMap( TRACK_FEATURE, Boolean.FALSE ) );
+
+		final StringBuilder longName = new StringBuilder();
+		while ( longName.length() < 70000 )
+		{
+			longName.append( "été " );
+		}
+
+		Spot first = null;
+		model.beginUpdate();
+		try
+		{
+			for ( int track = 0; track < N_TRACKS; track++ )
+			{
+				Spot previous = null;
+				for ( int frame = 0; frame < N_FRAMES; frame++ )
+				{
+					final Spot spot = new Spot( 1.5 * frame, 10d * track, 0d, 2d, 100d + track + 0.25 * frame );
+					spot.setName( "T" + track + "µF" + frame );
+					if ( frame % 3 == 0 )
+					{
+						spot.putFeature( SPOT_FEATURE, frame % 2 == 0 ? Double.NaN : frame );
+					}
+					model.addSpotTo( spot, frame );
+					if ( null != previous )
+					{
+						final DefaultWeightedEdge edge = model.addEdge( previous, spot, 1d + frame );
+						if ( frame % 5 != 0 )
+						{
+							fm.putEdgeFeature( edge, EDGE_FEATURE, 0.5 * frame );
+						}
+					}
+					else if ( null == first )
+					{
+						first = spot;
+					}
+					previous = spot;
+				}
+			}
+			first.setName( longName.toString() );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final TrackModel tm = model.getTrackModel();
+		int t = 0;
+		for ( final Integer trackID : tm.trackIDs( false ) )
+		{
+			tm.setName( trackID, "Track à " + t );
+			if ( t > 0 )
+			{
+				fm.putTrackFeature( trackID, TRACK_FEATURE, Double.valueOf( t ) );
+			}
+			if ( t == 1 )
+			{
+				model.setTrackVisibility( trackID, false );
+			}
+			t++;
+		}
+		return model;
+	}
+}
@@ -0,0 +1,172 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+public class TmXmlStreamReaderTest
+{
+
+	private static final String INT_FEATURE = "GAP_COUNT";
+
+	private static final String DOUBLE_FEATURE = "SPEED";
+
+	private static final int N_TRACKS = 3;
+
+	private static final int N_FRAMES = 6;
+
+	@Test
+	public void testSameModelAsDomReader() throws IOException
+	{
+		final File file = File.createTempFile( "TrackMate-edges", ".xml" );
+		try
+		{
+			final TmXmlWriter writer = new TmXmlWriter( file );
+			writer.appendModel( createModel() );
+			writer.writeToFile();
+			// An integer feature that is not an integer is replaced by 0.
+			final String xml = read( file );
+			final String corrupted = xml.replaceFirst( INT_FEATURE + "=\"2\"", INT_FEATURE + "=\"2.5\"" );
+			assertTrue( !xml.equals( corrupted ) );
+			write( file, corrupted );
+
+			final TmXmlReader domReader = new TmXmlReader( file );
+			final Model expected = domReader.getModel();
+			assertTrue( domReader.getErrorMessage(), domReader.isReadingOk() );
+			final TmXmlStreamReader streamReader = new TmXmlStreamReader( file );
+			final Model actual = streamReader.getModel();
+			assertTrue( streamReader.getErrorMessage(), streamReader.isReadingOk() );
+
+			final FeatureModel efm = expected.getFeatureModel();
+			final FeatureModel afm = actual.getFeatureModel();
+			assertEquals( expected.getTrackModel().edgeSet().size(), actual.getTrackModel().edgeSet().size() );
+			boolean substituted = false;
+			for ( final DefaultWeightedEdge edge : expected.getTrackModel().edgeSet() )
+			{
+				final Spot source = actual.getSpots().search( expected.getTrackModel().getEdgeSource( edge ).ID() );
+				final Spot target = actual.getSpots().search( expected.getTrackModel().getEdgeTarget( edge ).ID() );
+				final DefaultWeightedEdge other = actual.getTrackModel().getEdge( source, target );
+				assertNotNull( other );
+				assertEquals( expected.getTrackModel().getEdgeWeight( edge ), actual.getTrackModel().getEdgeWeight( other ), 0d );
+				for ( final String feature : efm.getEdgeFeatures() )
+				{
+					assertEquals( feature, efm.getEdgeFeature( edge, feature ), afm.getEdgeFeature( other, feature ) );
+				}
+				substituted |= efm.getEdgeFeature( edge, INT_FEATURE ).doubleValue() == 0d;
+			}
+			assertTrue( substituted );
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/**
+	 * Returns a model with a few straight tracks, and an integer and a double
+	 * feature on their edges.
+	 */
+	private static Model createModel()
+	{
+		final Model model = new Model();
+		final Collection< String > features = new ArrayList< String >( EdgeTargetAnalyzer.FEATURES );
+		final Map< String, String > names = new HashMap< String, String >( EdgeTargetAnalyzer.FEATURE_NAMES );
+		final Map< String, String > shortNames = new HashMap< String, String >( EdgeTargetAnalyzer.FEATURE_SHORT_NAMES );
+		final Map< String, Dimension > dimensions = new HashMap< String, Dimension >( EdgeTargetAnalyzer.FEATURE_DIMENSIONS );
+		final Map< String, Boolean > isInt = new HashMap< String, Boolean >( EdgeTargetAnalyzer.IS_INT );
+		features.add( INT_FEATURE );
+		names.put( INT_FEATURE, "Gap count" );
+		shortNames.put( INT_FEATURE, "Gaps" );
+		dimensions.put( INT_FEATURE, Dimension.NONE );
+		isInt.put( INT_FEATURE, Boolean.TRUE );
+		features.add( DOUBLE_FEATURE );
+		names.put( DOUBLE_FEATURE, "Speed" );
+		shortNames.put( DOUBLE_FEATURE, "Speed" );
+		dimensions.put( DOUBLE_FEATURE, Dimension.VELOCITY );
+		isInt.put( DOUBLE_FEATURE, Boolean.FALSE );
+		model.getFeatureModel().declareEdgeFeatures( features, names, shortNames, dimensions, isInt );
+
+		model.beginUpdate();
+		try
+		{
+			for ( int track = 0; track < N_TRACKS; track++ )
+			{
+				Spot previous = null;
+				for ( int frame = 0; frame < N_FRAMES; frame++ )
+				{
+					final Spot spot = new Spot( 1.5 * frame, 10d * track, 0d, 2d, 100d + track );
+					model.addSpotTo( spot, frame );
+					if ( null != previous )
+					{
+						final DefaultWeightedEdge edge = model.addEdge( previous, spot, 0.5 + frame );
+						final FeatureModel fm = model.getFeatureModel();
+						fm.putEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_SOURCE_ID, Double.valueOf( previous.ID() ) );
+						fm.putEdgeFeature( edge, EdgeTargetAnalyzer.SPOT_TARGET_ID, Double.valueOf( spot.ID() ) );
+						fm.putEdgeFeature( edge, EdgeTargetAnalyzer.EDGE_COST, Double.valueOf( 0.5 + frame ) );
+						fm.putEdgeFeature( edge, INT_FEATURE, Double.valueOf( frame % 3 ) );
+						fm.putEdgeFeature( edge, DOUBLE_FEATURE, Double.valueOf( 1.5 + 0.1 * track ) );
+					}
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	private static String read( final File file ) throws IOException
+	{
+		final InputStream is = new FileInputStream( file );
+		try
+		{
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[ 4096 ];
+			int n;
+			while ( ( n = is.read( buffer ) ) > 0 )
+			{
+				bos.write( buffer, 0, n );
+			}
+			return bos.toString( "UTF-8" );
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static void write( final File file, final String str ) throws IOException
+	{
+		final OutputStream os = new FileOutputStream( file );
+		try
+		{
+			os.write( str.getBytes( "UTF-8" ) );
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TmXmlStreamWriterTest
+{
+
+	private static final int N_TRACKS = 5;
+
+	private static final int N_FRAMES = 10;
+
+	@Test
+	public void testSameOutputAsDomWriter() throws IOException
+	{
+		final Model model = createModel();
+		final String log = createLog();
+		final File domFile = File.createTempFile( "TrackMate-dom", ".xml" );
+		final File streamFile = File.createTempFile( "TrackMate-stream", ".xml" );
+		try
+		{
+			final TmXmlWriter domWriter = new TmXmlWriter( domFile );
+			domWriter.appendLog( log );
+			domWriter.appendModel( model );
+			domWriter.writeToFile();
+
+			final TmXmlStreamWriter streamWriter = new TmXmlStreamWriter( streamFile );
+			streamWriter.appendLog( log );
+			streamWriter.appendModel( model );
+			streamWriter.writeToFile();
+
+			assertEquals( read( domFile ), read( streamFile ) );
+		}
+		finally
+		{
+			domFile.delete();
+			streamFile.delete();
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final Model model = createModel();
+		final String log = createLog();
+		final File file = File.createTempFile( "TrackMate-stream", ".xml" );
+		try
+		{
+			final TmXmlStreamWriter writer = new TmXmlStreamWriter( file );
+			writer.appendLog( log );
+			writer.appendModel( model );
+			writer.writeToFile();
+
+			final TmXmlStreamReader reader = new TmXmlStreamReader( file );
+			assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+			assertEquals( "Text split across buffers must be read back whole.", log, reader.getLog() );
+
+			final Model copy = reader.getModel();
+			assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+			assertEquals( model.getSpots().getNSpots( false ), copy.getSpots().getNSpots( false ) );
+			for ( final Spot spot : model.getSpots().iterable( false ) )
+			{
+				final Spot other = copy.getSpots().search( spot.ID() );
+				assertNotNull( "Spot " + spot.ID() + " should be read back.", other );
+				assertEquals( spot.getName(), other.getName() );
+				for ( final String feature : spot.getFeatures().keySet() )
+				{
+					assertEquals( feature, spot.getFeature( feature ), other.getFeature( feature ), 1e-9 );
+				}
+			}
+
+			assertEquals( model.getTrackModel().nTracks( false ), copy.getTrackModel().nTracks( false ) );
+			assertEquals( model.getTrackModel().edgeSet().size(), copy.getTrackModel().edgeSet().size() );
+			final Map< String, Integer > sizes = new HashMap< String, Integer >();
+			for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+			{
+				sizes.put( model.getTrackModel().name( trackID ), model.getTrackModel().trackSpots( trackID ).size() );
+			}
+			for ( final Integer trackID : copy.getTrackModel().trackIDs( false ) )
+			{
+				final String name = copy.getTrackModel().name( trackID );
+				assertEquals( name, sizes.get( name ).intValue(), copy.getTrackModel().trackSpots( trackID ).size() );
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/**
+	 * Returns a model with a few straight tracks.
+	 */
+	private static Model createModel()
+	{
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int track = 0; track < N_TRACKS; track++ )
+			{
+				Spot previous = null;
+				for ( int frame = 0; frame < N_FRAMES; frame++ )
+				{
+					final Spot spot = new Spot( 1.5 * frame, 10d * track, 0d, 2d, 100d + track + 0.25 * frame );
+					spot.setName( "T" + track + "<F" + frame + ">" );
+					model.addSpotTo( spot, frame );
+					if ( null != previous )
+					{
+						model.addEdge( previous, spot, 1d + frame );
+					}
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	/**
+	 * Returns a log with markup characters, long enough to be split by the
+	 * parser.
+	 */
+	private static String createLog()
+	{
+		final StringBuilder str = new StringBuilder();
+		for ( int i = 0; i < 2000; i++ )
+		{
+			str.append( "Line " + i + ": a < b & c > d, \"quoted\".\n" );
+		}
+		return str.toString();
+	}
+
+	private static String read( final File file ) throws IOException
+	{
+		final InputStream is = new FileInputStream( file );
+		try
+		{
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[ 4096 ];
+			int n;
+			while ( ( n = is.read( buffer ) ) > 0 )
+			{
+				bos.write( buffer, 0, n );
+			}
+			return bos.toString( "UTF-8" );
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+}
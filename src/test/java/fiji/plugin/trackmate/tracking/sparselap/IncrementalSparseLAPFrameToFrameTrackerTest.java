@@ -0,0 +1,152 @@
+package fiji.plugin.trackmate.tracking.sparselap;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+public class IncrementalSparseLAPFrameToFrameTrackerTest
+{
+
+	private static final int N_FRAMES = 20;
+
+	private static final int N_TRACKS = 50;
+
+	/** This frame is empty. */
+	private static final int EMPTY_FRAME = 12;
+
+	@Test
+	public void testSameResultAsBatch()
+	{
+		final List< List< Spot > > frames = createFrames( 1l );
+		final SpotCollection spots = new SpotCollection();
+		for ( int frame = 0; frame < frames.size(); frame++ )
+		{
+			spots.put( frame, frames.get( frame ) );
+		}
+		spots.setVisible( true );
+
+		final SparseLAPFrameToFrameTracker batch = new SparseLAPFrameToFrameTracker( spots, createSettings() );
+		batch.setNumThreads( 4 );
+		assertTrue( batch.getErrorMessage(), batch.checkInput() && batch.process() );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > expected = batch.getResult();
+
+		// Frames are received by pairs, in reverse order.
+		final IncrementalSparseLAPFrameToFrameTracker incremental = new IncrementalSparseLAPFrameToFrameTracker( createSettings(), 0, 3, null );
+		for ( int frame = 0; frame < frames.size(); frame += 2 )
+		{
+			if ( frame + 1 < frames.size() )
+			{
+				assertTrue( incremental.getErrorMessage(), incremental.put( frame + 1, frames.get( frame + 1 ) ) );
+			}
+			assertTrue( incremental.getErrorMessage(), incremental.put( frame, frames.get( frame ) ) );
+			assertTrue( incremental.getWindow().size() <= 3 );
+		}
+		assertTrue( incremental.getErrorMessage(), incremental.close() );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > actual = incremental.getResult();
+
+		assertEquals( expected.edgeSet().size(), actual.edgeSet().size() );
+		for ( final DefaultWeightedEdge edge : expected.edgeSet() )
+		{
+			final DefaultWeightedEdge other = actual.getEdge( expected.getEdgeSource( edge ), expected.getEdgeTarget( edge ) );
+			assertNotNull( "Missing link " + expected.getEdgeSource( edge ) + " -> " + expected.getEdgeTarget( edge ), other );
+			assertEquals( expected.getEdgeWeight( edge ), actual.getEdgeWeight( other ), 1e-9 );
+		}
+
+		// Unlike in the batch result, unlinked spots are kept.
+		for ( final List< Spot > frameSpots : frames )
+		{
+			for ( final Spot spot : frameSpots )
+			{
+				assertTrue( "Spot " + spot + " should be in the graph.", actual.containsVertex( spot ) );
+			}
+		}
+	}
+
+	@Test
+	public void testWindowBoundsPendingFrames()
+	{
+		final List< List< Spot > > frames = createFrames( 2l );
+		final IncrementalSparseLAPFrameToFrameTracker tracker = new IncrementalSparseLAPFrameToFrameTracker( createSettings(), 0, 2, null );
+		assertTrue( tracker.put( 0, frames.get( 0 ) ) );
+		// Frame 1 is missing: frames 2 and 3 are kept aside.
+		assertTrue( tracker.put( 2, frames.get( 2 ) ) );
+		assertTrue( tracker.put( 3, frames.get( 3 ) ) );
+		assertEquals( 1, tracker.getWindow().size() );
+		assertEquals( 0, tracker.getResult().edgeSet().size() );
+
+		// Too many frames aside: frame 1 is considered empty, and frames 2 to 4
+		// are linked.
+		assertTrue( tracker.put( 4, frames.get( 4 ) ) );
+		assertEquals( 2, tracker.getWindow().size() );
+		assertEquals( 3, tracker.getWindow().firstKey().intValue() );
+		final int nEdges = tracker.getResult().edgeSet().size();
+		assertTrue( "Frame 0 should be linked to frame 2.", nEdges > 0 );
+
+		// Frame 1 comes too late, and is added without links.
+		assertTrue( tracker.put( 1, frames.get( 1 ) ) );
+		assertEquals( nEdges, tracker.getResult().edgeSet().size() );
+		for ( final Spot spot : frames.get( 1 ) )
+		{
+			assertTrue( tracker.getResult().containsVertex( spot ) );
+			assertEquals( 0, tracker.getResult().edgesOf( spot ).size() );
+		}
+		assertTrue( tracker.close() );
+	}
+
+	private static Map< String, Object > createSettings()
+	{
+		final Map< String, Object > settings = new HashMap< String, Object >();
+		settings.put( KEY_LINKING_MAX_DISTANCE, 10d );
+		settings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, 1.05d );
+		settings.put( KEY_LINKING_FEATURE_PENALTIES, new HashMap< String, Double >() );
+		return settings;
+	}
+
+	/**
+	 * Returns random walks, with a few spots too far away to be linked, and
+	 * one empty frame.
+	 */
+	private static List< List< Spot > > createFrames( final long seed )
+	{
+		final Random ran = new Random( seed );
+		final double[][] positions = new double[ N_TRACKS ][ 2 ];
+		for ( final double[] position : positions )
+		{
+			position[ 0 ] = 200 * ran.nextDouble();
+			position[ 1 ] = 200 * ran.nextDouble();
+		}
+		final List< List< Spot > > frames = new ArrayList< List< Spot > >( N_FRAMES );
+		for ( int frame = 0; frame < N_FRAMES; frame++ )
+		{
+			final List< Spot > frameSpots = new ArrayList< Spot >();
+			if ( frame != EMPTY_FRAME )
+			{
+				for ( final double[] position : positions )
+				{
+					position[ 0 ] += 3 * ran.nextGaussian();
+					position[ 1 ] += 3 * ran.nextGaussian();
+					frameSpots.add( new Spot( position[ 0 ], position[ 1 ], 0d, 1d, 1d ) );
+				}
+				// An isolated spot.
+				frameSpots.add( new Spot( 1000d + 100 * frame, -1000d, 0d, 1d, 1d ) );
+			}
+			frames.add( frameSpots );
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,232 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+public class JaqamanSegmentCostMatrixCreatorTest
+{
+
+	private static final int N_FRAMES = 30;
+
+	private static final int N_TRACKS = 40;
+
+	private static final double MAX_DISTANCE = 15d;
+
+	@Test
+	public void testSameCostMatrix()
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = createGraph( 1l );
+		final Map< String, Object > settings = createSettings( 3 );
+		assertSameCostMatrix( graph, settings );
+	}
+
+	@Test
+	public void testSameCostMatrixGapClosingOnly()
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = createGraph( 2l );
+		final Map< String, Object > settings = createSettings( 5 );
+		settings.put( KEY_ALLOW_TRACK_MERGING, false );
+		settings.put( KEY_ALLOW_TRACK_SPLITTING, false );
+		assertSameCostMatrix( graph, settings );
+	}
+
+	@Test( timeout = 60000 )
+	public void testUnboundedFrameGap()
+	{
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = createGraph( 3l );
+		final Map< String, Object > settings = createSettings( Integer.MAX_VALUE );
+		assertSameCostMatrix( graph, settings );
+	}
+
+	private static void assertSameCostMatrix( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph, final Map< String, Object > settings )
+	{
+		final DefaultCostMatrixCreator< Spot, Spot > expectedCreator = createBaseline( graph, settings );
+		assertTrue( expectedCreator.getErrorMessage(), expectedCreator.checkInput() && expectedCreator.process() );
+
+		final JaqamanSegmentCostMatrixCreator actualCreator = new JaqamanSegmentCostMatrixCreator( graph, settings );
+		actualCreator.setNumThreads( 4 );
+		assertTrue( actualCreator.getErrorMessage(), actualCreator.checkInput() && actualCreator.process() );
+
+		assertEquals( "Source lists differ.", expectedCreator.getSourceList(), actualCreator.getSourceList() );
+		assertEquals( "Target lists differ.", expectedCreator.getTargetList(), actualCreator.getTargetList() );
+		assertEquals( "Alternative costs differ.", expectedCreator.getAlternativeCostForSource( null ), actualCreator.getAlternativeCostForSource( null ), Double.MIN_VALUE );
+
+		final SparseCostMatrix expected = expectedCreator.getResult();
+		final SparseCostMatrix actual = actualCreator.getResult();
+		assertEquals( "Bad number of rows.", expected.getNRows(), actual.getNRows() );
+		assertEquals( "Bad number of cols.", expected.getNCols(), actual.getNCols() );
+		for ( int i = 0; i < expected.getNRows(); i++ )
+		{
+			for ( int j = 0; j < expected.getNCols(); j++ )
+			{
+				assertEquals( "Bad value at row " + i + ", col " + j + ".", expected.get( i, j, Double.POSITIVE_INFINITY ), actual.get( i, j, Double.POSITIVE_INFINITY ), Double.MIN_VALUE );
+			}
+		}
+	}
+
+	/**
+	 * Generates the same cost matrix as {@link JaqamanSegmentCostMatrixCreator}
+	 * by testing all the pairs of spots, as it used to do before candidates
+	 * were retrieved from a {@link SpotFrameIndex}.
+	 */
+	private static DefaultCostMatrixCreator< Spot, Spot > createBaseline( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph, final Map< String, Object > settings )
+	{
+		final boolean allowGapClosing = ( Boolean ) settings.get( KEY_ALLOW_GAP_CLOSING );
+		final boolean allowMerging = ( Boolean ) settings.get( KEY_ALLOW_TRACK_MERGING );
+		final boolean allowSplitting = ( Boolean ) settings.get( KEY_ALLOW_TRACK_SPLITTING );
+		final int maxFrameInterval = ( Integer ) settings.get( KEY_GAP_CLOSING_MAX_FRAME_GAP );
+		final double threshold = MAX_DISTANCE * MAX_DISTANCE;
+		final SquareDistCostFunction costFunction = new SquareDistCostFunction();
+
+		final GraphSegmentSplitter splitter = new GraphSegmentSplitter( graph, allowMerging || allowSplitting );
+		final List< Spot > allMiddles = new ArrayList< Spot >();
+		if ( allowMerging || allowSplitting )
+		{
+			for ( final List< Spot > segment : splitter.getSegmentMiddles() )
+			{
+				allMiddles.addAll( segment );
+			}
+		}
+
+		final List< Spot > sources = new ArrayList< Spot >();
+		final List< Spot > targets = new ArrayList< Spot >();
+		final List< Double > costs = new ArrayList< Double >();
+		for ( final Spot source : splitter.getSegmentEnds() )
+		{
+			final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+			if ( allowGapClosing )
+			{
+				for ( final Spot target : splitter.getSegmentStarts() )
+				{
+					final int tdiff = target.getFeature( Spot.FRAME ).intValue() - sourceFrame;
+					final double cost = costFunction.linkingCost( source, target );
+					if ( tdiff >= 1 && tdiff <= maxFrameInterval && cost <= threshold )
+					{
+						sources.add( source );
+						targets.add( target );
+						costs.add( cost );
+					}
+				}
+			}
+			if ( allowMerging )
+			{
+				for ( final Spot target : allMiddles )
+				{
+					final int tdiff = target.getFeature( Spot.FRAME ).intValue() - sourceFrame;
+					final double cost = costFunction.linkingCost( source, target );
+					if ( tdiff == 1 && cost <= threshold )
+					{
+						sources.add( source );
+						targets.add( target );
+						costs.add( cost );
+					}
+				}
+			}
+		}
+		if ( allowSplitting )
+		{
+			for ( final Spot source : allMiddles )
+			{
+				final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+				for ( final Spot target : splitter.getSegmentStarts() )
+				{
+					final int tdiff = target.getFeature( Spot.FRAME ).intValue() - sourceFrame;
+					final double cost = costFunction.linkingCost( source, target );
+					if ( tdiff == 1 && cost <= threshold )
+					{
+						sources.add( source );
+						targets.add( target );
+						costs.add( cost );
+					}
+				}
+			}
+		}
+
+		final double[] costArray = new double[ costs.size() ];
+		for ( int i = 0; i < costArray.length; i++ )
+		{
+			costArray[ i ] = costs.get( i ).doubleValue();
+		}
+		return new DefaultCostMatrixCreator< Spot, Spot >( sources, targets, costArray, ( Double ) settings.get( KEY_ALTERNATIVE_LINKING_COST_FACTOR ), ( Double ) settings.get( KEY_CUTOFF_PERCENTILE ) );
+	}
+
+	/**
+	 * Returns a graph made of random walks broken into segments of random
+	 * length, separated by random gaps.
+	 */
+	private static SimpleWeightedGraph< Spot, DefaultWeightedEdge > createGraph( final long seed )
+	{
+		final Random ran = new Random( seed );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		for ( int track = 0; track < N_TRACKS; track++ )
+		{
+			double x = 200 * ran.nextDouble();
+			double y = 200 * ran.nextDouble();
+			int frame = ran.nextInt( 5 );
+			while ( frame < N_FRAMES )
+			{
+				final int length = 2 + ran.nextInt( 6 );
+				Spot previous = null;
+				for ( int i = 0; i < length && frame < N_FRAMES; i++ )
+				{
+					x += 4 * ran.nextGaussian();
+					y += 4 * ran.nextGaussian();
+					final Spot spot = new Spot( x, y, 0d, 1d, 1d );
+					spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
+					graph.addVertex( spot );
+					if ( null != previous )
+					{
+						graph.setEdgeWeight( graph.addEdge( previous, spot ), 1d );
+					}
+					previous = spot;
+					frame++;
+				}
+				frame += 1 + ran.nextInt( 4 );
+			}
+		}
+		return graph;
+	}
+
+	private static Map< String, Object > createSettings( final int maxFrameGap )
+	{
+		final Map< String, Object > settings = new HashMap< String, Object >();
+		settings.put( KEY_ALLOW_GAP_CLOSING, true );
+		settings.put( KEY_GAP_CLOSING_MAX_DISTANCE, MAX_DISTANCE );
+		settings.put( KEY_GAP_CLOSING_MAX_FRAME_GAP, maxFrameGap );
+		settings.put( KEY_GAP_CLOSING_FEATURE_PENALTIES, new HashMap< String, Double >() );
+		settings.put( KEY_ALLOW_TRACK_SPLITTING, true );
+		settings.put( KEY_SPLITTING_MAX_DISTANCE, MAX_DISTANCE );
+		settings.put( KEY_SPLITTING_FEATURE_PENALTIES, new HashMap< String, Double >() );
+		settings.put( KEY_ALLOW_TRACK_MERGING, true );
+		settings.put( KEY_MERGING_MAX_DISTANCE, MAX_DISTANCE );
+		settings.put( KEY_MERGING_FEATURE_PENALTIES, new HashMap< String, Double >() );
+		settings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, 1.05d );
+		settings.put( KEY_CUTOFF_PERCENTILE, 0.9d );
+		return settings;
+	}
+}
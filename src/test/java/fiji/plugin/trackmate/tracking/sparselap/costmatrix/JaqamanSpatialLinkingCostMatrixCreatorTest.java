@@ -0,0 +1,60 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JaqamanSpatialLinkingCostMatrixCreatorTest
+{
+
+	@Test
+	public void testSameCostMatrix()
+	{
+		final Random ran = new Random( 1l );
+		final int nSpots = 500;
+		final double size = 100;
+		final double maxDist = 5;
+
+		final List< Spot > sources = new ArrayList< Spot >( nSpots );
+		final List< Spot > targets = new ArrayList< Spot >( nSpots );
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			sources.add( new Spot( size * ran.nextDouble(), size * ran.nextDouble(), size * ran.nextDouble(), 1d, 1d ) );
+			targets.add( new Spot( size * ran.nextDouble(), size * ran.nextDouble(), size * ran.nextDouble(), 1d, 1d ) );
+		}
+
+		final SquareDistCostFunction costFunction = new SquareDistCostFunction();
+		final double costThreshold = maxDist * maxDist;
+
+		final JaqamanLinkingCostMatrixCreator< Spot, Spot > expectedCreator = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, 1.05, 1d );
+		assertTrue( expectedCreator.getErrorMessage(), expectedCreator.checkInput() && expectedCreator.process() );
+
+		final JaqamanSpatialLinkingCostMatrixCreator< Spot, Spot > actualCreator = new JaqamanSpatialLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, 1.05, 1d );
+		assertTrue( actualCreator.getErrorMessage(), actualCreator.checkInput() && actualCreator.process() );
+
+		assertEquals( "Source lists differ.", expectedCreator.getSourceList(), actualCreator.getSourceList() );
+		assertEquals( "Target lists differ.", expectedCreator.getTargetList(), actualCreator.getTargetList() );
+		assertEquals( "Alternative costs differ.", expectedCreator.getAlternativeCostForSource( null ), actualCreator.getAlternativeCostForSource( null ), Double.MIN_VALUE );
+
+		final SparseCostMatrix expected = expectedCreator.getResult();
+		final SparseCostMatrix actual = actualCreator.getResult();
+		assertEquals( "Bad number of rows.", expected.getNRows(), actual.getNRows() );
+		assertEquals( "Bad number of cols.", expected.getNCols(), actual.getNCols() );
+		for ( int i = 0; i < expected.getNRows(); i++ )
+		{
+			for ( int j = 0; j < expected.getNCols(); j++ )
+			{
+				assertEquals( "Bad value at row " + i + ", col " + j + ".", expected.get( i, j, Double.POSITIVE_INFINITY ), actual.get( i, j, Double.POSITIVE_INFINITY ), Double.MIN_VALUE );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import static org.junit.Assert.assertEquals;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SparseCostMatrixBuilderTest
+{
+
+	@Test
+	public void testBuild()
+	{
+		final int nRows = 50;
+		final int nCols = 40;
+		final Random ran = new Random( 1l );
+
+		// A random dense matrix with infinite costs, one cost at least per row
+		// and column.
+		final double[][] full = new double[ nRows ][ nCols ];
+		int n = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int j = 0; j < nCols; j++ )
+			{
+				if ( i == j || i == j + nCols || ran.nextDouble() < 0.1 )
+				{
+					full[ i ][ j ] = 1 + ran.nextInt( 100 );
+					n++;
+				}
+				else
+				{
+					full[ i ][ j ] = Double.POSITIVE_INFINITY;
+				}
+			}
+		}
+
+		// Shuffle the triplets.
+		final int[] rows = new int[ n ];
+		final int[] cols = new int[ n ];
+		final ResizableDoubleArray costs = new ResizableDoubleArray( n );
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int j = 0; j < nCols; j++ )
+			{
+				if ( full[ i ][ j ] != Double.POSITIVE_INFINITY )
+				{
+					rows[ costs.size ] = i;
+					cols[ costs.size ] = j;
+					costs.add( full[ i ][ j ] );
+				}
+			}
+		}
+		for ( int k = n - 1; k > 0; k-- )
+		{
+			final int l = ran.nextInt( k + 1 );
+			final int r = rows[ k ];
+			rows[ k ] = rows[ l ];
+			rows[ l ] = r;
+			final int c = cols[ k ];
+			cols[ k ] = cols[ l ];
+			cols[ l ] = c;
+			final double cost = costs.data[ k ];
+			costs.data[ k ] = costs.data[ l ];
+			costs.data[ l ] = cost;
+		}
+
+		final SparseCostMatrix scm = SparseCostMatrixBuilder.build( rows, cols, costs, nRows, nCols );
+		assertEquals( "Bad number of rows.", nRows, scm.getNRows() );
+		assertEquals( "Bad number of cols.", nCols, scm.getNCols() );
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int j = 0; j < nCols; j++ )
+			{
+				assertEquals( "Bad value at row " + i + ", col " + j + ".", full[ i ][ j ], scm.get( i, j, Double.POSITIVE_INFINITY ), Double.MIN_VALUE );
+			}
+		}
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testDuplicate()
+	{
+		final int[] rows = new int[] { 0, 1, 0 };
+		final int[] cols = new int[] { 1, 0, 1 };
+		final ResizableDoubleArray costs = new ResizableDoubleArray( new double[] { 1., 2., 3. } );
+		SparseCostMatrixBuilder.build( rows, cols, costs, 2, 2 );
+	}
+}
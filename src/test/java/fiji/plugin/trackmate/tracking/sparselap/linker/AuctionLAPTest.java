@@ -0,0 +1,234 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.util.TMExecutors;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AuctionLAPTest
+{
+
+	private int seed;
+
+	private int pseudoRandom()
+	{
+		return seed = 3170425 * seed + 132102;
+	}
+
+	private double pseudoRandom( final double min, final double max )
+	{
+		final int random = pseudoRandom() & 0x7fffffff;
+		return min + random * ( ( max - min ) / Integer.MAX_VALUE );
+	}
+
+	/**
+	 * Same dense matrices as in {@link LAPJVTest}.
+	 */
+	private SparseCostMatrix generateDenseMatrix( final int n )
+	{
+		final int[] number = new int[ n ];
+		final int[] kk = new int[ n * n ];
+		final double[] cc = new double[ n * n ];
+		int index = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			number[ i ] = n;
+			for ( int j = 0; j < n; j++ )
+			{
+				kk[ index ] = j;
+				cc[ index ] = Math.floor( pseudoRandom( 1, 100 ) );
+				index++;
+			}
+		}
+		return new SparseCostMatrix( cc, kk, number, n );
+	}
+
+	/**
+	 * Same sparse matrices as in {@link LAPJVTest}: random columns, plus the
+	 * diagonal so that a complete assignment exists.
+	 */
+	private SparseCostMatrix generateSparseMatrix( final int size, final double density, final Random ran )
+	{
+		return generateSparseMatrix( size, density, ran, true );
+	}
+
+	private SparseCostMatrix generateSparseMatrix( final int size, final double density, final Random ran, final boolean integerCosts )
+	{
+		final double[] cc = new double[ size * size ];
+		final int[] kk = new int[ size * size ];
+		final int[] number = new int[ size ];
+		int index = 0;
+		for ( int i = 0; i < size; i++ )
+		{
+			final int nToCreate = ( int ) Math.max( 1, ( size * density ) * ( 1 + 0.2 * ran.nextGaussian() ) );
+			final boolean[] linked = new boolean[ size ];
+			linked[ i ] = true;
+			for ( int k = 1; k < nToCreate; k++ )
+			{
+				linked[ ran.nextInt( size ) ] = true;
+			}
+			for ( int j = 0; j < size; j++ )
+			{
+				if ( linked[ j ] )
+				{
+					kk[ index ] = j;
+					final double cost = pseudoRandom( 1, 100 );
+					cc[ index ] = integerCosts ? Math.floor( cost ) : cost;
+					index++;
+					number[ i ]++;
+				}
+			}
+		}
+		return new SparseCostMatrix( Arrays.copyOf( cc, index ), Arrays.copyOf( kk, index ), number, size );
+	}
+
+	private static double solveWithLAPJV( final SparseCostMatrix cm )
+	{
+		final LAPJV solver = new LAPJV( cm );
+		assertTrue( solver.getErrorMessage(), solver.checkInput() && solver.process() );
+		return cm.totalAssignmentCost( solver.getResult() );
+	}
+
+	private static void checkIsAssignment( final int[] assignment )
+	{
+		final boolean[] used = new boolean[ assignment.length ];
+		for ( final int j : assignment )
+		{
+			assertFalse( "Column " + j + " is assigned twice.", used[ j ] );
+			used[ j ] = true;
+		}
+	}
+
+	@Test
+	public final void testDenseSameCostAsLAPJV()
+	{
+		seed = new Random().nextInt();
+		final SparseCostMatrix cm = generateDenseMatrix( 50 );
+
+		final AuctionLAP auction = new AuctionLAP( cm );
+		assertTrue( auction.getErrorMessage(), auction.checkInput() && auction.process() );
+		checkIsAssignment( auction.getResult() );
+		assertEquals( solveWithLAPJV( cm ), cm.totalAssignmentCost( auction.getResult() ), 1e-5 );
+	}
+
+	@Test
+	public final void testVaryingDensitySameCostAsLAPJV()
+	{
+		final Random ran = new Random();
+		seed = ran.nextInt();
+		final int size = 100;
+		for ( final double density : new double[] { 0.04, 0.1, 0.3, 0.7, 1. } )
+		{
+			final SparseCostMatrix cm = generateSparseMatrix( size, density, ran );
+			final AuctionLAP auction = new AuctionLAP( cm );
+			assertTrue( auction.getErrorMessage(), auction.checkInput() && auction.process() );
+			checkIsAssignment( auction.getResult() );
+			assertEquals( "Bad cost for density " + density + ".", solveWithLAPJV( cm ), cm.totalAssignmentCost( auction.getResult() ), 1e-5 );
+		}
+	}
+
+	@Test
+	public final void testWarmStart()
+	{
+		final Random ran = new Random( 1l );
+		seed = ran.nextInt();
+		final SparseCostMatrix cm = generateSparseMatrix( 100, 0.1, ran );
+		final AuctionLAP cold = new AuctionLAP( cm );
+		assertTrue( cold.getErrorMessage(), cold.checkInput() && cold.process() );
+
+		// Same problem with slightly different costs.
+		final double[] cc2 = cm.getCosts().clone();
+		for ( int k = 0; k < cc2.length; k++ )
+		{
+			cc2[ k ] = Math.max( 1, cc2[ k ] + ran.nextInt( 5 ) - 2 );
+		}
+		final SparseCostMatrix cm2 = new SparseCostMatrix( cc2, cm.kk, cm.number, cm.nCols );
+		final AuctionLAP warm = new AuctionLAP( cm2, cold.getPrices() );
+		assertTrue( warm.getErrorMessage(), warm.checkInput() && warm.process() );
+		checkIsAssignment( warm.getResult() );
+		assertEquals( solveWithLAPJV( cm2 ), cm2.totalAssignmentCost( warm.getResult() ), 1e-5 );
+	}
+
+	@Test
+	public final void testParallelBidding()
+	{
+		final Random ran = new Random( 2l );
+		seed = ran.nextInt();
+		final SparseCostMatrix cm = generateSparseMatrix( 1200, 0.01, ran );
+		final AuctionLAP auction = new AuctionLAP( cm );
+		auction.setNumThreads( 4 );
+		auction.setExecutorService( TMExecutors.newSharedExecutor( 4 ) );
+		assertTrue( auction.getErrorMessage(), auction.checkInput() && auction.process() );
+		checkIsAssignment( auction.getResult() );
+		assertEquals( solveWithLAPJV( cm ), cm.totalAssignmentCost( auction.getResult() ), 1e-5 );
+	}
+
+	@Test
+	public final void testRealCostsWithinBound()
+	{
+		final Random ran = new Random( 3l );
+		seed = ran.nextInt();
+		final int size = 200;
+		for ( final double epsilon : new double[] { 1., 0.1, 1e-3 } )
+		{
+			final SparseCostMatrix cm = generateSparseMatrix( size, 0.1, ran, false );
+			final AuctionLAP auction = new AuctionLAP( cm, null, epsilon );
+			assertTrue( auction.getErrorMessage(), auction.checkInput() && auction.process() );
+			checkIsAssignment( auction.getResult() );
+
+			// The total cost is within n x epsilon of the optimum.
+			final double optimum = solveWithLAPJV( cm );
+			final double cost = cm.totalAssignmentCost( auction.getResult() );
+			assertTrue( "Cost " + cost + " is below the optimum " + optimum + ".", cost >= optimum - 1e-9 );
+			assertTrue( "Cost " + cost + " is not within " + size + " x " + epsilon + " of the optimum " + optimum + ".", cost - optimum <= size * epsilon + 1e-9 );
+		}
+	}
+
+	@Test
+	public final void testRealCostsFactory()
+	{
+		final Random ran = new Random( 4l );
+		seed = ran.nextInt();
+		final double tolerance = 1e-6;
+		final SparseCostMatrix cm = generateSparseMatrix( 300, 0.05, ran, false );
+		final LAPSolver solver = AuctionLAP.factory( tolerance ).create( cm );
+		assertTrue( solver.getErrorMessage(), solver.checkInput() && solver.process() );
+		checkIsAssignment( solver.getResult() );
+
+		double minCost = Double.POSITIVE_INFINITY;
+		double maxCost = Double.NEGATIVE_INFINITY;
+		for ( final double c : cm.getCosts() )
+		{
+			minCost = Math.min( minCost, c );
+			maxCost = Math.max( maxCost, c );
+		}
+		assertEquals( solveWithLAPJV( cm ), cm.totalAssignmentCost( solver.getResult() ), tolerance * ( maxCost - minCost ) + 1e-9 );
+	}
+
+	@Test
+	public final void testSizeDependentFactory()
+	{
+		final Random ran = new Random( 5l );
+		seed = ran.nextInt();
+		final SparseCostMatrix small = generateSparseMatrix( 20, 0.2, ran );
+		final SparseCostMatrix large = generateSparseMatrix( 100, 0.5, ran );
+		final SizeDependentLAPSolverFactory factory = new SizeDependentLAPSolverFactory( small.cardinality + 1, LAPJV.FACTORY, AuctionLAP.FACTORY );
+		assertTrue( factory.create( small ) instanceof LAPJV );
+		assertTrue( factory.create( large ) instanceof AuctionLAP );
+	}
+
+	@Test
+	public final void testInfeasible()
+	{
+		// Rows 0 and 1 can only go to column 0.
+		final SparseCostMatrix cm = new SparseCostMatrix( new double[] { 1., 2., 3., 4. }, new int[] { 0, 0, 1, 2 }, new int[] { 1, 1, 2 }, 3 );
+		final AuctionLAP auction = new AuctionLAP( cm );
+		assertTrue( auction.getErrorMessage(), auction.checkInput() );
+		assertFalse( auction.process() );
+	}
+}
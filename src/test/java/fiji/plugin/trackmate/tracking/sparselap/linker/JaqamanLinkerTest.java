@@ -0,0 +1,117 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.DefaultCostMatrixCreator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class JaqamanLinkerTest
+{
+
+	/**
+	 * Checks that splitting the LAP in independent blocks yields the same
+	 * optimal total cost than solving the full bordered cost matrix at once.
+	 */
+	@Test
+	public void testBlockDecomposition()
+	{
+		final Random ran = new Random( 3l );
+		final int nSources = 300;
+		final int nTargets = 300;
+
+		// Each source can only link to a few targets with close indices.
+		final List< Integer > rows = new ArrayList< Integer >();
+		final List< Integer > cols = new ArrayList< Integer >();
+		final List< Double > costList = new ArrayList< Double >();
+		for ( int i = 0; i < nSources; i++ )
+		{
+			final Set< Integer > linked = new HashSet< Integer >();
+			final int nLinks = ran.nextInt( 3 );
+			for ( int l = 0; l < nLinks; l++ )
+			{
+				final int j = Math.min( nTargets - 1, Math.max( 0, i + ran.nextInt( 5 ) - 2 ) );
+				if ( linked.add( j ) )
+				{
+					rows.add( i );
+					cols.add( j );
+					costList.add( 1d + ran.nextInt( 99 ) );
+				}
+			}
+		}
+		final double[] costs = new double[ costList.size() ];
+		for ( int k = 0; k < costs.length; k++ )
+		{
+			costs[ k ] = costList.get( k );
+		}
+
+		final DefaultCostMatrixCreator< Integer, Integer > creator = new DefaultCostMatrixCreator< Integer, Integer >( rows, cols, costs, 1.05, 1d );
+		final JaqamanLinker< Integer, Integer > linker = new JaqamanLinker< Integer, Integer >( creator );
+		linker.setNumThreads( 4 );
+		assertTrue( linker.getErrorMessage(), linker.checkInput() && linker.process() );
+
+		final SparseCostMatrix tl = creator.getResult();
+		final double alternativeCost = creator.getAlternativeCostForSource( null );
+		final int nRows = tl.getNRows();
+		final int nCols = tl.getNCols();
+
+		/*
+		 * Total cost of the linker solution, including the alternative costs of
+		 * the unlinked objects. The bottom-right quadrant receives one
+		 * assignment per link.
+		 */
+
+		final Map< Integer, Double > assignmentCosts = linker.getAssignmentCosts();
+		double actual = 0;
+		for ( final Double cost : assignmentCosts.values() )
+		{
+			actual += cost.doubleValue();
+		}
+		final int nLinks = assignmentCosts.size();
+		actual += ( nRows - nLinks ) * alternativeCost + ( nCols - nLinks ) * alternativeCost + nLinks * alternativeCost;
+
+		/*
+		 * Solve the full bordered matrix at once.
+		 */
+
+		final int[] kktr = new int[ nRows ];
+		final double[] cctr = new double[ nRows ];
+		for ( int i = 0; i < nRows; i++ )
+		{
+			kktr[ i ] = i;
+			cctr[ i ] = alternativeCost;
+		}
+		final int[] numbertr = new int[ nRows ];
+		Arrays.fill( numbertr, 1 );
+		final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
+
+		final int[] kkbl = new int[ nCols ];
+		final double[] ccbl = new double[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			kkbl[ j ] = j;
+			ccbl[ j ] = alternativeCost;
+		}
+		final int[] numberbl = new int[ nCols ];
+		Arrays.fill( numberbl, 1 );
+		final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
+
+		final SparseCostMatrix br = tl.transpose();
+		br.fillWith( alternativeCost );
+
+		final SparseCostMatrix full = ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
+		final LAPJV solver = new LAPJV( full );
+		assertTrue( solver.getErrorMessage(), solver.checkInput() && solver.process() );
+		final double expected = full.totalAssignmentCost( solver.getResult() );
+
+		assertEquals( "Block decomposition did not yield the optimal total cost.", expected, actual, 1e-9 );
+	}
+}
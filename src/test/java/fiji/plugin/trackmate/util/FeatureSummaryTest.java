@@ -0,0 +1,90 @@
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FeatureSummaryTest
+{
+
+	@Test
+	public void testSameResultsAsTMUtils()
+	{
+		final Random ran = new Random( 1l );
+		for ( int t = 0; t < 200; t++ )
+		{
+			final double[] values = createValues( ran, 2 + ran.nextInt( 500 ), t );
+			final FeatureSummary summary = new FeatureSummary( values );
+			assertEquals( TMUtils.getPercentile( values, 0.25 ), summary.getPercentile( 0.25 ), 0d );
+			assertEquals( TMUtils.getPercentile( values, 0.9 ), summary.getPercentile( 0.9 ), 0d );
+			assertEquals( TMUtils.getNBins( values, 8, 100 ), summary.getNBins( 8, 100 ) );
+			assertEquals( TMUtils.otsuThreshold( values ), summary.otsuThreshold(), 0d );
+		}
+	}
+
+	@Test
+	public void testCount()
+	{
+		final Random ran = new Random( 2l );
+		for ( int t = 0; t < 200; t++ )
+		{
+			final double[] values = createValues( ran, ran.nextInt( 300 ), t );
+			final FeatureSummary summary = new FeatureSummary( values );
+			final double threshold = t % 10 == 0 ? Double.NaN : ran.nextInt( 5 );
+			for ( final boolean isAbove : new boolean[] { true, false } )
+			{
+				int expected = 0;
+				for ( final double val : values )
+				{
+					if ( isAbove ? !( val < threshold ) : !( val > threshold ) )
+					{
+						expected++;
+					}
+				}
+				assertEquals( expected, summary.count( threshold, isAbove ) );
+
+				final int[] indices = summary.getIndices( threshold, isAbove );
+				assertEquals( expected, indices.length );
+				final boolean[] seen = new boolean[ values.length ];
+				for ( final int i : indices )
+				{
+					final double val = values[ i ];
+					assertEquals( false, seen[ i ] );
+					assertEquals( true, isAbove ? !( val < threshold ) : !( val > threshold ) );
+					seen[ i ] = true;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMinMax()
+	{
+		final double[] values = new double[] { 3, Double.NaN, -2, 7, 7, 0 };
+		final FeatureSummary summary = new FeatureSummary( values );
+		assertEquals( -2d, summary.getMin(), 0d );
+		assertEquals( 7d, summary.getMax(), 0d );
+		// Values are left untouched.
+		assertEquals( 3d, values[ 0 ], 0d );
+		// NaNs are retained by any threshold.
+		assertEquals( 3, summary.count( 7, true ) );
+		assertEquals( 2, summary.count( -1, false ) );
+	}
+
+	private static double[] createValues( final Random ran, final int n, final int t )
+	{
+		final double[] values = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			// Many duplicates every other time, and a few NaNs.
+			values[ i ] = t % 2 == 0 ? ran.nextInt( 5 ) : 5 + ran.nextGaussian();
+			if ( t % 3 == 0 && ran.nextInt( 20 ) == 0 )
+			{
+				values[ i ] = Double.NaN;
+			}
+		}
+		return values;
+	}
+}
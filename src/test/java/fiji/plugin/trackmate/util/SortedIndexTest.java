@@ -0,0 +1,93 @@
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SortedIndexTest
+{
+
+	@Test
+	public void testKeyOrder()
+	{
+		final double[] values = new double[] { Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, -1, -Double.MIN_VALUE, -0d, 0d, Double.MIN_VALUE, 1, Double.MAX_VALUE, Double.POSITIVE_INFINITY };
+		for ( int i = 0; i < values.length; i++ )
+		{
+			for ( int j = 0; j < values.length; j++ )
+			{
+				assertEquals( Integer.signum( Double.compare( values[ i ], values[ j ] ) ), Integer.signum( Long.valueOf( SortedIndex.key( values[ i ] ) ).compareTo( SortedIndex.key( values[ j ] ) ) ) );
+			}
+		}
+	}
+
+	@Test
+	public void testSort()
+	{
+		final Random ran = new Random( 1l );
+		for ( int t = 0; t < 200; t++ )
+		{
+			final int n = ran.nextInt( 500 );
+			final long[] original = new long[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				// Few distinct values every other time, to have ties.
+				original[ i ] = t % 2 == 0 ? ran.nextLong() : ran.nextInt( 10 ) - 5;
+			}
+			final long[] keys = original.clone();
+			final int[] indices = new int[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				indices[ i ] = i;
+			}
+			final int from = n == 0 ? 0 : ran.nextInt( n );
+			final int to = from + ( n == from ? 0 : ran.nextInt( n - from + 1 ) );
+			SortedIndex.sort( keys, indices, from, to );
+
+			final long[] expected = original.clone();
+			Arrays.sort( expected, from, to );
+			assertArrayEquals( expected, keys );
+			final boolean[] seen = new boolean[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				assertEquals( original[ indices[ i ] ], keys[ i ] );
+				assertTrue( !seen[ indices[ i ] ] );
+				seen[ indices[ i ] ] = true;
+				if ( i < from || i >= to )
+				{
+					assertEquals( i, indices[ i ] );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBounds()
+	{
+		final long[] keys = new long[] { -3, -1, -1, 0, 2, 2, 2, 5 };
+		for ( long key = -5; key <= 7; key++ )
+		{
+			int below = 0;
+			int notAbove = 0;
+			for ( final long k : keys )
+			{
+				if ( k < key )
+				{
+					below++;
+				}
+				if ( k <= key )
+				{
+					notAbove++;
+				}
+			}
+			assertEquals( below, SortedIndex.lowerBound( keys, 0, keys.length, key ) );
+			assertEquals( notAbove, SortedIndex.upperBound( keys, 0, keys.length, key ) );
+		}
+		assertEquals( 4, SortedIndex.lowerBound( keys, 4, 7, 1 ) );
+		assertEquals( 7, SortedIndex.upperBound( keys, 4, 7, 5 ) );
+	}
+}
@@ -0,0 +1,85 @@
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.SpotNeighborhoodBuffer.Sample;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.meta.ImgPlus;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpotNeighborhoodBufferTest
+{
+
+	private static final double[] CALIBRATION = new double[] { 0.5, 0.5, 2 };
+
+	private ImgPlus< UnsignedShortType > img;
+
+	@Before
+	public void setUp()
+	{
+		final Img< UnsignedShortType > source = new ArrayImgFactory< UnsignedShortType >().create( new long[] { 40, 30, 10 }, new UnsignedShortType() );
+		final Random ran = new Random( 1l );
+		final Cursor< UnsignedShortType > cursor = source.cursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.next().set( ran.nextInt( 1000 ) );
+		}
+		img = new ImgPlus< UnsignedShortType >( source, "3D", new AxisType[] { Axes.X, Axes.Y, Axes.Z }, CALIBRATION );
+	}
+
+	@Test
+	public void testSampleMatchesNeighborhood()
+	{
+		// Close to the border, to test out-of-bounds pixels.
+		final Spot spot = new Spot( 1, 7.5, 4, 2.5, -1d );
+		final Sample sample = new SpotNeighborhoodBuffer< UnsignedShortType >().get( spot, 2.5, img );
+
+		final SpotNeighborhood< UnsignedShortType > neighborhood = new SpotNeighborhood< UnsignedShortType >( spot, img );
+		final SpotNeighborhoodCursor< UnsignedShortType > cursor = neighborhood.cursor();
+		final double[] position = new double[ 3 ];
+		int n = 0;
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			assertEquals( cursor.get().getRealDouble(), sample.values[ n ], 0d );
+			assertEquals( cursor.getDistanceSquared(), sample.distancesSquared[ n ], 0d );
+			cursor.getRelativePosition( position );
+			for ( int d = 0; d < 3; d++ )
+			{
+				assertEquals( position[ d ], sample.positions[ 3 * n + d ], 0d );
+			}
+			n++;
+		}
+		assertEquals( n, sample.size );
+	}
+
+	@Test
+	public void testSamplesAreCached()
+	{
+		final SpotNeighborhoodBuffer< UnsignedShortType > buffer = new SpotNeighborhoodBuffer< UnsignedShortType >();
+		final Spot spot = new Spot( 10, 7.5, 8, 2, -1d );
+		final Sample sample = buffer.get( spot, 2, img );
+		final Sample large = buffer.get( spot, 4, img );
+		assertNotSame( sample, large );
+		assertSame( sample, buffer.get( spot, 2, img ) );
+		assertSame( large, buffer.get( spot, 4, img ) );
+
+		// Moving the spot invalidates its samples.
+		spot.putFeature( Spot.POSITION_X, 11d );
+		final Sample moved = buffer.get( spot, 2, img );
+		assertEquals( new SpotNeighborhood< UnsignedShortType >( spot, img ).size(), moved.size );
+		assertNotSame( moved, buffer.get( new Spot( spot ), 2, img ) );
+	}
+}
@@ -0,0 +1,126 @@
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TMExecutorsTest
+{
+
+	@Test( timeout = 10000 )
+	public void testNestedDoNotDeadlock()
+	{
+		final ExecutorService executor = TMExecutors.newSharedExecutor( 2 );
+		final AtomicInteger count = new AtomicInteger( 0 );
+		final Set< Thread > threads = Collections.newSetFromMap( new ConcurrentHashMap< Thread, Boolean >() );
+
+		final Runnable[] outer = new Runnable[ 8 ];
+		for ( int i = 0; i < outer.length; i++ )
+		{
+			outer[ i ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					threads.add( Thread.currentThread() );
+					final Runnable[] inner = new Runnable[ 8 ];
+					for ( int j = 0; j < inner.length; j++ )
+					{
+						inner[ j ] = new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								threads.add( Thread.currentThread() );
+								count.incrementAndGet();
+								sleep( 1 );
+							}
+						};
+					}
+					TMExecutors.startAndJoin( executor, inner );
+				}
+			};
+		}
+		TMExecutors.startAndJoin( executor, outer );
+
+		assertEquals( 64, count.get() );
+		// One pool thread plus the calling thread.
+		assertTrue( "Too many threads used: " + threads.size(), threads.size() <= 2 );
+		executor.shutdown();
+	}
+
+	@Test
+	public void testRunAllPrivateExecutor()
+	{
+		final AtomicInteger count = new AtomicInteger( 0 );
+		final List< Runnable > tasks = new ArrayList< Runnable >();
+		for ( int i = 0; i < 20; i++ )
+		{
+			tasks.add( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					count.incrementAndGet();
+				}
+			} );
+		}
+		TMExecutors.runAll( null, 3, tasks );
+		assertEquals( 20, count.get() );
+	}
+
+	@Test
+	public void testExceptionIsRethrown()
+	{
+		final ExecutorService executor = TMExecutors.newSharedExecutor( 4 );
+		final AtomicInteger count = new AtomicInteger( 0 );
+		final Runnable[] workers = new Runnable[ 4 ];
+		for ( int i = 0; i < workers.length; i++ )
+		{
+			final int index = i;
+			workers[ i ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if ( index == 2 ) { throw new IllegalStateException( "Failure" ); }
+					count.incrementAndGet();
+				}
+			};
+		}
+		try
+		{
+			TMExecutors.startAndJoin( executor, workers );
+			fail( "The exception of the failing worker should be rethrown." );
+		}
+		catch ( final IllegalStateException e )
+		{
+			assertEquals( "Failure", e.getMessage() );
+		}
+		// All the other workers completed before the exception was thrown.
+		assertEquals( 3, count.get() );
+		executor.shutdown();
+	}
+
+	private static void sleep( final long millis )
+	{
+		try
+		{
+			Thread.sleep( millis );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TMUtilsTest
+{
+
+	@Test
+	public void testSelect()
+	{
+		final Random ran = new Random( 1l );
+		for ( int t = 0; t < 1000; t++ )
+		{
+			final int n = 1 + ran.nextInt( 100 );
+			final double[] values = new double[ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				// Many duplicates every other time.
+				values[ i ] = t % 2 == 0 ? ran.nextInt( 5 ) : ran.nextGaussian();
+			}
+			final double[] sorted = values.clone();
+			Arrays.sort( sorted );
+
+			final int k = ran.nextInt( n );
+			final double selected = TMUtils.select( values, 0, n, k );
+			assertEquals( sorted[ k ], selected, 0d );
+			for ( int i = 0; i < n; i++ )
+			{
+				assertTrue( i > k || values[ i ] <= selected );
+				assertTrue( i < k || values[ i ] >= selected );
+			}
+		}
+	}
+
+	@Test
+	public void testSelectSubRange()
+	{
+		final double[] values = new double[] { 9, 5, 1, 4, 3, 2, -1 };
+		assertEquals( 3d, TMUtils.select( values, 1, 6, 2 ), 0d );
+		assertEquals( 9d, values[ 0 ], 0d );
+		assertEquals( -1d, values[ 6 ], 0d );
+	}
+}
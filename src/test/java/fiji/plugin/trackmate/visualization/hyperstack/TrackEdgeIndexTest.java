@@ -0,0 +1,153 @@
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrackEdgeIndexTest
+{
+
+	private static final int N_TRACKS = 10;
+
+	private static final int N_FRAMES = 20;
+
+	private Model model;
+
+	private TrackEdgeIndex index;
+
+	/** The first spot of each track. */
+	private Spot[] firstSpots;
+
+	@Before
+	public void setUp()
+	{
+		model = new Model();
+		firstSpots = new Spot[ N_TRACKS ];
+		model.beginUpdate();
+		try
+		{
+			for ( int track = 0; track < N_TRACKS; track++ )
+			{
+				Spot previous = null;
+				for ( int frame = 0; frame < N_FRAMES; frame++ )
+				{
+					// Tracks are horizontal lines, 10 pixels apart.
+					final Spot spot = new Spot( 2 * frame, 10 * track, 0, 1, 1 );
+					model.addSpotTo( spot, frame );
+					if ( null == previous )
+					{
+						firstSpots[ track ] = spot;
+					}
+					else
+					{
+						model.addEdge( previous, spot, 1 );
+					}
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		index = new TrackEdgeIndex( model, new double[] { 1, 1, 1 } );
+		model.addModelChangeListener( new ModelChangeListener()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent event )
+			{
+				index.modelChanged( event );
+			}
+		} );
+	}
+
+	@Test
+	public void testFramesAndViewport()
+	{
+		assertTrue( index.update() );
+		assertFalse( "Nothing changed, nothing to rebuild.", index.update() );
+		assertEquals( N_FRAMES - 1, index.nFrames() );
+		for ( int frame = 0; frame < N_FRAMES - 1; frame++ )
+		{
+			assertEquals( N_TRACKS, index.getFrame( frame ).size() );
+		}
+
+		// A viewport around the 3 first tracks, in pixel units.
+		final Set< DefaultWeightedEdge > found = query( 3, -5, -5, 100, 25 );
+		assertEquals( 3, found.size() );
+		for ( final DefaultWeightedEdge edge : found )
+		{
+			assertTrue( model.getTrackModel().getEdgeSource( edge ).getFeature( Spot.POSITION_Y ) < 25 );
+		}
+	}
+
+	@Test
+	public void testMovedSpot()
+	{
+		index.update();
+		final Spot spot = firstSpots[ 0 ];
+		assertEquals( 1, query( 0, -5, -5, 1, 5 ).size() );
+
+		model.beginUpdate();
+		try
+		{
+			spot.putFeature( Spot.POSITION_X, 1000d );
+			spot.putFeature( Spot.POSITION_Y, 1000d );
+			model.updateFeatures( spot );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		assertTrue( index.update() );
+		assertEquals( 0, query( 0, -5, -5, 1, 5 ).size() );
+		assertEquals( 1, query( 0, 990, 990, 1010, 1010 ).size() );
+	}
+
+	@Test
+	public void testRemovedEdge()
+	{
+		index.update();
+		model.beginUpdate();
+		try
+		{
+			model.removeEdge( model.getTrackModel().edgesOf( firstSpots[ 0 ] ).iterator().next() );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		assertTrue( index.update() );
+		assertEquals( N_TRACKS - 1, index.getFrame( 0 ).size() );
+	}
+
+	private Set< DefaultWeightedEdge > query( final int frame, final double xmin, final double ymin, final double xmax, final double ymax )
+	{
+		final Set< DefaultWeightedEdge > found = new HashSet< DefaultWeightedEdge >();
+		final TrackEdgeIndex.FrameEdges edges = index.getFrame( frame );
+		if ( null == edges ) { return found; }
+		edges.query( xmin, ymin, xmax, ymax, new TrackEdgeIndex.EdgeVisitor()
+		{
+			@Override
+			public void visit( final TrackEdgeIndex.FrameEdges frameEdges, final int i )
+			{
+				found.add( frameEdges.edges[ i ] );
+			}
+		} );
+		return found;
+	}
+}
@@ -0,0 +1,93 @@
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.visualization.trackscheme.SpotThumbnailCache.Key;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SpotThumbnailCacheTest
+{
+
+	@Test
+	public void testLeastRecentlyUsedEviction()
+	{
+		final SpotThumbnailCache cache = new SpotThumbnailCache( 3 );
+		final Key[] keys = new Key[ 4 ];
+		for ( int i = 0; i < keys.length; i++ )
+		{
+			keys[ i ] = new Key( i, 0, i, i, 0, 1 );
+		}
+		cache.put( keys[ 0 ], "0" );
+		cache.put( keys[ 1 ], "1" );
+		cache.put( keys[ 2 ], "2" );
+		// Use the first one, so that the second one is the eldest.
+		assertEquals( "0", cache.get( keys[ 0 ] ) );
+		cache.put( keys[ 3 ], "3" );
+
+		assertEquals( 3, cache.size() );
+		assertEquals( "0", cache.get( keys[ 0 ] ) );
+		assertNull( cache.get( keys[ 1 ] ) );
+		assertEquals( "2", cache.get( keys[ 2 ] ) );
+		assertEquals( "3", cache.get( keys[ 3 ] ) );
+	}
+
+	@Test
+	public void testModifiedSpot()
+	{
+		final SpotThumbnailCache cache = new SpotThumbnailCache( 10 );
+		final Spot spot = new Spot( 10, 20, 0, 2, -1d );
+		spot.putFeature( Spot.FRAME, 3d );
+		cache.put( Key.of( spot ), "before" );
+		assertEquals( "before", cache.get( Key.of( spot ) ) );
+
+		spot.putFeature( Spot.RADIUS, 3d );
+		assertNull( "A resized spot needs a new thumbnail.", cache.get( Key.of( spot ) ) );
+		spot.putFeature( Spot.RADIUS, 2d );
+		spot.putFeature( Spot.POSITION_X, 11d );
+		assertNull( "A moved spot needs a new thumbnail.", cache.get( Key.of( spot ) ) );
+	}
+
+	@Test
+	public void testDiskCache() throws IOException
+	{
+		final File folder = File.createTempFile( "thumbnails", "" );
+		assertTrue( folder.delete() );
+		try
+		{
+			final Key key = new Key( 7, 2, 1.5, -2.5, 0, 3 );
+			final byte[] png = new byte[] { 1, 2, 3, 4, 5 };
+
+			final SpotThumbnailCache cache = new SpotThumbnailCache( 10 );
+			assertNull( cache.read( key ) );
+			assertTrue( "Nothing to write without a folder.", cache.write( key, png ) );
+			cache.setFolder( folder );
+			assertNull( cache.read( key ) );
+			assertTrue( cache.write( key, png ) );
+
+			// A new session reads the thumbnail back.
+			final SpotThumbnailCache other = new SpotThumbnailCache( 10 );
+			other.setFolder( folder );
+			assertArrayEquals( png, other.read( key ) );
+			assertNull( other.read( new Key( 7, 2, 1.5, -2.5, 0, 4 ) ) );
+		}
+		finally
+		{
+			final File[] files = folder.listFiles();
+			if ( null != files )
+			{
+				for ( final File file : files )
+				{
+					file.delete();
+				}
+			}
+			folder.delete();
+		}
+	}
+}